@@ -3,14 +3,19 @@ package com.infolink.dfs.metanode;
 import java.io.File;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
 import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.serializer.Jackson2JsonRedisSerializer;
 import org.springframework.web.client.RestTemplate;
 
@@ -72,34 +77,97 @@ public class AppConfig {
     }
     
     @Bean
-    public RedisTemplate<String, DfsFile> redisTemplate(RedisConnectionFactory connectionFactory) {
+    public RedisTemplate<String, DfsFile> redisTemplate(RedisConnectionFactory connectionFactory,
+    		@Value("${dfs.redis.value-format:compact}") String valueFormat) {
+        return fileTemplate(connectionFactory, valueFormat);
+    }
+    
+    @Bean
+    public RedisTemplate<String, BlockNode> redisTemplateForBlockNode(RedisConnectionFactory connectionFactory) {
+        return blockNodeTemplate(connectionFactory);
+    }
+    
+    /**
+     * Redis instances for the namespace and the block map, from dfs.redis.shard.endpoints
+     * ("host:port" or "host:port/database", comma separated). Without endpoints they stay on the Redis above.
+     * Replicas of a shard are appended to its endpoint ("primary:6379|replica:6379"), those of the Redis
+     * above are listed in dfs.redis.replicas; dfs.redis.read-from decides whether reads use them.
+     */
+    @Bean
+    public RedisShards redisShards(RedisTemplate<String, DfsFile> redisTemplate,
+    		RedisTemplate<String, BlockNode> redisTemplateForBlockNode, StringRedisTemplate stringRedisTemplate,
+    		@Value("${dfs.redis.shard.endpoints:}") String endpoints,
+    		@Value("${dfs.redis.shard.virtual-nodes:160}") int virtualNodes,
+    		@Value("${dfs.redis.replicas:}") String replicas,
+    		@Value("${dfs.redis.read-from:primary}") String readFrom,
+    		@Value("${dfs.redis.value-format:compact}") String valueFormat) {
+        RedisShards.TemplateFactory templates = new RedisShards.TemplateFactory() {
+            @Override
+            public RedisTemplate<String, DfsFile> fileTemplate(RedisConnectionFactory connectionFactory) {
+                return AppConfig.fileTemplate(connectionFactory, valueFormat);
+            }
+
+            @Override
+            public RedisTemplate<String, BlockNode> blockNodeTemplate(RedisConnectionFactory connectionFactory) {
+                return AppConfig.blockNodeTemplate(connectionFactory);
+            }
+        };
+        List<String> endpointList = splitList(endpoints);
+        if (endpointList.isEmpty()) {
+            return RedisShards.single(redisTemplate, redisTemplateForBlockNode, stringRedisTemplate,
+                    new RedisStandaloneConfiguration(redisHost, 6379), splitList(replicas), RedisShards.readFrom(readFrom), templates);
+        }
+        return RedisShards.connect(endpointList, virtualNodes, RedisShards.readFrom(readFrom), templates);
+    }
+    
+    private static List<String> splitList(String value) {
+        List<String> items = new ArrayList<>();
+        for (String item : value.split(",")) {
+            if (!item.isBlank()) items.add(item.trim());
+        }
+        return items;
+    }
+    
+    private static RedisTemplate<String, DfsFile> fileTemplate(RedisConnectionFactory connectionFactory, String valueFormat) {
         RedisTemplate<String, DfsFile> template = new RedisTemplate<>();
         template.setConnectionFactory(connectionFactory);
         
-        // Use Jackson for value serialization
-        Jackson2JsonRedisSerializer<DfsFile> valueSerializer = new Jackson2JsonRedisSerializer<>(DfsFile.class);
-        template.setValueSerializer(valueSerializer);
+        // Compact binary values; JSON written by older versions is still read
+        template.setValueSerializer(CompactRedisSerializer.forDfsFile(writeCompact(valueFormat)));
         
         // Use StringRedisSerializer for keys
         template.setKeySerializer(new StringRedisSerializer());
+        template.afterPropertiesSet();
         
         return template;
     }
     
-    @Bean
-    public RedisTemplate<String, BlockNode> redisTemplateForBlockNode(RedisConnectionFactory connectionFactory) {
+    private static RedisTemplate<String, BlockNode> blockNodeTemplate(RedisConnectionFactory connectionFactory) {
         RedisTemplate<String, BlockNode> template = new RedisTemplate<>();
         template.setConnectionFactory(connectionFactory);
         
-        // Use Jackson for value serialization
+        // Only legacy "BlockNode:<hash>" values use this, until NodeBlockIndexMigrator folds them into location sets
         Jackson2JsonRedisSerializer<BlockNode> valueSerializer = new Jackson2JsonRedisSerializer<>(BlockNode.class);
         template.setValueSerializer(valueSerializer);
         
         // Use StringRedisSerializer for keys
         template.setKeySerializer(new StringRedisSerializer());
+        template.afterPropertiesSet();
         
         return template;
     }
+    
+    private static boolean writeCompact(String valueFormat) {
+    	if ("compact".equals(valueFormat)) return true;
+    	if ("json".equals(valueFormat)) return false;
+    	throw new IllegalArgumentException("Unknown dfs.redis.value-format: " + valueFormat + ". Use compact or json.");
+    }
+    
+    @Bean
+    public StringRedisTemplate stringRedisTemplate(RedisConnectionFactory connectionFactory) {
+        return new StringRedisTemplate(connectionFactory);
+    }
+    
 	@Bean
 	public RestTemplate restTemplate() {
 	    RestTemplate restTemplate = new RestTemplate();
@@ -108,6 +176,24 @@ public class AppConfig {
 	}
 	
     
+	/**
+	 * Placement of new block copies: "rack-aware" (default), "weighted" or "block-count".
+	 */
+	@Bean
+	public PlacementPolicy placementPolicy(@Value("${dfs.placement.policy:rack-aware}") String policy,
+			@Value("${dfs.placement.in-flight-timeout-ms:60000}") long inFlightTimeoutMs) {
+		switch (policy) {
+			case "rack-aware":
+				return new RackAwarePlacementPolicy(inFlightTimeoutMs);
+			case "weighted":
+				return new WeightedPlacementPolicy(inFlightTimeoutMs);
+			case "block-count":
+				return new BlockCountPlacementPolicy();
+			default:
+				throw new IllegalArgumentException("Unknown dfs.placement.policy: " + policy);
+		}
+	}
+	
 	@Bean
 	public ObjectMapper objectMapper() {
 		return new ObjectMapper();
@@ -0,0 +1,28 @@
+package com.infolink.dfs.metanode;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+import com.infolink.dfs.shared.DfsNode;
+
+/**
+ * Original placement: every candidate sorted by the block count of its last heartbeat, fewest first.
+ */
+public class BlockCountPlacementPolicy implements PlacementPolicy {
+
+    @Override
+    public List<DfsNode> chooseTargets(String[] nodeUrls, Function<String, DfsNode> lookup, Set<String> excludedUrls, int count, String writerUrl) {
+        List<DfsNode> candidates = new ArrayList<>();
+        for (String nodeUrl : nodeUrls) {
+            DfsNode node = lookup.apply(nodeUrl);
+            if (node != null && !excludedUrls.contains(nodeUrl)) {
+                candidates.add(node);
+            }
+        }
+        candidates.sort(Comparator.comparingLong(DfsNode::getBlockCount));
+        return new ArrayList<>(candidates.subList(0, Math.min(count, candidates.size())));
+    }
+}
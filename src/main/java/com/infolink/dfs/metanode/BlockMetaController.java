@@ -22,6 +22,11 @@ public class BlockMetaController {
     private BlockMetaService blockMetaService;
     @Autowired
     private NodeManager nodeManager;
+    @Autowired
+    private BlockReportService blockReportService;
+    // Only present when the block map lives in Redis
+    @Autowired(required = false)
+    private NodeBlockIndexMigrator nodeBlockIndexMigrator;
     
     @PostMapping("/metadata/block/register-block-location")
     public ResponseEntity<String> registerBlockLocation(@RequestBody RequestBlockNode request) {
@@ -37,6 +42,82 @@ public class BlockMetaController {
         return ResponseEntity.ok(response);
     }
     
+    /**
+     * Bulk block report: registers a list of (hash, nodeUrl) locations and/or a data node's
+     * inventory (nodeUrl plus the hashes it holds) in pipelined chunks.
+     * Statuses are returned per item: locations first, then the inventory hashes.
+     */
+    @PostMapping("/metadata/block/register-block-locations")
+    public ResponseEntity<ResponseBlockReport> registerBlockLocations(@RequestBody RequestBlockReport request) {
+    	if (request == null || (request.getLocations() == null && request.getHashes() == null)) {
+    		logger.debug("Bad request parameter. Either request is null or it has no locations.");
+    		return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null);
+    	}
+    	
+    	List<String> hashes = new ArrayList<>();
+    	List<String> nodeUrls = new ArrayList<>();
+    	if (request.getLocations() != null) {
+    		for (RequestBlockNode location : request.getLocations()) {
+    			hashes.add(location.getHash());
+    			nodeUrls.add(location.getNodeUrl());
+    		}
+    	}
+    	if (request.getHashes() != null) {
+    		for (String hash : request.getHashes()) {
+    			hashes.add(hash);
+    			nodeUrls.add(request.getNodeUrl());
+    		}
+    	}
+    	
+        logger.info("/metadata/block/register-block-locations requested with {} locations", hashes.size());
+        List<ResponseBlockReport.ItemStatus> statuses = blockMetaService.registerBlockLocations(hashes, nodeUrls);
+        return ResponseEntity.ok(new ResponseBlockReport(statuses));
+    }
+    
+    /**
+     * Incremental block report: the blocks added to and removed from a node since the report
+     * acknowledged as baseSeq, plus the digest of the node's inventory after the change.
+     * Answers FULL_REPORT_REQUIRED when the delta cannot be applied safely.
+     */
+    @PostMapping("/metadata/block/report-delta")
+    public ResponseEntity<ResponseIncrementalBlockReport> reportDelta(@RequestBody RequestDeltaBlockReport request) {
+    	if (request == null || request.getNodeUrl() == null) {
+    		logger.debug("Bad request parameter. Either request is null or nodeUrl is null.");
+    		return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null);
+    	}
+    	if (hasBlankHash(request.getAdded()) || hasBlankHash(request.getRemoved())) {
+    		logger.debug("Bad request parameter. Delta report from {} lists a null or blank hash.", request.getNodeUrl());
+    		return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null);
+    	}
+        logger.debug("/metadata/block/report-delta requested by {}: seq {} -> {}", request.getNodeUrl(), request.getBaseSeq(), request.getSeq());
+        ResponseIncrementalBlockReport response = blockReportService.applyDelta(request.getNodeUrl(), request.getBaseSeq(),
+        		request.getSeq(), request.getAdded(), request.getRemoved(), request.getDigest());
+        return ResponseEntity.ok(response);
+    }
+    
+    @PostMapping("/metadata/block/report-full")
+    public ResponseEntity<ResponseIncrementalBlockReport> reportFull(@RequestBody RequestFullBlockReport request) {
+    	if (request == null || request.getNodeUrl() == null) {
+    		logger.debug("Bad request parameter. Either request is null or nodeUrl is null.");
+    		return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null);
+    	}
+    	if (hasBlankHash(request.getHashes())) {
+    		logger.debug("Bad request parameter. Full report from {} lists a null or blank hash.", request.getNodeUrl());
+    		return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null);
+    	}
+        logger.info("/metadata/block/report-full requested by {} with seq {}", request.getNodeUrl(), request.getSeq());
+        ResponseIncrementalBlockReport response = blockReportService.applyFullReport(request.getNodeUrl(), request.getSeq(), request.getHashes());
+        return ResponseEntity.ok(response);
+    }
+    
+    private static boolean hasBlankHash(List<String> hashes) {
+    	if (hashes == null) return false;
+    	for (String hash : hashes) {
+    		if (hash == null || hash.isBlank()) return true;
+    	}
+    	return false;
+    }
+    
     @PostMapping("/metadata/block/nodes-for-block")
     public ResponseEntity<ResponseNodesForBlock> nodesForBlock(@RequestBody RequestNodesForBlock request) {
     	logger.info("/metadata/block/nodes-for-block requested for hash: {}", request.hash);
@@ -74,6 +155,19 @@ public class BlockMetaController {
         return ResponseEntity.ok(response);
     }
     
+    /**
+     * Builds the node to block reverse index for blocks registered before it existed.
+     */
+    @PostMapping("/metadata/block/migrate-node-index")
+    public ResponseEntity<String> migrateNodeBlockIndex() {
+        logger.info("/metadata/block/migrate-node-index requested.");
+        if (nodeBlockIndexMigrator == null) {
+        	return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("The node index only needs migrating when blocks are stored in Redis.");
+        }
+        int indexed = nodeBlockIndexMigrator.migrate();
+        return ResponseEntity.ok("Indexed " + indexed + " blocks.");
+    }
+    
     @DeleteMapping("/metadata/block/clear-all-block-nodes-mapping")
     public ResponseEntity<String> clearAllBlocks() {
         logger.info("/metadata/clear-all-blocks requested.");
@@ -93,6 +187,118 @@ public class BlockMetaController {
         public void setNodeUrl(String nodeUrl) { this.nodeUrl = nodeUrl; }
     }
     
+    public static class RequestBlockReport {
+        private String nodeUrl;
+        private List<String> hashes;
+        private List<RequestBlockNode> locations;
+
+        public String getNodeUrl() 							{ return nodeUrl; }
+        public void setNodeUrl(String nodeUrl) 				{ this.nodeUrl = nodeUrl; }
+        public List<String> getHashes() 					{ return hashes; }
+        public void setHashes(List<String> hashes) 			{ this.hashes = hashes; }
+        public List<RequestBlockNode> getLocations() 		{ return locations; }
+        public void setLocations(List<RequestBlockNode> locations) { this.locations = locations; }
+    }
+    
+    public static class ResponseBlockReport {
+        public static enum ItemStatus {
+            REGISTERED,
+            ALREADY_REGISTERED,
+            INVALID,
+            FAILED
+        }
+
+        private List<ItemStatus> statuses;
+        private int registered;
+        private int alreadyRegistered;
+        private int failed;
+
+        public ResponseBlockReport() {};
+
+        public ResponseBlockReport(List<ItemStatus> statuses) {
+        	this.statuses = statuses;
+        	for (ItemStatus status : statuses) {
+        		switch (status) {
+        			case REGISTERED -> registered++;
+        			case ALREADY_REGISTERED -> alreadyRegistered++;
+        			default -> failed++;
+        		}
+        	}
+        }
+		public List<ItemStatus> getStatuses() 				{ return statuses; }
+		public void setStatuses(List<ItemStatus> statuses) 	{ this.statuses = statuses; }
+		public int getRegistered() 							{ return registered; }
+		public void setRegistered(int registered) 			{ this.registered = registered; }
+		public int getAlreadyRegistered() 					{ return alreadyRegistered; }
+		public void setAlreadyRegistered(int alreadyRegistered) { this.alreadyRegistered = alreadyRegistered; }
+		public int getFailed() 								{ return failed; }
+		public void setFailed(int failed) 					{ this.failed = failed; }
+    }
+    
+    public static class RequestDeltaBlockReport {
+        private String nodeUrl;
+        private long baseSeq;
+        private long seq;
+        private List<String> added;
+        private List<String> removed;
+        private long digest;
+
+        public String getNodeUrl() 							{ return nodeUrl; }
+        public void setNodeUrl(String nodeUrl) 				{ this.nodeUrl = nodeUrl; }
+        public long getBaseSeq() 							{ return baseSeq; }
+        public void setBaseSeq(long baseSeq) 				{ this.baseSeq = baseSeq; }
+        public long getSeq() 								{ return seq; }
+        public void setSeq(long seq) 						{ this.seq = seq; }
+        public List<String> getAdded() 						{ return added; }
+        public void setAdded(List<String> added) 			{ this.added = added; }
+        public List<String> getRemoved() 					{ return removed; }
+        public void setRemoved(List<String> removed) 		{ this.removed = removed; }
+        public long getDigest() 							{ return digest; }
+        public void setDigest(long digest) 					{ this.digest = digest; }
+    }
+    
+    public static class RequestFullBlockReport {
+        private String nodeUrl;
+        private long seq;
+        private List<String> hashes;
+
+        public String getNodeUrl() 							{ return nodeUrl; }
+        public void setNodeUrl(String nodeUrl) 				{ this.nodeUrl = nodeUrl; }
+        public long getSeq() 								{ return seq; }
+        public void setSeq(long seq) 						{ this.seq = seq; }
+        public List<String> getHashes() 					{ return hashes; }
+        public void setHashes(List<String> hashes) 			{ this.hashes = hashes; }
+    }
+    
+    public static class ResponseIncrementalBlockReport {
+        public static enum ReportStatus {
+            APPLIED,
+            FULL_REPORT_REQUIRED
+        }
+
+        private ReportStatus status;
+        private long seq;
+        private int added;
+        private int removed;
+
+        public ResponseIncrementalBlockReport() {};
+
+        public ResponseIncrementalBlockReport(ReportStatus status, long seq, int added, int removed) {
+        	this.status = status;
+        	this.seq = seq;
+        	this.added = added;
+        	this.removed = removed;
+        }
+		public ReportStatus getStatus() 					{ return status; }
+		public void setStatus(ReportStatus status) 			{ this.status = status; }
+		public long getSeq() 								{ return seq; }
+		public void setSeq(long seq) 						{ this.seq = seq; }
+		public int getAdded() 								{ return added; }
+		public void setAdded(int added) 					{ this.added = added; }
+		public int getRemoved() 							{ return removed; }
+		public void setRemoved(int removed) 				{ this.removed = removed; }
+    }
+    
     public static class RequestUnregisterBlock {
         public String hash;
         public String nodeUrl;
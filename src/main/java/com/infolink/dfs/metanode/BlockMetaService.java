@@ -3,18 +3,19 @@ package com.infolink.dfs.metanode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.util.CloseableIterator;
 import org.springframework.stereotype.Service;
 import jakarta.annotation.PostConstruct;
 
+import com.infolink.dfs.metanode.BlockMetaController.ResponseBlockReport.ItemStatus;
 import com.infolink.dfs.metanode.BlockMetaController.ResponseNodesForBlock;
 import com.infolink.dfs.metanode.mdb.BlockNode;
-import com.infolink.dfs.shared.DfsNode;
 
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
-import java.util.concurrent.TimeUnit;
 
 @Service
 public class BlockMetaService {
@@ -24,14 +25,26 @@ public class BlockMetaService {
     private AppConfig config;
     
     @Autowired
-    private RedisTemplate<String, BlockNode> redisTemplate;
+    private BlockStore blockStore;
     
     @Autowired
     private NodeManager nodeManager;
     
     private int replicationFactor;
+    
+    @Value("${dfs.block.lookup.batch-size:1000}")
+    private int lookupBatchSize;
 
+    // Redis layout of RedisBlockStore.
+    // Legacy format: one JSON BlockNode value per block. Still read, and folded into the set by NodeBlockIndexMigrator.
     public static final String BLOCK_NODE_PREFIX = "BlockNode:";
+    // Current format: a native Redis set of node URLs per block.
+    public static final String BLOCK_LOCATION_PREFIX = "BlockLocation:";
+    // Reverse index: a set of block hashes per node URL, maintained by the location scripts.
+    // When the block map is sharded every shard indexes its own blocks.
+    public static final String NODE_BLOCKS_PREFIX = "NodeBlocks:";
+    // BlockReportDigest of each reverse index, as a hash with the fields "hi" and "lo", maintained by the same scripts.
+    public static final String NODE_DIGEST_PREFIX = "NodeDigest:";
 
     @PostConstruct
     public void postConstruct() {
@@ -41,36 +54,98 @@ public class BlockMetaService {
     public String registerBlockLocation(String hash, String nodeUrl) {
         logger.debug("MetaService: registerBlockLocation: {}->{}", hash, nodeUrl);
 
-        String redisKey = BLOCK_NODE_PREFIX + hash;
-        BlockNode blockNode = redisTemplate.opsForValue().get(redisKey);
-
-        if (blockNode == null) {
-            blockNode = new BlockNode();
-            blockNode.setHash(hash);
-        }
-        blockNode.getNodeUrls().add(nodeUrl);
-        redisTemplate.opsForValue().set(redisKey, blockNode);
+        blockStore.addLocation(hash, nodeUrl);
+        // Data nodes call this after storing a block they were assigned
+        nodeManager.blockStored(nodeUrl);
 
         logger.debug("Block {} registered to : {}", hash, nodeUrl);
-        logger.debug("Current blockNodeMapping for hash: {}: {}", hash, blockNode.getNodeUrls());
         return "Block location registered: " + hash + " on " + nodeUrl;
     }
 
+    /**
+     * Registers many (hash, nodeUrl) locations at once, as sent by a data node block report.
+     * The store applies them in batches (pipelined in chunks of dfs.block.report.chunk-size on Redis).
+     *
+     * @return the status of each location, in the order given
+     */
+    public List<ItemStatus> registerBlockLocations(List<String> hashes, List<String> nodeUrls) {
+        logger.debug("MetaService: registerBlockLocations: {} locations", hashes.size());
+        List<Long> results = blockStore.addLocations(hashes, nodeUrls);
+
+        List<ItemStatus> statuses = new ArrayList<>(hashes.size());
+        for (int i = 0; i < hashes.size(); i++) {
+            if (hashes.get(i) == null || nodeUrls.get(i) == null) {
+                statuses.add(ItemStatus.INVALID);
+            } else if (results.get(i) == null) {
+                statuses.add(ItemStatus.FAILED);
+            } else {
+                statuses.add(results.get(i) == 1L ? ItemStatus.REGISTERED : ItemStatus.ALREADY_REGISTERED);
+            }
+        }
+        return statuses;
+    }
+
+    /**
+     * Batched counterpart of unregisterBlockFromNode.
+     *
+     * @return the number of locations that were registered and have been removed,
+     *         or -1 when any of them could not be applied
+     */
+    public int unregisterBlockLocations(List<String> hashes, List<String> nodeUrls) {
+        logger.debug("MetaService: unregisterBlockLocations: {} locations", hashes.size());
+        int removed = 0;
+        for (Long result : blockStore.removeLocations(hashes, nodeUrls)) {
+            if (result == null) return -1;
+            if (result >= 0) removed++;
+        }
+        return removed;
+    }
+
+    /**
+     * Served by the replicas of the block's shard when the Redis store is configured with dfs.redis.read-from.
+     */
     public BlockNode getBlockNodeByHash(String blockHash) {
         logger.debug("Fetching block node for hash: {}", blockHash);
-        BlockNode blockNode = redisTemplate.opsForValue().get(BLOCK_NODE_PREFIX + blockHash);
+        BlockNode blockNode = toBlockNode(blockHash, blockStore.getLocations(blockHash));
 
         if (blockNode != null) {
-            logger.debug("Block node found for hash: {} -> {}", blockHash, blockNode);
+            logger.debug("Block node found for hash: {} -> {}", blockHash, blockNode.getNodeUrls());
         } else {
             logger.debug("No block node found for hash: {}", blockHash);
         }
         return blockNode;
     }
 
+    /**
+     * Batched getBlockNodeByHash, resolving dfs.block.lookup.batch-size blocks per store lookup
+     * (one or two round trips per shard on Redis).
+     *
+     * @return the block nodes in the order of the hashes, with null for unknown blocks
+     */
+    public List<BlockNode> getBlockNodesByHashes(List<String> blockHashes) {
+        List<BlockNode> blockNodes = new ArrayList<>(blockHashes.size());
+        for (int start = 0; start < blockHashes.size(); start += lookupBatchSize) {
+            List<String> chunk = blockHashes.subList(start, Math.min(start + lookupBatchSize, blockHashes.size()));
+            List<Set<String>> locations = blockStore.getLocations(chunk);
+            for (int i = 0; i < chunk.size(); i++) {
+                blockNodes.add(toBlockNode(chunk.get(i), locations.get(i)));
+            }
+        }
+        logger.debug("Resolved {} block nodes in batches of {}", blockHashes.size(), lookupBatchSize);
+        return blockNodes;
+    }
+
+    private static BlockNode toBlockNode(String hash, Set<String> nodeUrls) {
+        if (nodeUrls == null) return null;
+        BlockNode blockNode = new BlockNode();
+        blockNode.setHash(hash);
+        blockNode.setNodeUrls(nodeUrls);
+        return blockNode;
+    }
+
     public Set<String> blockExists(String hash) {
         logger.debug("Checking if block exists for hash: {}", hash);
-        BlockNode blockNode = redisTemplate.opsForValue().get(BLOCK_NODE_PREFIX + hash);
+        BlockNode blockNode = getBlockNodeByHash(hash);
 
         if (blockNode != null) {
             logger.debug("Block exists for hash: {}, with node URLs: {}", hash, blockNode.getNodeUrls());
@@ -82,7 +157,7 @@ public class BlockMetaService {
     }
 
     public ResponseNodesForBlock checkBlockReplicationAndSelectNodes(String hash, String requestingNodeUrl) {
-        BlockNode blockNode = redisTemplate.opsForValue().get(BLOCK_NODE_PREFIX + hash);
+        BlockNode blockNode = getBlockNodeByHash(hash);
         // here there is a logic trap. the existingNodes could be dead ones, so the best way to do is filter out those dead nodes.
         
         Set<String> existingNodes = (blockNode != null) ? blockNode.getNodeUrls() : new HashSet<>();
@@ -100,9 +175,9 @@ public class BlockMetaService {
 
     public String unregisterBlock(String hash) {
         logger.debug("Unregistering block with hash: {}", hash);
-        String redisKey = BLOCK_NODE_PREFIX + hash;
+        boolean deleted = blockStore.removeBlock(hash);
 
-        if (redisTemplate.delete(redisKey)) {
+        if (deleted) {
             logger.debug("Block with hash: {} has been unregistered", hash);
             return "Block unregistered: " + hash;
         } else {
@@ -113,31 +188,32 @@ public class BlockMetaService {
 
     public String unregisterBlockFromNode(String hash, String nodeUrl) {
         logger.debug("Unregistering block with hash: {} from node URL: {}", hash, nodeUrl);
-        String redisKey = BLOCK_NODE_PREFIX + hash;
-        BlockNode blockNode = redisTemplate.opsForValue().get(redisKey);
+        long remaining = blockStore.removeLocation(hash, nodeUrl);
 
-        if (blockNode == null || !blockNode.getNodeUrls().remove(nodeUrl)) {
+        if (remaining < 0) {
             logger.debug("Node URL: {} not found for block with hash: {}", nodeUrl, hash);
             return "Node URL: " + nodeUrl + " not found for block with hash: " + hash;
         }
 
-        if (blockNode.getNodeUrls().isEmpty()) {
-            redisTemplate.delete(redisKey);
+        if (remaining == 0) {
             logger.debug("No more nodes left for block with hash: {}. Block has been fully unregistered.", hash);
             return "Block fully unregistered as no node URLs remain: " + hash;
         }
 
-        redisTemplate.opsForValue().set(redisKey, blockNode);
         logger.debug("Node URL: {} removed from block with hash: {}", nodeUrl, hash);
         return "Node URL removed from block: " + nodeUrl + " for hash: " + hash;
     }
 
+    /**
+     * Iterates the hashes of the blocks registered on a node. The caller must close the iterator.
+     */
+    public CloseableIterator<String> scanBlocksOnNode(String nodeUrl, int batchSize) {
+        return blockStore.scanBlocksOnNode(nodeUrl, batchSize);
+    }
+
     public String clearAllBlockNodes() {
         logger.debug("Clearing all block node mappings.");
-        Set<String> keys = redisTemplate.keys(BLOCK_NODE_PREFIX + "*");
-        if (keys != null && !keys.isEmpty()) {
-            redisTemplate.delete(keys);
-        }
+        blockStore.clearBlocks();
         logger.debug("All block node mappings have been cleared.");
         return "All block nodes have been cleared.";
     }
@@ -0,0 +1,134 @@
+package com.infolink.dfs.metanode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.infolink.dfs.metanode.BlockMetaController.ResponseBlockReport.ItemStatus;
+import com.infolink.dfs.metanode.BlockMetaController.ResponseIncrementalBlockReport;
+import com.infolink.dfs.metanode.BlockMetaController.ResponseIncrementalBlockReport.ReportStatus;
+import com.infolink.dfs.shared.BlockReportDigest;
+
+/**
+ * Incremental block reports. For every data node the metanode keeps the set of block hashes it
+ * believes the node holds (the reverse index of the BlockStore) with its digest (see BlockReportDigest),
+ * and the last acknowledged report (sequence number and the digest the node sent).
+ * A delta report is applied only when it is based on the acknowledged sequence number and the digest
+ * it carries matches the block store's digest with the delta applied; otherwise the node is asked for
+ * a full report. Blocks also get registered outside of reports, when an upload or a copy lands, so an
+ * added block that is already indexed or a removed one that is already gone is not a divergence.
+ * Reports from one node are expected to be sent one at a time.
+ */
+@Service
+public class BlockReportService {
+    private static final Logger logger = LoggerFactory.getLogger(BlockReportService.class);
+
+    // Key prefix of the report state in RedisBlockStore
+    public static final String NODE_REPORT_PREFIX = "NodeReport:";
+
+    @Autowired
+    private BlockStore blockStore;
+    @Autowired
+    private BlockMetaService blockMetaService;
+
+    public ResponseIncrementalBlockReport applyDelta(String nodeUrl, long baseSeq, long seq,
+                                                     List<String> added, List<String> removed, long digest) {
+        added = (added != null) ? added : Collections.emptyList();
+        removed = (removed != null) ? removed : Collections.emptyList();
+
+        BlockStore.ReportState state = blockStore.getReportState(nodeUrl);
+        if (state == null) {
+            logger.debug("No acknowledged report for {}; full report required.", nodeUrl);
+            return fullReportRequired(seq);
+        }
+        if (baseSeq != state.getSeq()) {
+            logger.debug("Delta report from {} is based on seq {} but {} was acknowledged; full report required.", nodeUrl, baseSeq, state.getSeq());
+            return fullReportRequired(seq);
+        }
+        if (expectedDigest(nodeUrl, added, removed) != digest) {
+            logger.debug("Digest mismatch for delta report from {}; full report required.", nodeUrl);
+            return fullReportRequired(seq);
+        }
+
+        // The block store keeps the node's block set up to date
+        if (!applyChanges(nodeUrl, added, removed)) {
+            blockStore.deleteReportState(nodeUrl);
+            return fullReportRequired(seq);
+        }
+        blockStore.saveReportState(nodeUrl, new BlockStore.ReportState(seq, digest));
+
+        logger.debug("Delta report {} from {} applied: +{} -{}", seq, nodeUrl, added.size(), removed.size());
+        return new ResponseIncrementalBlockReport(ReportStatus.APPLIED, seq, added.size(), removed.size());
+    }
+
+    /**
+     * Replaces the metanode's view of a node's inventory. Only the difference between the old and
+     * the new inventory is written to the block locations.
+     */
+    public ResponseIncrementalBlockReport applyFullReport(String nodeUrl, long seq, List<String> hashes) {
+        hashes = (hashes != null) ? hashes : Collections.emptyList();
+
+        List<String> added = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        blockStore.diffBlocksOnNode(nodeUrl, hashes, added, removed);
+
+        if (!applyChanges(nodeUrl, added, removed)) {
+            blockStore.deleteReportState(nodeUrl);
+            return fullReportRequired(seq);
+        }
+        blockStore.resetBlockDigest(nodeUrl, new HashSet<>(hashes));
+        blockStore.saveReportState(nodeUrl, new BlockStore.ReportState(seq, BlockReportDigest.of(new HashSet<>(hashes))));
+
+        logger.info("Full report {} from {} applied: {} blocks, +{} -{}", seq, nodeUrl, hashes.size(), added.size(), removed.size());
+        return new ResponseIncrementalBlockReport(ReportStatus.APPLIED, seq, added.size(), removed.size());
+    }
+
+    /**
+     * The node's digest in the block store, with the blocks of the delta that change the node's block set toggled.
+     */
+    private long expectedDigest(String nodeUrl, List<String> added, List<String> removed) {
+        Set<String> onNode = Collections.emptySet();
+        if (!added.isEmpty() || !removed.isEmpty()) {
+            List<String> candidates = new ArrayList<>(added.size() + removed.size());
+            candidates.addAll(added);
+            candidates.addAll(removed);
+            onNode = blockStore.filterBlocksOnNode(nodeUrl, candidates);
+        }
+        long expected = blockStore.getBlockDigest(nodeUrl);
+        for (String hash : new HashSet<>(added)) {
+            if (!onNode.contains(hash)) expected = BlockReportDigest.toggle(expected, hash);
+        }
+        for (String hash : new HashSet<>(removed)) {
+            if (onNode.contains(hash)) expected = BlockReportDigest.toggle(expected, hash);
+        }
+        return expected;
+    }
+
+    private boolean applyChanges(String nodeUrl, List<String> added, List<String> removed) {
+        if (!added.isEmpty()) {
+            List<ItemStatus> statuses = blockMetaService.registerBlockLocations(added, Collections.nCopies(added.size(), nodeUrl));
+            if (statuses.contains(ItemStatus.FAILED) || statuses.contains(ItemStatus.INVALID)) {
+                logger.warn("Could not register all blocks reported by {}", nodeUrl);
+                return false;
+            }
+        }
+        if (!removed.isEmpty()) {
+            if (blockMetaService.unregisterBlockLocations(removed, Collections.nCopies(removed.size(), nodeUrl)) < 0) {
+                logger.warn("Could not unregister all blocks removed from {}", nodeUrl);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private ResponseIncrementalBlockReport fullReportRequired(long seq) {
+        return new ResponseIncrementalBlockReport(ReportStatus.FULL_REPORT_REQUIRED, seq, 0, 0);
+    }
+}
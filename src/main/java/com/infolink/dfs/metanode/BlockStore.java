@@ -0,0 +1,112 @@
+package com.infolink.dfs.metanode;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+import org.springframework.data.util.CloseableIterator;
+
+/**
+ * Storage of the block map behind BlockMetaService and BlockReportService: the nodes holding each
+ * block, the reverse index of the blocks held by each node and the state of the last block report
+ * of each node. Selected with dfs.metadata.store: RedisBlockStore ("redis", the default) or
+ * EmbeddedMetadataStore ("embedded").
+ */
+public interface BlockStore {
+
+    /**
+     * Last acknowledged block report of a node, see BlockReportService.
+     */
+    final class ReportState {
+        private final long seq;
+        private final long digest;
+
+        public ReportState(long seq, long digest) {
+            this.seq = seq;
+            this.digest = digest;
+        }
+
+        public long getSeq()    { return seq; }
+        public long getDigest() { return digest; }
+    }
+
+    /**
+     * @return 1 when the location was added, 0 when it was already registered
+     */
+    long addLocation(String hash, String nodeUrl);
+
+    /**
+     * @return the number of nodes still holding the block, or -1 when the location was not registered
+     */
+    long removeLocation(String hash, String nodeUrl);
+
+    /**
+     * addLocation for every (hash, nodeUrl) pair. The result is aligned with the input and holds null
+     * for pairs with a missing hash or URL and for pairs that could not be applied.
+     */
+    List<Long> addLocations(List<String> hashes, List<String> nodeUrls);
+
+    /**
+     * removeLocation for every (hash, nodeUrl) pair, with results like addLocations.
+     */
+    List<Long> removeLocations(List<String> hashes, List<String> nodeUrls);
+
+    /**
+     * @return the nodes holding the block, or null when it is unknown
+     */
+    Set<String> getLocations(String hash);
+
+    /**
+     * @return the nodes of every block, in the order of the hashes, with null for unknown blocks
+     */
+    List<Set<String>> getLocations(List<String> hashes);
+
+    /**
+     * @return true when the block was registered
+     */
+    boolean removeBlock(String hash);
+
+    /**
+     * Iterates the hashes of the blocks registered on a node. The caller must close the iterator.
+     */
+    CloseableIterator<String> scanBlocksOnNode(String nodeUrl, int batchSize);
+
+    /**
+     * @return the hashes of the given ones that are registered on the node
+     */
+    Set<String> filterBlocksOnNode(String nodeUrl, Collection<String> hashes);
+
+    /**
+     * Compares an inventory reported by a node with the blocks registered on it.
+     *
+     * @param added   receives the reported hashes that are not registered on the node
+     * @param removed receives the registered hashes that were not reported
+     */
+    void diffBlocksOnNode(String nodeUrl, Collection<String> hashes, List<String> added, List<String> removed);
+
+    /**
+     * @return the BlockReportDigest of the blocks registered on the node, kept up to date by every
+     *         location change
+     */
+    long getBlockDigest(String nodeUrl);
+
+    /**
+     * Sets the node's block digest to that of the given inventory, after a full report made it the
+     * node's block set. Repairs digests that predate the reverse index or were lost.
+     */
+    void resetBlockDigest(String nodeUrl, Collection<String> hashes);
+
+    /**
+     * @return the state of the node's last acknowledged report, or null
+     */
+    ReportState getReportState(String nodeUrl);
+
+    void saveReportState(String nodeUrl, ReportState state);
+
+    void deleteReportState(String nodeUrl);
+
+    /**
+     * Removes every block, location and report state.
+     */
+    void clearBlocks();
+}
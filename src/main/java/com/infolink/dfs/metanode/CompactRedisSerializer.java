@@ -0,0 +1,77 @@
+package com.infolink.dfs.metanode;
+
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+
+import org.springframework.data.redis.serializer.Jackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import com.infolink.dfs.shared.DfsFile;
+
+/**
+ * Value serializer for the DfsFile template. Compact values start with a two byte
+ * header, MAGIC and the format version, followed by the CompactValueCodec layout. Values without the
+ * header are JSON written before the codec existed (they start with '{') and are read with Jackson,
+ * so both formats can live side by side until CompactValueMigrator has rewritten the old ones.
+ *
+ * <p>With writeCompact off the serializer writes JSON again but still reads compact values, which
+ * allows rolling the codec back without losing data.
+ */
+public class CompactRedisSerializer<T> implements RedisSerializer<T> {
+    static final byte MAGIC = (byte) 0xDF;
+    static final byte VERSION = 1;
+
+    private final BiConsumer<CompactValueCodec.Writer, T> encoder;
+    private final BiFunction<CompactValueCodec.Reader, Integer, T> decoder;
+    private final Jackson2JsonRedisSerializer<T> json;
+    private final boolean writeCompact;
+
+    private CompactRedisSerializer(Class<T> type, BiConsumer<CompactValueCodec.Writer, T> encoder,
+            BiFunction<CompactValueCodec.Reader, Integer, T> decoder, boolean writeCompact) {
+        this.encoder = encoder;
+        this.decoder = decoder;
+        this.json = new Jackson2JsonRedisSerializer<>(type);
+        this.writeCompact = writeCompact;
+    }
+
+    public static CompactRedisSerializer<DfsFile> forDfsFile(boolean writeCompact) {
+        return new CompactRedisSerializer<>(DfsFile.class, CompactValueCodec::writeDfsFile, CompactValueCodec::readDfsFile, writeCompact);
+    }
+
+    static boolean isCompact(byte[] bytes) {
+        return bytes != null && bytes.length >= 2 && bytes[0] == MAGIC;
+    }
+
+    public boolean writesCompact() {
+        return writeCompact;
+    }
+
+    @Override
+    public byte[] serialize(T value) throws SerializationException {
+        if (value == null) return new byte[0];
+        if (!writeCompact) return json.serialize(value);
+
+        CompactValueCodec.Writer out = new CompactValueCodec.Writer(128);
+        out.writeByte(MAGIC);
+        out.writeByte(VERSION);
+        encoder.accept(out, value);
+        return out.toByteArray();
+    }
+
+    @Override
+    public T deserialize(byte[] bytes) throws SerializationException {
+        if (bytes == null || bytes.length == 0) return null;
+        if (!isCompact(bytes)) return json.deserialize(bytes);
+
+        int version = bytes[1];
+        if (version < 1 || version > VERSION) {
+            throw new SerializationException("Unsupported value format version " + version + ".");
+        }
+        try {
+            return decoder.apply(new CompactValueCodec.Reader(bytes, 2), version);
+        } catch (IllegalArgumentException e) {
+            throw new SerializationException("Could not decode compact value: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.infolink.dfs.metanode;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import com.infolink.dfs.shared.ContentHash;
+import com.infolink.dfs.shared.DfsFile;
+
+/**
+ * Binary layout of DfsFile values, without the version header (see CompactRedisSerializer).
+ * Numbers are varints (zig-zag for signed values), strings are a varint of length + 1 (0 for null) followed
+ * by UTF-8, dates are epoch milliseconds. Hash fields holding a lowercase 64-digit hex string, as produced
+ * by HashUtil, are stored as their 32 raw bytes; any other value is kept as a string.
+ *
+ * <p>Version 1:
+ * <pre>
+ * flags(1) hash owner name path parentHash size [createTime] [lastModifiedTime] [count blockHash*]
+ * </pre>
+ * flags: 1 directory, 2 createTime present, 4 lastModifiedTime present, 8 blockHashes present.
+ * Fields are only ever appended in a new version; decoders keep reading the old ones.
+ */
+final class CompactValueCodec {
+    private static final int FLAG_DIRECTORY = 1;
+    private static final int FLAG_CREATE_TIME = 2;
+    private static final int FLAG_MODIFIED_TIME = 4;
+    private static final int FLAG_BLOCK_HASHES = 8;
+
+    private static final int HASH_NULL = 0;
+    private static final int HASH_RAW = 1;
+    private static final int HASH_STRING = 2;
+
+    private CompactValueCodec() {}
+
+    static void writeDfsFile(Writer out, DfsFile file) {
+        int flags = (file.isDirectory() ? FLAG_DIRECTORY : 0)
+                | (file.getCreateTime() != null ? FLAG_CREATE_TIME : 0)
+                | (file.getLastModifiedTime() != null ? FLAG_MODIFIED_TIME : 0)
+                | (file.getBlockHashes() != null ? FLAG_BLOCK_HASHES : 0);
+        out.writeByte(flags);
+        out.writeHash(file.getHash());
+        out.writeString(file.getOwner());
+        out.writeString(file.getName());
+        out.writeString(file.getPath());
+        out.writeHash(file.getParentHash());
+        out.writeSignedVarLong(file.getSize());
+        if (file.getCreateTime() != null) out.writeSignedVarLong(file.getCreateTime().getTime());
+        if (file.getLastModifiedTime() != null) out.writeSignedVarLong(file.getLastModifiedTime().getTime());
+        if (file.getBlockHashes() != null) {
+            out.writeVarLong(file.getBlockHashes().size());
+            for (String blockHash : file.getBlockHashes()) {
+                out.writeHash(blockHash);
+            }
+        }
+    }
+
+    static DfsFile readDfsFile(Reader in, int version) {
+        DfsFile file = new DfsFile();
+        int flags = in.readByte();
+        file.setDirectory((flags & FLAG_DIRECTORY) != 0);
+        file.setHash(in.readHash());
+        file.setOwner(in.readString());
+        file.setName(in.readString());
+        file.setPath(in.readString());
+        file.setParentHash(in.readHash());
+        file.setSize(in.readSignedVarLong());
+        file.setCreateTime((flags & FLAG_CREATE_TIME) != 0 ? new Date(in.readSignedVarLong()) : null);
+        file.setLastModifiedTime((flags & FLAG_MODIFIED_TIME) != 0 ? new Date(in.readSignedVarLong()) : null);
+        if ((flags & FLAG_BLOCK_HASHES) != 0) {
+            int count = in.readCount();
+            List<String> blockHashes = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                blockHashes.add(in.readHash());
+            }
+            file.setBlockHashes(blockHashes);
+        }
+        return file;
+    }
+
+    static final class Writer {
+        private final ByteArrayOutputStream out;
+
+        Writer(int expectedSize) {
+            this.out = new ByteArrayOutputStream(expectedSize);
+        }
+
+        void writeByte(int value) {
+            out.write(value);
+        }
+
+        void writeVarLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                out.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.write((int) value);
+        }
+
+        void writeSignedVarLong(long value) {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        void writeString(String value) {
+            if (value == null) {
+                writeVarLong(0);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length + 1L);
+            out.write(bytes, 0, bytes.length);
+        }
+
+        void writeBytes(byte[] value) {
+            writeVarLong(value.length);
+            out.write(value, 0, value.length);
+        }
+
+        void writeHash(String hash) {
+            if (hash == null) {
+                writeByte(HASH_NULL);
+            } else if (ContentHash.isHex(hash)) {
+                writeByte(HASH_RAW);
+                out.write(ContentHash.fromHex(hash).toBytes(), 0, ContentHash.BYTES);
+            } else {
+                writeByte(HASH_STRING);
+                writeString(hash);
+            }
+        }
+
+        byte[] toByteArray() {
+            return out.toByteArray();
+        }
+    }
+
+    static final class Reader {
+        private final byte[] bytes;
+        private int position;
+
+        Reader(byte[] bytes, int offset) {
+            this.bytes = bytes;
+            this.position = offset;
+        }
+
+        int readByte() {
+            if (position >= bytes.length) {
+                throw new IllegalArgumentException("Truncated value at byte " + position + ".");
+            }
+            return bytes[position++] & 0xFF;
+        }
+
+        long readVarLong() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return value;
+            }
+            throw new IllegalArgumentException("Malformed varint at byte " + position + ".");
+        }
+
+        long readSignedVarLong() {
+            long value = readVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        int readCount() {
+            long count = readVarLong();
+            if (count < 0 || count > bytes.length - position) {
+                throw new IllegalArgumentException("Invalid element count " + count + ".");
+            }
+            return (int) count;
+        }
+
+        String readString() {
+            long length = readVarLong();
+            if (length == 0) return null;
+            if (length - 1 > bytes.length - position) {
+                throw new IllegalArgumentException("Truncated string at byte " + position + ".");
+            }
+            String value = new String(bytes, position, (int) (length - 1), StandardCharsets.UTF_8);
+            position += (int) (length - 1);
+            return value;
+        }
+
+        byte[] readBytes() {
+            int length = readCount();
+            byte[] value = Arrays.copyOfRange(bytes, position, position + length);
+            position += length;
+            return value;
+        }
+
+        String readHash() {
+            int tag = readByte();
+            switch (tag) {
+                case HASH_NULL:
+                    return null;
+                case HASH_RAW:
+                    if (position + ContentHash.BYTES > bytes.length) {
+                        throw new IllegalArgumentException("Truncated hash at byte " + position + ".");
+                    }
+                    ContentHash hash = ContentHash.of(bytes, position);
+                    position += ContentHash.BYTES;
+                    return hash.toHex();
+                case HASH_STRING:
+                    return readString();
+                default:
+                    throw new IllegalArgumentException("Unknown hash tag " + tag + ".");
+            }
+        }
+    }
+}
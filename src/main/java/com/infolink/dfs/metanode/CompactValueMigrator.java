@@ -0,0 +1,142 @@
+package com.infolink.dfs.metanode;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.DataType;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Component;
+
+import com.infolink.dfs.shared.DfsFile;
+
+/**
+ * Rewrites DfsFile values still stored as JSON in the compact format of
+ * CompactRedisSerializer. Keys are scanned in batches; every batch costs one MGET and one pipeline of
+ * compare-and-set scripts, so a value changed while it was being converted is left alone (it was
+ * written in the new format anyway). Safe to run repeatedly and while the metanode serves requests.
+ * Every shard is converted in place.
+ */
+@Component
+public class CompactValueMigrator {
+    private static final Logger logger = LoggerFactory.getLogger(CompactValueMigrator.class);
+    private static final int BATCH_SIZE = 1000;
+
+    private static final RedisScript<Long> REPLACE_VALUE_SCRIPT = RedisScript.of(new ClassPathResource("scripts/replace-value.lua"), Long.class);
+
+    @Autowired
+    private RedisTemplate<String, DfsFile> redisFileRepo;
+    @Autowired
+    private RedisShards shards;
+
+    @Value("${dfs.migration.value-format.on-startup:false}")
+    private boolean migrateOnStartup;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void migrateOnStartup() {
+        if (migrateOnStartup) {
+            // Every value stays readable during the conversion, so there is no need to delay startup
+            Thread thread = new Thread(this::migrate, "value-format-migration");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * @return the number of values converted
+     */
+    public int migrate() {
+        // AppConfig builds the file template with a CompactRedisSerializer<DfsFile>
+        @SuppressWarnings("unchecked")
+        CompactRedisSerializer<DfsFile> fileSerializer = (CompactRedisSerializer<DfsFile>) redisFileRepo.getValueSerializer();
+        if (!fileSerializer.writesCompact()) {
+            logger.info("dfs.redis.value-format is json; nothing to migrate.");
+            return 0;
+        }
+
+        logger.info("Converting JSON values to the compact format.");
+        byte[] scriptBody = REPLACE_VALUE_SCRIPT.getScriptAsString().getBytes(StandardCharsets.UTF_8);
+        int converted = 0;
+        for (RedisShards.Shard shard : shards.all()) {
+            StringRedisTemplate stringRedisTemplate = shard.getStringTemplate();
+            stringRedisTemplate.execute((RedisCallback<String>) connection -> connection.scriptingCommands().scriptLoad(scriptBody));
+
+            converted += migratePrefix(stringRedisTemplate, FileTreeManager.FILE_PREFIX, fileSerializer)
+                    + migratePrefix(stringRedisTemplate, FileTreeManager.HASH_PREFIX, fileSerializer)
+                    + migratePrefix(stringRedisTemplate, FileTreeManager.DIR_PREFIX, fileSerializer);
+        }
+        logger.info("Value format migration completed. {} values converted.", converted);
+        return converted;
+    }
+
+    private <T> int migratePrefix(StringRedisTemplate stringRedisTemplate, String prefix, CompactRedisSerializer<T> serializer) {
+        // Only string keys hold values; this skips the directory index sorted sets sharing the prefix
+        ScanOptions keyScan = ScanOptions.scanOptions().match(prefix + "*").type(DataType.STRING).count(BATCH_SIZE).build();
+        int converted = 0;
+
+        try (Cursor<String> keys = stringRedisTemplate.scan(keyScan)) {
+            List<String> batch = new ArrayList<>(BATCH_SIZE);
+            while (keys.hasNext()) {
+                batch.add(keys.next());
+                if (batch.size() == BATCH_SIZE) {
+                    converted += migrateBatch(stringRedisTemplate, batch, serializer);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                converted += migrateBatch(stringRedisTemplate, batch, serializer);
+            }
+        }
+        return converted;
+    }
+
+    private <T> int migrateBatch(StringRedisTemplate stringRedisTemplate, List<String> keys, CompactRedisSerializer<T> serializer) {
+        byte[][] rawKeys = new byte[keys.size()][];
+        for (int i = 0; i < keys.size(); i++) {
+            rawKeys[i] = keys.get(i).getBytes(StandardCharsets.UTF_8);
+        }
+        List<byte[]> values = stringRedisTemplate.execute((RedisCallback<List<byte[]>>) connection -> connection.stringCommands().mGet(rawKeys));
+        if (values == null) return 0;
+
+        List<byte[][]> replacements = new ArrayList<>();
+        for (int i = 0; i < rawKeys.length; i++) {
+            byte[] value = values.get(i);
+            if (value == null || value.length == 0 || CompactRedisSerializer.isCompact(value)) continue;
+            try {
+                byte[] compact = serializer.serialize(serializer.deserialize(value));
+                replacements.add(new byte[][] { rawKeys[i], value, compact });
+            } catch (RuntimeException e) {
+                logger.warn("Skipping unreadable value at {}: {}", keys.get(i), e.getMessage());
+            }
+        }
+        if (replacements.isEmpty()) return 0;
+
+        String sha = REPLACE_VALUE_SCRIPT.getSha1();
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (byte[][] replacement : replacements) {
+                connection.scriptingCommands().evalSha(sha, ReturnType.INTEGER, 1, replacement);
+            }
+            return null;
+        }, RedisSerializer.byteArray());
+
+        int converted = 0;
+        for (Object result : results) {
+            if (Long.valueOf(1).equals(result)) converted++;
+        }
+        return converted;
+    }
+}
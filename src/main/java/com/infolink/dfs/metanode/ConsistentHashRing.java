@@ -0,0 +1,58 @@
+package com.infolink.dfs.metanode;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Consistent hashing of routing keys onto a fixed set of members. Every member is placed at
+ * virtualNodes points of a 64-bit ring, derived from its name, and a key belongs to the first member
+ * at or after its own hash. Adding a member therefore only moves the keys that now fall just before
+ * its points, about 1/n of them, and no key moves between two existing members.
+ */
+final class ConsistentHashRing<T> {
+    private final TreeMap<Long, T> ring = new TreeMap<>();
+
+    /**
+     * @param names   stable identities of the members (e.g. their endpoints), in the order of members
+     * @param members the members keys are routed to
+     */
+    ConsistentHashRing(List<String> names, List<T> members, int virtualNodes) {
+        if (names.isEmpty() || names.size() != members.size()) {
+            throw new IllegalArgumentException("A ring needs at least one member and one name per member.");
+        }
+        if (virtualNodes <= 0) {
+            throw new IllegalArgumentException("The number of virtual nodes must be positive.");
+        }
+        for (int i = 0; i < names.size(); i++) {
+            for (int v = 0; v < virtualNodes; v++) {
+                // On the (unlikely) collision of two points the first member keeps it
+                ring.putIfAbsent(hash(names.get(i) + "#" + v), members.get(i));
+            }
+        }
+    }
+
+    T route(String key) {
+        Map.Entry<Long, T> entry = ring.ceilingEntry(hash(key));
+        return (entry != null) ? entry.getValue() : ring.firstEntry().getValue();
+    }
+
+    /**
+     * 64-bit FNV-1a over the UTF-8 bytes, followed by the MurmurHash3 finalizer to spread
+     * keys that only differ in their last characters, such as sibling paths.
+     */
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xFF;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,208 @@
+package com.infolink.dfs.metanode;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.infolink.dfs.shared.DfsNode;
+
+/**
+ * Pushes node changes to the dashboard. Changes are collected per node and flushed as one delta per
+ * topic at most every dfs.dashboard.publish-interval-ms, so a node heartbeating many times in an
+ * interval is sent once and unchanged nodes are not sent at all. Nothing is collected or serialized
+ * while no WebSocket client is subscribed; a new subscription gets a full snapshot on the next flush.
+ */
+@Component
+public class DashboardPublisher {
+    private static final Logger logger = LoggerFactory.getLogger(DashboardPublisher.class);
+
+    static final String NODE_TOPIC = "/topic/node-delta";
+    static final String DEAD_NODE_TOPIC = "/topic/dead-node-delta";
+
+    @Autowired
+    private SimpMessagingTemplate messagingTemplate;
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private final Pending registered = new Pending();
+    private final Pending dead = new Pending();
+    // Session id -> ids of its subscriptions to the dashboard topics
+    private final ConcurrentHashMap<String, Set<String>> subscriptions = new ConcurrentHashMap<>();
+    private volatile boolean resyncRequested;
+
+    private volatile Supplier<List<DfsNode>> registeredSource = List::of;
+    private volatile Supplier<List<DfsNode>> deadSource = List::of;
+
+    /**
+     * Sets where full snapshots are read from; called by NodeManager once it is constructed.
+     */
+    void setSources(Supplier<List<DfsNode>> registeredSource, Supplier<List<DfsNode>> deadSource) {
+        this.registeredSource = registeredSource;
+        this.deadSource = deadSource;
+    }
+
+    public void nodeChanged(DfsNode node) {
+        if (hasSubscribers()) registered.change(node);
+    }
+
+    public void nodeDied(DfsNode node) {
+        if (!hasSubscribers()) return;
+        registered.remove(node.getContainerUrl());
+        dead.change(node);
+    }
+
+    public void nodeRevived(DfsNode node) {
+        if (!hasSubscribers()) return;
+        dead.remove(node.getContainerUrl());
+        registered.change(node);
+    }
+
+    /**
+     * Makes the next flush send full snapshots, e.g. after the registry was cleared.
+     */
+    public void resync() {
+        resyncRequested = true;
+    }
+
+    public boolean hasSubscribers() {
+        return !subscriptions.isEmpty();
+    }
+
+    @Scheduled(fixedDelayString = "${dfs.dashboard.publish-interval-ms:1000}")
+    public void flush() {
+        if (!hasSubscribers()) {
+            registered.clear();
+            dead.clear();
+            return;
+        }
+        if (resyncRequested) {
+            resyncRequested = false;
+            registered.clear();
+            dead.clear();
+            send(NODE_TOPIC, new NodeDelta(true, registeredSource.get(), List.of()));
+            send(DEAD_NODE_TOPIC, new NodeDelta(true, deadSource.get(), List.of()));
+            return;
+        }
+        NodeDelta nodeDelta = registered.drain();
+        if (nodeDelta != null) send(NODE_TOPIC, nodeDelta);
+        NodeDelta deadDelta = dead.drain();
+        if (deadDelta != null) send(DEAD_NODE_TOPIC, deadDelta);
+    }
+
+    private void send(String topic, NodeDelta delta) {
+        try {
+            String json = objectMapper.writeValueAsString(delta);
+            messagingTemplate.convertAndSend(topic, json);
+            logger.debug("Sent {} changed and {} removed nodes to {}", delta.getChanged().size(), delta.getRemoved().size(), topic);
+        } catch (Exception e) {
+            logger.error("Error sending node delta to {}", topic, e);
+        }
+    }
+
+    @EventListener
+    public void onSubscribe(SessionSubscribeEvent event) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
+        String destination = accessor.getDestination();
+        if (!NODE_TOPIC.equals(destination) && !DEAD_NODE_TOPIC.equals(destination)) return;
+
+        subscriptions.computeIfAbsent(accessor.getSessionId(), k -> ConcurrentHashMap.newKeySet())
+                .add(accessor.getSubscriptionId());
+        // The page rendered its initial state a moment ago; bring the new subscriber up to date
+        resyncRequested = true;
+    }
+
+    @EventListener
+    public void onUnsubscribe(SessionUnsubscribeEvent event) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
+        subscriptions.computeIfPresent(accessor.getSessionId(), (sessionId, ids) -> {
+            ids.remove(accessor.getSubscriptionId());
+            return ids.isEmpty() ? null : ids;
+        });
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        subscriptions.remove(event.getSessionId());
+    }
+
+    /**
+     * Latest state of the nodes changed since the last flush, and the nodes removed since then.
+     */
+    private static class Pending {
+        private final Map<String, DfsNode> changed = new ConcurrentHashMap<>();
+        private final Set<String> removed = ConcurrentHashMap.newKeySet();
+
+        void change(DfsNode node) {
+            removed.remove(node.getContainerUrl());
+            changed.put(node.getContainerUrl(), node);
+        }
+
+        void remove(String nodeUrl) {
+            changed.remove(nodeUrl);
+            removed.add(nodeUrl);
+        }
+
+        void clear() {
+            changed.clear();
+            removed.clear();
+        }
+
+        /**
+         * @return the pending delta, or null when nothing changed
+         */
+        NodeDelta drain() {
+            if (changed.isEmpty() && removed.isEmpty()) return null;
+            List<DfsNode> changedNodes = new ArrayList<>();
+            for (String nodeUrl : changed.keySet()) {
+                DfsNode node = changed.remove(nodeUrl);
+                if (node != null) changedNodes.add(node);
+            }
+            List<String> removedUrls = new ArrayList<>();
+            for (String nodeUrl : removed) {
+                if (removed.remove(nodeUrl)) removedUrls.add(nodeUrl);
+            }
+            return new NodeDelta(false, changedNodes, removedUrls);
+        }
+    }
+
+    /**
+     * Message sent to the dashboard. With full set, changed holds every node and replaces the client's list.
+     */
+    public static class NodeDelta {
+        private boolean full;
+        private Collection<DfsNode> changed;
+        private Collection<String> removed;
+
+        public NodeDelta() {}
+
+        public NodeDelta(boolean full, Collection<DfsNode> changed, Collection<String> removed) {
+            this.full = full;
+            this.changed = changed;
+            this.removed = removed;
+        }
+
+        public boolean isFull() 								{ return full; }
+        public void setFull(boolean full) 						{ this.full = full; }
+        public Collection<DfsNode> getChanged() 				{ return changed; }
+        public void setChanged(Collection<DfsNode> changed) 	{ this.changed = changed; }
+        public Collection<String> getRemoved() 					{ return removed; }
+        public void setRemoved(Collection<String> removed) 		{ this.removed = removed; }
+    }
+}
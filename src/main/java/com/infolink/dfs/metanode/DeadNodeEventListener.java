@@ -7,138 +7,83 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.event.EventListener;
-import org.springframework.data.redis.core.Cursor;
-import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.data.redis.core.ScanOptions;
-import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.HttpMethod;
-import org.springframework.http.MediaType;
-import org.springframework.http.ResponseEntity;
+import org.springframework.data.util.CloseableIterator;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
 
-import java.nio.charset.StandardCharsets;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
+import jakarta.annotation.PreDestroy;
+
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 @Service
 public class DeadNodeEventListener {
     private static final Logger logger = LoggerFactory.getLogger(DeadNodeEventListener.class);
     private static final int BLOCK_NODE_LIMIT = 1000; // Limit for the number of block nodes to process
-    private static final String BLOCK_NODE_PREFIX = BlockMetaService.BLOCK_NODE_PREFIX; // Prefix for block nodes in Redis
     
     @Autowired
-    private RedisTemplate<String, BlockNode> redisTemplate;
+    private BlockMetaService blockMetaService;
     
     @Autowired
     private NodeManager nodeManager;
     
     @Autowired
-    private RestTemplate restTemplate;
+    private ReplicationExecutor replicationExecutor;
     
-    public DeadNodeEventListener() {
-    }
+    // Dead nodes are planned one at a time, in the order they were detected
+    private final ExecutorService planner = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "dead-node-planner");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     @EventListener
     public void handleDeadNodeEvent(DeadNodeEvent event) {
+        // Runs on the health-check thread; planning and copying happen elsewhere so heartbeats are never held up
         DfsNode deadNode = event.getDeadNode();
-        logger.info("Processing dead node: {}", deadNode.getContainerUrl());
-
-        ScanOptions scanOptions = ScanOptions.scanOptions().match(BLOCK_NODE_PREFIX+"*").count(BLOCK_NODE_LIMIT).build();
-
-        try (@SuppressWarnings("deprecation")
-		Cursor<byte[]> cursor = redisTemplate.executeWithStickyConnection(
-                redisConnection -> redisConnection.scan(scanOptions))) {
+        logger.info("Dead node {} queued for recovery planning.", deadNode.getContainerUrl());
+        planner.execute(() -> planRecovery(deadNode));
+    }
 
-            int count = 0;
+    void planRecovery(DfsNode deadNode) {
+        logger.info("Processing dead node: {}", deadNode.getContainerUrl());
 
+        int count = 0;
+        int queued = 0;
+        // Only the blocks in the dead node's reverse index need to be looked at
+        try (CloseableIterator<String> cursor = blockMetaService.scanBlocksOnNode(deadNode.getContainerUrl(), BLOCK_NODE_LIMIT)) {
             while (cursor.hasNext()) {
-                byte[] keyBytes = cursor.next();
-                String key = new String(keyBytes, StandardCharsets.UTF_8);
-                
-                BlockNode blockNode = redisTemplate.opsForValue().get(key);
+                BlockNode blockNode = blockMetaService.getBlockNodeByHash(cursor.next());
 
                 // Check if the block node contains the dead node URL
-                Set<String> nodeUrls = blockNode.getNodeUrls();
+                Set<String> nodeUrls = (blockNode != null) ? blockNode.getNodeUrls() : Set.of();
                 if (nodeUrls.contains(deadNode.getContainerUrl())) {
-                    logger.info("Replicating block {} to a living node.", blockNode.getHash());
+                    logger.debug("Queueing block {} for re-replication.", blockNode.getHash());
                     
                     nodeUrls.remove(deadNode.getContainerUrl());
-                    replicateBlockToLivingNode(nodeUrls, blockNode.getHash());
+                    // Waits while the replication queue is full
+                    replicationExecutor.submit(blockNode.getHash(), nodeUrls);
+                    queued++;
                 }
                 
                 count++;
 
-                // After processing 1000 records, sleep and check if node is still dead
-                if (count == BLOCK_NODE_LIMIT) {
-                    try {
-                        Thread.sleep(10000); // Adjust sleep time as needed
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt(); // Restore interrupt status
-                    }
-
-                    // Check if the dead node is still inactive
-                    if (!nodeManager.isDeadNode(deadNode)) {
-                        break; // Exit the loop if the node is no longer dead
-                    }
-                    count = 0; // Reset count for the next batch
+                // After processing 1000 records, check if node is still dead
+                if (count % BLOCK_NODE_LIMIT == 0 && !nodeManager.isDeadNode(deadNode)) {
+                    logger.info("Node {} revived. Stop processing its blocks.", deadNode.getContainerUrl());
+                    return; // Exit if the node is no longer dead
                 }
             }
-        }        
-        logger.info("All BlockNode records processed for dead node: {}", deadNode.getContainerUrl());
-    }
-    
-    private boolean replicateBlockToLivingNode(Set<String> existingNodeUrls, String blockHash) {
-        DfsNode newNode = findLivingNode(existingNodeUrls);
-        if (newNode == null) return false;
-
-        String targetNodeUrl = existingNodeUrls.iterator().next();
-        String url = targetNodeUrl + "/dfs/block/replicate-to-another-node";
-        logger.debug("Replication executing node is: {}", targetNodeUrl);
-        logger.debug("URL for executing replication is: {}", url);
-        try {
-            RequestReplicateBlock request = new RequestReplicateBlock();
-            request.setBlockHash(blockHash);
-            request.setTargetNode(newNode); // Assuming DfsNode has necessary properties set
-
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
-            HttpEntity<RequestReplicateBlock> entity = new HttpEntity<>(request, headers);
-
-            ResponseEntity<String> response = restTemplate.exchange(
-                url, HttpMethod.POST, entity, String.class);
-
-            logger.info("Replicating block {} to node {}. Response.status={}, Response: {}", blockHash, newNode.getContainerUrl(), response.getStatusCode(), response.getBody());
-            return response.getStatusCode().is2xxSuccessful();
-
-        } catch (Exception e) {
-            logger.error("Error serializing DfsNode or sending request: ", e);
-            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Recovery planning for {} interrupted after {} blocks.", deadNode.getContainerUrl(), count);
+            return;
         }
-    }
-    
-	private DfsNode findLivingNode(Set<String> existingNodeUrls) {
-        logger.debug("File a living node for block replication. ");
-        logger.debug("The existing node for a block are: {}", existingNodeUrls);
-        
-		List<DfsNode> livingNodes = nodeManager.getRegisteredNodes();
-		Collections.sort(livingNodes, Comparator.comparingLong(DfsNode::getBlockCount));
-		
-		logger.debug("Living nodes are: ");
-		for(DfsNode node : livingNodes) {
-			logger.debug("     {}-blockCount={}", node.getContainerUrl(), node.getBlockCount());
-		}
-		
-        for (DfsNode node : livingNodes) {
-            if (!existingNodeUrls.contains(node.getContainerUrl())) {
-            	logger.debug("Pick the living node({}) with block {} and return.", node.getContainerUrl(), node.getBlockCount());
-                return node; // Return the first living node found
-            }
-        }
-        return null; // No living nodes available
+        logger.info("All BlockNode records processed for dead node: {}. {} blocks queued for re-replication.", deadNode.getContainerUrl(), queued);
     }
 
+    @PreDestroy
+    public void shutdown() {
+        planner.shutdownNow();
+    }
 }
@@ -0,0 +1,183 @@
+package com.infolink.dfs.metanode;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.infolink.dfs.shared.DfsFile;
+
+/**
+ * Bounded in-process cache of DfsFile values sitting in front of Redis.
+ * Entries are keyed by their Redis key ("file:", "hash:" or "dir:"), evicted in LRU order
+ * once either the entry or the estimated byte budget is exceeded, and expire after a TTL.
+ * Only hits are cached; FileTreeManager invalidates the keys it writes or deletes.
+ *
+ * <p>A reader takes a stamp before going to Redis and passes it to put, which drops the value when
+ * the key was invalidated since: a write that lands between the read and the put would otherwise
+ * leave the old value cached for the whole TTL. Invalidations are stamped per stripe of keys rather
+ * than per key, so that tracking them takes fixed memory; a collision only skips a put.
+ */
+@Component
+public class DfsFileCache {
+    private static final Logger logger = LoggerFactory.getLogger(DfsFileCache.class);
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long ttlMillis;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long currentBytes = 0;
+
+    private static final int INVALIDATION_STRIPES = 4096;
+    private final long[] invalidatedAt = new long[INVALIDATION_STRIPES];
+    private long clearedAt = 0;
+    private long stamp = 0;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public DfsFileCache(@Value("${dfs.cache.max-entries:100000}") int maxEntries,
+                        @Value("${dfs.cache.max-bytes:67108864}") long maxBytes,
+                        @Value("${dfs.cache.ttl-ms:60000}") long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.ttlMillis = ttlMillis;
+        logger.info("DfsFileCache configured: maxEntries={}, maxBytes={}, ttlMillis={}", maxEntries, maxBytes, ttlMillis);
+    }
+
+    public synchronized DfsFile get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        if (System.currentTimeMillis() > entry.expiresAt) {
+            removeEntry(key);
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.value;
+    }
+
+    /**
+     * @return the stamp to pass to put for a value about to be read from Redis
+     */
+    public synchronized long readStamp() {
+        return stamp;
+    }
+
+    /**
+     * Caches a value read after taking the given stamp, unless its key was invalidated since.
+     */
+    public synchronized void put(String key, DfsFile value, long readStamp) {
+        if (clearedAt > readStamp || invalidatedAt[stripe(key)] > readStamp) return;
+        put(key, value);
+    }
+
+    public synchronized void put(String key, DfsFile value) {
+        if (value == null || maxEntries <= 0) return;
+
+        long size = estimateSize(key, value);
+        removeEntry(key);
+        entries.put(key, new Entry(value, size, System.currentTimeMillis() + ttlMillis));
+        currentBytes += size;
+
+        // Evict from the least recently used end until both budgets are met
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || currentBytes > maxBytes) && it.hasNext()) {
+            Map.Entry<String, Entry> eldest = it.next();
+            currentBytes -= eldest.getValue().size;
+            it.remove();
+            evictions.increment();
+        }
+    }
+
+    public synchronized void invalidate(String key) {
+        removeEntry(key);
+        invalidatedAt[stripe(key)] = ++stamp;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        currentBytes = 0;
+        clearedAt = ++stamp;
+    }
+
+    private static int stripe(String key) {
+        return (key.hashCode() & 0x7fffffff) % INVALIDATION_STRIPES;
+    }
+
+    public synchronized CacheStats getStats() {
+        return new CacheStats(entries.size(), currentBytes, hits.sum(), misses.sum(), evictions.sum());
+    }
+
+    private void removeEntry(String key) {
+        Entry removed = entries.remove(key);
+        if (removed != null) {
+            currentBytes -= removed.size;
+        }
+    }
+
+    /**
+     * Rough heap footprint of a cached entry: object headers plus two bytes per character.
+     */
+    static long estimateSize(String key, DfsFile file) {
+        long size = 128 + 2L * key.length();
+        size += 2L * (length(file.getHash()) + length(file.getOwner()) + length(file.getName())
+                + length(file.getPath()) + length(file.getParentHash()));
+        List<String> blockHashes = file.getBlockHashes();
+        if (blockHashes != null) {
+            for (String blockHash : blockHashes) {
+                size += 48 + 2L * length(blockHash);
+            }
+        }
+        return size;
+    }
+
+    private static int length(String s) {
+        return s == null ? 0 : s.length();
+    }
+
+    private static class Entry {
+        final DfsFile value;
+        final long size;
+        final long expiresAt;
+
+        Entry(DfsFile value, long size, long expiresAt) {
+            this.value = value;
+            this.size = size;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    public static class CacheStats {
+        private final int entries;
+        private final long bytes;
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+
+        public CacheStats(int entries, long bytes, long hits, long misses, long evictions) {
+            this.entries = entries;
+            this.bytes = bytes;
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+        }
+
+        public int getEntries() 	{ return entries; }
+        public long getBytes() 		{ return bytes; }
+        public long getHits() 		{ return hits; }
+        public long getMisses() 	{ return misses; }
+        public long getEvictions() 	{ return evictions; }
+    }
+}
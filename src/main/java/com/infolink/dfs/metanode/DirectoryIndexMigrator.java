@@ -0,0 +1,98 @@
+package com.infolink.dfs.metanode;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations.TypedTuple;
+import org.springframework.stereotype.Component;
+
+import com.infolink.dfs.shared.DfsFile;
+
+/**
+ * Converts directories written in the old format, where "dir:<path>:files" and "dir:<path>:dir"
+ * were sets of whole serialized DfsFile objects, into the name-keyed "dir:<path>:index" sorted set
+ * used by FileTreeManager, and deletes the old sets. Every shard is scanned; the index is written
+ * to the shard RedisNamespaceStore routes it to.
+ */
+@Component
+public class DirectoryIndexMigrator {
+    private static final Logger logger = LoggerFactory.getLogger(DirectoryIndexMigrator.class);
+    private static final int BATCH_SIZE = 1000;
+
+    @Autowired
+    private RedisShards shards;
+
+    @Value("${dfs.migration.directory-index.on-startup:false}")
+    private boolean migrateOnStartup;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void migrateOnStartup() {
+        if (migrateOnStartup) {
+            migrate();
+        }
+    }
+
+    /**
+     * @return the number of legacy sets converted
+     */
+    public int migrate() {
+        logger.info("Migrating legacy directory sets to the sorted directory index.");
+        int converted = 0;
+        for (RedisShards.Shard shard : shards.all()) {
+            converted += migrateSets(shard, ":dir", FileTreeManager.INDEX_DIR_MEMBER)
+                    + migrateSets(shard, ":files", FileTreeManager.INDEX_FILE_MEMBER);
+        }
+        logger.info("Directory index migration completed. {} legacy sets converted.", converted);
+        return converted;
+    }
+
+    private int migrateSets(RedisShards.Shard shard, String suffix, String memberType) {
+        ScanOptions keyScan = ScanOptions.scanOptions().match(FileTreeManager.DIR_PREFIX + "*" + suffix).count(BATCH_SIZE).build();
+        int converted = 0;
+
+        try (Cursor<String> keys = shard.getStringTemplate().scan(keyScan)) {
+            while (keys.hasNext()) {
+                String setKey = keys.next();
+                String indexKey = setKey.substring(0, setKey.length() - suffix.length()) + FileTreeManager.INDEX_SUFFIX;
+                int members = copyMembers(shard.getFileTemplate(), setKey,
+                        shards.forKey(RedisNamespaceStore.routingKey(indexKey)).getStringTemplate(), indexKey, memberType);
+                shard.getFileTemplate().delete(setKey);
+                converted++;
+                logger.debug("Converted {} ({} members) into {}", setKey, members, indexKey);
+            }
+        }
+        return converted;
+    }
+
+    private int copyMembers(RedisTemplate<String, DfsFile> redisFileRepo, String setKey,
+            StringRedisTemplate stringRedisTemplate, String indexKey, String memberType) {
+        ScanOptions memberScan = ScanOptions.scanOptions().count(BATCH_SIZE).build();
+        Set<TypedTuple<String>> batch = new HashSet<>();
+        int count = 0;
+
+        try (Cursor<DfsFile> members = redisFileRepo.opsForSet().scan(setKey, memberScan)) {
+            while (members.hasNext()) {
+                batch.add(TypedTuple.of(memberType + members.next().getName(), 0.0));
+                count++;
+                if (batch.size() == BATCH_SIZE) {
+                    stringRedisTemplate.opsForZSet().add(indexKey, batch);
+                    batch.clear();
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            stringRedisTemplate.opsForZSet().add(indexKey, batch);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,28 @@
+package com.infolink.dfs.metanode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.infolink.dfs.shared.DfsFile;
+
+/**
+ * One page of a directory listing. nextCursor is opaque to clients and is null on the last page.
+ */
+public class DirectoryPage {
+    private List<DfsFile> entries;
+    private String nextCursor;
+
+    public DirectoryPage() {
+        this.entries = new ArrayList<>();
+    }
+
+    public DirectoryPage(List<DfsFile> entries, String nextCursor) {
+        this.entries = entries;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<DfsFile> getEntries() 				{ return entries; }
+    public void setEntries(List<DfsFile> entries) 	{ this.entries = entries; }
+    public String getNextCursor() 					{ return nextCursor; }
+    public void setNextCursor(String nextCursor) 	{ this.nextCursor = nextCursor; }
+}
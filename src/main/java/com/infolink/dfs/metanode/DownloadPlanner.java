@@ -0,0 +1,158 @@
+package com.infolink.dfs.metanode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.infolink.dfs.metanode.NodeManageController.ResponseDownloadPlan;
+import com.infolink.dfs.metanode.mdb.BlockNode;
+import com.infolink.dfs.shared.DfsFile;
+import com.infolink.dfs.shared.DfsNode;
+
+/**
+ * Decides where a file is read from, using the nodes that actually hold its blocks.
+ * Living holders of a block are ranked by proximity (same rack as the client first) and then by the
+ * number of reads handed to them during the current heartbeat period, so that reads of popular files
+ * spread over all replicas. That count only covers the reads this planner dispatched; it is not the
+ * node's load as reported by heartbeats.
+ */
+@Service
+public class DownloadPlanner {
+    private static final Logger logger = LoggerFactory.getLogger(DownloadPlanner.class);
+
+    @Autowired
+    private FileTreeManager fileTreeManager;
+    @Autowired
+    private BlockMetaService blockMetaService;
+    @Autowired
+    private NodeManager nodeManager;
+
+    private final ConcurrentHashMap<String, AtomicInteger> recentReads = new ConcurrentHashMap<>();
+
+    /**
+     * @return the ranked holders of every block of the file, or null when the file does not exist
+     */
+    public ResponseDownloadPlan planDownload(String fileHash, String clientRack) {
+        DfsFile dfsFile = fileTreeManager.getFileByHash(fileHash);
+        if (dfsFile == null) return null;
+
+        List<String> blockHashes = blockHashesOf(dfsFile);
+        List<BlockNode> blockNodes = blockMetaService.getBlockNodesByHashes(blockHashes);
+        List<ResponseDownloadPlan.BlockReplicas> blocks = new ArrayList<>();
+        boolean complete = true;
+        for (int i = 0; i < blockHashes.size(); i++) {
+            String blockHash = blockHashes.get(i);
+            List<DfsNode> holders = rankHolders(blockNodes.get(i), clientRack);
+            if (holders.isEmpty()) {
+                logger.warn("Block {} of file {} has no living holder.", blockHash, fileHash);
+                complete = false;
+            } else {
+                recordRead(holders.get(0).getContainerUrl(), 1);
+            }
+            List<String> nodeUrls = new ArrayList<>(holders.size());
+            holders.forEach(node -> nodeUrls.add(node.getLocalUrl()));
+            blocks.add(new ResponseDownloadPlan.BlockReplicas(blockHash, nodeUrls));
+        }
+        return new ResponseDownloadPlan(fileHash, complete, blocks);
+    }
+
+    /**
+     * Picks the single node to serve a whole file: the living node holding the most of its blocks,
+     * ranked like a block holder on ties.
+     *
+     * @return null when no living node holds any block of the file
+     */
+    public DfsNode selectDownloadNode(String fileHash, String clientRack) {
+        DfsFile dfsFile = fileTreeManager.getFileByHash(fileHash);
+        if (dfsFile == null) return null;
+
+        List<String> blockHashes = blockHashesOf(dfsFile);
+        Map<String, Integer> blocksPerNode = new HashMap<>();
+        for (BlockNode blockNode : blockMetaService.getBlockNodesByHashes(blockHashes)) {
+            for (DfsNode holder : livingHolders(blockNode)) {
+                blocksPerNode.merge(holder.getContainerUrl(), 1, Integer::sum);
+            }
+        }
+        List<DfsNode> candidates = new ArrayList<>();
+        for (String nodeUrl : blocksPerNode.keySet()) {
+            DfsNode node = nodeManager.getNodeByContainerUrl(nodeUrl);
+            if (node != null) candidates.add(node);
+        }
+        if (candidates.isEmpty()) return null;
+
+        Collections.shuffle(candidates, ThreadLocalRandom.current());
+        candidates.sort(Comparator.comparing((DfsNode node) -> -blocksPerNode.get(node.getContainerUrl()))
+                .thenComparing(proximityAndLoad(clientRack, readsOf(candidates))));
+        DfsNode selected = candidates.get(0);
+        recordRead(selected.getContainerUrl(), blockHashes.size());
+        return selected;
+    }
+
+    List<DfsNode> rankHolders(BlockNode blockNode, String clientRack) {
+        List<DfsNode> holders = livingHolders(blockNode);
+        // Shuffled first so that equally ranked replicas take turns
+        Collections.shuffle(holders, ThreadLocalRandom.current());
+        holders.sort(proximityAndLoad(clientRack, readsOf(holders)));
+        return holders;
+    }
+
+    private List<DfsNode> livingHolders(BlockNode blockNode) {
+        List<DfsNode> holders = new ArrayList<>();
+        Set<String> nodeUrls = (blockNode != null) ? blockNode.getNodeUrls() : Set.of();
+        for (String nodeUrl : nodeUrls) {
+            DfsNode node = nodeManager.getNodeByContainerUrl(nodeUrl);
+            if (node != null) holders.add(node);
+        }
+        return holders;
+    }
+
+    /**
+     * @param reads the recent reads of the nodes being sorted, copied so that concurrent reads cannot
+     *              change the order in the middle of the sort
+     */
+    private static Comparator<DfsNode> proximityAndLoad(String clientRack, Map<String, Integer> reads) {
+        return Comparator.comparing((DfsNode node) -> clientRack == null || !Objects.equals(clientRack, node.getRack()))
+                .thenComparingInt(node -> reads.get(node.getContainerUrl()));
+    }
+
+    private Map<String, Integer> readsOf(List<DfsNode> nodes) {
+        Map<String, Integer> reads = new HashMap<>();
+        for (DfsNode node : nodes) {
+            reads.put(node.getContainerUrl(), recentReads(node.getContainerUrl()));
+        }
+        return reads;
+    }
+
+    private static List<String> blockHashesOf(DfsFile dfsFile) {
+        return (dfsFile.getBlockHashes() != null) ? dfsFile.getBlockHashes() : List.of();
+    }
+
+    private int recentReads(String nodeUrl) {
+        AtomicInteger reads = recentReads.get(nodeUrl);
+        return reads == null ? 0 : reads.get();
+    }
+
+    private void recordRead(String nodeUrl, int blocks) {
+        recentReads.computeIfAbsent(nodeUrl, k -> new AtomicInteger()).addAndGet(blocks);
+    }
+
+    // Read load only needs to be relative within a period; nodes report fresh state every heartbeat
+    @Scheduled(fixedRateString = "${dfs.node.heartbeat.rate:10000}")
+    public void resetReadLoad() {
+        recentReads.clear();
+    }
+}
@@ -0,0 +1,1583 @@
+package com.infolink.dfs.metanode;
+
+import static com.infolink.dfs.metanode.FileTreeManager.INDEX_DIR_MEMBER;
+import static com.infolink.dfs.metanode.FileTreeManager.INDEX_FILE_MEMBER;
+import static com.infolink.dfs.metanode.MetadataSnapshot.SECTION_BLOCKS;
+import static com.infolink.dfs.metanode.MetadataSnapshot.SECTION_ENTRIES;
+import static com.infolink.dfs.metanode.MetadataSnapshot.SECTION_FIELDS;
+import static com.infolink.dfs.metanode.MetadataSnapshot.SECTION_HASHES;
+import static com.infolink.dfs.metanode.MetadataSnapshot.SECTION_NODES;
+import static com.infolink.dfs.metanode.MetadataSnapshot.SECTION_NODE_BLOCKS;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.infolink.dfs.shared.BlockReportDigest;
+import com.infolink.dfs.shared.DfsFile;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Namespace and block map held in the metanode's own memory, selected with dfs.metadata.store=embedded
+ * so that a metanode runs without Redis. Lookups are plain map accesses under a read lock, without
+ * any network round trip.
+ *
+ * <p>The file tree is a table of inodes keyed by a numeric id (LongObjectHashMap); every directory keeps
+ * its children in a sorted map keyed like the Redis directory index ("d:name", "f:name"), so listings
+ * come out in the same order. Entry values are kept in the compact format of CompactRedisSerializer.
+ * Blocks map to the set of their nodes, with the reverse index of every node derived from it.
+ *
+ * <p>Every change is appended to a WriteAheadLog, in the order it was applied, before the call returns;
+ * replaying the log through the same code rebuilds the state. Every dfs.metadata.embedded.checkpoint-interval-ms
+ * the log moves on to a new segment and the whole state is written to a MetadataSnapshot, after which the
+ * older segments are deleted. The snapshot is written from a copy of memory taken when the log moves on,
+ * so writers only wait for that copy, which holds what changed since the previous snapshot; readers do
+ * not wait at all.
+ *
+ * <p>The snapshot is not read back into memory: a startup maps it and replays the segments written after
+ * it, so the metanode serves requests once the log is replayed, however large the namespace. Memory only
+ * holds what changed since the snapshot. A directory is read from the snapshot into memory the first time
+ * it is written to; below the directories held in memory, lookups and listings go to the snapshot. The
+ * same goes for the nodes of a block, while the blocks of a node are kept as the blocks added to and
+ * removed from it since the snapshot. Deleted hash entries and emptied blocks are kept in memory to hide
+ * those of the snapshot. Once a new snapshot is written, it replaces the old one and memory is emptied,
+ * after which the writes made while it was written are applied again on top of it.
+ * When a log write fails, the store keeps rejecting writes until it is restarted.
+ */
+@Component
+@ConditionalOnProperty(name = "dfs.metadata.store", havingValue = "embedded")
+public class EmbeddedMetadataStore implements NamespaceStore, BlockStore {
+    private static final Logger logger = LoggerFactory.getLogger(EmbeddedMetadataStore.class);
+
+    private static final String SNAPSHOT_FILE = "snapshot.dat";
+    private static final String SNAPSHOT_TEMP_FILE = "snapshot.tmp";
+    // Checkpoint of earlier versions, loaded whole and replaced by a snapshot at the next checkpoint
+    private static final String CHECKPOINT_FILE = "checkpoint.dat";
+    private static final int CHECKPOINT_FORMAT = 1;
+
+    // Log records, also used in checkpoints for locations and hashes
+    private static final int OP_SAVE_FILE = 1;
+    private static final int OP_CREATE_DIRECTORIES = 2;
+    private static final int OP_DELETE_FILE = 3;
+    private static final int OP_DELETE_BY_HASH = 4;
+    private static final int OP_CLEAR_NAMESPACE = 5;
+    private static final int OP_ADD_LOCATION = 10;
+    private static final int OP_REMOVE_LOCATION = 11;
+    private static final int OP_REMOVE_BLOCK = 12;
+    private static final int OP_CLEAR_BLOCKS = 13;
+    private static final int OP_HASH_PUT = 20;
+    private static final int OP_HASH_DELETE = 21;
+    private static final int OP_HASH_CLEAR = 22;
+    // Checkpoint only records
+    private static final int OP_CHECKPOINT = 30;
+    private static final int OP_INODE = 31;
+    private static final int OP_HASH_ENTRY = 32;
+
+    private static final String FIELD_SEQ = "seq";
+    private static final String FIELD_DIGEST = "digest";
+
+    private static final CompactRedisSerializer<DfsFile> VALUES = CompactRedisSerializer.forDfsFile(true);
+
+    /*
+     * Snapshot sections:
+     *   nodes        node url, no value; the rank of a node is its id in the other sections
+     *   entries      parent path, 0, member ("" and "" for the root): hash, directory flag and value
+     *   hashes       hash: key of the entry it points to
+     *   blocks       hash: count and ids of its nodes
+     *   node blocks  node id (4 bytes) and hash, no value
+     *   fields       hash name, 0, field: value
+     * Hashes in keys are written as in log records, raw when they are hex digests.
+     */
+    private static final byte[] ROOT_KEY = entryKey("", "");
+    private static final byte[] NO_VALUE = new byte[0];
+
+    private static final class Inode {
+        final long id;
+        final long parentId;
+        final String member;
+        final String hash;
+        final byte[] value;
+        final TreeMap<String, Inode> children;
+        // For a directory, whether its children are in memory rather than only in the snapshot; the
+        // directories above a loaded one are loaded too
+        boolean loaded;
+
+        Inode(long id, long parentId, String member, String hash, byte[] value, boolean directory, boolean loaded) {
+            this.id = id;
+            this.parentId = parentId;
+            this.member = member;
+            this.hash = hash;
+            this.value = value;
+            this.children = directory ? new TreeMap<>() : null;
+            this.loaded = loaded;
+        }
+    }
+
+    // Hash entry deleted since the snapshot
+    private static final Inode TOMBSTONE = new Inode(0, 0, null, null, null, false, true);
+
+    private final Path directory;
+    private final boolean fsync;
+
+    // The last snapshot; replaced under both write locks
+    private MetadataSnapshot base;
+
+    // Namespace, guarded by namespaceLock
+    private final ReentrantReadWriteLock namespaceLock = new ReentrantReadWriteLock();
+    private final LongObjectHashMap<Inode> inodes = new LongObjectHashMap<>(1024);
+    private final Map<String, Inode> byHash = new HashMap<>();
+    private Inode root;
+    private long nextInodeId = 1;
+    private long directoriesCreated;
+    // Whether the namespace of the snapshot is still current, until the namespace is cleared
+    private boolean baseNamespace;
+
+    // Block map, report states and other small hashes, guarded by blockLock
+    private final ReentrantReadWriteLock blockLock = new ReentrantReadWriteLock();
+    private final Map<String, Set<String>> locations = new HashMap<>();
+    // Blocks of a node: those of the snapshot less nodeBlocksRemoved, plus nodeBlocks
+    private final Map<String, Set<String>> nodeBlocks = new HashMap<>();
+    private final Map<String, Set<String>> nodeBlocksRemoved = new HashMap<>();
+    // BlockReportDigest of the blocks of a node, computed on first use and then kept up to date
+    private final Map<String, Long> nodeDigests = new HashMap<>();
+    private final Map<String, Map<String, String>> hashes = new HashMap<>();
+    private boolean baseBlocks;
+    private String[] baseNodeUrls = new String[0];
+    private final Map<String, Integer> baseNodeIds = new HashMap<>();
+
+    private final AtomicLong logged = new AtomicLong();
+    private long checkpointed;
+    // Records logged since the log moved on for the checkpoint in progress, or null
+    private volatile List<byte[]> sinceRotation;
+    private WriteAheadLog wal;
+
+    /**
+     * @param directory where the log and the snapshot live; empty for "metadata" in the application directory
+     * @param fsync     false to leave flushing the log to the operating system, which loses the last
+     *                  writes on a power failure but not on a crash of the metanode
+     */
+    @Autowired
+    public EmbeddedMetadataStore(@Value("${dfs.metadata.embedded.dir:}") String directory,
+            @Value("${dfs.metadata.embedded.fsync:true}") boolean fsync) {
+        this.directory = directory.isBlank() ? Paths.get(AppConfig.getAppDir(), "metadata") : Paths.get(directory);
+        this.fsync = fsync;
+    }
+
+    /**
+     * A copy of the state of a store, for writing a snapshot while the store goes on. The snapshot and
+     * the entry values are shared, since neither is changed in place. The caller holds both write locks.
+     */
+    private EmbeddedMetadataStore(EmbeddedMetadataStore live) {
+        this.directory = live.directory;
+        this.fsync = live.fsync;
+        base = live.base;
+
+        live.inodes.forEach((id, inode) -> inodes.put(id,
+                new Inode(inode.id, inode.parentId, inode.member, inode.hash, inode.value, inode.children != null, inode.loaded)));
+        inodes.forEach((id, inode) -> {
+            if (inode.parentId != 0) inodes.get(inode.parentId).children.put(inode.member, inode);
+        });
+        root = (live.root != null) ? inodes.get(live.root.id) : null;
+        live.byHash.forEach((hash, inode) -> byHash.put(hash, (inode == TOMBSTONE) ? TOMBSTONE : inodes.get(inode.id)));
+        baseNamespace = live.baseNamespace;
+
+        live.locations.forEach((hash, nodeUrls) -> locations.put(hash, new HashSet<>(nodeUrls)));
+        live.nodeBlocks.forEach((nodeUrl, blocks) -> nodeBlocks.put(nodeUrl, new HashSet<>(blocks)));
+        live.nodeBlocksRemoved.forEach((nodeUrl, blocks) -> nodeBlocksRemoved.put(nodeUrl, new HashSet<>(blocks)));
+        live.hashes.forEach((key, fields) -> hashes.put(key, new LinkedHashMap<>(fields)));
+        baseBlocks = live.baseBlocks;
+        baseNodeUrls = live.baseNodeUrls;
+        baseNodeIds.putAll(live.baseNodeIds);
+    }
+
+    @PostConstruct
+    public void open() throws IOException {
+        Files.createDirectories(directory);
+        long firstSegment = 1;
+        Path snapshot = directory.resolve(SNAPSHOT_FILE);
+        Path checkpoint = directory.resolve(CHECKPOINT_FILE);
+        if (Files.exists(snapshot)) {
+            useSnapshot(MetadataSnapshot.open(snapshot));
+            firstSegment = base.sequence();
+        } else if (Files.exists(checkpoint)) {
+            firstSegment = loadCheckpoint(checkpoint);
+        }
+
+        long nextSegment = firstSegment;
+        long[] replayed = new long[1];
+        boolean intact = true;
+        List<Long> segments = WriteAheadLog.segments(directory);
+        for (int i = 0; i < segments.size(); i++) {
+            long segment = segments.get(i);
+            Path file = WriteAheadLog.segmentPath(directory, segment);
+            if (segment < firstSegment) {
+                Files.deleteIfExists(file);
+                continue;
+            }
+            nextSegment = segment + 1;
+            if (!intact) {
+                logger.error("Skipping metadata log segment {} after an earlier corrupt record", file);
+                continue;
+            }
+            long length = WriteAheadLog.readFrames(file, record -> {
+                apply(record);
+                replayed[0]++;
+            });
+            if (length < Files.size(file)) {
+                if (i == segments.size() - 1) {
+                    // The write in progress when the metanode stopped; cut it off so that the segment stays
+                    // replayable once later segments follow it
+                    logger.warn("Metadata log {} ends with a torn record, which was dropped", file);
+                    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                        channel.truncate(length);
+                    }
+                } else {
+                    intact = false;
+                    logger.error("Metadata log {} holds a corrupt record at byte {}, replay stops there", file, length);
+                }
+            }
+        }
+
+        wal = new WriteAheadLog(directory, nextSegment, fsync);
+        logger.info("Embedded metadata store opened in {}: {} snapshot entries, {} snapshot blocks, {} entries in memory, {} log records replayed",
+                directory, snapshotCount(SECTION_ENTRIES), snapshotCount(SECTION_BLOCKS), inodes.size(), replayed[0]);
+    }
+
+    @PreDestroy
+    public void close() {
+        try {
+            checkpoint();
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Could not write a checkpoint on shutdown, the log will be replayed on the next start", e);
+        }
+        wal.close();
+    }
+
+    @Scheduled(fixedDelayString = "${dfs.metadata.embedded.checkpoint-interval-ms:60000}")
+    public void scheduledCheckpoint() {
+        try {
+            checkpoint();
+        } catch (IOException | RuntimeException e) {
+            logger.error("Metadata checkpoint failed, keeping the log", e);
+        }
+    }
+
+    /**
+     * Writes the whole state to a new snapshot, deletes the log segments it covers and serves reads
+     * from it. Does nothing when nothing was logged since the last checkpoint.
+     */
+    void checkpoint() throws IOException {
+        checkpoint(() -> { });
+    }
+
+    /**
+     * @param whileWriting run once the log has moved on, before the snapshot is written; writes it makes
+     *                     are not part of the snapshot, and are applied again on top of it
+     */
+    synchronized void checkpoint(Runnable whileWriting) throws IOException {
+        long segment;
+        long loggedAtRotation;
+        CompletableFuture<Void> rotated;
+        EmbeddedMetadataStore frozen;
+        namespaceLock.writeLock().lock();
+        blockLock.writeLock().lock();
+        try {
+            loggedAtRotation = logged.get();
+            if (loggedAtRotation == checkpointed) return;
+            segment = wal.currentSegment() + 1;
+            rotated = wal.rotate(segment);
+            frozen = new EmbeddedMetadataStore(this);
+            sinceRotation = Collections.synchronizedList(new ArrayList<>());
+        } finally {
+            blockLock.writeLock().unlock();
+            namespaceLock.writeLock().unlock();
+        }
+
+        try {
+            whileWriting.run();
+            Path temp = directory.resolve(SNAPSHOT_TEMP_FILE);
+            frozen.writeSnapshot(temp, segment);
+            awaitLogged(rotated);
+            Path file = directory.resolve(SNAPSHOT_FILE);
+            // The mapping of the snapshot being replaced stays valid until it is dropped below
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            Files.deleteIfExists(directory.resolve(CHECKPOINT_FILE));
+            for (long old : WriteAheadLog.segments(directory)) {
+                if (old < segment) Files.deleteIfExists(WriteAheadLog.segmentPath(directory, old));
+            }
+            checkpointed = loggedAtRotation;
+
+            MetadataSnapshot written = MetadataSnapshot.open(file);
+            int rebased;
+            namespaceLock.writeLock().lock();
+            blockLock.writeLock().lock();
+            try {
+                // The writes made since the log moved on are applied again on top of the new snapshot,
+                // as a restart would replay them from the log
+                useSnapshot(written);
+                rebased = sinceRotation.size();
+                sinceRotation.forEach(this::apply);
+            } finally {
+                blockLock.writeLock().unlock();
+                namespaceLock.writeLock().unlock();
+            }
+            logger.info("Metadata snapshot written: {} entries, {} blocks, log continues in segment {}, {} later writes applied on top",
+                    written.section(SECTION_ENTRIES).count(), written.section(SECTION_BLOCKS).count(), segment, rebased);
+        } finally {
+            sinceRotation = null;
+        }
+    }
+
+    /**
+     * Serves the state from a snapshot, dropping what memory holds. The caller holds both write locks,
+     * or is opening the store.
+     */
+    private void useSnapshot(MetadataSnapshot snapshot) {
+        base = snapshot;
+        inodes.clear();
+        byHash.clear();
+        root = null;
+        baseNamespace = true;
+        byte[] rootRecord = snapshot.section(SECTION_ENTRIES).get(ROOT_KEY);
+        if (rootRecord != null) {
+            root = addSnapshotInode(null, null, rootRecord);
+        }
+
+        locations.clear();
+        nodeBlocks.clear();
+        nodeBlocksRemoved.clear();
+        nodeDigests.clear();
+        baseBlocks = true;
+        MetadataSnapshot.Section nodes = snapshot.section(SECTION_NODES);
+        baseNodeUrls = new String[(int) nodes.count()];
+        baseNodeIds.clear();
+        for (int id = 0; id < baseNodeUrls.length; id++) {
+            baseNodeUrls[id] = new String(nodes.key(id), StandardCharsets.UTF_8);
+            baseNodeIds.put(baseNodeUrls[id], id);
+        }
+
+        // Few and small, so always in memory
+        hashes.clear();
+        MetadataSnapshot.Section fields = snapshot.section(SECTION_FIELDS);
+        for (long rank = 0; rank < fields.count(); rank++) {
+            byte[] key = fields.key(rank);
+            int split = indexOf(key, (byte) 0, 0);
+            hashes.computeIfAbsent(new String(key, 0, split, StandardCharsets.UTF_8), name -> new LinkedHashMap<>())
+                    .put(new String(key, split + 1, key.length - split - 1, StandardCharsets.UTF_8),
+                            new String(fields.value(rank), StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * @return the first log segment after the snapshot in use, or 0 without a snapshot
+     */
+    long snapshotSequence() {
+        namespaceLock.readLock().lock();
+        try {
+            return (base != null) ? base.sequence() : 0;
+        } finally {
+            namespaceLock.readLock().unlock();
+        }
+    }
+
+    private long snapshotCount(int section) {
+        return (base != null) ? base.section(section).count() : 0;
+    }
+
+    /**
+     * Writes memory merged with the snapshot it stands on. Called on a copy of the store, which nothing
+     * else uses.
+     */
+    private void writeSnapshot(Path file, long segment) throws IOException {
+        try (MetadataSnapshot.Writer writer = new MetadataSnapshot.Writer(file, segment)) {
+            Map<String, Integer> nodeIds = writeNodes(writer);
+            writeEntries(writer);
+            writeHashIndex(writer);
+            writeBlocks(writer, nodeIds);
+            writeNodeBlocks(writer, nodeIds);
+            writeFields(writer);
+            writer.finish();
+        }
+    }
+
+    /**
+     * @return the ids of the nodes in the new snapshot
+     */
+    private Map<String, Integer> writeNodes(MetadataSnapshot.Writer writer) throws IOException {
+        Set<String> nodeUrls = new HashSet<>(nodeBlocks.keySet());
+        locations.values().forEach(nodeUrls::addAll);
+        if (baseBlocks) nodeUrls.addAll(baseNodeIds.keySet());
+
+        List<byte[][]> records = new ArrayList<>(nodeUrls.size());
+        for (String nodeUrl : nodeUrls) {
+            records.add(new byte[][] { nodeUrl.getBytes(StandardCharsets.UTF_8), NO_VALUE });
+        }
+        writeSection(writer, SECTION_NODES, records, null, null);
+
+        // Ranks, in the key order of the section
+        Map<String, Integer> nodeIds = new HashMap<>();
+        for (byte[][] record : records) {
+            nodeIds.put(new String(record[0], StandardCharsets.UTF_8), nodeIds.size());
+        }
+        return nodeIds;
+    }
+
+    private void writeEntries(MetadataSnapshot.Writer writer) throws IOException {
+        Map<Long, String> paths = new HashMap<>();
+        List<byte[][]> records = new ArrayList<>(inodes.size());
+        // Every inode in memory but the root is in a loaded directory, which memory holds whole
+        inodes.forEach((id, inode) -> {
+            byte[] key = (inode == root) ? ROOT_KEY
+                    : entryKey(paths.computeIfAbsent(inode.parentId, parentId -> pathOf(inodes.get(parentId))), inode.member);
+            records.add(new byte[][] { key, entryRecord(inode) });
+        });
+
+        MetadataSnapshot.Section entries = baseNamespace ? base.section(SECTION_ENTRIES) : null;
+        byte[][] lastParent = { null };
+        boolean[] lastHeld = { false };
+        writeSection(writer, SECTION_ENTRIES, records, entries, (key, rank) -> {
+            if (Arrays.equals(key, ROOT_KEY)) return null;
+            byte[] parent = Arrays.copyOf(key, indexOf(key, (byte) 0, 0));
+            if (!Arrays.equals(parent, lastParent[0])) {
+                lastParent[0] = parent;
+                lastHeld[0] = isHeld(new String(parent, StandardCharsets.UTF_8));
+            }
+            return lastHeld[0] ? null : new byte[][] { key, entries.value(rank) };
+        });
+    }
+
+    private void writeHashIndex(MetadataSnapshot.Writer writer) throws IOException {
+        Map<Long, String> paths = new HashMap<>();
+        List<byte[][]> records = new ArrayList<>(byHash.size());
+        for (Map.Entry<String, Inode> entry : byHash.entrySet()) {
+            Inode inode = entry.getValue();
+            if (inode == TOMBSTONE) continue;
+            String parentPath = paths.computeIfAbsent(inode.parentId, parentId -> pathOf(inodes.get(parentId)));
+            records.add(new byte[][] { hashKey(entry.getKey()), entryKey(parentPath, inode.member) });
+        }
+
+        MetadataSnapshot.Section index = baseNamespace ? base.section(SECTION_HASHES) : null;
+        writeSection(writer, SECTION_HASHES, records, index, (key, rank) -> {
+            String hash = readHash(key, 0);
+            if (byHash.containsKey(hash)) return null;
+            byte[] target = index.value(rank);
+            int split = indexOf(target, (byte) 0, 0);
+            String parentPath = new String(target, 0, split, StandardCharsets.UTF_8);
+            if (isHeld(parentPath)) {
+                // Memory has the last word on the entry: keep the hash only while the entry still has it
+                Inode inode = find(parentPath, new String(target, split + 1, target.length - split - 1, StandardCharsets.UTF_8), false);
+                if (inode == null || !hash.equals(inode.hash)) return null;
+            }
+            return new byte[][] { key, target };
+        });
+    }
+
+    private void writeBlocks(MetadataSnapshot.Writer writer, Map<String, Integer> nodeIds) throws IOException {
+        List<byte[][]> records = new ArrayList<>(locations.size());
+        for (Map.Entry<String, Set<String>> entry : locations.entrySet()) {
+            if (entry.getValue().isEmpty()) continue;
+            CompactValueCodec.Writer value = new CompactValueCodec.Writer(16);
+            value.writeVarLong(entry.getValue().size());
+            for (String nodeUrl : entry.getValue()) {
+                value.writeVarLong(nodeIds.get(nodeUrl));
+            }
+            records.add(new byte[][] { hashKey(entry.getKey()), value.toByteArray() });
+        }
+
+        MetadataSnapshot.Section blocks = baseBlocks ? base.section(SECTION_BLOCKS) : null;
+        writeSection(writer, SECTION_BLOCKS, records, blocks, (key, rank) -> {
+            if (locations.containsKey(readHash(key, 0))) return null;
+            CompactValueCodec.Reader in = new CompactValueCodec.Reader(blocks.value(rank), 0);
+            int count = in.readCount();
+            CompactValueCodec.Writer value = new CompactValueCodec.Writer(16);
+            value.writeVarLong(count);
+            for (int i = 0; i < count; i++) {
+                value.writeVarLong(nodeIds.get(baseNodeUrls[(int) in.readVarLong()]));
+            }
+            return new byte[][] { key, value.toByteArray() };
+        });
+    }
+
+    private void writeNodeBlocks(MetadataSnapshot.Writer writer, Map<String, Integer> nodeIds) throws IOException {
+        List<byte[][]> records = new ArrayList<>();
+        for (Map.Entry<String, Set<String>> entry : nodeBlocks.entrySet()) {
+            byte[] prefix = nodeKey(nodeIds.get(entry.getKey()));
+            for (String hash : entry.getValue()) {
+                records.add(new byte[][] { concat(prefix, hashKey(hash)), NO_VALUE });
+            }
+        }
+
+        // Nodes keep their order when others are added, so the records of the snapshot stay sorted
+        // once their node ids are replaced
+        MetadataSnapshot.Section blocks = baseBlocks ? base.section(SECTION_NODE_BLOCKS) : null;
+        writeSection(writer, SECTION_NODE_BLOCKS, records, blocks, (key, rank) -> {
+            String nodeUrl = baseNodeUrls[ByteBuffer.wrap(key).getInt()];
+            Set<String> removed = nodeBlocksRemoved.get(nodeUrl);
+            if (removed != null && removed.contains(readHash(key, 4))) return null;
+            byte[] rewritten = key.clone();
+            ByteBuffer.wrap(rewritten).putInt(nodeIds.get(nodeUrl));
+            return new byte[][] { rewritten, NO_VALUE };
+        });
+    }
+
+    private void writeFields(MetadataSnapshot.Writer writer) throws IOException {
+        List<byte[][]> records = new ArrayList<>();
+        for (Map.Entry<String, Map<String, String>> hash : hashes.entrySet()) {
+            for (Map.Entry<String, String> field : hash.getValue().entrySet()) {
+                byte[] key = (hash.getKey() + '\0' + field.getKey()).getBytes(StandardCharsets.UTF_8);
+                records.add(new byte[][] { key, field.getValue().getBytes(StandardCharsets.UTF_8) });
+            }
+        }
+        writeSection(writer, SECTION_FIELDS, records, null, null);
+    }
+
+    /**
+     * A record of the previous snapshot as it goes to the new one.
+     */
+    @FunctionalInterface
+    private interface Carried {
+        /**
+         * @return the key and value to write, or null when memory replaced or deleted the record
+         */
+        byte[][] carry(byte[] key, long rank);
+    }
+
+    /**
+     * Writes one section: the records from memory, in key order, merged with those carried over from
+     * the previous snapshot, streamed from it.
+     *
+     * @param records key and value pairs from memory; sorted in place
+     * @param previous the section of the previous snapshot, or null
+     */
+    private static void writeSection(MetadataSnapshot.Writer writer, int section, List<byte[][]> records,
+            MetadataSnapshot.Section previous, Carried carried) throws IOException {
+        records.sort((a, b) -> Arrays.compareUnsigned(a[0], b[0]));
+        writer.beginSection(section);
+        int next = 0;
+        long count = (previous != null) ? previous.count() : 0;
+        for (long rank = 0; rank < count; rank++) {
+            byte[][] record = carried.carry(previous.key(rank), rank);
+            if (record == null) continue;
+            while (next < records.size() && Arrays.compareUnsigned(records.get(next)[0], record[0]) < 0) {
+                writer.add(records.get(next)[0], records.get(next)[1]);
+                next++;
+            }
+            writer.add(record[0], record[1]);
+        }
+        for (; next < records.size(); next++) {
+            writer.add(records.get(next)[0], records.get(next)[1]);
+        }
+        writer.endSection();
+    }
+
+    /**
+     * Loads a checkpoint of an earlier version whole.
+     *
+     * @return the first log segment written after the checkpoint
+     */
+    private long loadCheckpoint(Path file) throws IOException {
+        long[] firstSegment = new long[1];
+        long intact = WriteAheadLog.readFrames(file, bytes -> {
+            CompactValueCodec.Reader in = new CompactValueCodec.Reader(bytes, 0);
+            int op = in.readByte();
+            if (op == OP_CHECKPOINT) {
+                long format = in.readVarLong();
+                if (format != CHECKPOINT_FORMAT) {
+                    throw new IllegalStateException("Unsupported metadata checkpoint format " + format);
+                }
+                firstSegment[0] = in.readVarLong();
+            } else if (op == OP_INODE) {
+                long id = in.readVarLong();
+                long parentId = in.readVarLong();
+                String member = in.readString();
+                String hash = in.readHash();
+                boolean isDirectory = in.readByte() == 1;
+                Inode inode = new Inode(id, parentId, member, hash, in.readBytes(), isDirectory, true);
+                inodes.put(id, inode);
+                if (parentId == 0) {
+                    root = inode;
+                } else {
+                    inodes.get(parentId).children.put(member, inode);
+                }
+                nextInodeId = Math.max(nextInodeId, id + 1);
+            } else if (op == OP_HASH_ENTRY) {
+                String hash = in.readHash();
+                byHash.put(hash, inodes.get(in.readVarLong()));
+            } else {
+                apply(bytes);
+            }
+        });
+        if (intact < Files.size(file) || firstSegment[0] == 0) {
+            throw new IllegalStateException("Corrupt metadata checkpoint " + file);
+        }
+        return firstSegment[0];
+    }
+
+    // ---- Namespace ----
+
+    @Override
+    public boolean saveFile(String directory, DfsFile file, DfsFile root, List<DfsFile> chain) {
+        CompactValueCodec.Writer record = record(OP_SAVE_FILE);
+        writeDirectories(record, root, chain);
+        writeEntry(record, file);
+        return writeNamespace(record.toByteArray()) == 1L;
+    }
+
+    @Override
+    public DfsFile createDirectories(DfsFile root, List<DfsFile> chain) {
+        CompactValueCodec.Writer record = record(OP_CREATE_DIRECTORIES);
+        writeDirectories(record, root, chain);
+        writeNamespace(record.toByteArray());
+
+        DfsFile last = chain.isEmpty() ? root : chain.get(chain.size() - 1);
+        DfsFile stored = getDirectory(last.getPath());
+        return (stored != null) ? stored : last;
+    }
+
+    @Override
+    public DfsFile getFile(String path) {
+        return lookup(path, INDEX_FILE_MEMBER);
+    }
+
+    @Override
+    public DfsFile getDirectory(String path) {
+        return lookup(path, INDEX_DIR_MEMBER);
+    }
+
+    private DfsFile lookup(String path, String memberType) {
+        byte[] value;
+        namespaceLock.readLock().lock();
+        try {
+            Inode inode = resolve(path, memberType, false);
+            value = (inode != null) ? inode.value : null;
+        } finally {
+            namespaceLock.readLock().unlock();
+        }
+        return VALUES.deserialize(value);
+    }
+
+    @Override
+    public DfsFile getByHash(String hash) {
+        byte[] value;
+        namespaceLock.readLock().lock();
+        try {
+            Inode inode = findByHash(hash, false);
+            value = (inode != null) ? inode.value : null;
+        } finally {
+            namespaceLock.readLock().unlock();
+        }
+        return VALUES.deserialize(value);
+    }
+
+    @Override
+    public DirectoryPage listDirectory(String directory, String cursor, int limit) {
+        List<byte[]> values = new ArrayList<>();
+        String lastMember = null;
+        // Whether a member follows the page
+        boolean more = false;
+        namespaceLock.readLock().lock();
+        try {
+            Inode dir = resolve(directory, INDEX_DIR_MEMBER, false);
+            if (dir == null) {
+                return new DirectoryPage(new ArrayList<>(), null);
+            }
+            if (dir.loaded) {
+                Map<String, Inode> children = (cursor == null) ? dir.children : dir.children.tailMap(cursor, false);
+                for (Map.Entry<String, Inode> child : children.entrySet()) {
+                    if (values.size() == limit) {
+                        more = true;
+                        break;
+                    }
+                    values.add(child.getValue().value);
+                    lastMember = child.getKey();
+                }
+            } else {
+                String path = parentPath(segments(directory), Integer.MAX_VALUE);
+                MetadataSnapshot.Section entries = base.section(SECTION_ENTRIES);
+                byte[] prefix = entryKey(path, "");
+                long rank = entries.ceiling((cursor == null) ? prefix : entryKey(path, cursor));
+                for (; rank < entries.count(); rank++) {
+                    byte[] key = entries.key(rank);
+                    if (!startsWith(key, prefix)) break;
+                    String member = new String(key, prefix.length, key.length - prefix.length, StandardCharsets.UTF_8);
+                    if (member.equals(cursor)) continue;
+                    if (values.size() == limit) {
+                        more = true;
+                        break;
+                    }
+                    values.add(snapshotInode(member, entries.value(rank)).value);
+                    lastMember = member;
+                }
+            }
+        } finally {
+            namespaceLock.readLock().unlock();
+        }
+
+        List<DfsFile> entries = new ArrayList<>(values.size());
+        for (byte[] value : values) {
+            entries.add(VALUES.deserialize(value));
+        }
+        return new DirectoryPage(entries, more ? lastMember : null);
+    }
+
+    @Override
+    public DfsFile deleteFile(String path) {
+        byte[] record = stringRecord(OP_DELETE_FILE, path);
+        byte[] value;
+        CompletableFuture<Void> written;
+        namespaceLock.writeLock().lock();
+        try {
+            Inode file = resolve(path, INDEX_FILE_MEMBER, true);
+            if (file == null) return null;
+            value = file.value;
+            apply(record);
+            written = log(record);
+        } finally {
+            namespaceLock.writeLock().unlock();
+        }
+        awaitLogged(written);
+        return VALUES.deserialize(value);
+    }
+
+    @Override
+    public DfsFile deleteByHash(String hash) {
+        byte[] record = stringRecord(OP_DELETE_BY_HASH, hash);
+        byte[] value;
+        CompletableFuture<Void> written;
+        namespaceLock.writeLock().lock();
+        try {
+            Inode inode = findByHash(hash, true);
+            if (inode == null) return null;
+            value = inode.value;
+            apply(record);
+            written = log(record);
+        } finally {
+            namespaceLock.writeLock().unlock();
+        }
+        awaitLogged(written);
+        return VALUES.deserialize(value);
+    }
+
+    @Override
+    public void clearNamespace() {
+        writeNamespace(record(OP_CLEAR_NAMESPACE).toByteArray());
+        logger.info("Cleared the embedded namespace.");
+    }
+
+    /**
+     * Logs the entries held in memory and those of the snapshot that memory did not replace.
+     */
+    @Override
+    public void logContents() {
+        List<byte[]> values = new ArrayList<>();
+        namespaceLock.readLock().lock();
+        try {
+            inodes.forEach((id, inode) -> values.add(inode.value));
+            if (baseNamespace) {
+                MetadataSnapshot.Section entries = base.section(SECTION_ENTRIES);
+                for (long rank = 0; rank < entries.count(); rank++) {
+                    byte[] key = entries.key(rank);
+                    if (Arrays.equals(key, ROOT_KEY)) continue;
+                    if (!isHeld(new String(key, 0, indexOf(key, (byte) 0, 0), StandardCharsets.UTF_8))) {
+                        values.add(snapshotInode(null, entries.value(rank)).value);
+                    }
+                }
+            }
+        } finally {
+            namespaceLock.readLock().unlock();
+        }
+        logger.info("Logging all {} entries of the embedded namespace:", values.size());
+        for (byte[] value : values) {
+            DfsFile entry = VALUES.deserialize(value);
+            logger.info("{}: {}", entry.isDirectory() ? "Directory" : "File", entry.getPath());
+        }
+    }
+
+    /**
+     * The entry at a path, looking the last segment up as memberType ("d:" or "f:"); "/" is the root directory.
+     *
+     * @param load true to load the directories on the way from the snapshot, under the write lock; false
+     *             to return what is below them as read from the snapshot, an inode that is not part of the tree
+     */
+    private Inode resolve(String path, String memberType, boolean load) {
+        if (path == null) return null;
+        List<String> segments = segments(path);
+        if (segments.isEmpty()) {
+            return memberType.equals(INDEX_DIR_MEMBER) ? root : null;
+        }
+        int last = segments.size() - 1;
+        return find(parentPath(segments, last), memberType + segments.get(last), load);
+    }
+
+    /**
+     * A member of the directory at a path, see resolve.
+     */
+    private Inode find(String parentPath, String member, boolean load) {
+        if (root == null) return null;
+        Inode dir = root;
+        for (String segment : segments(parentPath)) {
+            if (!dir.loaded) {
+                if (!load) return snapshotEntry(parentPath, member);
+                load(dir);
+            }
+            dir = dir.children.get(INDEX_DIR_MEMBER + segment);
+            if (dir == null) return null;
+        }
+        if (!dir.loaded) {
+            if (!load) return snapshotEntry(parentPath, member);
+            load(dir);
+        }
+        return dir.children.get(member);
+    }
+
+    /**
+     * The entry a hash points to, see resolve; a hash that memory does not know is looked up in the
+     * snapshot, and only counts while its entry still has that hash.
+     */
+    private Inode findByHash(String hash, boolean load) {
+        Inode inode = byHash.get(hash);
+        if (inode != null) return (inode != TOMBSTONE) ? inode : null;
+        if (!baseNamespace || hash == null) return null;
+        byte[] target = base.section(SECTION_HASHES).get(hashKey(hash));
+        if (target == null) return null;
+        int split = indexOf(target, (byte) 0, 0);
+        inode = find(new String(target, 0, split, StandardCharsets.UTF_8),
+                new String(target, split + 1, target.length - split - 1, StandardCharsets.UTF_8), load);
+        return (inode != null && hash.equals(inode.hash)) ? inode : null;
+    }
+
+    /**
+     * Whether memory has the last word on what the directory at this path holds: it is loaded, or it
+     * is missing from a loaded directory.
+     */
+    private boolean isHeld(String path) {
+        if (root == null) return true;
+        Inode dir = root;
+        for (String segment : segments(path)) {
+            if (!dir.loaded) return false;
+            dir = dir.children.get(INDEX_DIR_MEMBER + segment);
+            if (dir == null) return true;
+        }
+        return dir.loaded;
+    }
+
+    private TreeMap<String, Inode> children(Inode dir) {
+        if (!dir.loaded) load(dir);
+        return dir.children;
+    }
+
+    /**
+     * Reads the children of a directory from the snapshot into memory. The caller holds the write lock.
+     */
+    private void load(Inode dir) {
+        dir.loaded = true;
+        MetadataSnapshot.Section entries = base.section(SECTION_ENTRIES);
+        byte[] prefix = entryKey(pathOf(dir), "");
+        for (long rank = entries.ceiling(prefix); rank < entries.count(); rank++) {
+            byte[] key = entries.key(rank);
+            if (!startsWith(key, prefix)) break;
+            String member = new String(key, prefix.length, key.length - prefix.length, StandardCharsets.UTF_8);
+            addSnapshotInode(dir, member, entries.value(rank));
+        }
+    }
+
+    private Inode snapshotEntry(String parentPath, String member) {
+        byte[] record = base.section(SECTION_ENTRIES).get(entryKey(parentPath, member));
+        return (record != null) ? snapshotInode(member, record) : null;
+    }
+
+    /**
+     * An entry read from the snapshot, outside of the tree.
+     */
+    private static Inode snapshotInode(String member, byte[] record) {
+        CompactValueCodec.Reader in = new CompactValueCodec.Reader(record, 0);
+        String hash = in.readHash();
+        boolean isDirectory = in.readByte() == 1;
+        return new Inode(0, 0, member, hash, in.readBytes(), isDirectory, false);
+    }
+
+    private Inode addSnapshotInode(Inode parent, String member, byte[] record) {
+        CompactValueCodec.Reader in = new CompactValueCodec.Reader(record, 0);
+        String hash = in.readHash();
+        boolean isDirectory = in.readByte() == 1;
+        Inode inode = addInode(parent, member, hash, in.readBytes(), isDirectory);
+        inode.loaded = !isDirectory;
+        return inode;
+    }
+
+    private static byte[] entryRecord(Inode inode) {
+        CompactValueCodec.Writer record = new CompactValueCodec.Writer(inode.value.length + 40);
+        record.writeHash(inode.hash);
+        record.writeByte(inode.children != null ? 1 : 0);
+        record.writeBytes(inode.value);
+        return record.toByteArray();
+    }
+
+    /**
+     * The path of a directory in memory, as in the keys of the snapshot.
+     */
+    private String pathOf(Inode dir) {
+        Deque<String> names = new ArrayDeque<>();
+        for (Inode inode = dir; inode != root; inode = inodes.get(inode.parentId)) {
+            names.addFirst(inode.member.substring(INDEX_DIR_MEMBER.length()));
+        }
+        return "/" + String.join("/", names);
+    }
+
+    private static List<String> segments(String path) {
+        List<String> segments = new ArrayList<>();
+        for (String segment : path.split("/")) {
+            if (!segment.isEmpty()) segments.add(segment);
+        }
+        return segments;
+    }
+
+    /**
+     * The path of the first segments, as in the keys of the snapshot.
+     */
+    private static String parentPath(List<String> segments, int count) {
+        return "/" + String.join("/", segments.subList(0, Math.min(count, segments.size())));
+    }
+
+    private Inode addInode(Inode parent, String member, String hash, byte[] value, boolean isDirectory) {
+        Inode inode = new Inode(nextInodeId++, (parent != null) ? parent.id : 0, member, hash, value, isDirectory, true);
+        inodes.put(inode.id, inode);
+        if (parent != null) parent.children.put(member, inode);
+        return inode;
+    }
+
+    private void removeInode(Inode inode) {
+        Inode parent = inodes.get(inode.parentId);
+        if (parent != null) parent.children.remove(inode.member);
+        inodes.remove(inode.id);
+        if (inode.hash != null && byHash.get(inode.hash) == inode) unlinkHash(inode.hash);
+    }
+
+    private void unlinkHash(String hash) {
+        if (baseNamespace) {
+            byHash.put(hash, TOMBSTONE);
+        } else {
+            byHash.remove(hash);
+        }
+    }
+
+    /**
+     * Creates the root and the missing directories of a chain record.
+     *
+     * @return the last directory of the chain
+     */
+    private Inode applyDirectories(CompactValueCodec.Reader in) {
+        byte[] rootValue = in.readBytes();
+        if (root == null) {
+            root = addInode(null, null, null, rootValue, true);
+            directoriesCreated++;
+        }
+        Inode dir = root;
+        int count = in.readCount();
+        for (int i = 0; i < count; i++) {
+            String name = in.readString();
+            String hash = in.readHash();
+            byte[] value = in.readBytes();
+            Inode child = children(dir).get(INDEX_DIR_MEMBER + name);
+            if (child == null) {
+                child = addInode(dir, INDEX_DIR_MEMBER + name, hash, value, true);
+                byHash.put(hash, child);
+                directoriesCreated++;
+            }
+            dir = child;
+        }
+        return dir;
+    }
+
+    // ---- Block map ----
+
+    @Override
+    public long addLocation(String hash, String nodeUrl) {
+        return writeBlocks(locationRecord(OP_ADD_LOCATION, hash, nodeUrl));
+    }
+
+    @Override
+    public long removeLocation(String hash, String nodeUrl) {
+        return writeBlocks(locationRecord(OP_REMOVE_LOCATION, hash, nodeUrl));
+    }
+
+    @Override
+    public List<Long> addLocations(List<String> hashes, List<String> nodeUrls) {
+        return writeLocations(OP_ADD_LOCATION, hashes, nodeUrls);
+    }
+
+    @Override
+    public List<Long> removeLocations(List<String> hashes, List<String> nodeUrls) {
+        return writeLocations(OP_REMOVE_LOCATION, hashes, nodeUrls);
+    }
+
+    /**
+     * Applies a batch under a single lock acquisition and waits for the log once, for its last record.
+     */
+    private List<Long> writeLocations(int op, List<String> hashes, List<String> nodeUrls) {
+        Long[] results = new Long[hashes.size()];
+        CompletableFuture<Void> written = null;
+        blockLock.writeLock().lock();
+        try {
+            for (int i = 0; i < hashes.size(); i++) {
+                if (hashes.get(i) == null || nodeUrls.get(i) == null) continue;
+                byte[] record = locationRecord(op, hashes.get(i), nodeUrls.get(i));
+                results[i] = apply(record);
+                if (changed(op, results[i])) written = log(record);
+            }
+        } finally {
+            blockLock.writeLock().unlock();
+        }
+        awaitLogged(written);
+        return Arrays.asList(results);
+    }
+
+    @Override
+    public Set<String> getLocations(String hash) {
+        blockLock.readLock().lock();
+        try {
+            Set<String> nodeUrls = nodesOf(hash);
+            return (nodeUrls != null) ? new HashSet<>(nodeUrls) : null;
+        } finally {
+            blockLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Set<String>> getLocations(List<String> hashes) {
+        List<Set<String>> result = new ArrayList<>(hashes.size());
+        blockLock.readLock().lock();
+        try {
+            for (String hash : hashes) {
+                Set<String> nodeUrls = (hash != null) ? nodesOf(hash) : null;
+                result.add((nodeUrls != null) ? new HashSet<>(nodeUrls) : null);
+            }
+        } finally {
+            blockLock.readLock().unlock();
+        }
+        return result;
+    }
+
+    @Override
+    public boolean removeBlock(String hash) {
+        return writeBlocks(stringRecord(OP_REMOVE_BLOCK, hash)) == 1L;
+    }
+
+    /**
+     * Iterates a copy of the node's blocks taken when called.
+     */
+    @Override
+    public CloseableIterator<String> scanBlocksOnNode(String nodeUrl, int batchSize) {
+        List<String> blocks = new ArrayList<>();
+        blockLock.readLock().lock();
+        try {
+            forEachBlockOnNode(nodeUrl, blocks::add);
+        } finally {
+            blockLock.readLock().unlock();
+        }
+        Iterator<String> iterator = blocks.iterator();
+        return new CloseableIterator<String>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public String next() {
+                return iterator.next();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Override
+    public Set<String> filterBlocksOnNode(String nodeUrl, Collection<String> hashes) {
+        Set<String> present = new HashSet<>();
+        blockLock.readLock().lock();
+        try {
+            for (String hash : hashes) {
+                if (isOnNode(nodeUrl, hash)) present.add(hash);
+            }
+        } finally {
+            blockLock.readLock().unlock();
+        }
+        return present;
+    }
+
+    @Override
+    public void diffBlocksOnNode(String nodeUrl, Collection<String> hashes, List<String> added, List<String> removed) {
+        Set<String> reported = new HashSet<>(hashes);
+        blockLock.readLock().lock();
+        try {
+            Set<String> blocks = new HashSet<>();
+            forEachBlockOnNode(nodeUrl, blocks::add);
+            for (String hash : reported) {
+                if (!blocks.contains(hash)) added.add(hash);
+            }
+            for (String hash : blocks) {
+                if (!reported.contains(hash)) removed.add(hash);
+            }
+        } finally {
+            blockLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long getBlockDigest(String nodeUrl) {
+        blockLock.writeLock().lock();
+        try {
+            Long digest = nodeDigests.get(nodeUrl);
+            if (digest == null) {
+                long[] computed = new long[1];
+                forEachBlockOnNode(nodeUrl, hash -> computed[0] = BlockReportDigest.toggle(computed[0], hash));
+                digest = computed[0];
+                nodeDigests.put(nodeUrl, digest);
+            }
+            return digest;
+        } finally {
+            blockLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * The digest is derived from the blocks of the node, so it never needs a repair.
+     */
+    @Override
+    public void resetBlockDigest(String nodeUrl, Collection<String> hashes) {
+    }
+
+    @Override
+    public ReportState getReportState(String nodeUrl) {
+        Map<String, String> state = getHash(BlockReportService.NODE_REPORT_PREFIX + nodeUrl);
+        if (state.get(FIELD_SEQ) == null || state.get(FIELD_DIGEST) == null) {
+            return null;
+        }
+        return new ReportState(Long.parseLong(state.get(FIELD_SEQ)), Long.parseLong(state.get(FIELD_DIGEST)));
+    }
+
+    @Override
+    public void saveReportState(String nodeUrl, ReportState state) {
+        Map<String, String> fields = new LinkedHashMap<>();
+        fields.put(FIELD_SEQ, Long.toString(state.getSeq()));
+        fields.put(FIELD_DIGEST, Long.toString(state.getDigest()));
+        writeBlocks(hashPutRecord(BlockReportService.NODE_REPORT_PREFIX + nodeUrl, fields));
+    }
+
+    @Override
+    public void deleteReportState(String nodeUrl) {
+        deleteHash(BlockReportService.NODE_REPORT_PREFIX + nodeUrl);
+    }
+
+    /**
+     * Removes the blocks, their locations and the report states, like the Redis store; other hashes stay.
+     */
+    @Override
+    public void clearBlocks() {
+        writeBlocks(record(OP_CLEAR_BLOCKS).toByteArray());
+    }
+
+    /**
+     * The nodes of a block, from memory or else from the snapshot; null when it has none.
+     */
+    private Set<String> nodesOf(String hash) {
+        Set<String> nodeUrls = locations.get(hash);
+        if (nodeUrls == null && baseBlocks) nodeUrls = snapshotNodesOf(hash);
+        return (nodeUrls == null || nodeUrls.isEmpty()) ? null : nodeUrls;
+    }
+
+    /**
+     * The nodes of a block in memory, read from the snapshot first when memory does not have them;
+     * null when it has none. The caller holds the write lock.
+     */
+    private Set<String> loadNodesOf(String hash) {
+        Set<String> nodeUrls = locations.get(hash);
+        if (nodeUrls == null && baseBlocks) {
+            nodeUrls = snapshotNodesOf(hash);
+            if (nodeUrls != null) locations.put(hash, nodeUrls);
+        }
+        return nodeUrls;
+    }
+
+    private Set<String> snapshotNodesOf(String hash) {
+        byte[] value = base.section(SECTION_BLOCKS).get(hashKey(hash));
+        if (value == null) return null;
+        CompactValueCodec.Reader in = new CompactValueCodec.Reader(value, 0);
+        int count = in.readCount();
+        Set<String> nodeUrls = new HashSet<>(Math.max(4, count * 2));
+        for (int i = 0; i < count; i++) {
+            nodeUrls.add(baseNodeUrls[(int) in.readVarLong()]);
+        }
+        return nodeUrls;
+    }
+
+    private boolean isOnNode(String nodeUrl, String hash) {
+        Set<String> blocks = nodeBlocks.get(nodeUrl);
+        if (blocks != null && blocks.contains(hash)) return true;
+        Integer nodeId = baseBlocks ? baseNodeIds.get(nodeUrl) : null;
+        if (nodeId == null) return false;
+        Set<String> removed = nodeBlocksRemoved.get(nodeUrl);
+        if (removed != null && removed.contains(hash)) return false;
+        return base.section(SECTION_NODE_BLOCKS).find(concat(nodeKey(nodeId), hashKey(hash))) >= 0;
+    }
+
+    private void forEachBlockOnNode(String nodeUrl, Consumer<String> action) {
+        nodeBlocks.getOrDefault(nodeUrl, Set.of()).forEach(action);
+        Integer nodeId = baseBlocks ? baseNodeIds.get(nodeUrl) : null;
+        if (nodeId == null) return;
+        Set<String> removed = nodeBlocksRemoved.getOrDefault(nodeUrl, Set.of());
+        MetadataSnapshot.Section blocks = base.section(SECTION_NODE_BLOCKS);
+        byte[] prefix = nodeKey(nodeId);
+        for (long rank = blocks.ceiling(prefix); rank < blocks.count(); rank++) {
+            byte[] key = blocks.key(rank);
+            if (!startsWith(key, prefix)) break;
+            String hash = readHash(key, prefix.length);
+            if (!removed.contains(hash)) action.accept(hash);
+        }
+    }
+
+    /**
+     * Records a block on a node. The nodes of the block say it was not there yet, so it is either one
+     * removed from the snapshot's blocks of the node or a new one.
+     */
+    private void addNodeBlock(String nodeUrl, String hash) {
+        nodeDigests.computeIfPresent(nodeUrl, (url, digest) -> BlockReportDigest.toggle(digest, hash));
+        Set<String> removed = nodeBlocksRemoved.get(nodeUrl);
+        if (removed != null && removed.remove(hash)) {
+            if (removed.isEmpty()) nodeBlocksRemoved.remove(nodeUrl);
+            return;
+        }
+        nodeBlocks.computeIfAbsent(nodeUrl, url -> new HashSet<>()).add(hash);
+    }
+
+    private void removeNodeBlock(String nodeUrl, String hash) {
+        nodeDigests.computeIfPresent(nodeUrl, (url, digest) -> BlockReportDigest.toggle(digest, hash));
+        Set<String> blocks = nodeBlocks.get(nodeUrl);
+        if (blocks != null && blocks.remove(hash)) {
+            if (blocks.isEmpty()) nodeBlocks.remove(nodeUrl);
+        } else if (baseBlocks) {
+            nodeBlocksRemoved.computeIfAbsent(nodeUrl, url -> new HashSet<>()).add(hash);
+        }
+    }
+
+    // ---- Small string hashes, the embedded counterpart of Redis hashes (report states, node membership) ----
+
+    /**
+     * @return a copy of the fields of a hash, empty when it does not exist
+     */
+    Map<String, String> getHash(String key) {
+        blockLock.readLock().lock();
+        try {
+            Map<String, String> fields = hashes.get(key);
+            return (fields != null) ? new LinkedHashMap<>(fields) : new LinkedHashMap<>();
+        } finally {
+            blockLock.readLock().unlock();
+        }
+    }
+
+    void putHashField(String key, String field, String value) {
+        writeBlocks(hashPutRecord(key, Map.of(field, value)));
+    }
+
+    void deleteHashField(String key, String field) {
+        CompactValueCodec.Writer record = record(OP_HASH_DELETE);
+        record.writeString(key);
+        record.writeString(field);
+        writeBlocks(record.toByteArray());
+    }
+
+    void deleteHash(String key) {
+        writeBlocks(stringRecord(OP_HASH_CLEAR, key));
+    }
+
+    // ---- Records ----
+
+    private long writeNamespace(byte[] record) {
+        return write(namespaceLock, record);
+    }
+
+    private long writeBlocks(byte[] record) {
+        return write(blockLock, record);
+    }
+
+    /**
+     * Applies a record under the write lock and logs it when it changed anything, in the order of
+     * application; the caller then waits for the log outside the lock, so that writers of a group commit
+     * do not hold each other up.
+     */
+    private long write(ReentrantReadWriteLock lock, byte[] record) {
+        long result;
+        CompletableFuture<Void> written = null;
+        lock.writeLock().lock();
+        try {
+            result = apply(record);
+            if (changed(record[0], result)) written = log(record);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        awaitLogged(written);
+        return result;
+    }
+
+    private CompletableFuture<Void> log(byte[] record) {
+        logged.incrementAndGet();
+        List<byte[]> delta = sinceRotation;
+        if (delta != null) delta.add(record);
+        return wal.append(record);
+    }
+
+    private static void awaitLogged(CompletableFuture<Void> written) {
+        if (written == null) return;
+        try {
+            written.join();
+        } catch (CompletionException e) {
+            throw new IllegalStateException("Could not write the metadata log: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Whether a record changed the state, from the result of applying it.
+     */
+    private static boolean changed(int op, long result) {
+        return (op == OP_REMOVE_LOCATION) ? result >= 0 : result != 0;
+    }
+
+    /**
+     * Applies a log record to the state. The caller holds the matching write lock, or is replaying the log.
+     *
+     * @return the result of the operation, see changed
+     */
+    private long apply(byte[] record) {
+        CompactValueCodec.Reader in = new CompactValueCodec.Reader(record, 0);
+        int op = in.readByte();
+        switch (op) {
+            case OP_SAVE_FILE: {
+                Inode dir = applyDirectories(in);
+                String name = in.readString();
+                String hash = in.readHash();
+                byte[] value = in.readBytes();
+                if (children(dir).containsKey(INDEX_FILE_MEMBER + name)) return 0;
+                Inode file = addInode(dir, INDEX_FILE_MEMBER + name, hash, value, false);
+                if (hash != null) byHash.put(hash, file);
+                return 1;
+            }
+            case OP_CREATE_DIRECTORIES: {
+                long before = directoriesCreated;
+                applyDirectories(in);
+                return directoriesCreated - before;
+            }
+            case OP_DELETE_FILE: {
+                Inode file = resolve(in.readString(), INDEX_FILE_MEMBER, true);
+                if (file == null) return 0;
+                removeInode(file);
+                return 1;
+            }
+            case OP_DELETE_BY_HASH: {
+                // Like the Redis store: the hash entry goes, and the file it points to, but not a directory
+                String hash = in.readHash();
+                Inode inode = findByHash(hash, true);
+                if (inode == null) return 0;
+                unlinkHash(hash);
+                if (inode.children == null) removeInode(inode);
+                return 1;
+            }
+            case OP_CLEAR_NAMESPACE:
+                inodes.clear();
+                byHash.clear();
+                root = null;
+                baseNamespace = false;
+                return 1;
+            case OP_ADD_LOCATION: {
+                String hash = in.readHash();
+                String nodeUrl = in.readString();
+                Set<String> nodeUrls = loadNodesOf(hash);
+                if (nodeUrls == null) {
+                    nodeUrls = new HashSet<>(4);
+                    locations.put(hash, nodeUrls);
+                }
+                if (!nodeUrls.add(nodeUrl)) return 0;
+                addNodeBlock(nodeUrl, hash);
+                return 1;
+            }
+            case OP_REMOVE_LOCATION: {
+                String hash = in.readHash();
+                String nodeUrl = in.readString();
+                Set<String> nodeUrls = loadNodesOf(hash);
+                if (nodeUrls == null || !nodeUrls.remove(nodeUrl)) return -1;
+                removeNodeBlock(nodeUrl, hash);
+                // An emptied block stays to hide the one in the snapshot
+                if (nodeUrls.isEmpty() && !baseBlocks) locations.remove(hash);
+                return nodeUrls.size();
+            }
+            case OP_REMOVE_BLOCK: {
+                String hash = in.readHash();
+                Set<String> nodeUrls = loadNodesOf(hash);
+                if (nodeUrls == null || nodeUrls.isEmpty()) return 0;
+                for (String nodeUrl : nodeUrls) {
+                    removeNodeBlock(nodeUrl, hash);
+                }
+                if (baseBlocks) {
+                    nodeUrls.clear();
+                } else {
+                    locations.remove(hash);
+                }
+                return 1;
+            }
+            case OP_CLEAR_BLOCKS:
+                locations.clear();
+                nodeBlocks.clear();
+                nodeBlocksRemoved.clear();
+                nodeDigests.clear();
+                baseBlocks = false;
+                hashes.keySet().removeIf(key -> key.startsWith(BlockReportService.NODE_REPORT_PREFIX));
+                return 1;
+            case OP_HASH_PUT: {
+                Map<String, String> fields = hashes.computeIfAbsent(in.readString(), key -> new LinkedHashMap<>());
+                int count = in.readCount();
+                for (int i = 0; i < count; i++) {
+                    fields.put(in.readString(), in.readString());
+                }
+                return 1;
+            }
+            case OP_HASH_DELETE: {
+                String key = in.readString();
+                Map<String, String> fields = hashes.get(key);
+                if (fields == null || fields.remove(in.readString()) == null) return 0;
+                if (fields.isEmpty()) hashes.remove(key);
+                return 1;
+            }
+            case OP_HASH_CLEAR:
+                return (hashes.remove(in.readString()) != null) ? 1 : 0;
+            default:
+                throw new IllegalArgumentException("Unknown metadata log record " + op);
+        }
+    }
+
+    private static CompactValueCodec.Writer record(int op) {
+        CompactValueCodec.Writer record = new CompactValueCodec.Writer(128);
+        record.writeByte(op);
+        return record;
+    }
+
+    private static byte[] stringRecord(int op, String value) {
+        CompactValueCodec.Writer record = record(op);
+        if (op == OP_DELETE_BY_HASH || op == OP_REMOVE_BLOCK) {
+            record.writeHash(value);
+        } else {
+            record.writeString(value);
+        }
+        return record.toByteArray();
+    }
+
+    private static byte[] locationRecord(int op, String hash, String nodeUrl) {
+        CompactValueCodec.Writer record = record(op);
+        record.writeHash(hash);
+        record.writeString(nodeUrl);
+        return record.toByteArray();
+    }
+
+    private static byte[] hashPutRecord(String key, Map<String, String> fields) {
+        CompactValueCodec.Writer record = record(OP_HASH_PUT);
+        record.writeString(key);
+        record.writeVarLong(fields.size());
+        for (Map.Entry<String, String> field : fields.entrySet()) {
+            record.writeString(field.getKey());
+            record.writeString(field.getValue());
+        }
+        return record.toByteArray();
+    }
+
+    private static void writeDirectories(CompactValueCodec.Writer record, DfsFile root, List<DfsFile> chain) {
+        record.writeBytes(VALUES.serialize(root));
+        record.writeVarLong(chain.size());
+        for (DfsFile dir : chain) {
+            writeEntry(record, dir);
+        }
+    }
+
+    private static void writeEntry(CompactValueCodec.Writer record, DfsFile entry) {
+        record.writeString(entry.getName());
+        record.writeHash(entry.getHash());
+        record.writeBytes(VALUES.serialize(entry));
+    }
+
+    // ---- Snapshot keys ----
+
+    private static byte[] entryKey(String parentPath, String member) {
+        byte[] parent = parentPath.getBytes(StandardCharsets.UTF_8);
+        byte[] name = member.getBytes(StandardCharsets.UTF_8);
+        byte[] key = new byte[parent.length + 1 + name.length];
+        System.arraycopy(parent, 0, key, 0, parent.length);
+        System.arraycopy(name, 0, key, parent.length + 1, name.length);
+        return key;
+    }
+
+    private static byte[] hashKey(String hash) {
+        CompactValueCodec.Writer key = new CompactValueCodec.Writer(40);
+        key.writeHash(hash);
+        return key.toByteArray();
+    }
+
+    private static String readHash(byte[] key, int offset) {
+        return new CompactValueCodec.Reader(key, offset).readHash();
+    }
+
+    private static byte[] nodeKey(int nodeId) {
+        return ByteBuffer.allocate(4).putInt(nodeId).array();
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] bytes = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, bytes, first.length, second.length);
+        return bytes;
+    }
+
+    private static boolean startsWith(byte[] bytes, byte[] prefix) {
+        return bytes.length >= prefix.length && Arrays.equals(bytes, 0, prefix.length, prefix, 0, prefix.length);
+    }
+
+    private static int indexOf(byte[] bytes, byte value, int from) {
+        for (int i = from; i < bytes.length; i++) {
+            if (bytes[i] == value) return i;
+        }
+        throw new IllegalStateException("Corrupt key in metadata snapshot");
+    }
+}
@@ -0,0 +1,76 @@
+package com.infolink.dfs.metanode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.infolink.dfs.shared.DfsNode;
+
+/**
+ * Node membership in two string hashes of the EmbeddedMetadataStore, so that the metanode needs no
+ * Redis at all.
+ */
+@Component
+@ConditionalOnProperty(name = "dfs.metadata.store", havingValue = "embedded")
+public class EmbeddedNodeMembershipStore implements NodeMembershipStore {
+    private static final Logger logger = LoggerFactory.getLogger(EmbeddedNodeMembershipStore.class);
+
+    @Autowired
+    private EmbeddedMetadataStore embeddedStore;
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Override
+    public void saveRegistered(DfsNode node) throws JsonProcessingException {
+        embeddedStore.putHashField(REGISTERED_KEY, node.getContainerUrl(), objectMapper.writeValueAsString(node));
+    }
+
+    @Override
+    public void saveRevived(DfsNode node) throws JsonProcessingException {
+        saveRegistered(node);
+        embeddedStore.deleteHashField(DEAD_KEY, node.getContainerUrl());
+    }
+
+    @Override
+    public void saveDead(DfsNode node) throws JsonProcessingException {
+        embeddedStore.putHashField(DEAD_KEY, node.getContainerUrl(), objectMapper.writeValueAsString(node));
+        embeddedStore.deleteHashField(REGISTERED_KEY, node.getContainerUrl());
+    }
+
+    @Override
+    public List<DfsNode> loadRegistered() {
+        return load(REGISTERED_KEY);
+    }
+
+    @Override
+    public List<DfsNode> loadDead() {
+        return load(DEAD_KEY);
+    }
+
+    @Override
+    public void clear() {
+        embeddedStore.deleteHash(REGISTERED_KEY);
+        embeddedStore.deleteHash(DEAD_KEY);
+    }
+
+    private List<DfsNode> load(String key) {
+        Map<String, String> entries = embeddedStore.getHash(key);
+        List<DfsNode> nodes = new ArrayList<>(entries.size());
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            try {
+                nodes.add(objectMapper.readValue(entry.getValue(), DfsNode.class));
+            } catch (JsonProcessingException e) {
+                logger.warn("Skipping unreadable membership entry for {} in {}", entry.getKey(), key, e);
+            }
+        }
+        return nodes;
+    }
+}
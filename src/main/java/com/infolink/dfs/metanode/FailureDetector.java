@@ -0,0 +1,218 @@
+package com.infolink.dfs.metanode;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.LongSupplier;
+
+/**
+ * Heartbeat failure detector. Every node has one live deadline in a priority queue ordered by time,
+ * so a check only looks at the nodes whose deadline has passed instead of scanning all of them.
+ * A node missing its deadline becomes SUSPECT; if no heartbeat arrives within the suspect timeout it
+ * is reported DEAD and forgotten. A heartbeat from a suspect node makes it ALIVE again.
+ *
+ * <p>Deadlines superseded by a later heartbeat are left in the queue and skipped when they come up,
+ * which keeps a heartbeat at O(log n) and the queue at a small multiple of the node count.
+ *
+ * <p>With phi accrual (Hayashibara et al.) the deadline is the time at which phi, computed from the
+ * mean and deviation of the node's recent heartbeat intervals, reaches the threshold. A node that
+ * reports irregularly, or a metanode GC pause that delays heartbeats, thus needs a longer silence
+ * before suspicion. With a fixed timeout the deadline is simply the last heartbeat plus the timeout.
+ */
+class FailureDetector {
+    enum State { ALIVE, SUSPECT, DEAD }
+
+    private static final int WINDOW_SIZE = 100;
+
+    private final boolean phiAccrual;
+    private final double threshold;
+    private final long expectedIntervalMs;
+    private final long acceptablePauseMs;
+    private final long minStdDeviationMs;
+    private final long timeoutMs;
+    private final long suspectTimeoutMs;
+    private final LongSupplier clock;
+
+    private final Map<String, NodeState> nodes = new HashMap<>();
+    private final PriorityQueue<Deadline> deadlines = new PriorityQueue<>((a, b) -> Long.compare(a.at, b.at));
+    // Shared by all nodes, so a deadline left over from a removed node never matches its successor
+    private long lastGeneration;
+
+    private FailureDetector(boolean phiAccrual, double threshold, long expectedIntervalMs, long acceptablePauseMs,
+            long minStdDeviationMs, long timeoutMs, long suspectTimeoutMs, LongSupplier clock) {
+        if (expectedIntervalMs <= 0 || suspectTimeoutMs < 0) {
+            throw new IllegalArgumentException("Heartbeat interval must be positive and the suspect timeout not negative.");
+        }
+        this.phiAccrual = phiAccrual;
+        this.threshold = threshold;
+        this.expectedIntervalMs = expectedIntervalMs;
+        this.acceptablePauseMs = acceptablePauseMs;
+        this.minStdDeviationMs = Math.max(1, minStdDeviationMs);
+        this.timeoutMs = timeoutMs;
+        this.suspectTimeoutMs = suspectTimeoutMs;
+        this.clock = clock;
+    }
+
+    /**
+     * @param expectedIntervalMs heartbeat interval assumed until a node has reported a few times
+     * @param acceptablePauseMs  silence tolerated on top of the mean interval, e.g. for GC pauses
+     */
+    static FailureDetector phiAccrual(double threshold, long expectedIntervalMs, long acceptablePauseMs,
+            long minStdDeviationMs, long suspectTimeoutMs, LongSupplier clock) {
+        if (threshold <= 0) {
+            throw new IllegalArgumentException("Phi threshold must be positive.");
+        }
+        return new FailureDetector(true, threshold, expectedIntervalMs, acceptablePauseMs, minStdDeviationMs, 0, suspectTimeoutMs, clock);
+    }
+
+    static FailureDetector fixedTimeout(long timeoutMs, long suspectTimeoutMs, LongSupplier clock) {
+        return new FailureDetector(false, 0, timeoutMs, 0, 0, timeoutMs, suspectTimeoutMs, clock);
+    }
+
+    /**
+     * Records a heartbeat and moves the node's deadline.
+     *
+     * @return the state of the node before the heartbeat, or null for a node not tracked yet
+     */
+    synchronized State heartbeat(String nodeUrl) {
+        long now = clock.getAsLong();
+        NodeState node = nodes.get(nodeUrl);
+        State previous = null;
+        if (node == null) {
+            node = new NodeState();
+            nodes.put(nodeUrl, node);
+        } else {
+            previous = node.state;
+            node.addInterval(now - node.lastHeartbeat);
+        }
+        node.state = State.ALIVE;
+        node.lastHeartbeat = now;
+        node.generation = ++lastGeneration;
+        deadlines.add(new Deadline(nodeUrl, now + suspectAfter(node), node.generation));
+        return previous;
+    }
+
+    /**
+     * Moves the nodes whose deadline has passed one state further. Nodes reported DEAD are no longer tracked.
+     *
+     * @return the nodes that changed state, in the order of their deadlines
+     */
+    synchronized Map<String, State> expire() {
+        Map<String, State> transitions = new LinkedHashMap<>();
+        long now = clock.getAsLong();
+        while (!deadlines.isEmpty() && deadlines.peek().at <= now) {
+            Deadline deadline = deadlines.poll();
+            NodeState node = nodes.get(deadline.nodeUrl);
+            if (node == null || node.generation != deadline.generation) continue; // superseded by a heartbeat
+
+            if (node.state == State.ALIVE) {
+                node.state = State.SUSPECT;
+                node.generation = ++lastGeneration;
+                deadlines.add(new Deadline(deadline.nodeUrl, deadline.at + suspectTimeoutMs, node.generation));
+                transitions.put(deadline.nodeUrl, State.SUSPECT);
+            } else {
+                nodes.remove(deadline.nodeUrl);
+                transitions.put(deadline.nodeUrl, State.DEAD);
+            }
+        }
+        return transitions;
+    }
+
+    synchronized State stateOf(String nodeUrl) {
+        NodeState node = nodes.get(nodeUrl);
+        return node == null ? null : node.state;
+    }
+
+    /**
+     * @return the current suspicion level of the node; 0 for unknown nodes and with a fixed timeout
+     */
+    synchronized double phi(String nodeUrl) {
+        NodeState node = nodes.get(nodeUrl);
+        if (node == null || !phiAccrual) return 0;
+        return phi(node, clock.getAsLong() - node.lastHeartbeat);
+    }
+
+    synchronized void remove(String nodeUrl) {
+        nodes.remove(nodeUrl);
+    }
+
+    synchronized void clear() {
+        nodes.clear();
+        deadlines.clear();
+    }
+
+    /**
+     * Time after the last heartbeat at which the node becomes suspect.
+     */
+    private long suspectAfter(NodeState node) {
+        if (!phiAccrual) return timeoutMs;
+        // phi grows with the elapsed time, so the crossing point is found by bisection
+        long low = 0;
+        long high = (long) (node.mean() + acceptablePauseMs + 64 * node.stdDeviation()) + 1;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            if (phi(node, mid) >= threshold) high = mid;
+            else low = mid + 1;
+        }
+        return low;
+    }
+
+    private double phi(NodeState node, long elapsedMs) {
+        double mean = node.mean() + acceptablePauseMs;
+        double y = (elapsedMs - mean) / node.stdDeviation();
+        // Logistic approximation of the normal CDF
+        double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+        double pLater = (elapsedMs > mean) ? e / (1.0 + e) : 1.0 - 1.0 / (1.0 + e);
+        return -Math.log10(Math.max(pLater, Double.MIN_VALUE));
+    }
+
+    private class NodeState {
+        private final ArrayDeque<Long> intervals = new ArrayDeque<>();
+        private double sum;
+        private double sumOfSquares;
+        private long lastHeartbeat;
+        private long generation;
+        private State state = State.ALIVE;
+
+        NodeState() {
+            // Until the node has a history, assume it reports on schedule with some jitter
+            addInterval(expectedIntervalMs - expectedIntervalMs / 4);
+            addInterval(expectedIntervalMs + expectedIntervalMs / 4);
+        }
+
+        void addInterval(long intervalMs) {
+            if (intervals.size() == WINDOW_SIZE) {
+                long oldest = intervals.poll();
+                sum -= oldest;
+                sumOfSquares -= (double) oldest * oldest;
+            }
+            intervals.add(intervalMs);
+            sum += intervalMs;
+            sumOfSquares += (double) intervalMs * intervalMs;
+        }
+
+        double mean() {
+            return sum / intervals.size();
+        }
+
+        double stdDeviation() {
+            double mean = mean();
+            double variance = Math.max(0, sumOfSquares / intervals.size() - mean * mean);
+            return Math.max(minStdDeviationMs, Math.sqrt(variance));
+        }
+    }
+
+    private static class Deadline {
+        private final String nodeUrl;
+        private final long at;
+        private final long generation;
+
+        Deadline(String nodeUrl, long at, long generation) {
+            this.nodeUrl = nodeUrl;
+            this.at = at;
+            this.generation = generation;
+        }
+    }
+}
@@ -3,9 +3,15 @@ package com.infolink.dfs.metanode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 import com.infolink.dfs.metanode.mdb.BlockNode;
 import com.infolink.dfs.shared.DfsFile;
@@ -23,6 +29,15 @@ public class FileTreeController {
     private FileTreeManager fileTreeManager;
     @Autowired
     private BlockMetaService blockMetaService;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Autowired
+    private DirectoryIndexMigrator directoryIndexMigrator;
+    @Autowired
+    private CompactValueMigrator compactValueMigrator;
+    
+    @Value("${dfs.listing.batch-size:500}")
+    private int listBatchSize;
 
     /**
      * Endpoint to save a file.
@@ -96,6 +111,31 @@ public class FileTreeController {
         }
     }
     
+    /**
+     * Endpoint to get the block nodes covering a byte range of a file, so a client can start
+     * reading a large file without resolving all of its blocks first.
+     */
+    @PostMapping("/metadata/file/block-nodes-range")
+    public ResponseEntity<List<BlockNode>> getBlockNodesListByRange(@RequestBody RequestBlockRange request) {
+        logger.debug("Received request to get block nodes for file hash: {} range: {}+{}", request.getFileHash(), request.getOffset(), request.getLength());
+
+        if (fileTreeManager.getFileByHash(request.getFileHash()) == null) {
+            logger.warn("No DfsFile found for hash: {}", request.getFileHash());
+            return ResponseEntity.status(HttpStatus.NO_CONTENT).body(null);
+        }
+
+        try {
+            List<BlockNode> blockNodeList = fileTreeManager.getBlockNodesListByHash(request.getFileHash(), request.getOffset(), request.getLength());
+            return ResponseEntity.status(HttpStatus.OK).body(blockNodeList);
+        } catch (IllegalArgumentException e) {
+            logger.warn("Invalid range for file hash: {}: {}", request.getFileHash(), e.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null);
+        } catch (Exception e) {
+            logger.error("Error occurred while retrieving block nodes for file hash: {}", request.getFileHash(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(null);
+        }
+    }
+    
     /**
      * Endpoint to list files in a directory.
      *
@@ -107,11 +147,61 @@ public class FileTreeController {
         logger.info("/metadata/file/list requested for directory: {}", request.getDirectory());
         
         List<DfsFile> files = fileTreeManager.listFilesInDirectory(request.getDirectory());
-        // Log the files before returning
-        logger.info("Returning files: {}", files);
+        logger.debug("Returning {} entries for directory: {}", files.size(), request.getDirectory());
         return ResponseEntity.ok(files);
     }
     
+    /**
+     * Endpoint to list one page of a directory, directories first and then by name.
+     * The page is streamed as chunked JSON ({"entries":[...],"nextCursor":...}) and read from Redis
+     * in small batches, so memory stays flat whatever the page size.
+     *
+     * @param request The directory, the cursor returned by the previous page (null for the first page)
+     *                and the maximum number of entries. A limit of 0 or less streams the whole directory.
+     * @return ResponseEntity streaming the page.
+     */
+    @PostMapping("/metadata/file/list-page")
+    public ResponseEntity<StreamingResponseBody> listFilesPage(@RequestBody RequestListPage request) {
+        logger.info("/metadata/file/list-page requested for directory: {}, cursor: {}, limit: {}", request.getDirectory(), request.getCursor(), request.getLimit());
+        
+        String directory = request.getDirectory();
+        int limit = request.getLimit();
+        // The body is written on an async thread, which does not see the read consistency of the request thread
+        boolean readYourWrites = ReadConsistency.isReadYourWrites();
+        StreamingResponseBody body = outputStream -> {
+            ReadConsistency.setReadYourWrites(readYourWrites);
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+                generator.writeStartObject();
+                generator.writeArrayFieldStart("entries");
+                
+                String cursor = request.getCursor();
+                long remaining = (limit <= 0) ? Long.MAX_VALUE : limit;
+                do {
+                    int batch = (int) Math.min(listBatchSize, remaining);
+                    DirectoryPage page = fileTreeManager.listDirectoryPage(directory, cursor, batch);
+                    for (DfsFile entry : page.getEntries()) {
+                        generator.writeObject(entry);
+                    }
+                    generator.flush();
+                    cursor = page.getNextCursor();
+                    remaining -= batch;
+                } while (cursor != null && remaining > 0);
+                
+                generator.writeEndArray();
+                generator.writeStringField("nextCursor", cursor);
+                generator.writeEndObject();
+            } finally {
+                ReadConsistency.clear();
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+    
+    @GetMapping("/metadata/file/cache-stats")
+    public ResponseEntity<DfsFileCache.CacheStats> getCacheStats() {
+        return ResponseEntity.ok(fileTreeManager.getCacheStats());
+    }
+    
     @DeleteMapping("/metadata/file/clear-all-data")
     public ResponseEntity<String> clearAllData() {
     	fileTreeManager.clearAllData();
@@ -133,6 +223,28 @@ public class FileTreeController {
         }
     }
 
+    /**
+     * Endpoint to convert directories stored in the old set-of-DfsFile format to the sorted directory index.
+     *
+     * @return ResponseEntity with the number of legacy sets converted.
+     */
+    @PostMapping("/metadata/directory/migrate-index")
+    public ResponseEntity<String> migrateDirectoryIndex() {
+        int converted = directoryIndexMigrator.migrate();
+        return ResponseEntity.ok("Converted " + converted + " legacy directory sets.");
+    }
+
+    /**
+     * Endpoint to rewrite file and directory values still stored as JSON in the compact format.
+     *
+     * @return ResponseEntity with the number of values converted.
+     */
+    @PostMapping("/metadata/migrate-value-format")
+    public ResponseEntity<String> migrateValueFormat() {
+        int converted = compactValueMigrator.migrate();
+        return ResponseEntity.ok("Converted " + converted + " values to the compact format.");
+    }
+
     @PostMapping("/metadata/directory/create-subdirectory")
     public ResponseEntity<String> createSubdirectory(@RequestBody RequestCreateSubdirectory request) {
         try {
@@ -188,6 +300,40 @@ public class FileTreeController {
 		public void setOwner(String owner) 			{			this.owner = owner;		}
     }
     
+    /**
+     * Inner class to represent a paged directory listing request.
+     */
+    public static class RequestListPage {
+        private String directory;
+        private String cursor;
+        private int limit;
+
+        // Getters and Setters
+        public String getDirectory() 				{            return directory;        }
+        public void setDirectory(String directory) 	{            this.directory = directory;        }
+        public String getCursor() 					{            return cursor;        }
+        public void setCursor(String cursor) 		{            this.cursor = cursor;        }
+        public int getLimit() 						{            return limit;        }
+        public void setLimit(int limit) 			{            this.limit = limit;        }
+    }
+    
+    /**
+     * Inner class to represent a byte range of a file.
+     */
+    public static class RequestBlockRange {
+        private String fileHash;
+        private long offset;
+        private long length;
+
+        // Getters and Setters
+        public String getFileHash() 				{            return fileHash;        }
+        public void setFileHash(String fileHash) 	{            this.fileHash = fileHash;        }
+        public long getOffset() 					{            return offset;        }
+        public void setOffset(long offset) 			{            this.offset = offset;        }
+        public long getLength() 					{            return length;        }
+        public void setLength(long length) 			{            this.length = length;        }
+    }
+    
     public static class RequestCreateSubdirectory {
         private String directory;
         private String parentDirectory;
@@ -3,7 +3,7 @@ package com.infolink.dfs.metanode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import com.infolink.dfs.metanode.mdb.BlockNode;
@@ -13,10 +13,7 @@ import com.infolink.dfs.shared.HashUtil;
 import java.nio.charset.StandardCharsets;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.Date;
 import java.util.List;
-import java.util.Set;
 
 @Service
 public class FileTreeManager {
@@ -26,10 +23,24 @@ public class FileTreeManager {
     static final String FILE_PREFIX = "file:";
     static final String HASH_PREFIX = "hash:";
     
+    // Per-directory sorted index. Members are "d:<name>" for subdirectories and "f:<name>" for files,
+    // all with score 0, so lexicographic order lists directories first and then everything by name.
+    // A child is looked up or removed by name in O(1) (ZSCORE/ZREM) and costs only its name in memory.
+    static final String INDEX_SUFFIX = ":index";
+    static final String INDEX_DIR_MEMBER = "d:";
+    static final String INDEX_FILE_MEMBER = "f:";
+    
     @Autowired
-    private RedisTemplate<String, DfsFile> redisFileRepo;
+    private NamespaceStore namespaceStore;
     @Autowired
     private BlockMetaService blockMetaService;
+    @Autowired
+    private DfsFileCache fileCache;
+    
+    @Value("${dfs.block.size:4194304}")
+    private long blockSize;
+    @Value("${dfs.listing.batch-size:500}")
+    private int listBatchSize;
     
     public String saveFile(DfsFile dfsFile, String targetDirectory) throws NoSuchAlgorithmException {
     	if (!targetDirectory.startsWith("/")) targetDirectory = "/" + targetDirectory;
@@ -61,35 +72,38 @@ public class FileTreeManager {
             throw new IllegalArgumentException("File owner cannot be null or empty");
         }
 
-        createDirectoriesRecursively(targetDirectory, owner);
-
-        //String filePath = targetDirectory + "/" + fileName;
-        String fileKey;
-        if (targetDirectory.equals("/")) {
-        	fileKey 		= FILE_PREFIX + "/" + fileName; 
-        } else {
-        	fileKey 		= FILE_PREFIX + targetDirectory + "/" + fileName; 
-        }
-        String parentDirKey = DIR_PREFIX  + targetDirectory;
-        String hashKey		= HASH_PREFIX + dfsFile.getHash();
-        
-        if (redisFileRepo.hasKey(fileKey)) {
+        List<DfsFile> chain = buildDirectoryChain(targetDirectory, owner);
+        if (!namespaceStore.saveFile(targetDirectory, dfsFile, rootDirectory(owner), chain)) {
             throw new IllegalArgumentException("A file with the same name already exists in the target directory.");
         }
-
-        // Log before saving
-        //logger.info("Before saving to Redis: key = {}, value = {}", fileKey, dfsFile);
-        
-        // Store the DfsFile directly in Redis
-        redisFileRepo.opsForValue().set(fileKey, dfsFile);
-        redisFileRepo.opsForValue().set(hashKey, dfsFile);
-        redisFileRepo.opsForSet().add(parentDirKey + ":files", dfsFile);
         
-        // Log after saving
-        //logger.info("After saving to Redis: key = {}", fileKey);
         return dfsFile.getHash();
     }
 
+    /**
+     * The directories of a path from the top down, excluding the root, as they are stored when missing.
+     */
+    private List<DfsFile> buildDirectoryChain(String path, String owner) throws NoSuchAlgorithmException {
+        List<DfsFile> chain = new ArrayList<>();
+        StringBuilder currentPath = new StringBuilder();
+        String parentId = generateHashForPath("/");
+
+        for (String segment : path.split("/")) {
+            if (segment.isEmpty()) continue;
+            currentPath.append("/").append(segment);
+
+            String currentPathStr = currentPath.toString();
+            String dirHash = generateHashForPath(currentPathStr);
+            chain.add(new DfsFile(dirHash, owner, segment, currentPathStr, 0L, true, parentId, List.of()));
+            parentId = dirHash;
+        }
+        return chain;
+    }
+
+    private DfsFile rootDirectory(String owner) throws NoSuchAlgorithmException {
+        return new DfsFile(generateHashForPath("/"), owner, "/", "/", 0L, true, null, List.of());
+    }
+
     public String createDirectory(String directory, String parentDirectory, String owner) throws NoSuchAlgorithmException {
         // Ensure that directory and parentDirectory start with "/"
         if (!directory.startsWith("/")) directory = "/" + directory;
@@ -107,59 +121,8 @@ public class FileTreeManager {
     public String createDirectoriesRecursively(String path, String owner) throws NoSuchAlgorithmException {
         if (!path.startsWith("/")) path = "/" + path;
 
-        String[] pathSegments = path.split("/");
-
-        logger.debug("Path={}, split segments are: {}", path, pathSegments);
-        String rootDir = "/";
-        String rootDirKey = DIR_PREFIX + rootDir;
-        String rootHash = generateHashForPath(rootDir);
-        if (redisFileRepo.opsForValue().get(rootDirKey) == null) {
-            DfsFile rootDirDfsFile = new DfsFile(generateHashForPath("/"), owner, "/", "/", 0L, true, null, List.of());
-            redisFileRepo.opsForValue().set(rootDirKey, rootDirDfsFile);
-        }
-
-        StringBuilder currentPath = new StringBuilder();
-        String parentId = rootHash;
-        String parentDir = rootDir;
-        String finalDirHash = rootHash;
-
-        for (String segment : pathSegments) {
-            logger.debug("Creating directory: {}", segment);
-
-            if (segment.isEmpty()) continue;
-            currentPath.append("/").append(segment);
-
-            String currentPathStr = currentPath.toString();
-            String dirKey = DIR_PREFIX + currentPathStr;
-
-            DfsFile existingDir = redisFileRepo.opsForValue().get(dirKey);
-            if (existingDir == null) {
-                String dirHash = generateHashForPath(currentPathStr);
-                DfsFile newDir = new DfsFile(dirHash, owner, segment, currentPathStr, 0L, true, parentId, List.of());
-
-                redisFileRepo.opsForValue().set(dirKey, newDir);
-                String hashKey = HASH_PREFIX + dirHash;
-                redisFileRepo.opsForValue().set(hashKey, newDir);
-
-                logger.debug("Directory {} mapped to {}", dirKey, newDir);
-                logger.debug("Hash {} mapped to {}", hashKey, newDir);
-
-                if (parentId != null) {
-                    String parentDirKey = DIR_PREFIX + parentDir;
-                    redisFileRepo.opsForSet().add(parentDirKey + ":dir", newDir);
-                    logger.debug("ParentDirKey={}", parentDirKey + ":dir");
-                }
-                parentId = dirHash;
-                parentDir = currentPathStr;
-                finalDirHash = dirHash;
-            } else {
-                parentId = existingDir.getHash();
-                parentDir = currentPathStr;
-                finalDirHash = parentId; // Update to the hash of the existing directory
-            }
-        }
-
-        return finalDirHash; // Return the hash of the final directory
+        logger.debug("Path={}, creating missing directories", path);
+        return namespaceStore.createDirectories(rootDirectory(owner), buildDirectoryChain(path, owner)).getHash();
     }
 
     /**
@@ -172,36 +135,33 @@ public class FileTreeManager {
     public List<DfsFile> listFilesInDirectory(String directory) {
         List<DfsFile> filesAndDirectories = new ArrayList<>();
 
-        // Fetch files
-        Set<DfsFile> files = redisFileRepo.opsForSet().members(DIR_PREFIX + directory + ":files");
-        if (files != null) {
-            filesAndDirectories.addAll(files);
-        }
-
-        // Fetch subdirectories
-        Set<DfsFile> subdirectories = redisFileRepo.opsForSet().members(DIR_PREFIX + directory + ":dir");
-        if (subdirectories != null) {
-            filesAndDirectories.addAll(subdirectories);
-        }
-
-        // Sort directories first, then files
-        filesAndDirectories.sort(Comparator.comparing(DfsFile::isDirectory).reversed().thenComparing(DfsFile::getName));
+        String cursor = null;
+        do {
+            DirectoryPage page = listDirectoryPage(directory, cursor, listBatchSize);
+            filesAndDirectories.addAll(page.getEntries());
+            cursor = page.getNextCursor();
+        } while (cursor != null);
 
         return filesAndDirectories;
     }
 
+    /**
+     * List one page of a directory from its sorted index, directories first and then by name.
+     *
+     * @param directory the directory path to list contents from
+     * @param cursor    the nextCursor of the previous page, or null to start from the beginning
+     * @param limit     the maximum number of entries in the page
+     * @return the entries of the page and the cursor of the next one, which is null on the last page
+     */
+    public DirectoryPage listDirectoryPage(String directory, String cursor, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Page limit must be positive");
+        }
+        return namespaceStore.listDirectory(directory, cursor, limit);
+    }
 
     public void logAllKeys() {
-        Set<String> keys = redisFileRepo.keys("*"); // Use wildcard "*" to match all keys
-
-        logger.info("Logging all keys in Redis:");
-        if (keys != null && !keys.isEmpty()) {
-            for (String key : keys) {
-                logger.info("Key: {}", key);
-            }
-        } else {
-            logger.info("No keys found in Redis.");
-        }
+        namespaceStore.logContents();
     }
     
     public boolean checkFileExistsByPath(String filePath) {
@@ -215,31 +175,54 @@ public class FileTreeManager {
     
     public DfsFile getFileByPath(String filePath) {
     	if (!filePath.startsWith("/")) filePath = "/" + filePath;
-        String fileKey = FILE_PREFIX + filePath;
-        return redisFileRepo.opsForValue().get(fileKey);
+        return namespaceStore.getFile(filePath);
     }
     
     public DfsFile getFileByHash(String hash) {
-    	String hashkey = HASH_PREFIX + hash;
-    	return redisFileRepo.opsForValue().get(hashkey);
+    	return namespaceStore.getByHash(hash);
     }
     
     public List<BlockNode> getBlockNodesListByHash(String fileHash) throws Exception {
-    	String hashkey = HASH_PREFIX + fileHash;
-    	DfsFile dfsFile = redisFileRepo.opsForValue().get(hashkey);
+    	DfsFile dfsFile = getFileByHash(fileHash);
+    	return resolveBlockNodes(fileHash, dfsFile.getBlockHashes());
+    }
+    
+    /**
+     * Block nodes of the blocks covering bytes [offset, offset + length) of a file,
+     * assuming every block but the last is dfs.block.size bytes long.
+     */
+    public List<BlockNode> getBlockNodesListByHash(String fileHash, long offset, long length) throws Exception {
+    	if (offset < 0 || length < 0) {
+    		throw new IllegalArgumentException("Offset and length must not be negative.");
+    	}
+    	DfsFile dfsFile = getFileByHash(fileHash);
     	List<String> blockHashes = dfsFile.getBlockHashes();
-    	List<BlockNode> blockNodeList = new ArrayList<BlockNode>();
-    	for (String blockHash : blockHashes) {
-    		// get the nodes for the blockHash.
-    		BlockNode blockNode = blockMetaService.getBlockNodeByHash(blockHash);
+    	if (length == 0 || blockHashes.isEmpty()) {
+    		return new ArrayList<>();
+    	}
+    	long first = offset / blockSize;
+    	long last = (offset + length - 1) / blockSize;
+    	if (first >= blockHashes.size()) {
+    		return new ArrayList<>();
+    	}
+    	last = Math.min(last, blockHashes.size() - 1);
+    	return resolveBlockNodes(fileHash, blockHashes.subList((int) first, (int) last + 1));
+    }
+    
+    private List<BlockNode> resolveBlockNodes(String fileHash, List<String> blockHashes) throws Exception {
+    	List<BlockNode> blockNodeList = blockMetaService.getBlockNodesByHashes(blockHashes);
+    	for (BlockNode blockNode : blockNodeList) {
     		if (blockNode == null) {
     			throw new Exception("File with hash{" + fileHash + "} broken.");
     		}
-    		blockNodeList.add(blockNode);
     	}
     	return blockNodeList;
     }
     
+    public DfsFileCache.CacheStats getCacheStats() {
+        return fileCache.getStats();
+    }
+    
     /*
      * Here the hash for the path is temporary method to calculate. 
      * In future, need to think about that a folder's hash should be calculated based on files and subfolders' hash.
@@ -251,27 +234,15 @@ public class FileTreeManager {
     }
     
     /**
-     * Clears all data in Redis.
+     * Clears the whole namespace.
      * This method should be used with caution and is primarily intended for testing purposes.
      */
     public void clearAllData() {
-        Set<String> keys = redisFileRepo.keys("*");
-
-        if (keys != null && !keys.isEmpty()) {
-            redisFileRepo.delete(keys);
-            logger.info("Cleared all keys in Redis for testing purposes.");
-        } else {
-            logger.info("No keys found to clear in Redis.");
-        }
+        namespaceStore.clearNamespace();
     }
     
     public void deleteByHash(String fileHash) {
-        String hashKey = HASH_PREFIX + fileHash;
-        DfsFile dfsFile = redisFileRepo.opsForValue().get(hashKey);
-        if (dfsFile != null) {
-            String fileKey = FILE_PREFIX + dfsFile.getPath();
-            redisFileRepo.delete(hashKey);
-            redisFileRepo.delete(fileKey); // Also delete by path
+        if (namespaceStore.deleteByHash(fileHash) != null) {
             logger.info("Deleted file with hash: {}", fileHash);
         } else {
             logger.warn("No file found with hash: {}", fileHash);
@@ -279,13 +250,7 @@ public class FileTreeManager {
     }
 
     public void deleteByPath(String filePath) {
-        String fileKey = FILE_PREFIX + filePath;
-        DfsFile dfsFile = redisFileRepo.opsForValue().get(fileKey);
-        if (dfsFile != null) {
-            // Delete the file from Redis using its path
-        	String hashKey = HASH_PREFIX + dfsFile.getHash();
-            redisFileRepo.delete(fileKey);
-            redisFileRepo.delete(hashKey); // Also delete by hash
+        if (namespaceStore.deleteFile(filePath) != null) {
             logger.info("Deleted file with path: {}", filePath);
         } else {
             logger.warn("No file found with path: {}", filePath);
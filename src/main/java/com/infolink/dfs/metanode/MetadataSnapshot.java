@@ -0,0 +1,305 @@
+package com.infolink.dfs.metanode;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Immutable, sorted and memory-mapped image of the state of EmbeddedMetadataStore, written by its
+ * checkpoints. Opening one maps the file and reads its header only: every lookup is a binary search
+ * over the mapped file, so the pages it touches are faulted in on demand and a large namespace is
+ * usable as soon as the file is mapped, instead of after it was read into the heap.
+ *
+ * <p>The file is a header followed by sections. A section is a run of records sorted by key, compared
+ * as unsigned bytes, each stored as its key length, key, value length and value; then an index with the
+ * file position of every record, eight bytes each, which the binary search goes through. The header
+ * holds the format, the first log segment written after the snapshot and the index position and record
+ * count of every section. Which keys and values a section holds is up to the store.
+ *
+ * <p>The file is mapped in chunks of at most 1 GiB, as a single mapping cannot exceed 2 GiB; values
+ * are read with absolute gets, so one snapshot serves any number of reader threads. The mappings are
+ * released with the last reference to the snapshot.
+ */
+final class MetadataSnapshot {
+    static final int SECTION_NODES = 0;
+    static final int SECTION_ENTRIES = 1;
+    static final int SECTION_HASHES = 2;
+    static final int SECTION_BLOCKS = 3;
+    static final int SECTION_NODE_BLOCKS = 4;
+    static final int SECTION_FIELDS = 5;
+    private static final int SECTION_COUNT = 6;
+
+    // "DFSMSNAP"
+    private static final long MAGIC = 0x4446534D534E4150L;
+    private static final int FORMAT = 1;
+    private static final int HEADER_BYTES = 8 + 4 + 8 + SECTION_COUNT * 16;
+    static final int DEFAULT_CHUNK_BYTES = 1 << 30;
+
+    private final Path file;
+    private final MappedByteBuffer[] chunks;
+    private final int chunkBytes;
+    private final long size;
+    private final long sequence;
+    private final Section[] sections = new Section[SECTION_COUNT];
+
+    private MetadataSnapshot(Path file, int chunkBytes) throws IOException {
+        this.file = file;
+        this.chunkBytes = chunkBytes;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            this.size = channel.size();
+            if (size < HEADER_BYTES) {
+                throw new IOException("Truncated metadata snapshot " + file);
+            }
+            // The mappings stay valid once the channel is closed
+            this.chunks = new MappedByteBuffer[(int) ((size + chunkBytes - 1) / chunkBytes)];
+            for (int i = 0; i < chunks.length; i++) {
+                long start = (long) i * chunkBytes;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(chunkBytes, size - start));
+            }
+        }
+
+        if (getLong(0) != MAGIC) {
+            throw new IOException(file + " is not a metadata snapshot");
+        }
+        int format = getInt(8);
+        if (format != FORMAT) {
+            throw new IOException("Unsupported metadata snapshot format " + format + " in " + file);
+        }
+        this.sequence = getLong(12);
+        for (int i = 0; i < SECTION_COUNT; i++) {
+            long indexPosition = getLong(20 + i * 16);
+            long count = getLong(28 + i * 16);
+            if (indexPosition < HEADER_BYTES || indexPosition + count * 8 > size) {
+                throw new IOException("Corrupt section table in metadata snapshot " + file);
+            }
+            sections[i] = new Section(indexPosition, count);
+        }
+    }
+
+    static MetadataSnapshot open(Path file) throws IOException {
+        return new MetadataSnapshot(file, DEFAULT_CHUNK_BYTES);
+    }
+
+    /**
+     * @param chunkBytes the largest mapping, smaller than the default only to exercise records
+     *                   that straddle two mappings
+     */
+    static MetadataSnapshot open(Path file, int chunkBytes) throws IOException {
+        return new MetadataSnapshot(file, chunkBytes);
+    }
+
+    Path file() {
+        return file;
+    }
+
+    /**
+     * The first log segment written after this snapshot.
+     */
+    long sequence() {
+        return sequence;
+    }
+
+    Section section(int id) {
+        return sections[id];
+    }
+
+    /**
+     * The records of one section, addressed by their rank in key order.
+     */
+    final class Section {
+        private final long indexPosition;
+        private final long count;
+
+        private Section(long indexPosition, long count) {
+            this.indexPosition = indexPosition;
+            this.count = count;
+        }
+
+        long count() {
+            return count;
+        }
+
+        /**
+         * @return the rank of the record with this key, or -1
+         */
+        long find(byte[] key) {
+            long rank = ceiling(key);
+            return (rank < count && Arrays.equals(key(rank), key)) ? rank : -1;
+        }
+
+        /**
+         * @return the rank of the first record whose key is not below the given one, or count when there is none
+         */
+        long ceiling(byte[] key) {
+            long low = 0;
+            long high = count;
+            while (low < high) {
+                long middle = (low + high) >>> 1;
+                if (Arrays.compareUnsigned(key(middle), key) < 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * @return the value of the record with this key, or null
+         */
+        byte[] get(byte[] key) {
+            long rank = find(key);
+            return (rank >= 0) ? value(rank) : null;
+        }
+
+        byte[] key(long rank) {
+            long position = position(rank);
+            return getBytes(position + 4, getInt(position));
+        }
+
+        byte[] value(long rank) {
+            long position = position(rank);
+            long valuePosition = position + 4 + getInt(position);
+            return getBytes(valuePosition + 4, getInt(valuePosition));
+        }
+
+        private long position(long rank) {
+            if (rank < 0 || rank >= count) {
+                throw new IndexOutOfBoundsException("Record " + rank + " of " + count);
+            }
+            return getLong(indexPosition + rank * 8);
+        }
+    }
+
+    // ---- Reads across chunks ----
+
+    private byte[] getBytes(long position, int length) {
+        if (length < 0 || position + length > size) {
+            throw new IllegalStateException("Corrupt record at byte " + position + " of metadata snapshot " + file);
+        }
+        byte[] bytes = new byte[length];
+        int copied = 0;
+        while (copied < length) {
+            long at = position + copied;
+            MappedByteBuffer chunk = chunks[(int) (at / chunkBytes)];
+            int offset = (int) (at % chunkBytes);
+            int n = Math.min(length - copied, chunk.limit() - offset);
+            chunk.get(offset, bytes, copied, n);
+            copied += n;
+        }
+        return bytes;
+    }
+
+    private int getInt(long position) {
+        int offset = (int) (position % chunkBytes);
+        MappedByteBuffer chunk = chunks[(int) (position / chunkBytes)];
+        return (offset + 4 <= chunk.limit()) ? chunk.getInt(offset) : ByteBuffer.wrap(getBytes(position, 4)).getInt();
+    }
+
+    private long getLong(long position) {
+        int offset = (int) (position % chunkBytes);
+        MappedByteBuffer chunk = chunks[(int) (position / chunkBytes)];
+        return (offset + 8 <= chunk.limit()) ? chunk.getLong(offset) : ByteBuffer.wrap(getBytes(position, 8)).getLong();
+    }
+
+    /**
+     * Writes a snapshot section by section. Every section is written once, in any order, with its
+     * records in strictly increasing key order; sections that are not written stay empty. The index
+     * of the section being written goes to a side file and is appended when the section ends, so
+     * that writing takes no memory in proportion to the number of records.
+     */
+    static final class Writer implements Closeable {
+        private final Path file;
+        private final Path indexFile;
+        private final FileChannel channel;
+        private final DataOutputStream out;
+        private final long[] sectionIndex = new long[SECTION_COUNT];
+        private final long[] sectionCount = new long[SECTION_COUNT];
+        private final long sequence;
+        private long position;
+        private int section = -1;
+        private DataOutputStream index;
+        private byte[] lastKey;
+
+        Writer(Path file, long sequence) throws IOException {
+            this.file = file;
+            this.indexFile = file.resolveSibling(file.getFileName() + ".index");
+            this.sequence = sequence;
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            out.write(new byte[HEADER_BYTES]);
+            position = HEADER_BYTES;
+            Arrays.fill(sectionIndex, HEADER_BYTES);
+        }
+
+        void beginSection(int id) throws IOException {
+            if (section >= 0) {
+                throw new IllegalStateException("Section " + section + " of " + file + " is not finished");
+            }
+            section = id;
+            lastKey = null;
+            index = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(indexFile), 1 << 16));
+        }
+
+        void add(byte[] key, byte[] value) throws IOException {
+            if (lastKey != null && Arrays.compareUnsigned(lastKey, key) >= 0) {
+                throw new IllegalArgumentException("Keys of snapshot section " + section + " are not in increasing order");
+            }
+            lastKey = key;
+            index.writeLong(position);
+            out.writeInt(key.length);
+            out.write(key);
+            out.writeInt(value.length);
+            out.write(value);
+            position += 8 + key.length + value.length;
+            sectionCount[section]++;
+        }
+
+        void endSection() throws IOException {
+            index.close();
+            sectionIndex[section] = position;
+            try (InputStream in = Files.newInputStream(indexFile)) {
+                position += in.transferTo(out);
+            }
+            Files.delete(indexFile);
+            index = null;
+            section = -1;
+        }
+
+        /**
+         * Writes the header and forces the file to disk.
+         */
+        void finish() throws IOException {
+            if (section >= 0) endSection();
+            out.flush();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putLong(MAGIC).putInt(FORMAT).putLong(sequence);
+            for (int i = 0; i < SECTION_COUNT; i++) {
+                header.putLong(sectionIndex[i]).putLong(sectionCount[i]);
+            }
+            header.flip();
+            channel.write(header, 0);
+            channel.force(true);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (index != null) {
+                index.close();
+                Files.deleteIfExists(indexFile);
+            }
+            // Closes the channel too
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package com.infolink.dfs.metanode;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.lettuce.core.RedisFuture;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.cluster.api.async.RedisClusterAsyncCommands;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.support.PersistenceExceptionTranslator;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Group commit of the Redis writes of concurrent requests. A write is queued with the shard it goes
+ * to; a single flusher thread gathers what arrives within dfs.redis.batch.window-us of the first
+ * queued write (or dfs.redis.batch.max-ops writes) and sends it as one pipeline per shard, then
+ * completes the future of every write with its own reply. Under many concurrent uploads the metanode
+ * then sends a few large pipelines instead of thousands of single commands, at the price of up to one
+ * window of added latency per write.
+ *
+ * <p>Writes of one batch reach a shard in the order they were queued. A caller that waits for its
+ * write before sending the next one, as the stores do, keeps its own writes in order. A write that
+ * fails only fails its own caller; writes whose script was flushed by a Redis restart are sent again
+ * after reloading it.
+ *
+ * <p>With dfs.redis.batch.enabled=false every write is sent at once on the calling thread.
+ */
+@Component
+@ConditionalOnProperty(name = "dfs.metadata.store", havingValue = "redis", matchIfMissing = true)
+public class MutationBatcher {
+    private static final Logger logger = LoggerFactory.getLogger(MutationBatcher.class);
+
+    /**
+     * One command issued on the connection of a shard, whose reply completes the future of the write.
+     * Commands go straight to Lettuce, which pipelines them, so that every write gets its own reply or
+     * error; a Spring pipeline only reports that one of its commands failed.
+     */
+    @FunctionalInterface
+    interface Command {
+        RedisFuture<?> issue(RedisClusterAsyncCommands<byte[], byte[]> commands);
+    }
+
+    private static final class Mutation {
+        final RedisShards.Shard shard;
+        final RedisScript<?> script;
+        final Command command;
+        final CompletableFuture<Object> done = new CompletableFuture<>();
+
+        Mutation(RedisShards.Shard shard, RedisScript<?> script, Command command) {
+            this.shard = shard;
+            this.script = script;
+            this.command = command;
+        }
+    }
+
+    private static final Mutation STOP = new Mutation(null, null, null);
+
+    @Value("${dfs.redis.batch.enabled:true}")
+    private boolean enabled;
+    @Value("${dfs.redis.batch.window-us:200}")
+    private long windowMicros;
+    @Value("${dfs.redis.batch.max-ops:256}")
+    private int maxOps;
+
+    private final BlockingQueue<Mutation> queue = new LinkedBlockingQueue<>();
+    // Scripts known to be loaded, per shard name
+    private final Map<String, Set<String>> loadedScripts = new ConcurrentHashMap<>();
+    private Thread flusher;
+    private volatile boolean running;
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong mutations = new AtomicLong();
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            logger.info("MutationBatcher disabled, Redis writes are sent one by one");
+            return;
+        }
+        running = true;
+        flusher = new Thread(this::flushLoop, "metadata-batcher");
+        flusher.setDaemon(true);
+        flusher.start();
+        logger.info("MutationBatcher started: windowUs={}, maxOps={}", windowMicros, maxOps);
+    }
+
+    /**
+     * Flushes the writes queued so far and stops the flusher.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (!running) return;
+        running = false;
+        queue.add(STOP);
+        flusher.join();
+    }
+
+    /**
+     * Queues a script call. Keys and arguments are passed as raw bytes, as in EVALSHA.
+     *
+     * @return a future completed with the reply of the script
+     */
+    CompletableFuture<Long> eval(RedisShards.Shard shard, RedisScript<Long> script, int numKeys, byte[]... keysAndArgs) {
+        String sha = script.getSha1();
+        byte[][] keys = Arrays.copyOfRange(keysAndArgs, 0, numKeys);
+        byte[][] args = Arrays.copyOfRange(keysAndArgs, numKeys, keysAndArgs.length);
+        return submit(shard, script, commands -> commands.evalsha(sha, ScriptOutputType.INTEGER, keys, args))
+                .thenApply(reply -> (Long) reply);
+    }
+
+    /**
+     * Queues a SET of a raw value.
+     */
+    CompletableFuture<Object> set(RedisShards.Shard shard, String key, byte[] value) {
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        return submit(shard, null, commands -> commands.set(rawKey, value));
+    }
+
+    /**
+     * Queues one command.
+     *
+     * @param script the script the command runs, loaded on the shard before the pipeline is sent; or null
+     */
+    CompletableFuture<Object> submit(RedisShards.Shard shard, RedisScript<?> script, Command command) {
+        Mutation mutation = new Mutation(shard, script, command);
+        if (running) {
+            queue.add(mutation);
+        } else {
+            flush(List.of(mutation));
+        }
+        return mutation.done;
+    }
+
+    /**
+     * Waits for a queued write, rethrowing its failure as it would have been thrown by a direct call.
+     */
+    static <T> T await(CompletableFuture<T> write) {
+        try {
+            return write.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    public BatchStats getStats() {
+        return new BatchStats(batches.get(), mutations.get(), queue.size());
+    }
+
+    private void flushLoop() {
+        List<Mutation> batch = new ArrayList<>();
+        long windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+        boolean stopped = false;
+        while (!stopped) {
+            try {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < maxOps && batch.get(batch.size() - 1) != STOP) {
+                    Mutation next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                stopped = true;
+            }
+
+            if (!batch.isEmpty() && batch.get(batch.size() - 1) == STOP) {
+                batch.remove(batch.size() - 1);
+                stopped = true;
+            }
+            if (stopped) {
+                // Writes queued while stopping are still sent
+                queue.drainTo(batch);
+                batch.remove(STOP);
+            }
+            try {
+                flush(batch);
+            } catch (RuntimeException e) {
+                logger.error("Unexpected failure while flushing {} metadata writes", batch.size(), e);
+                batch.forEach(mutation -> mutation.done.completeExceptionally(e));
+            }
+            batch.clear();
+        }
+    }
+
+    private void flush(List<Mutation> batch) {
+        if (batch.isEmpty()) return;
+        batches.incrementAndGet();
+        mutations.addAndGet(batch.size());
+
+        Map<RedisShards.Shard, List<Mutation>> byShard = new LinkedHashMap<>();
+        for (Mutation mutation : batch) {
+            byShard.computeIfAbsent(mutation.shard, shard -> new ArrayList<>()).add(mutation);
+        }
+        flushShards(byShard, false);
+    }
+
+    /**
+     * Sends the writes of every shard in one pipeline per shard, all of them before waiting for any
+     * reply, so that a batch costs one round trip however many shards it spans. Writes that fail because
+     * a script is missing are sent again once after reloading their scripts; no other write is sent twice,
+     * as it may have been applied.
+     */
+    private void flushShards(Map<RedisShards.Shard, List<Mutation>> byShard, boolean reload) {
+        Map<RedisShards.Shard, List<CompletableFuture<Object>>> replies = new LinkedHashMap<>();
+        for (Map.Entry<RedisShards.Shard, List<Mutation>> entry : byShard.entrySet()) {
+            replies.put(entry.getKey(), send(entry.getKey(), entry.getValue(), reload));
+        }
+
+        Map<RedisShards.Shard, List<Mutation>> missingScript = new LinkedHashMap<>();
+        for (Map.Entry<RedisShards.Shard, List<Mutation>> entry : byShard.entrySet()) {
+            RedisShards.Shard shard = entry.getKey();
+            List<Mutation> pending = entry.getValue();
+            List<CompletableFuture<Object>> shardReplies = replies.get(shard);
+            for (int i = 0; i < pending.size(); i++) {
+                Mutation mutation = pending.get(i);
+                try {
+                    mutation.done.complete(shardReplies.get(i).join());
+                } catch (CompletionException e) {
+                    if (!reload && isMissingScript(e.getCause())) {
+                        missingScript.computeIfAbsent(shard, s -> new ArrayList<>()).add(mutation);
+                    } else {
+                        mutation.done.completeExceptionally(translate(shard, e.getCause()));
+                    }
+                }
+            }
+        }
+        if (!missingScript.isEmpty()) {
+            missingScript.forEach((shard, mutations) ->
+                    logger.warn("{} metadata writes found their script missing on {}, reloading it", mutations.size(), shard));
+            flushShards(missingScript, true);
+        }
+    }
+
+    /**
+     * Issues the writes of one shard on its connection, which pipelines them, without waiting for the replies.
+     *
+     * @return the reply of every write, in order
+     */
+    private List<CompletableFuture<Object>> send(RedisShards.Shard shard, List<Mutation> pending, boolean reload) {
+        List<CompletableFuture<Object>> replies = new ArrayList<>(pending.size());
+        try {
+            loadScripts(shard, pending, reload);
+            shard.getStringTemplate().execute((RedisCallback<Object>) connection -> {
+                @SuppressWarnings("unchecked")
+                RedisClusterAsyncCommands<byte[], byte[]> commands = (RedisClusterAsyncCommands<byte[], byte[]>) connection.getNativeConnection();
+                for (Mutation mutation : pending) {
+                    @SuppressWarnings("unchecked")
+                    RedisFuture<Object> reply = (RedisFuture<Object>) mutation.command.issue(commands);
+                    replies.add(reply.toCompletableFuture());
+                }
+                return null;
+            });
+        } catch (RuntimeException e) {
+            logger.warn("Pipeline of {} metadata writes failed on {}: {}", pending.size(), shard, e.getMessage());
+            for (int i = replies.size(); i < pending.size(); i++) {
+                replies.add(CompletableFuture.failedFuture(e));
+            }
+        }
+        return replies;
+    }
+
+    private static boolean isMissingScript(Throwable e) {
+        for (; e != null; e = e.getCause()) {
+            if (e.getMessage() != null && e.getMessage().startsWith("NOSCRIPT")) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Turns a Lettuce error into the exception a template call would have thrown.
+     */
+    private static Throwable translate(RedisShards.Shard shard, Throwable e) {
+        if (e instanceof RuntimeException && shard.getStringTemplate().getConnectionFactory() instanceof PersistenceExceptionTranslator) {
+            DataAccessException translated = ((PersistenceExceptionTranslator) shard.getStringTemplate().getConnectionFactory())
+                    .translateExceptionIfPossible((RuntimeException) e);
+            if (translated != null) return translated;
+        }
+        return e;
+    }
+
+    /**
+     * Loads the scripts of the writes that are not known to be loaded on the shard, or all of them.
+     */
+    private void loadScripts(RedisShards.Shard shard, List<Mutation> pending, boolean reload) {
+        Set<String> loaded = loadedScripts.computeIfAbsent(shard.getName(), name -> ConcurrentHashMap.newKeySet());
+        Set<RedisScript<?>> scripts = new LinkedHashSet<>();
+        for (Mutation mutation : pending) {
+            if (mutation.script != null && (reload || !loaded.contains(mutation.script.getSha1()))) {
+                scripts.add(mutation.script);
+            }
+        }
+        for (RedisScript<?> script : scripts) {
+            byte[] body = script.getScriptAsString().getBytes(StandardCharsets.UTF_8);
+            shard.getStringTemplate().execute((RedisCallback<String>) connection -> connection.scriptingCommands().scriptLoad(body));
+            loaded.add(script.getSha1());
+        }
+    }
+
+    public static class BatchStats {
+        private final long batches;
+        private final long mutations;
+        private final int queued;
+
+        public BatchStats(long batches, long mutations, int queued) {
+            this.batches = batches;
+            this.mutations = mutations;
+            this.queued = queued;
+        }
+
+        public long getBatches()   { return batches; }
+        public long getMutations() { return mutations; }
+        public int getQueued()     { return queued; }
+    }
+}
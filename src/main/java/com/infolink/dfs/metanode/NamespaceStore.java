@@ -0,0 +1,62 @@
+package com.infolink.dfs.metanode;
+
+import java.util.List;
+
+import com.infolink.dfs.shared.DfsFile;
+
+/**
+ * Storage of the file tree behind FileTreeManager, which validates requests and builds the
+ * directory values before handing them over. Selected with dfs.metadata.store: RedisNamespaceStore
+ * ("redis", the default) or EmbeddedMetadataStore ("embedded").
+ *
+ * <p>A directory chain lists the directories of a path from the top down, excluding the root, as
+ * values ready to be stored; every directory that already exists is kept as it is.
+ */
+public interface NamespaceStore {
+
+    /**
+     * Stores a file in a directory, creating the root and the missing directories of the chain first.
+     *
+     * @return false when the directory already holds a file with the same name
+     */
+    boolean saveFile(String directory, DfsFile file, DfsFile root, List<DfsFile> chain);
+
+    /**
+     * Creates the root and the missing directories of the chain.
+     *
+     * @return the last directory of the chain, or the root when the chain is empty
+     */
+    DfsFile createDirectories(DfsFile root, List<DfsFile> chain);
+
+    DfsFile getFile(String path);
+
+    DfsFile getDirectory(String path);
+
+    /**
+     * @return the file or directory last stored with this hash, or null
+     */
+    DfsFile getByHash(String hash);
+
+    /**
+     * One page of a directory, directories first and then everything by name.
+     *
+     * @param cursor the nextCursor of the previous page, or null to start from the beginning
+     */
+    DirectoryPage listDirectory(String directory, String cursor, int limit);
+
+    /**
+     * @return the deleted file, or null when there is none at this path
+     */
+    DfsFile deleteFile(String path);
+
+    /**
+     * Removes the hash entry and the file it points to.
+     *
+     * @return the entry that was removed, or null when the hash is unknown
+     */
+    DfsFile deleteByHash(String hash);
+
+    void clearNamespace();
+
+    void logContents();
+}
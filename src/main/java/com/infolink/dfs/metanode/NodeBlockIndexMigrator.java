@@ -0,0 +1,110 @@
+package com.infolink.dfs.metanode;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Builds the "NodeBlocks:<url>" reverse index and "NodeDigest:<url>" block digest of BlockMetaService
+ * for blocks registered before they existed, by scanning every block location once. Every location
+ * is re-registered through the location script, so a block only toggles the digest of a node when it
+ * enters its reverse index. Legacy "BlockNode:<hash>" values are folded into location sets on the way;
+ * the location scripts no longer do it, so this must run once after upgrading from that format.
+ * Safe to run repeatedly.
+ */
+@Component
+@ConditionalOnProperty(name = "dfs.metadata.store", havingValue = "redis", matchIfMissing = true)
+public class NodeBlockIndexMigrator {
+    private static final Logger logger = LoggerFactory.getLogger(NodeBlockIndexMigrator.class);
+    private static final int BATCH_SIZE = 1000;
+
+    @Autowired
+    private RedisShards shards;
+    @Autowired
+    private RedisBlockStore blockStore;
+
+    @Value("${dfs.migration.node-block-index.on-startup:false}")
+    private boolean migrateOnStartup;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void migrateOnStartup() {
+        if (migrateOnStartup) {
+            migrate();
+        }
+    }
+
+    /**
+     * @return the number of blocks indexed
+     */
+    public int migrate() {
+        logger.info("Building the node to block reverse index.");
+        int indexed = 0;
+        for (RedisShards.Shard shard : shards.all()) {
+            indexed += indexBlocks(shard.getStringTemplate()) + foldLegacyBlocks(shard.getStringTemplate());
+        }
+        logger.info("Node to block reverse index built. {} blocks indexed.", indexed);
+        return indexed;
+    }
+
+    private int indexBlocks(StringRedisTemplate stringRedisTemplate) {
+        String prefix = BlockMetaService.BLOCK_LOCATION_PREFIX;
+        ScanOptions keyScan = ScanOptions.scanOptions().match(prefix + "*").count(BATCH_SIZE).build();
+        List<String> hashes = new ArrayList<>();
+        List<String> nodeUrls = new ArrayList<>();
+        int indexed = 0;
+
+        try (Cursor<String> keys = stringRedisTemplate.scan(keyScan)) {
+            while (keys.hasNext()) {
+                String key = keys.next();
+                String hash = key.substring(prefix.length());
+                Set<String> holders = stringRedisTemplate.opsForSet().members(key);
+                if (holders == null || holders.isEmpty()) continue;
+
+                for (String nodeUrl : holders) {
+                    hashes.add(hash);
+                    nodeUrls.add(nodeUrl);
+                }
+                indexed++;
+                if (hashes.size() >= BATCH_SIZE) {
+                    register(hashes, nodeUrls);
+                }
+            }
+        }
+        register(hashes, nodeUrls);
+        return indexed;
+    }
+
+    private int foldLegacyBlocks(StringRedisTemplate stringRedisTemplate) {
+        String prefix = BlockMetaService.BLOCK_NODE_PREFIX;
+        ScanOptions keyScan = ScanOptions.scanOptions().match(prefix + "*").count(BATCH_SIZE).build();
+        int folded = 0;
+
+        try (Cursor<String> keys = stringRedisTemplate.scan(keyScan)) {
+            while (keys.hasNext()) {
+                if (blockStore.foldLegacyBlock(keys.next().substring(prefix.length()))) {
+                    folded++;
+                }
+            }
+        }
+        return folded;
+    }
+
+    private void register(List<String> hashes, List<String> nodeUrls) {
+        if (hashes.isEmpty()) return;
+        blockStore.addLocations(hashes, nodeUrls);
+        hashes.clear();
+        nodeUrls.clear();
+    }
+}
@@ -1,6 +1,7 @@
 package com.infolink.dfs.metanode;
 
 import java.util.List;
+import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -11,6 +12,7 @@ import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RestController;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
@@ -21,10 +23,16 @@ import com.infolink.dfs.shared.DfsNode;
 @RestController
 public class NodeManageController {
     private static final Logger logger = LoggerFactory.getLogger(NodeManageController.class);
+    // Optional header naming the rack of the client, used to prefer nearby replicas
+    public static final String CLIENT_RACK_HEADER = "X-Dfs-Client-Rack";
     @Autowired
     private NodeManager nodeManager; // Reference to the NodeManager for node management
     @Autowired
     private FileTreeManager fileTreeManager;
+    @Autowired
+    private ReplicationExecutor replicationExecutor;
+    @Autowired
+    private DownloadPlanner downloadPlanner;
     
     @PostMapping("/metadata/register-node")
     public ResponseEntity<String> registerNode(@RequestBody DfsNode dfsNode) {
@@ -124,7 +132,8 @@ public class NodeManageController {
     }
     */
     @PostMapping("/metadata/download-url")
-    public ResponseEntity<String> getDownloadUrl(@RequestBody String hash) {
+    public ResponseEntity<String> getDownloadUrl(@RequestBody String hash,
+    		@RequestHeader(value = CLIENT_RACK_HEADER, required = false) String clientRack) {
         logger.info("Received request to get download URL for file with hash: {}", hash);
         
         boolean fileExists = fileTreeManager.checkFileExistsByHash(hash);
@@ -137,7 +146,11 @@ public class NodeManageController {
         }
 
         logger.info("File with hash {} exists. Proceeding to select a node.", hash);
-        DfsNode selectedNode = nodeManager.selectNodeRoundRobin();
+        // Prefer a node that holds the file's blocks; any node can still fetch them from its peers
+        DfsNode selectedNode = downloadPlanner.selectDownloadNode(hash, clientRack);
+        if (selectedNode == null) {
+            selectedNode = nodeManager.selectNodeRoundRobin();
+        }
         if (selectedNode == null) {
             logger.warn("No node selected by nodeManager for file with hash: {}. Service temporarily unavailable.", hash);
             return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
@@ -151,11 +164,91 @@ public class NodeManageController {
     }
 
 
+    /**
+     * Ranked replica locations for every block of a file, nearest and least loaded first,
+     * so that a client can read each block straight from a node holding it.
+     */
+    @PostMapping("/metadata/download-plan")
+    public ResponseEntity<ResponseDownloadPlan> getDownloadPlan(@RequestBody RequestDownloadPlan request) {
+        if (request == null || request.getHash() == null) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null);
+        }
+        logger.info("Received request to get download plan for file with hash: {}", request.getHash());
+
+        ResponseDownloadPlan plan = downloadPlanner.planDownload(request.getHash(), request.getClientRack());
+        if (plan == null) {
+            logger.warn("File with hash {} does not exist.", request.getHash());
+            return ResponseEntity.status(HttpStatus.NO_CONTENT).body(null);
+        }
+        return ResponseEntity.ok(plan);
+    }
+
+    @GetMapping("/metadata/replication/stats")
+    public ResponseEntity<ReplicationExecutor.ReplicationStats> getReplicationStats() {
+        return ResponseEntity.ok(replicationExecutor.getStats());
+    }
+
+    /**
+     * Depth of the re-replication queue per priority level, keyed by the number of live replicas.
+     */
+    @GetMapping("/metadata/replication/queue-depth")
+    public ResponseEntity<Map<Integer, Integer>> getReplicationQueueDepth() {
+        return ResponseEntity.ok(replicationExecutor.getQueueDepthByLiveReplicas());
+    }
+
     @GetMapping("/metadata/pingsvr")
     public String pingSvr() {
         return "Metadata Server is running...";
     }
 
+    public static class RequestDownloadPlan {
+        private String hash; // Hash of the file to read
+        private String clientRack; // Rack of the reading client, if known
+
+        public String getHash() 						{ return hash; }
+        public void setHash(String hash) 				{ this.hash = hash; }
+        public String getClientRack() 					{ return clientRack; }
+        public void setClientRack(String clientRack) 	{ this.clientRack = clientRack; }
+    }
+
+    public static class ResponseDownloadPlan {
+        private String hash;
+        private boolean complete; // False when some block has no living holder
+        private List<BlockReplicas> blocks;
+
+        public ResponseDownloadPlan() {}
+
+        public ResponseDownloadPlan(String hash, boolean complete, List<BlockReplicas> blocks) {
+            this.hash = hash;
+            this.complete = complete;
+            this.blocks = blocks;
+        }
+
+        public String getHash() 						{ return hash; }
+        public void setHash(String hash) 				{ this.hash = hash; }
+        public boolean isComplete() 					{ return complete; }
+        public void setComplete(boolean complete) 		{ this.complete = complete; }
+        public List<BlockReplicas> getBlocks() 			{ return blocks; }
+        public void setBlocks(List<BlockReplicas> blocks) { this.blocks = blocks; }
+
+        public static class BlockReplicas {
+            private String blockHash;
+            private List<String> nodeUrls; // Local URLs of the living holders, best first
+
+            public BlockReplicas() {}
+
+            public BlockReplicas(String blockHash, List<String> nodeUrls) {
+                this.blockHash = blockHash;
+                this.nodeUrls = nodeUrls;
+            }
+
+            public String getBlockHash() 					{ return blockHash; }
+            public void setBlockHash(String blockHash) 		{ this.blockHash = blockHash; }
+            public List<String> getNodeUrls() 				{ return nodeUrls; }
+            public void setNodeUrls(List<String> nodeUrls) 	{ this.nodeUrls = nodeUrls; }
+        }
+    }
+
     // Inner class to represent the request for upload
     public static class RequestUpload {
         private String uuid; // UUID of the request
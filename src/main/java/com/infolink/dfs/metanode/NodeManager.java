@@ -1,48 +1,73 @@
 package com.infolink.dfs.metanode;
 
 import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationEventPublisher;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.infolink.dfs.metanode.BlockMetaController.ResponseNodesForBlock;
 import com.infolink.dfs.shared.DfsNode;
 import com.infolink.dfs.metanode.event.DeadNodeEvent;
 
+import jakarta.annotation.PostConstruct;
+
 @Service
 public class NodeManager {
     private static final Logger logger = LoggerFactory.getLogger(NodeManager.class);
     
     private ConcurrentHashMap<String, DfsNode> registeredNodes;
     private ConcurrentHashMap<String, DfsNode> deadNodes;
-    private int currentNodeIndex = 0;
-    private int roundRobinIndex = 0;
+    // Container URLs of the registered nodes, replaced as a whole whenever membership changes.
+    // Selection reads the current DfsNode from registeredNodes, so heartbeats don't need a new snapshot.
+    private volatile String[] nodeSnapshot = new String[0];
+    private final AtomicLong nodeCursor = new AtomicLong();
+    private final AtomicLong placementCursor = new AtomicLong();
 
     @Value("${dfs.node.heartbeat.rate:10000}") 
     private int HEALTH_CHECK_THRESHOLD;
+    @Value("${dfs.node.failure-detector:phi}")
+    private String failureDetectorType;
+    @Value("${dfs.node.phi.threshold:8}")
+    private double phiThreshold;
+    @Value("${dfs.node.phi.acceptable-pause-ms:5000}")
+    private long acceptablePauseMs;
+    @Value("${dfs.node.phi.min-std-deviation-ms:500}")
+    private long minStdDeviationMs;
+    @Value("${dfs.node.suspect-timeout-ms:10000}")
+    private long suspectTimeoutMs;
+    @Value("${dfs.safemode.grace-ms:30000}")
+    private long safeModeGraceMs;
+    
+    // Nodes that missed their heartbeat deadline but are not dead yet; no new blocks are placed on them
+    private final Set<String> suspectNodes = ConcurrentHashMap.newKeySet();
+    private FailureDetector failureDetector;
+    
+    // Safe mode after a restart: until every recovered node has reported again, or the grace period
+    // is over, no node is declared dead, so a slow restart does not start re-replication.
+    private volatile long safeModeUntil;
+    private final Set<String> awaitingNodes = ConcurrentHashMap.newKeySet();
     
     @Autowired
     private ApplicationEventPublisher eventPublisher;
     @Autowired
-    public SimpMessagingTemplate messagingTemplate;
+    private PlacementPolicy placementPolicy;
     @Autowired
-    public ObjectMapper objectMapper;  
+    private DashboardPublisher dashboardPublisher;
+    @Autowired
+    private NodeMembershipStore membershipStore;
     
     public NodeManager() {
         this.registeredNodes = new ConcurrentHashMap<>();
@@ -51,6 +76,65 @@ public class NodeManager {
         //this.eventPublisher = eventPublisher;
         //this.messagingTemplate = messagingTemplate;
     }
+    
+    @PostConstruct
+    public void init() {
+        dashboardPublisher.setSources(this::getRegisteredNodes, this::getDeadNodes);
+        
+        if ("phi".equals(failureDetectorType)) {
+            failureDetector = FailureDetector.phiAccrual(phiThreshold, HEALTH_CHECK_THRESHOLD, acceptablePauseMs,
+                    minStdDeviationMs, suspectTimeoutMs, System::currentTimeMillis);
+        } else if ("fixed".equals(failureDetectorType)) {
+            failureDetector = FailureDetector.fixedTimeout(HEALTH_CHECK_THRESHOLD * 2L, suspectTimeoutMs, System::currentTimeMillis);
+        } else {
+            throw new IllegalArgumentException("Unknown failure detector: " + failureDetectorType + ". Use phi or fixed.");
+        }
+        logger.info("Using {} failure detector.", failureDetectorType);
+        
+        recoverMembership();
+    }
+    
+    private void recoverMembership() {
+        List<DfsNode> registered;
+        List<DfsNode> dead;
+        try {
+            registered = membershipStore.loadRegistered();
+            dead = membershipStore.loadDead();
+        } catch (Exception e) {
+            logger.warn("Could not load the persisted node membership; starting with an empty registry.", e);
+            return;
+        }
+        
+        for (DfsNode node : dead) {
+            deadNodes.put(node.getContainerUrl(), node);
+        }
+        for (DfsNode node : registered) {
+            registeredNodes.put(node.getContainerUrl(), node);
+            // Recovered nodes get a full deadline from now, as if they had just reported
+            failureDetector.heartbeat(node.getContainerUrl());
+            awaitingNodes.add(node.getContainerUrl());
+        }
+        rebuildNodeSnapshot();
+        
+        if (!registered.isEmpty()) {
+            safeModeUntil = System.currentTimeMillis() + safeModeGraceMs;
+            logger.info("Recovered {} registered and {} dead nodes. In safe mode for up to {} ms.", registered.size(), dead.size(), safeModeGraceMs);
+        }
+    }
+    
+    /**
+     * @return true while the metanode waits for the nodes it knew before a restart to report again
+     */
+    public boolean isInSafeMode() {
+        if (safeModeUntil == 0) return false;
+        if (awaitingNodes.isEmpty() || System.currentTimeMillis() >= safeModeUntil) {
+            safeModeUntil = 0;
+            logger.info("Leaving safe mode; {} recovered nodes have not reported.", awaitingNodes.size());
+            awaitingNodes.clear();
+            return false;
+        }
+        return true;
+    }
 
     public String registerNode(DfsNode node) {
         String nodeUrl = node.getContainerUrl();
@@ -58,32 +142,68 @@ public class NodeManager {
         String returnMsg = "";
         
         registeredNodes.put(nodeUrl, node);
-        boolean refreshNode = false;
+        awaitingNodes.remove(nodeUrl);
+        boolean wasSuspect = failureDetector.heartbeat(nodeUrl) == FailureDetector.State.SUSPECT;
+        if (wasSuspect) {
+            suspectNodes.remove(nodeUrl);
+            logger.info("Suspect node {} reported again.", nodeUrl);
+        }
+        // Placement policies group nodes by the snapshot, so a rack change needs a new one too
+        if (existingNode == null || wasSuspect || !Objects.equals(existingNode.getRack(), node.getRack())) {
+            rebuildNodeSnapshot();
+        }
+        
+        boolean revived = deadNodes.remove(nodeUrl) != null;
+        if (existingNode == null || revived || membershipChanged(existingNode, node)) {
+            persist(node, revived);
+        }
         
-        if (deadNodes.containsKey(nodeUrl)) {
-            deadNodes.remove(nodeUrl);
+        if (revived) {
             logger.debug("A dead node revives: {}", nodeUrl);
             returnMsg = "A dead node revives: " + nodeUrl;
-            refreshNode = true;
+            dashboardPublisher.nodeRevived(node);
         } else {
         	
 	        if (existingNode == null) {
 	            returnMsg = "Node registered: " + nodeUrl;
-	            refreshNode = true;
+	            dashboardPublisher.nodeChanged(node);
 	        } else {
 	            returnMsg = "Received Heartbeat from " + nodeUrl;
-	            if(existingNode.getBlockCount() != node.getBlockCount()) {
-	            	refreshNode = true;
+	            placementPolicy.onNodeReported(existingNode, node);
+	            if (statsChanged(existingNode, node)) {
+	            	dashboardPublisher.nodeChanged(node);
 	            }
 	        }
         }
-        
-        if (refreshNode) {
-			invokeClientToRefreshNodes();
-        }
         return returnMsg;
     }
     
+    // Membership is rebuilt from heartbeats anyway, so a failed write only costs recovery state.
+    // Plain heartbeats are not written: recovered nodes get a fresh deadline, so the last report time is not needed.
+    private void persist(DfsNode node, boolean revived) {
+        try {
+            if (revived) {
+                membershipStore.saveRevived(node);
+            } else {
+                membershipStore.saveRegistered(node);
+            }
+        } catch (Exception e) {
+            logger.warn("Could not persist membership of node {}", node.getContainerUrl(), e);
+        }
+    }
+    
+    private static boolean membershipChanged(DfsNode before, DfsNode after) {
+        return !Objects.equals(before.getLocalUrl(), after.getLocalUrl())
+                || !Objects.equals(before.getRack(), after.getRack())
+                || before.getCapacity() != after.getCapacity();
+    }
+    
+    private static boolean statsChanged(DfsNode before, DfsNode after) {
+        return before.getBlockCount() != after.getBlockCount()
+                || before.getBlockTotalSize() != after.getBlockTotalSize()
+                || before.getCapacity() != after.getCapacity();
+    }
+    
     public List<DfsNode> getReplicationNodes(String filename, String requestingNodeUrl) {
         logger.info("Retrieving replication nodes for filename: {} requested by: {}", filename, requestingNodeUrl);
 
@@ -93,51 +213,53 @@ public class NodeManager {
             return new ArrayList<>();
         }
 
-        // Get live nodes excluding the requesting node
-        List<DfsNode> liveNodes = registeredNodes.values().stream()
-                .filter(node -> !node.getContainerUrl().equals(requestingNodeUrl))
-                .collect(Collectors.toList());
+        // Select up to 2 live nodes other than the requesting node using round-robin logic
+        String[] nodes = nodeSnapshot;
+        List<DfsNode> selectedNodes = new ArrayList<>(2);
+        if (nodes.length > 0) {
+            int start = Math.floorMod(placementCursor.getAndAdd(2), nodes.length);
+            for (int i = 0; i < nodes.length && selectedNodes.size() < 2; i++) {
+                String nodeUrl = nodes[(start + i) % nodes.length];
+                if (nodeUrl.equals(requestingNodeUrl)) continue;
+                DfsNode node = registeredNodes.get(nodeUrl);
+                if (node != null) {
+                    selectedNodes.add(node);
+                    logger.debug("Selected node: {}", node);
+                }
+            }
+        }
 
         // If there are no other live nodes, log a warning and return an empty list
-        if (liveNodes.isEmpty()) {
+        if (selectedNodes.isEmpty()) {
             logger.warn("No other live nodes available for replication for filename: {}", filename);
-            return new ArrayList<>();
-        }
-
-        // If there are 1 or 2 live nodes, return them directly
-        if (liveNodes.size() <= 2) {
-            logger.info("Returning available live nodes directly: {}", liveNodes);
-            return new ArrayList<>(liveNodes);
+            return selectedNodes;
         }
-
-        // Select up to 2 nodes using round-robin logic
-        List<DfsNode> selectedNodes = new ArrayList<>();
-        for (int i = 0; i < 2; i++) {
-            int index = (roundRobinIndex + i) % liveNodes.size();
-            selectedNodes.add(liveNodes.get(index));
-            logger.debug("Selected node at index {}: {}", index, liveNodes.get(index));
-        }
-
-        // Update the round-robin index for the next selection
-        roundRobinIndex = (roundRobinIndex + 2) % liveNodes.size();
-        logger.info("Updated round-robin index to: {}", roundRobinIndex);
         logger.info("Final selected replication nodes: {}", selectedNodes);
 
         return selectedNodes;
     }
 
+    /**
+     * Called when a node registers a block, so the placement policy can account for it.
+     */
+    public void blockStored(String nodeUrl) {
+        placementPolicy.onBlockStored(nodeUrl);
+    }
+
     public DfsNode getNodeByContainerUrl(String containerUrl) {
         return registeredNodes.get(containerUrl);
     }
     
     public DfsNode selectNodeRoundRobin() {
-        if (registeredNodes.isEmpty()) {
-            return null;
+        String[] nodes = nodeSnapshot;
+        // A node may have left since the snapshot was taken; move on to the next one
+        for (int i = 0; i < nodes.length; i++) {
+            DfsNode node = registeredNodes.get(nodes[Math.floorMod(nodeCursor.getAndIncrement(), nodes.length)]);
+            if (node != null) {
+                return node;
+            }
         }
-        List<DfsNode> nodeList = new ArrayList<>(registeredNodes.values());
-        DfsNode selectedNode = nodeList.get(currentNodeIndex);
-        currentNodeIndex = (currentNodeIndex + 1) % nodeList.size();
-        return selectedNode;
+        return null;
     }
     
     public ResponseNodesForBlock selectNodeBasedOnBlockCount(Set<String> existingNodeUrls, int n, String requestingNodeUrl) {
@@ -168,20 +290,8 @@ public class NodeManager {
         // Calculate how many more nodes are needed to reach the desired count
         int nodesNeeded = n - activeNodeUrls.size();
 
-        // Filter registered nodes not in activeNodeUrls, then sort by blockCount
-        List<DfsNode> candidateNodes = registeredNodes.values().stream()
-            .filter(node -> !activeNodeUrls.contains(node.getContainerUrl()))  // Exclude existing nodes
-            .sorted(Comparator.comparingLong(DfsNode::getBlockCount))  // Sort by blockCount in ascending order
-            .collect(Collectors.toList());
-
-        logger.debug("Candidates available for selection (sorted by blockCount): {}", candidateNodes);
-
-        // Select the required number of nodes from sorted candidates
-        for (int i = 0; i < nodesNeeded && i < candidateNodes.size(); i++) {
-            DfsNode selectedNode = candidateNodes.get(i);
-            selectedNodes.add(selectedNode);
-            logger.debug("Node selected based on lowest blockCount: {}", selectedNode.getContainerUrl());
-        }
+        // Let the placement policy pick among the registered nodes not already holding the block
+        selectedNodes.addAll(placementPolicy.chooseTargets(nodeSnapshot, registeredNodes::get, activeNodeUrls, nodesNeeded, requestingNodeUrl));
 
         // If no nodes were selected, update the status to NO_NODES_AVAILABLE
         if (selectedNodes.isEmpty()) {
@@ -229,19 +339,18 @@ public class NodeManager {
         }
 
         // Collect nodes from registeredNodes using round-robin, skipping those already in activeNodeUrls.
-        List<DfsNode> registeredNodesList = new ArrayList<>(registeredNodes.values());
-        int registeredNodesSize = registeredNodesList.size();
+        String[] nodes = nodeSnapshot;
+        int registeredNodesSize = nodes.length;
 
     	logger.debug("Looping the registered node to select node.");
     	logger.debug("registeredNodesSize={}", registeredNodesSize);
     	
         for (int i = 0; i < registeredNodesSize && selectedNodes.size() + activeNodeUrls.size() < n; i++) {
-            DfsNode candidateNode = registeredNodesList.get(roundRobinIndex);
+            DfsNode candidateNode = registeredNodes.get(nodes[Math.floorMod(placementCursor.getAndIncrement(), registeredNodesSize)]);
+            if (candidateNode == null) continue;
             
             logger.debug(" i={}, candidateNode is {}", i, candidateNode.getContainerUrl());
             logger.debug("selectedNodes.size()={}   activeNodeUrls.size()={}", selectedNodes.size(), activeNodeUrls.size());
-            
-            roundRobinIndex = (roundRobinIndex + 1) % registeredNodesSize;
 
             // Check if the candidate node is already in activeNodeUrls or selectedNodes.
             boolean isAlreadyExisting = activeNodeUrls.contains(candidateNode.getContainerUrl());
@@ -274,61 +383,58 @@ public class NodeManager {
     public void clearRegisteredNodes() {
         registeredNodes.clear();
         deadNodes.clear();
+        suspectNodes.clear();
+        awaitingNodes.clear();
+        failureDetector.clear();
+        membershipStore.clear();
+        rebuildNodeSnapshot();
+        dashboardPublisher.resync();
     }
-    
-    void invokeClientToRefreshNodes() {
-        try {
-            // Convert registeredNodes to JSON
-            List<DfsNode> nodeList = registeredNodes.values().stream().collect(Collectors.toList());
-            String json = objectMapper.writeValueAsString(nodeList); // Serialize to JSON
-            messagingTemplate.convertAndSend("/topic/refresh-node", json); // Notify all clients about the update
-            logger.debug("sending message to websocket:/topic/refresh-node. Message is {}", json);
-            
-        } catch (Exception e) {
-            logger.error("Error sending registeredNodes to client", e);
-        }
-    }
-    
-    void invokeClientToRefreshDeadNodes() {
-    	try {
-    		List<DfsNode> nodeList = deadNodes.values().stream().collect(Collectors.toList());
-    		String json = objectMapper.writeValueAsString(nodeList);
-    		messagingTemplate.convertAndSend("/topic/refresh-dead-node", json);
-    		logger.debug("Sending message to websocket:/topic/refresh-dead-node. Message is {}", json);
-    	} catch (Exception e) {
-    		logger.error("Error sending dead node message to client.", e);
-    	}
+
+    private synchronized void rebuildNodeSnapshot() {
+        nodeSnapshot = registeredNodes.keySet().stream()
+                .filter(nodeUrl -> !suspectNodes.contains(nodeUrl))
+                .toArray(String[]::new);
+        logger.debug("Node snapshot rebuilt with {} nodes.", nodeSnapshot.length);
     }
     
-    @Scheduled(fixedRateString = "${dfs.node.heartbeat.rate:10000}") // Execute every 10 seconds
+    /**
+     * Applies the failure detector's expired deadlines. Cheap enough to run often: only nodes whose
+     * deadline has passed are looked at.
+     */
+    @Scheduled(fixedRateString = "${dfs.node.failure.check-interval-ms:1000}")
     public void checkNodeHealth() {
-        Date now = new Date();
-        logger.info("Starting health check for registered nodes at {}.", now);
-
-        // Use an iterator to avoid ConcurrentModificationException
-        boolean refreshNode = false;
-        for (Map.Entry<String, DfsNode> entry : registeredNodes.entrySet()) {
-            DfsNode node = entry.getValue();
-            long milliSecondsSinceLastReport = (now.getTime() - node.getLastTimeReport().getTime());
-
-            if (milliSecondsSinceLastReport > HEALTH_CHECK_THRESHOLD * 2) {
-                logger.info("The node({}) is down. Moving to deadNodes from registered nodes.", node.getContainerUrl());
-                deadNodes.put(node.getContainerUrl(), node);
-                registeredNodes.remove(node.getContainerUrl());
-                eventPublisher.publishEvent(new DeadNodeEvent(node));
-                refreshNode = true; // Set the flag to true
+        // Expired deadlines stay queued and are applied once safe mode is over
+        if (isInSafeMode()) return;
+        
+        for (Map.Entry<String, FailureDetector.State> transition : failureDetector.expire().entrySet()) {
+            String nodeUrl = transition.getKey();
+            if (transition.getValue() == FailureDetector.State.SUSPECT) {
+                logger.info("The node({}) missed its heartbeat deadline and is suspect.", nodeUrl);
+                suspectNodes.add(nodeUrl);
+                rebuildNodeSnapshot();
+                continue;
             }
+            
+            suspectNodes.remove(nodeUrl);
+            DfsNode node = registeredNodes.remove(nodeUrl);
+            if (node == null) continue;
+            logger.info("The node({}) is down. Moving to deadNodes from registered nodes.", nodeUrl);
+            deadNodes.put(nodeUrl, node);
+            try {
+                membershipStore.saveDead(node);
+            } catch (Exception e) {
+                logger.warn("Could not persist death of node {}", nodeUrl, e);
+            }
+            rebuildNodeSnapshot();
+            placementPolicy.onNodeRemoved(nodeUrl);
+            eventPublisher.publishEvent(new DeadNodeEvent(node));
+            dashboardPublisher.nodeDied(node);
         }
-        //if (refreshNode) {
-    	try {
-    		//Send message to WebSocket client
-			invokeClientToRefreshNodes();
-			invokeClientToRefreshDeadNodes();
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
-        //}
-        logger.info("Health check completed at {}. Total nodes monitored: {}.", now, registeredNodes.size());
+    }
+    
+    public boolean isSuspectNode(String containerUrl) {
+        return suspectNodes.contains(containerUrl);
     }
 
     public String getLocalUrlForNode(String containerUrl) {
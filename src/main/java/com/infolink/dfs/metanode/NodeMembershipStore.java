@@ -0,0 +1,40 @@
+package com.infolink.dfs.metanode;
+
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.infolink.dfs.shared.DfsNode;
+
+/**
+ * Durable copy of NodeManager's membership, so a restarted metanode knows the cluster right away.
+ * Registered and dead nodes are kept as two hashes keyed by container URL, with the DfsNode as JSON
+ * value. NodeManager only writes on membership changes, so the stored lastTimeReport and block stats
+ * are those of the last change, not of the last heartbeat. Selected with dfs.metadata.store:
+ * RedisNodeMembershipStore ("redis", the default) or EmbeddedNodeMembershipStore ("embedded").
+ */
+public interface NodeMembershipStore {
+
+    String REGISTERED_KEY = "NodeMembership:registered";
+    String DEAD_KEY = "NodeMembership:dead";
+
+    void saveRegistered(DfsNode node) throws JsonProcessingException;
+
+    /**
+     * Saves a node that was dead as registered again.
+     */
+    void saveRevived(DfsNode node) throws JsonProcessingException;
+
+    /**
+     * Moves a registered node to the dead nodes.
+     */
+    void saveDead(DfsNode node) throws JsonProcessingException;
+
+    /**
+     * Entries that cannot be read are skipped.
+     */
+    List<DfsNode> loadRegistered();
+
+    List<DfsNode> loadDead();
+
+    void clear();
+}
@@ -0,0 +1,45 @@
+package com.infolink.dfs.metanode;
+
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+import com.infolink.dfs.shared.DfsNode;
+
+/**
+ * Chooses the data nodes that receive new copies of a block.
+ * The implementation in use is selected with dfs.placement.policy (see AppConfig).
+ */
+public interface PlacementPolicy {
+
+    /**
+     * @param nodeUrls     container URLs of the registered nodes, as snapshotted by NodeManager
+     * @param lookup       resolves a URL to the node's latest report, or null if it has left
+     * @param excludedUrls nodes that must not be chosen, typically the ones already holding the block
+     * @param count        number of nodes wanted
+     * @param writerUrl    the node asking where to store the block, or null
+     * @return up to count distinct nodes
+     */
+    List<DfsNode> chooseTargets(String[] nodeUrls, Function<String, DfsNode> lookup, Set<String> excludedUrls, int count, String writerUrl);
+
+    /**
+     * Called when a node reports that it stored a block, so that assignments still in flight can be tracked.
+     */
+    default void onBlockStored(String nodeUrl) {
+    }
+
+    /**
+     * Called when an already registered node sends a heartbeat.
+     *
+     * @param previous the node's previous report
+     * @param node     the report just received
+     */
+    default void onNodeReported(DfsNode previous, DfsNode node) {
+    }
+
+    /**
+     * Called when a node is no longer registered.
+     */
+    default void onNodeRemoved(String nodeUrl) {
+    }
+}
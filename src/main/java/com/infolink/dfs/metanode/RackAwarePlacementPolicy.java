@@ -0,0 +1,145 @@
+package com.infolink.dfs.metanode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+
+import com.infolink.dfs.shared.DfsNode;
+
+/**
+ * Spreads the copies of a block over failure domains (DfsNode.rack).
+ * The first copy of a new block goes to the writer's rack to save cross-rack bandwidth; every further
+ * copy goes to a rack holding the fewest copies of the block, so racks without a copy come first.
+ * Within the racks allowed for a copy, the node is chosen by WeightedPlacementPolicy.
+ * Nodes that don't report a rack share one default rack, which makes this policy behave like the
+ * weighted one on clusters without topology information.
+ */
+public class RackAwarePlacementPolicy implements PlacementPolicy {
+    static final String DEFAULT_RACK = "default-rack";
+
+    private final WeightedPlacementPolicy weighted;
+
+    // Rack grouping of the last node snapshot; NodeManager replaces the snapshot when membership or a rack changes
+    private volatile Topology topology = new Topology(new String[0], Map.of());
+
+    public RackAwarePlacementPolicy() {
+        this(WeightedPlacementPolicy.DEFAULT_IN_FLIGHT_TIMEOUT_MS);
+    }
+
+    public RackAwarePlacementPolicy(long inFlightTimeoutMs) {
+        this.weighted = new WeightedPlacementPolicy(inFlightTimeoutMs);
+    }
+
+    @Override
+    public List<DfsNode> chooseTargets(String[] nodeUrls, Function<String, DfsNode> lookup, Set<String> excludedUrls, int count, String writerUrl) {
+        Topology current = topologyOf(nodeUrls, lookup);
+
+        Map<String, Integer> copiesPerRack = new HashMap<>();
+        for (String holderUrl : excludedUrls) {
+            DfsNode holder = lookup.apply(holderUrl);
+            if (holder != null) copiesPerRack.merge(rackOf(holder), 1, Integer::sum);
+        }
+        DfsNode writer = (writerUrl != null) ? lookup.apply(writerUrl) : null;
+
+        List<DfsNode> chosen = new ArrayList<>(count);
+        Set<String> unavailable = new HashSet<>(excludedUrls);
+        while (chosen.size() < count) {
+            List<String> rackCandidates = candidateRacks(current, copiesPerRack, unavailable, writer);
+            if (rackCandidates.isEmpty()) break;
+
+            DfsNode pick = null;
+            for (String rack : rackCandidates) {
+                List<DfsNode> picks = weighted.chooseTargets(current.urlsByRack.get(rack), lookup, unavailable, 1, writerUrl);
+                if (!picks.isEmpty()) {
+                    pick = picks.get(0);
+                    break;
+                }
+            }
+            if (pick == null) break;
+
+            chosen.add(pick);
+            unavailable.add(pick.getContainerUrl());
+            copiesPerRack.merge(rackOf(pick), 1, Integer::sum);
+        }
+        return chosen;
+    }
+
+    /**
+     * Racks the next copy may go to, best first: the writer's rack for the first copy of a block,
+     * then the racks holding the fewest copies. Racks with no node left to choose are skipped.
+     */
+    private List<String> candidateRacks(Topology topology, Map<String, Integer> copiesPerRack, Set<String> unavailable, DfsNode writer) {
+        List<String> racks = new ArrayList<>();
+        for (Map.Entry<String, String[]> entry : topology.urlsByRack.entrySet()) {
+            if (hasAvailableNode(entry.getValue(), unavailable)) racks.add(entry.getKey());
+        }
+        // Shuffled first so that racks tied on copies share the load evenly
+        Collections.shuffle(racks, ThreadLocalRandom.current());
+        racks.sort((a, b) -> Integer.compare(copiesPerRack.getOrDefault(a, 0), copiesPerRack.getOrDefault(b, 0)));
+
+        if (copiesPerRack.isEmpty() && writer != null && racks.remove(rackOf(writer))) {
+            racks.add(0, rackOf(writer));
+        }
+        return racks;
+    }
+
+    private static boolean hasAvailableNode(String[] urls, Set<String> unavailable) {
+        for (String url : urls) {
+            if (!unavailable.contains(url)) return true;
+        }
+        return false;
+    }
+
+    private Topology topologyOf(String[] nodeUrls, Function<String, DfsNode> lookup) {
+        Topology current = topology;
+        if (current.nodeUrls == nodeUrls) return current;
+
+        Map<String, List<String>> grouped = new HashMap<>();
+        for (String nodeUrl : nodeUrls) {
+            DfsNode node = lookup.apply(nodeUrl);
+            if (node != null) grouped.computeIfAbsent(rackOf(node), k -> new ArrayList<>()).add(nodeUrl);
+        }
+        Map<String, String[]> urlsByRack = new HashMap<>();
+        grouped.forEach((rack, urls) -> urlsByRack.put(rack, urls.toArray(new String[0])));
+
+        current = new Topology(nodeUrls, urlsByRack);
+        topology = current;
+        return current;
+    }
+
+    static String rackOf(DfsNode node) {
+        String rack = node.getRack();
+        return (rack == null || rack.isEmpty()) ? DEFAULT_RACK : rack;
+    }
+
+    @Override
+    public void onBlockStored(String nodeUrl) {
+        weighted.onBlockStored(nodeUrl);
+    }
+
+    @Override
+    public void onNodeReported(DfsNode previous, DfsNode node) {
+        weighted.onNodeReported(previous, node);
+    }
+
+    @Override
+    public void onNodeRemoved(String nodeUrl) {
+        weighted.onNodeRemoved(nodeUrl);
+    }
+
+    private static class Topology {
+        final String[] nodeUrls;
+        final Map<String, String[]> urlsByRack;
+
+        Topology(String[] nodeUrls, Map<String, String[]> urlsByRack) {
+            this.nodeUrls = nodeUrls;
+            this.urlsByRack = urlsByRack;
+        }
+    }
+}
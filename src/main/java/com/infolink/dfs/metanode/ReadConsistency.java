@@ -0,0 +1,27 @@
+package com.infolink.dfs.metanode;
+
+/**
+ * Read consistency of the metadata reads made by the current thread. By default reads may be
+ * served by a replica (see dfs.redis.read-from) and can lag behind the latest writes; a request
+ * carrying the READ_YOUR_WRITES_HEADER is served by the primaries only, so it sees every write
+ * acknowledged before it. Set for HTTP requests by ReadConsistencyFilter.
+ */
+public final class ReadConsistency {
+    public static final String READ_YOUR_WRITES_HEADER = "X-Dfs-Read-Your-Writes";
+
+    private static final ThreadLocal<Boolean> READ_YOUR_WRITES = ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+    private ReadConsistency() {}
+
+    public static boolean isReadYourWrites() {
+        return READ_YOUR_WRITES.get();
+    }
+
+    public static void setReadYourWrites(boolean readYourWrites) {
+        READ_YOUR_WRITES.set(readYourWrites);
+    }
+
+    public static void clear() {
+        READ_YOUR_WRITES.remove();
+    }
+}
@@ -0,0 +1,30 @@
+package com.infolink.dfs.metanode;
+
+import java.io.IOException;
+
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Applies the read-your-writes header ("X-Dfs-Read-Your-Writes: true") of a request to the
+ * metadata reads made while handling it.
+ */
+@Component
+public class ReadConsistencyFilter extends OncePerRequestFilter {
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        ReadConsistency.setReadYourWrites(Boolean.parseBoolean(request.getHeader(ReadConsistency.READ_YOUR_WRITES_HEADER)));
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            ReadConsistency.clear();
+        }
+    }
+}
@@ -0,0 +1,464 @@
+package com.infolink.dfs.metanode;
+
+import static com.infolink.dfs.metanode.BlockMetaService.BLOCK_LOCATION_PREFIX;
+import static com.infolink.dfs.metanode.BlockMetaService.BLOCK_NODE_PREFIX;
+import static com.infolink.dfs.metanode.BlockMetaService.NODE_BLOCKS_PREFIX;
+import static com.infolink.dfs.metanode.BlockMetaService.NODE_DIGEST_PREFIX;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.stereotype.Component;
+
+import com.infolink.dfs.metanode.mdb.BlockNode;
+import com.infolink.dfs.shared.BlockReportDigest;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The block map in Redis: a "BlockLocation:<hash>" set of node URLs per block (or a legacy
+ * "BlockNode:<hash>" JSON value, until NodeBlockIndexMigrator folds it into the set), kept together
+ * with the "NodeBlocks:<url>" reverse index by the location scripts along with the "NodeDigest:<url>"
+ * block digest, and a "NodeReport:<url>" hash per node for the block report state. Blocks are spread over RedisShards by hash, and every shard keeps the
+ * reverse index and digest of its own blocks; the report state stays on the default Redis.
+ */
+@Component
+@ConditionalOnProperty(name = "dfs.metadata.store", havingValue = "redis", matchIfMissing = true)
+public class RedisBlockStore implements BlockStore {
+    private static final Logger logger = LoggerFactory.getLogger(RedisBlockStore.class);
+
+    private static final String FIELD_SEQ = "seq";
+    private static final String FIELD_DIGEST = "digest";
+    private static final String FIELD_DIGEST_HIGH = "hi";
+    private static final String FIELD_DIGEST_LOW = "lo";
+    private static final String INCOMING_SUFFIX = ":incoming";
+
+    private static final byte[] BLOCK_LOCATION_PREFIX_BYTES = bytes(BLOCK_LOCATION_PREFIX);
+
+    private static final RedisScript<Long> REGISTER_SCRIPT = RedisScript.of(new ClassPathResource("scripts/register-block-location.lua"), Long.class);
+    private static final RedisScript<Long> UNREGISTER_SCRIPT = RedisScript.of(new ClassPathResource("scripts/unregister-block-location.lua"), Long.class);
+    private static final RedisScript<Long> UNREGISTER_BLOCK_SCRIPT = RedisScript.of(new ClassPathResource("scripts/unregister-block.lua"), Long.class);
+    private static final RedisScript<Long> FOLD_LEGACY_SCRIPT = RedisScript.of(new ClassPathResource("scripts/fold-legacy-block.lua"), Long.class);
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    private RedisShards shards;
+    @Autowired
+    private MutationBatcher batcher;
+
+    @Value("${dfs.block.report.chunk-size:1000}")
+    private int reportChunkSize;
+
+    /**
+     * Goes through the MutationBatcher, so that registrations of concurrent uploads share pipelines.
+     */
+    @Override
+    public long addLocation(String hash, String nodeUrl) {
+        Long added = MutationBatcher.await(batcher.eval(shardOf(hash), REGISTER_SCRIPT, 3, locationArgs(hash, nodeUrl)));
+        return (added != null) ? added : 0L;
+    }
+
+    @Override
+    public long removeLocation(String hash, String nodeUrl) {
+        long hashDigest = BlockReportDigest.hashOf(hash);
+        Long remaining = shardOf(hash).getStringTemplate().execute(UNREGISTER_SCRIPT, locationKeys(hash, nodeUrl), nodeUrl, hash,
+                high(hashDigest), low(hashDigest));
+        return (remaining != null) ? remaining : -1L;
+    }
+
+    @Override
+    public List<Long> addLocations(List<String> hashes, List<String> nodeUrls) {
+        return applyPipelined(REGISTER_SCRIPT, hashes, nodeUrls);
+    }
+
+    @Override
+    public List<Long> removeLocations(List<String> hashes, List<String> nodeUrls) {
+        return applyPipelined(UNREGISTER_SCRIPT, hashes, nodeUrls);
+    }
+
+    /**
+     * Runs a location script once per (hash, nodeUrl) pair, pipelined in chunks of dfs.block.report.chunk-size
+     * with one pipeline per shard. A pipeline that fails is retried once after reloading the script, since the
+     * script cache may have been flushed by a Redis restart. The result list is aligned with the input; it holds
+     * null for pairs with a missing hash or URL and for pipelines that failed twice.
+     */
+    private List<Long> applyPipelined(RedisScript<Long> script, List<String> hashes, List<String> nodeUrls) {
+        Long[] results = new Long[hashes.size()];
+        byte[] scriptBody = script.getScriptAsString().getBytes(StandardCharsets.UTF_8);
+        for (RedisShards.Shard shard : shards.all()) {
+            shard.getStringTemplate().execute((RedisCallback<String>) connection -> connection.scriptingCommands().scriptLoad(scriptBody));
+        }
+
+        for (int start = 0; start < hashes.size(); start += reportChunkSize) {
+            int end = Math.min(start + reportChunkSize, hashes.size());
+            List<String> routingKeys = new ArrayList<>(end - start);
+            for (int i = start; i < end; i++) {
+                routingKeys.add(nodeUrls.get(i) != null ? hashes.get(i) : null);
+            }
+
+            for (Map.Entry<RedisShards.Shard, List<Integer>> partition : shards.partition(routingKeys).entrySet()) {
+                RedisShards.Shard shard = partition.getKey();
+                List<Integer> positions = partition.getValue();
+                List<Object> chunkResults;
+                try {
+                    chunkResults = applyChunk(shard, script, hashes, nodeUrls, start, positions);
+                } catch (RuntimeException e) {
+                    logger.warn("Pipelined block location update failed on {}, retrying chunk [{}, {}): {}", shard, start, end, e.getMessage());
+                    try {
+                        shard.getStringTemplate().execute((RedisCallback<String>) connection -> connection.scriptingCommands().scriptLoad(scriptBody));
+                        chunkResults = applyChunk(shard, script, hashes, nodeUrls, start, positions);
+                    } catch (RuntimeException retryException) {
+                        logger.error("Pipelined block location update failed on {} for chunk [{}, {})", shard, start, end, retryException);
+                        continue;
+                    }
+                }
+                for (int j = 0; j < positions.size(); j++) {
+                    results[start + positions.get(j)] = (Long) chunkResults.get(j);
+                }
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    private List<Object> applyChunk(RedisShards.Shard shard, RedisScript<Long> script, List<String> hashes, List<String> nodeUrls,
+            int start, List<Integer> positions) {
+        String sha = script.getSha1();
+        return shard.getStringTemplate().executePipelined((RedisCallback<Object>) connection -> {
+            for (int position : positions) {
+                connection.scriptingCommands().evalSha(sha, ReturnType.INTEGER, 3,
+                        locationArgs(hashes.get(start + position), nodeUrls.get(start + position)));
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Served by the replicas of the block's shard when dfs.redis.read-from allows it.
+     */
+    @Override
+    public Set<String> getLocations(String hash) {
+        RedisShards.Shard shard = shardOf(hash);
+        Set<String> nodeUrls = shard.getReadStringTemplate().opsForSet().members(BLOCK_LOCATION_PREFIX + hash);
+        if (nodeUrls != null && !nodeUrls.isEmpty()) {
+            return nodeUrls;
+        }
+        // Blocks registered before the location sets existed are still stored as BlockNode JSON
+        BlockNode legacy = shard.getReadBlockNodeTemplate().opsForValue().get(BLOCK_NODE_PREFIX + hash);
+        return (legacy != null) ? legacy.getNodeUrls() : null;
+    }
+
+    /**
+     * The location sets of the blocks are read in one pipeline per shard, and blocks still stored in
+     * the legacy format with one MGET, so a lookup costs one or two round trips per shard.
+     */
+    @Override
+    public List<Set<String>> getLocations(List<String> hashes) {
+        List<Set<String>> locations = new ArrayList<>(Collections.nCopies(hashes.size(), null));
+        for (Map.Entry<RedisShards.Shard, List<Integer>> partition : shards.partition(hashes).entrySet()) {
+            lookupPartition(partition.getKey(), hashes, partition.getValue(), locations);
+        }
+        return locations;
+    }
+
+    private void lookupPartition(RedisShards.Shard shard, List<String> hashes, List<Integer> positions, List<Set<String>> locations) {
+        List<Object> locationSets = shard.getReadStringTemplate().executePipelined((RedisCallback<Object>) connection -> {
+            for (int position : positions) {
+                connection.setCommands().sMembers(blockKey(BLOCK_LOCATION_PREFIX_BYTES, hashes.get(position)));
+            }
+            return null;
+        });
+
+        List<Integer> missing = new ArrayList<>();
+        for (int j = 0; j < positions.size(); j++) {
+            @SuppressWarnings("unchecked")
+            Set<String> nodeUrls = (Set<String>) locationSets.get(j);
+            if (nodeUrls != null && !nodeUrls.isEmpty()) {
+                locations.set(positions.get(j), new HashSet<>(nodeUrls));
+            } else {
+                missing.add(positions.get(j));
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            List<String> legacyKeys = new ArrayList<>(missing.size());
+            missing.forEach(position -> legacyKeys.add(BLOCK_NODE_PREFIX + hashes.get(position)));
+            List<BlockNode> legacy = shard.getReadBlockNodeTemplate().opsForValue().multiGet(legacyKeys);
+            for (int j = 0; j < missing.size(); j++) {
+                if (legacy != null && legacy.get(j) != null) {
+                    locations.set(missing.get(j), legacy.get(j).getNodeUrls());
+                }
+            }
+        }
+    }
+
+    /**
+     * The holders are read first, so that the script is given the reverse index and digest keys of
+     * every node; it refuses when a node registered the block in between, and the holders are read again.
+     */
+    @Override
+    public boolean removeBlock(String hash) {
+        RedisShards.Shard shard = shardOf(hash);
+        long hashDigest = BlockReportDigest.hashOf(hash);
+        while (true) {
+            Set<String> holders = new HashSet<>();
+            Set<String> nodeUrls = shard.getStringTemplate().opsForSet().members(BLOCK_LOCATION_PREFIX + hash);
+            if (nodeUrls != null) holders.addAll(nodeUrls);
+            BlockNode legacy = shard.getBlockNodeTemplate().opsForValue().get(BLOCK_NODE_PREFIX + hash);
+            if (legacy != null && legacy.getNodeUrls() != null) holders.addAll(legacy.getNodeUrls());
+
+            List<String> keys = new ArrayList<>(List.of(BLOCK_LOCATION_PREFIX + hash, BLOCK_NODE_PREFIX + hash));
+            List<String> args = new ArrayList<>(List.of(hash, high(hashDigest), low(hashDigest)));
+            addHolderKeys(holders, keys, args);
+            Long deleted = shard.getStringTemplate().execute(UNREGISTER_BLOCK_SCRIPT, keys, args.toArray());
+            if (deleted == null || deleted >= 0) {
+                return deleted != null && deleted > 0;
+            }
+            logger.debug("Block {} was registered on another node while being removed, retrying.", hash);
+        }
+    }
+
+    /**
+     * Moves the node URLs of a legacy "BlockNode:<hash>" value into the location set of the block
+     * and the reverse index and digest of each node, then deletes the value. Used by NodeBlockIndexMigrator.
+     *
+     * @return false when the block has no legacy value, or it changed while being folded
+     */
+    boolean foldLegacyBlock(String hash) {
+        RedisShards.Shard shard = shardOf(hash);
+        String json = shard.getStringTemplate().opsForValue().get(BLOCK_NODE_PREFIX + hash);
+        if (json == null) return false;
+        BlockNode legacy = (BlockNode) shard.getBlockNodeTemplate().getValueSerializer().deserialize(bytes(json));
+        Set<String> holders = (legacy != null && legacy.getNodeUrls() != null) ? legacy.getNodeUrls() : Set.of();
+
+        long hashDigest = BlockReportDigest.hashOf(hash);
+        List<String> keys = new ArrayList<>(List.of(BLOCK_LOCATION_PREFIX + hash, BLOCK_NODE_PREFIX + hash));
+        List<String> args = new ArrayList<>(List.of(json, hash, high(hashDigest), low(hashDigest)));
+        addHolderKeys(holders, keys, args);
+        Long folded = shard.getStringTemplate().execute(FOLD_LEGACY_SCRIPT, keys, args.toArray());
+        return folded != null && folded > 0;
+    }
+
+    // The (reverse index, digest) key pair and node URL of each holder, in the layout of the block scripts
+    private static void addHolderKeys(Collection<String> holders, List<String> keys, List<String> args) {
+        for (String nodeUrl : holders) {
+            keys.add(NODE_BLOCKS_PREFIX + nodeUrl);
+            keys.add(NODE_DIGEST_PREFIX + nodeUrl);
+            args.add(nodeUrl);
+        }
+    }
+
+    /**
+     * Chains the reverse index of the node on every shard in turn.
+     */
+    @Override
+    public CloseableIterator<String> scanBlocksOnNode(String nodeUrl, int batchSize) {
+        ScanOptions options = ScanOptions.scanOptions().count(batchSize).build();
+        Iterator<RedisShards.Shard> remainingShards = shards.all().iterator();
+        return new CloseableIterator<String>() {
+            private Cursor<String> cursor;
+
+            @Override
+            public boolean hasNext() {
+                while (cursor == null || !cursor.hasNext()) {
+                    close();
+                    if (!remainingShards.hasNext()) return false;
+                    cursor = remainingShards.next().getStringTemplate().opsForSet().scan(NODE_BLOCKS_PREFIX + nodeUrl, options);
+                }
+                return true;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return cursor.next();
+            }
+
+            @Override
+            public void close() {
+                if (cursor != null) {
+                    cursor.close();
+                    cursor = null;
+                }
+            }
+        };
+    }
+
+    @Override
+    public Set<String> filterBlocksOnNode(String nodeUrl, Collection<String> hashes) {
+        List<String> candidates = new ArrayList<>(hashes);
+        Set<String> present = new HashSet<>();
+        for (Map.Entry<RedisShards.Shard, List<Integer>> partition : shards.partition(candidates).entrySet()) {
+            Object[] members = partition.getValue().stream().map(candidates::get).toArray();
+            Map<Object, Boolean> membership = partition.getKey().getStringTemplate().opsForSet().isMember(NODE_BLOCKS_PREFIX + nodeUrl, members);
+            membership.forEach((hash, isMember) -> {
+                if (Boolean.TRUE.equals(isMember)) present.add((String) hash);
+            });
+        }
+        return present;
+    }
+
+    /**
+     * The reported hashes are loaded into a temporary set next to the reverse index of the node on
+     * every shard, so that both differences are computed by Redis.
+     */
+    @Override
+    public void diffBlocksOnNode(String nodeUrl, Collection<String> hashes, List<String> added, List<String> removed) {
+        String blocksKey = NODE_BLOCKS_PREFIX + nodeUrl;
+        String incomingKey = blocksKey + INCOMING_SUFFIX;
+        List<String> reported = new ArrayList<>(hashes);
+        Map<RedisShards.Shard, List<Integer>> partitions = shards.partition(reported);
+        for (RedisShards.Shard shard : shards.all()) {
+            StringRedisTemplate template = shard.getStringTemplate();
+            List<Integer> positions = partitions.getOrDefault(shard, List.of());
+            template.delete(incomingKey);
+            try {
+                for (int start = 0; start < positions.size(); start += reportChunkSize) {
+                    String[] chunk = new String[Math.min(reportChunkSize, positions.size() - start)];
+                    for (int i = 0; i < chunk.length; i++) {
+                        chunk[i] = reported.get(positions.get(start + i));
+                    }
+                    template.opsForSet().add(incomingKey, chunk);
+                }
+                removed.addAll(template.opsForSet().difference(blocksKey, incomingKey));
+                added.addAll(template.opsForSet().difference(incomingKey, blocksKey));
+            } finally {
+                template.delete(incomingKey);
+            }
+        }
+    }
+
+    /**
+     * The XOR of the digests the shards keep for their part of the node's blocks.
+     */
+    @Override
+    public long getBlockDigest(String nodeUrl) {
+        long digest = 0;
+        for (RedisShards.Shard shard : shards.all()) {
+            List<Object> halves = shard.getStringTemplate().opsForHash().multiGet(NODE_DIGEST_PREFIX + nodeUrl, List.of(FIELD_DIGEST_HIGH, FIELD_DIGEST_LOW));
+            if (halves.get(0) != null && halves.get(1) != null) {
+                digest ^= ((long) Integer.parseInt((String) halves.get(0)) << 32) | (Integer.parseInt((String) halves.get(1)) & 0xFFFFFFFFL);
+            }
+        }
+        return digest;
+    }
+
+    @Override
+    public void resetBlockDigest(String nodeUrl, Collection<String> hashes) {
+        List<String> inventory = new ArrayList<>(hashes);
+        Map<RedisShards.Shard, List<Integer>> partitions = shards.partition(inventory);
+        for (RedisShards.Shard shard : shards.all()) {
+            long digest = 0;
+            for (int position : partitions.getOrDefault(shard, List.of())) {
+                digest = BlockReportDigest.toggle(digest, inventory.get(position));
+            }
+            shard.getStringTemplate().opsForHash().putAll(NODE_DIGEST_PREFIX + nodeUrl,
+                    Map.of(FIELD_DIGEST_HIGH, high(digest), FIELD_DIGEST_LOW, low(digest)));
+        }
+    }
+
+    @Override
+    public ReportState getReportState(String nodeUrl) {
+        List<Object> state = stringRedisTemplate.opsForHash().multiGet(BlockReportService.NODE_REPORT_PREFIX + nodeUrl, List.of(FIELD_SEQ, FIELD_DIGEST));
+        if (state.get(0) == null || state.get(1) == null) {
+            return null;
+        }
+        return new ReportState(Long.parseLong((String) state.get(0)), Long.parseLong((String) state.get(1)));
+    }
+
+    @Override
+    public void saveReportState(String nodeUrl, ReportState state) {
+        stringRedisTemplate.opsForHash().putAll(BlockReportService.NODE_REPORT_PREFIX + nodeUrl,
+                Map.of(FIELD_SEQ, Long.toString(state.getSeq()), FIELD_DIGEST, Long.toString(state.getDigest())));
+    }
+
+    @Override
+    public void deleteReportState(String nodeUrl) {
+        stringRedisTemplate.delete(BlockReportService.NODE_REPORT_PREFIX + nodeUrl);
+    }
+
+    @Override
+    public void clearBlocks() {
+        for (String prefix : List.of(BLOCK_LOCATION_PREFIX, BLOCK_NODE_PREFIX,
+                NODE_BLOCKS_PREFIX, NODE_DIGEST_PREFIX, BlockReportService.NODE_REPORT_PREFIX)) {
+            for (StringRedisTemplate template : allStringTemplates()) {
+                Set<String> keys = template.keys(prefix + "*");
+                if (keys != null && !keys.isEmpty()) {
+                    template.delete(keys);
+                }
+            }
+        }
+    }
+
+    /**
+     * Shard of every key of a block, its node entries in the reverse indexes included, so that the
+     * location scripts only ever touch one shard.
+     */
+    RedisShards.Shard shardOf(String hash) {
+        return shards.forKey(hash);
+    }
+
+    /**
+     * The default template, which holds the block report state, and the templates of every other shard.
+     */
+    private List<StringRedisTemplate> allStringTemplates() {
+        List<StringRedisTemplate> templates = new ArrayList<>(List.of(stringRedisTemplate));
+        for (RedisShards.Shard shard : shards.all()) {
+            if (shard.getStringTemplate() != stringRedisTemplate) templates.add(shard.getStringTemplate());
+        }
+        return templates;
+    }
+
+    private static List<String> locationKeys(String hash, String nodeUrl) {
+        return List.of(BLOCK_LOCATION_PREFIX + hash, NODE_BLOCKS_PREFIX + nodeUrl, NODE_DIGEST_PREFIX + nodeUrl);
+    }
+
+    // The keys and arguments of the location scripts, as bytes
+    private static byte[][] locationArgs(String hash, String nodeUrl) {
+        long hashDigest = BlockReportDigest.hashOf(hash);
+        return new byte[][] {
+                blockKey(BLOCK_LOCATION_PREFIX_BYTES, hash), bytes(NODE_BLOCKS_PREFIX + nodeUrl), bytes(NODE_DIGEST_PREFIX + nodeUrl),
+                bytes(nodeUrl), bytes(hash), bytes(high(hashDigest)), bytes(low(hashDigest)) };
+    }
+
+    // Lua's bit library works on 32-bit integers, so the scripts get a 64-bit digest in two halves
+    private static String high(long digest) {
+        return Integer.toString((int) (digest >>> 32));
+    }
+
+    private static String low(long digest) {
+        return Integer.toString((int) digest);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Block keys are built straight into bytes, skipping the concatenated String
+    private static byte[] blockKey(byte[] prefix, String hash) {
+        byte[] hashBytes = bytes(hash);
+        byte[] key = Arrays.copyOf(prefix, prefix.length + hashBytes.length);
+        System.arraycopy(hashBytes, 0, key, prefix.length, hashBytes.length);
+        return key;
+    }
+}
@@ -0,0 +1,450 @@
+package com.infolink.dfs.metanode;
+
+import static com.infolink.dfs.metanode.FileTreeManager.DIR_PREFIX;
+import static com.infolink.dfs.metanode.FileTreeManager.FILE_PREFIX;
+import static com.infolink.dfs.metanode.FileTreeManager.HASH_PREFIX;
+import static com.infolink.dfs.metanode.FileTreeManager.INDEX_DIR_MEMBER;
+import static com.infolink.dfs.metanode.FileTreeManager.INDEX_FILE_MEMBER;
+import static com.infolink.dfs.metanode.FileTreeManager.INDEX_SUFFIX;
+
+import io.lettuce.core.SetArgs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.Limit;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Component;
+
+import com.infolink.dfs.shared.DfsFile;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The file tree in Redis: a "file:<path>" or "dir:<path>" value per entry, a "hash:<hash>" value
+ * per file and directory, and a "dir:<path>:index" sorted set of names per directory (see the
+ * constants of FileTreeManager). Values are cached in DfsFileCache and the keys are spread over
+ * RedisShards.
+ */
+@Component
+@ConditionalOnProperty(name = "dfs.metadata.store", havingValue = "redis", matchIfMissing = true)
+public class RedisNamespaceStore implements NamespaceStore {
+    private static final Logger logger = LoggerFactory.getLogger(RedisNamespaceStore.class);
+
+    private static final RedisScript<Long> SAVE_FILE_SCRIPT = RedisScript.of(new ClassPathResource("scripts/save-file.lua"), Long.class);
+    private static final RedisScript<Long> SAVE_ENTRY_SCRIPT = RedisScript.of(new ClassPathResource("scripts/save-entry.lua"), Long.class);
+    private static final RedisScript<Long> CREATE_DIRECTORIES_SCRIPT = RedisScript.of(new ClassPathResource("scripts/create-directories.lua"), Long.class);
+
+    @Autowired
+    private RedisTemplate<String, DfsFile> redisFileRepo;
+    @Autowired
+    private RedisShards shards;
+    @Autowired
+    private DfsFileCache fileCache;
+    @Autowired
+    private MutationBatcher batcher;
+
+    @Override
+    public boolean saveFile(String directory, DfsFile file, DfsFile root, List<DfsFile> chain) {
+        String fileKey = FILE_PREFIX + childPath(directory, file.getName());
+        String hashKey = HASH_PREFIX + file.getHash();
+        String indexKey = DIR_PREFIX + directory + INDEX_SUFFIX;
+
+        if (!shards.isSingle()) {
+            return saveFileSharded(file, root, chain, fileKey, hashKey, indexKey);
+        }
+
+        // The existence check, the missing ancestor directories and the file keys
+        // are all handled by one script, so a save costs a single round trip whatever the depth,
+        // and is pipelined with the writes of concurrent requests by the batcher.
+        List<String> keys = new ArrayList<>(List.of(fileKey, hashKey, indexKey, DIR_PREFIX + "/"));
+        List<byte[]> args = new ArrayList<>();
+        args.add(serialize(file));
+        args.add(indexMember(INDEX_FILE_MEMBER, file.getName()));
+        args.add(serialize(root));
+        appendDirectoryChain(chain, keys, args);
+
+        Long saved = MutationBatcher.await(batcher.eval(shardOf(fileKey), SAVE_FILE_SCRIPT, keys.size(), keysAndArgs(keys, args)));
+        if (saved == null || saved == 0L) {
+            return false;
+        }
+        fileCache.invalidate(fileKey);
+        fileCache.invalidate(hashKey);
+        return true;
+    }
+
+    /**
+     * Sharded counterpart of the save script. The ancestor directories can live on other shards,
+     * so they are created first; the existence check, the file and its index member, which all
+     * live on the shard of the parent directory, are then written atomically by save-entry.lua,
+     * and the hash key last. A failure part way leaves at most empty directories behind.
+     */
+    private boolean saveFileSharded(DfsFile file, DfsFile root, List<DfsFile> chain, String fileKey, String hashKey, String indexKey) {
+        createDirectories(root, chain);
+
+        byte[] value = serialize(file);
+        Long saved = MutationBatcher.await(batcher.eval(shardOf(fileKey), SAVE_ENTRY_SCRIPT, 2,
+                bytes(fileKey), bytes(indexKey), value, indexMember(INDEX_FILE_MEMBER, file.getName())));
+        if (saved == null || saved == 0L) {
+            return false;
+        }
+        MutationBatcher.await(batcher.set(shardOf(hashKey), hashKey, value));
+        fileCache.invalidate(fileKey);
+        fileCache.invalidate(hashKey);
+        return true;
+    }
+
+    /**
+     * Appends the (dir key, dir hash key, parent index) keys and the
+     * (directory value, index member) arguments for every directory of the chain,
+     * in the layout expected by save-file.lua.
+     */
+    private void appendDirectoryChain(List<DfsFile> chain, List<String> keys, List<byte[]> args) {
+        for (DfsFile dir : chain) {
+            keys.add(DIR_PREFIX + dir.getPath());
+            keys.add(HASH_PREFIX + dir.getHash());
+            keys.add(DIR_PREFIX + parentPath(dir.getPath()) + INDEX_SUFFIX);
+            args.add(serialize(dir));
+            args.add(indexMember(INDEX_DIR_MEMBER, dir.getName()));
+        }
+    }
+
+    /**
+     * A directory that is cached exists with all its ancestors, as directories are never deleted on
+     * their own, and costs no round trip. Otherwise the missing directories are created by one script
+     * call through the batcher, or with one write per directory and shard when the namespace is sharded.
+     */
+    @Override
+    public DfsFile createDirectories(DfsFile root, List<DfsFile> chain) {
+        DfsFile last = chain.isEmpty() ? root : chain.get(chain.size() - 1);
+        String lastKey = DIR_PREFIX + last.getPath();
+        DfsFile cached = fileCache.get(lastKey);
+        if (cached != null) {
+            return cached;
+        }
+
+        boolean created;
+        if (shards.isSingle()) {
+            List<String> keys = new ArrayList<>(List.of(DIR_PREFIX + "/"));
+            List<byte[]> args = new ArrayList<>(List.of(serialize(root)));
+            appendDirectoryChain(chain, keys, args);
+            Long result = MutationBatcher.await(batcher.eval(shardOf(lastKey), CREATE_DIRECTORIES_SCRIPT, keys.size(), keysAndArgs(keys, args)));
+            created = result != null && result == 1L;
+        } else {
+            created = createDirectoriesSharded(root, chain);
+        }
+        for (DfsFile dir : chain) {
+            fileCache.invalidate(HASH_PREFIX + dir.getHash());
+        }
+
+        if (chain.isEmpty() || created) {
+            return last;
+        }
+        DfsFile existing = getCachedValue(lastKey, true);
+        return (existing != null) ? existing : last;
+    }
+
+    /**
+     * Each directory and its parent index member live on the shard of the parent, its hash key on
+     * the shard of the hash. All directories are queued at once, so the batcher sends them as one
+     * pipeline per shard, and the hash keys of the created ones follow in a second round.
+     *
+     * @return true when the last directory of the chain was created
+     */
+    private boolean createDirectoriesSharded(DfsFile root, List<DfsFile> chain) {
+        String rootDirKey = DIR_PREFIX + "/";
+        byte[] rawRootDirKey = bytes(rootDirKey);
+        byte[] rootValue = serialize(root);
+        CompletableFuture<Object> rootSaved = batcher.submit(shardOf(rootDirKey), null,
+                commands -> commands.set(rawRootDirKey, rootValue, SetArgs.Builder.nx()));
+
+        List<CompletableFuture<Long>> saved = new ArrayList<>(chain.size());
+        List<byte[]> values = new ArrayList<>(chain.size());
+        for (DfsFile dir : chain) {
+            String dirKey = DIR_PREFIX + dir.getPath();
+            String parentIndexKey = DIR_PREFIX + parentPath(dir.getPath()) + INDEX_SUFFIX;
+            byte[] value = serialize(dir);
+            values.add(value);
+            saved.add(batcher.eval(shardOf(dirKey), SAVE_ENTRY_SCRIPT, 2,
+                    bytes(dirKey), bytes(parentIndexKey), value, indexMember(INDEX_DIR_MEMBER, dir.getName())));
+        }
+        MutationBatcher.await(rootSaved);
+
+        List<CompletableFuture<Object>> hashesSaved = new ArrayList<>();
+        boolean created = false;
+        for (int i = 0; i < chain.size(); i++) {
+            Long result = MutationBatcher.await(saved.get(i));
+            created = result != null && result == 1L;
+            if (created) {
+                String hashKey = HASH_PREFIX + chain.get(i).getHash();
+                hashesSaved.add(batcher.set(shardOf(hashKey), hashKey, values.get(i)));
+                logger.debug("Directory {} created", chain.get(i).getPath());
+            }
+        }
+        hashesSaved.forEach(MutationBatcher::await);
+        return created;
+    }
+
+    @Override
+    public DfsFile getFile(String path) {
+        return getCachedValue(FILE_PREFIX + path, false);
+    }
+
+    @Override
+    public DfsFile getDirectory(String path) {
+        return getCachedValue(DIR_PREFIX + path, false);
+    }
+
+    @Override
+    public DfsFile getByHash(String hash) {
+        return getCachedValue(HASH_PREFIX + hash, false);
+    }
+
+    @Override
+    public DirectoryPage listDirectory(String directory, String cursor, int limit) {
+        String indexKey = DIR_PREFIX + directory + INDEX_SUFFIX;
+
+        Range<String> range = (cursor == null) ? Range.unbounded() : Range.rightUnbounded(Range.Bound.exclusive(cursor));
+        // One member more than the page holds tells whether another page follows
+        Set<String> members = shardOf(indexKey).getReadStringTemplate().opsForZSet().rangeByLex(indexKey, range,
+                Limit.limit().count(limit < Integer.MAX_VALUE ? limit + 1 : limit));
+        if (members == null || members.isEmpty()) {
+            return new DirectoryPage(new ArrayList<>(), null);
+        }
+
+        List<String> entryKeys = new ArrayList<>(Math.min(members.size(), limit));
+        String lastMember = null;
+        for (String member : members) {
+            if (entryKeys.size() == limit) break;
+            entryKeys.add(entryKeyForMember(directory, member));
+            lastMember = member;
+        }
+
+        String nextCursor = (members.size() > limit) ? lastMember : null;
+        return new DirectoryPage(getCachedValues(entryKeys), nextCursor);
+    }
+
+    @Override
+    public DfsFile deleteFile(String path) {
+        String fileKey = FILE_PREFIX + path;
+        DfsFile dfsFile = fileTemplate(fileKey).opsForValue().get(fileKey);
+        if (dfsFile != null) {
+            String hashKey = HASH_PREFIX + dfsFile.getHash();
+            fileTemplate(fileKey).delete(fileKey);
+            fileTemplate(hashKey).delete(hashKey); // Also delete by hash
+            removeFromDirectoryIndex(path);
+            fileCache.invalidate(fileKey);
+            fileCache.invalidate(hashKey);
+        }
+        return dfsFile;
+    }
+
+    @Override
+    public DfsFile deleteByHash(String hash) {
+        String hashKey = HASH_PREFIX + hash;
+        DfsFile dfsFile = fileTemplate(hashKey).opsForValue().get(hashKey);
+        if (dfsFile != null) {
+            String fileKey = FILE_PREFIX + dfsFile.getPath();
+            fileTemplate(hashKey).delete(hashKey);
+            fileTemplate(fileKey).delete(fileKey); // Also delete by path
+            removeFromDirectoryIndex(dfsFile.getPath());
+            fileCache.invalidate(hashKey);
+            fileCache.invalidate(fileKey);
+        }
+        return dfsFile;
+    }
+
+    @Override
+    public void clearNamespace() {
+        fileCache.clear();
+
+        long cleared = 0;
+        for (RedisTemplate<String, DfsFile> template : allFileTemplates()) {
+            Set<String> keys = template.keys("*");
+            if (keys != null && !keys.isEmpty()) {
+                cleared += template.delete(keys);
+            }
+        }
+        if (cleared > 0) {
+            logger.info("Cleared all keys in Redis for testing purposes.");
+        } else {
+            logger.info("No keys found to clear in Redis.");
+        }
+    }
+
+    @Override
+    public void logContents() {
+        Set<String> keys = new HashSet<>();
+        for (RedisTemplate<String, DfsFile> template : allFileTemplates()) {
+            keys.addAll(template.keys("*")); // Use wildcard "*" to match all keys
+        }
+
+        logger.info("Logging all keys in Redis:");
+        if (!keys.isEmpty()) {
+            for (String key : keys) {
+                logger.info("Key: {}", key);
+            }
+        } else {
+            logger.info("No keys found in Redis.");
+        }
+    }
+
+    private static String childPath(String directory, String name) {
+        return directory.equals("/") ? "/" + name : directory + "/" + name;
+    }
+
+    private static String parentPath(String path) {
+        int lastSlash = path.lastIndexOf('/');
+        return (lastSlash <= 0) ? "/" : path.substring(0, lastSlash);
+    }
+
+    private String entryKeyForMember(String directory, String member) {
+        String name = member.substring(INDEX_DIR_MEMBER.length());
+        return (member.startsWith(INDEX_DIR_MEMBER) ? DIR_PREFIX : FILE_PREFIX) + childPath(directory, name);
+    }
+
+    private static byte[][] keysAndArgs(List<String> keys, List<byte[]> args) {
+        byte[][] keysAndArgs = new byte[keys.size() + args.size()][];
+        for (int i = 0; i < keys.size(); i++) {
+            keysAndArgs[i] = bytes(keys.get(i));
+        }
+        for (int i = 0; i < args.size(); i++) {
+            keysAndArgs[keys.size() + i] = args.get(i);
+        }
+        return keysAndArgs;
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] indexMember(String memberType, String name) {
+        return (memberType + name).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void removeFromDirectoryIndex(String filePath) {
+        int lastSlash = filePath.lastIndexOf('/');
+        if (lastSlash < 0) return;
+        String name = filePath.substring(lastSlash + 1);
+        String indexKey = DIR_PREFIX + parentPath(filePath) + INDEX_SUFFIX;
+        stringTemplate(indexKey).opsForZSet().remove(indexKey, INDEX_FILE_MEMBER + name);
+    }
+
+    /**
+     * Routing key of a namespace key. Entries ("file:<path>", "dir:<path>") are routed by their parent
+     * directory, like the index of that directory ("dir:<parent>:index"), so that saving a file and
+     * listing a directory each stay on one shard. "hash:<hash>" keys are routed by the hash.
+     */
+    static String routingKey(String key) {
+        if (key.startsWith(HASH_PREFIX)) {
+            return key.substring(HASH_PREFIX.length());
+        }
+        String path = key.substring(key.indexOf(':') + 1);
+        if (key.startsWith(DIR_PREFIX) && key.endsWith(INDEX_SUFFIX)) {
+            return path.substring(0, path.length() - INDEX_SUFFIX.length());
+        }
+        return parentPath(path);
+    }
+
+    RedisShards.Shard shardOf(String key) {
+        return shards.forKey(routingKey(key));
+    }
+
+    private RedisTemplate<String, DfsFile> fileTemplate(String key) {
+        return shardOf(key).getFileTemplate();
+    }
+
+    private StringRedisTemplate stringTemplate(String key) {
+        return shardOf(key).getStringTemplate();
+    }
+
+    /**
+     * The default template and the templates of every other shard.
+     */
+    private List<RedisTemplate<String, DfsFile>> allFileTemplates() {
+        List<RedisTemplate<String, DfsFile>> templates = new ArrayList<>(List.of(redisFileRepo));
+        for (RedisShards.Shard shard : shards.all()) {
+            if (shard.getFileTemplate() != redisFileRepo) templates.add(shard.getFileTemplate());
+        }
+        return templates;
+    }
+
+    /**
+     * Looks a key up in the in-process cache first and only goes to Redis on a miss.
+     * Values read from a replica are not cached: they may be older than the latest write,
+     * and caching them would keep them stale for the whole TTL.
+     *
+     * @param fromPrimary true for reads a write depends on, which never go to a replica
+     */
+    private DfsFile getCachedValue(String key, boolean fromPrimary) {
+        DfsFile dfsFile = fileCache.get(key);
+        if (dfsFile == null) {
+            RedisShards.Shard shard = shardOf(key);
+            if (!fromPrimary && shard.readsFromReplicas()) {
+                return shard.getReadFileTemplate().opsForValue().get(key);
+            }
+            long readStamp = fileCache.readStamp();
+            dfsFile = shard.getFileTemplate().opsForValue().get(key);
+            fileCache.put(key, dfsFile, readStamp);
+        }
+        return dfsFile;
+    }
+
+    /**
+     * Resolves several keys at once: cached values are served locally and the misses
+     * are fetched with a single MGET per shard, from its replicas when allowed. Keys without a value are skipped.
+     */
+    private List<DfsFile> getCachedValues(List<String> keys) {
+        DfsFile[] resolved = new DfsFile[keys.size()];
+        List<String> missingKeys = new ArrayList<>();
+        List<Integer> missingIndexes = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i++) {
+            resolved[i] = fileCache.get(keys.get(i));
+            if (resolved[i] == null) {
+                missingKeys.add(keys.get(i));
+                missingIndexes.add(i);
+            }
+        }
+
+        Map<RedisShards.Shard, List<Integer>> missingByShard = new LinkedHashMap<>();
+        for (int i = 0; i < missingKeys.size(); i++) {
+            missingByShard.computeIfAbsent(shardOf(missingKeys.get(i)), shard -> new ArrayList<>()).add(i);
+        }
+        for (Map.Entry<RedisShards.Shard, List<Integer>> entry : missingByShard.entrySet()) {
+            List<String> shardKeys = new ArrayList<>(entry.getValue().size());
+            entry.getValue().forEach(i -> shardKeys.add(missingKeys.get(i)));
+            boolean fromReplicas = entry.getKey().readsFromReplicas();
+            long readStamp = fileCache.readStamp();
+            List<DfsFile> fetched = entry.getKey().getReadFileTemplate().opsForValue().multiGet(shardKeys);
+            for (int j = 0; fetched != null && j < fetched.size(); j++) {
+                int i = entry.getValue().get(j);
+                resolved[missingIndexes.get(i)] = fetched.get(j);
+                if (!fromReplicas) fileCache.put(missingKeys.get(i), fetched.get(j), readStamp);
+            }
+        }
+
+        List<DfsFile> result = new ArrayList<>(keys.size());
+        for (DfsFile dfsFile : resolved) {
+            if (dfsFile != null) result.add(dfsFile);
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private byte[] serialize(DfsFile dfsFile) {
+        return ((RedisSerializer<DfsFile>) redisFileRepo.getValueSerializer()).serialize(dfsFile);
+    }
+}
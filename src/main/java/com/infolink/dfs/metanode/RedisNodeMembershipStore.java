@@ -0,0 +1,75 @@
+package com.infolink.dfs.metanode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.infolink.dfs.shared.DfsNode;
+
+/**
+ * Node membership in two Redis hashes on the default Redis.
+ */
+@Component
+@ConditionalOnProperty(name = "dfs.metadata.store", havingValue = "redis", matchIfMissing = true)
+public class RedisNodeMembershipStore implements NodeMembershipStore {
+    private static final Logger logger = LoggerFactory.getLogger(RedisNodeMembershipStore.class);
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Override
+    public void saveRegistered(DfsNode node) throws JsonProcessingException {
+        stringRedisTemplate.opsForHash().put(REGISTERED_KEY, node.getContainerUrl(), objectMapper.writeValueAsString(node));
+    }
+
+    @Override
+    public void saveRevived(DfsNode node) throws JsonProcessingException {
+        saveRegistered(node);
+        stringRedisTemplate.opsForHash().delete(DEAD_KEY, node.getContainerUrl());
+    }
+
+    @Override
+    public void saveDead(DfsNode node) throws JsonProcessingException {
+        stringRedisTemplate.opsForHash().put(DEAD_KEY, node.getContainerUrl(), objectMapper.writeValueAsString(node));
+        stringRedisTemplate.opsForHash().delete(REGISTERED_KEY, node.getContainerUrl());
+    }
+
+    @Override
+    public List<DfsNode> loadRegistered() {
+        return load(REGISTERED_KEY);
+    }
+
+    @Override
+    public List<DfsNode> loadDead() {
+        return load(DEAD_KEY);
+    }
+
+    @Override
+    public void clear() {
+        stringRedisTemplate.delete(List.of(REGISTERED_KEY, DEAD_KEY));
+    }
+
+    private List<DfsNode> load(String key) {
+        Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(key);
+        List<DfsNode> nodes = new ArrayList<>(entries.size());
+        for (Map.Entry<Object, Object> entry : entries.entrySet()) {
+            try {
+                nodes.add(objectMapper.readValue((String) entry.getValue(), DfsNode.class));
+            } catch (JsonProcessingException e) {
+                logger.warn("Skipping unreadable membership entry for {} in {}", entry.getKey(), key, e);
+            }
+        }
+        return nodes;
+    }
+}
@@ -0,0 +1,229 @@
+package com.infolink.dfs.metanode;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.lettuce.core.ReadFrom;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.RedisStaticMasterReplicaConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceClientConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import com.infolink.dfs.metanode.mdb.BlockNode;
+import com.infolink.dfs.shared.DfsFile;
+
+/**
+ * The Redis instances holding the namespace ("dir:", "file:", "hash:" keys) and the block map
+ * ("BlockLocation:", "BlockNode:", "NodeBlocks:" keys), configured with dfs.redis.shard.endpoints.
+ * Callers pick a shard from a routing key through a ConsistentHashRing; which part of a key is
+ * used for routing is decided by FileTreeManager and BlockMetaService, so that all keys touched by
+ * one script or one listing land on the same shard.
+ *
+ * <p>Without endpoints there is a single shard backed by the application's default templates, and
+ * everything behaves as before sharding. Node membership, block reports state and the other
+ * non-namespace keys always stay on the default Redis.
+ *
+ * <p>Each shard can have read replicas ("primary|replica|replica" endpoints, or dfs.redis.replicas for
+ * the default Redis). With dfs.redis.read-from other than primary the read templates of a shard then
+ * go through a master/replica connection reading from the replicas, unless the current request asked
+ * for read-your-writes (see ReadConsistency). Writes always go to the primary.
+ */
+public class RedisShards implements DisposableBean {
+    private static final Logger logger = LoggerFactory.getLogger(RedisShards.class);
+
+    /**
+     * Builds the typed templates of a connection, configured like the application's default ones.
+     */
+    interface TemplateFactory {
+        RedisTemplate<String, DfsFile> fileTemplate(RedisConnectionFactory connectionFactory);
+        RedisTemplate<String, BlockNode> blockNodeTemplate(RedisConnectionFactory connectionFactory);
+    }
+
+    public static final class Shard {
+        private final String name;
+        private final RedisTemplate<String, DfsFile> fileTemplate;
+        private final RedisTemplate<String, BlockNode> blockNodeTemplate;
+        private final StringRedisTemplate stringTemplate;
+        private final Shard replicas;
+
+        Shard(String name, RedisTemplate<String, DfsFile> fileTemplate, RedisTemplate<String, BlockNode> blockNodeTemplate,
+                StringRedisTemplate stringTemplate, Shard replicas) {
+            this.name = name;
+            this.fileTemplate = fileTemplate;
+            this.blockNodeTemplate = blockNodeTemplate;
+            this.stringTemplate = stringTemplate;
+            this.replicas = replicas;
+        }
+
+        public String getName()                                        { return name; }
+        public RedisTemplate<String, DfsFile> getFileTemplate()        { return fileTemplate; }
+        public RedisTemplate<String, BlockNode> getBlockNodeTemplate() { return blockNodeTemplate; }
+        public StringRedisTemplate getStringTemplate()                 { return stringTemplate; }
+
+        public RedisTemplate<String, DfsFile> getReadFileTemplate()        { return readsFromReplicas() ? replicas.fileTemplate : fileTemplate; }
+        public RedisTemplate<String, BlockNode> getReadBlockNodeTemplate() { return readsFromReplicas() ? replicas.blockNodeTemplate : blockNodeTemplate; }
+        public StringRedisTemplate getReadStringTemplate()                 { return readsFromReplicas() ? replicas.stringTemplate : stringTemplate; }
+
+        /**
+         * @return true when reads made now by the current thread may be served by a replica and lag behind writes
+         */
+        public boolean readsFromReplicas() {
+            return replicas != null && !ReadConsistency.isReadYourWrites();
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private final List<Shard> shards;
+    private final ConsistentHashRing<Shard> ring;
+    private final List<LettuceConnectionFactory> connectionFactories;
+
+    private RedisShards(List<Shard> shards, int virtualNodes, List<LettuceConnectionFactory> connectionFactories) {
+        this.shards = List.copyOf(shards);
+        this.ring = new ConsistentHashRing<>(shards.stream().map(Shard::getName).toList(), this.shards, virtualNodes);
+        this.connectionFactories = connectionFactories;
+    }
+
+    /**
+     * A single shard on the application's default templates.
+     *
+     * @param primary  the default Redis, only used to reach its replicas
+     * @param replicas replica endpoints ("host:port") of the default Redis, may be empty
+     * @param readFrom null to keep all reads on the primary
+     */
+    static RedisShards single(RedisTemplate<String, DfsFile> fileTemplate, RedisTemplate<String, BlockNode> blockNodeTemplate,
+            StringRedisTemplate stringTemplate, RedisStandaloneConfiguration primary, List<String> replicas, ReadFrom readFrom,
+            TemplateFactory templates) {
+        List<LettuceConnectionFactory> factories = new ArrayList<>();
+        Shard replicaReads = replicaReads("default", primary, replicas, readFrom, templates, factories);
+        Shard shard = new Shard("default", fileTemplate, blockNodeTemplate, stringTemplate, replicaReads);
+        return new RedisShards(List.of(shard), 1, factories);
+    }
+
+    /**
+     * Connects to every endpoint ("host:port" or "host:port/database", optionally followed by
+     * "|host:port" for every replica of the shard).
+     */
+    static RedisShards connect(List<String> endpoints, int virtualNodes, ReadFrom readFrom, TemplateFactory templates) {
+        List<Shard> shards = new ArrayList<>(endpoints.size());
+        List<LettuceConnectionFactory> factories = new ArrayList<>();
+        for (String endpoint : endpoints) {
+            String[] nodes = endpoint.split("\\|");
+            String name = nodes[0].trim();
+            RedisStandaloneConfiguration primary = parseEndpoint(name);
+            LettuceConnectionFactory factory = new LettuceConnectionFactory(primary);
+            factory.afterPropertiesSet();
+            factories.add(factory);
+
+            List<String> replicas = new ArrayList<>();
+            for (int i = 1; i < nodes.length; i++) {
+                replicas.add(nodes[i].trim());
+            }
+            Shard replicaReads = replicaReads(name, primary, replicas, readFrom, templates, factories);
+            shards.add(new Shard(name, templates.fileTemplate(factory), templates.blockNodeTemplate(factory),
+                    new StringRedisTemplate(factory), replicaReads));
+        }
+        logger.info("Namespace and block map sharded over {} Redis endpoints: {}", endpoints.size(), endpoints);
+        return new RedisShards(shards, virtualNodes, factories);
+    }
+
+    /**
+     * Templates on a master/replica connection reading from the replicas, or null when reads stay on the primary.
+     */
+    private static Shard replicaReads(String name, RedisStandaloneConfiguration primary, List<String> replicas, ReadFrom readFrom,
+            TemplateFactory templates, List<LettuceConnectionFactory> factories) {
+        if (readFrom == null || replicas.isEmpty()) return null;
+
+        RedisStaticMasterReplicaConfiguration configuration = new RedisStaticMasterReplicaConfiguration(primary.getHostName(), primary.getPort());
+        for (String replica : replicas) {
+            RedisStandaloneConfiguration node = parseEndpoint(replica);
+            configuration.node(node.getHostName(), node.getPort());
+        }
+        configuration.setDatabase(primary.getDatabase());
+
+        LettuceConnectionFactory factory = new LettuceConnectionFactory(configuration,
+                LettuceClientConfiguration.builder().readFrom(readFrom).build());
+        factory.afterPropertiesSet();
+        factories.add(factory);
+        logger.info("Reads of shard {} go to its replicas {} ({})", name, replicas, readFrom);
+        return new Shard(name + " replicas", templates.fileTemplate(factory), templates.blockNodeTemplate(factory),
+                new StringRedisTemplate(factory), null);
+    }
+
+    /**
+     * Maps dfs.redis.read-from to the Lettuce read preference: primary (null, reads stay on the primary),
+     * replica-preferred, replica or nearest.
+     */
+    static ReadFrom readFrom(String readFrom) {
+        switch (readFrom) {
+            case "primary":           return null;
+            case "replica-preferred": return ReadFrom.REPLICA_PREFERRED;
+            case "replica":           return ReadFrom.REPLICA;
+            case "nearest":           return ReadFrom.LOWEST_LATENCY;
+            default:
+                throw new IllegalArgumentException("Unknown dfs.redis.read-from: " + readFrom + ". Use primary, replica-preferred, replica or nearest.");
+        }
+    }
+
+    static RedisStandaloneConfiguration parseEndpoint(String endpoint) {
+        String hostPort = endpoint;
+        int database = 0;
+        int slash = endpoint.indexOf('/');
+        if (slash >= 0) {
+            hostPort = endpoint.substring(0, slash);
+            database = Integer.parseInt(endpoint.substring(slash + 1));
+        }
+        int colon = hostPort.lastIndexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("Invalid Redis endpoint " + endpoint + ". Use host:port or host:port/database.");
+        }
+        RedisStandaloneConfiguration configuration = new RedisStandaloneConfiguration(hostPort.substring(0, colon),
+                Integer.parseInt(hostPort.substring(colon + 1)));
+        configuration.setDatabase(database);
+        return configuration;
+    }
+
+    public Shard forKey(String routingKey) {
+        return (shards.size() == 1) ? shards.get(0) : ring.route(routingKey);
+    }
+
+    public List<Shard> all() {
+        return shards;
+    }
+
+    public boolean isSingle() {
+        return shards.size() == 1;
+    }
+
+    /**
+     * Groups the positions of routing keys by shard, so that batched operations cost one round trip per shard.
+     * Positions keep their order within a shard; null keys are left out.
+     */
+    public Map<Shard, List<Integer>> partition(List<String> routingKeys) {
+        Map<Shard, List<Integer>> partitions = new LinkedHashMap<>();
+        for (int i = 0; i < routingKeys.size(); i++) {
+            if (routingKeys.get(i) == null) continue;
+            partitions.computeIfAbsent(forKey(routingKeys.get(i)), shard -> new ArrayList<>()).add(i);
+        }
+        return partitions;
+    }
+
+    @Override
+    public void destroy() {
+        for (LettuceConnectionFactory factory : connectionFactories) {
+            factory.destroy();
+        }
+    }
+}
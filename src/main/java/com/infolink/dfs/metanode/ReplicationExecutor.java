@@ -0,0 +1,360 @@
+package com.infolink.dfs.metanode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+
+import com.infolink.dfs.shared.DfsNode;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Re-replicates under-replicated blocks on dedicated worker threads.
+ * Tasks wait in a bounded queue ordered by the number of live replicas of the block, so that
+ * blocks with the fewest surviving copies are repaired first (see ReplicationQueue). Each copy
+ * is asked of a source node that holds the block and sent to a living target that doesn't.
+ * The number of copies a node takes part in at the same time is limited per source and per target,
+ * all copies share a global ops-per-second budget, and a failed copy is retried with exponential backoff.
+ */
+@Component
+public class ReplicationExecutor {
+    private static final Logger logger = LoggerFactory.getLogger(ReplicationExecutor.class);
+    // Delay before looking again for a free source or target when all are busy
+    private static final long BUSY_RETRY_MS = 100;
+
+    @Autowired
+    private NodeManager nodeManager;
+    @Autowired
+    private RestTemplate restTemplate;
+    @Autowired
+    private AppConfig config;
+
+    @Value("${dfs.replication.workers:8}")
+    private int workerCount;
+    @Value("${dfs.replication.queue-capacity:10000}")
+    private int queueCapacity;
+    @Value("${dfs.replication.max-per-source:2}")
+    private int maxPerSource;
+    @Value("${dfs.replication.max-per-target:2}")
+    private int maxPerTarget;
+    @Value("${dfs.replication.ops-per-second:50}")
+    private double opsPerSecond;
+    @Value("${dfs.replication.max-attempts:3}")
+    private int maxAttempts;
+    @Value("${dfs.replication.retry-backoff-ms:1000}")
+    private long retryBackoffMs;
+
+    private ReplicationQueue<ReplicationTask> queue;
+    private TokenBucket opsBudget;
+    private final List<Thread> workers = new ArrayList<>();
+    private ScheduledExecutorService retryScheduler;
+    private volatile boolean running;
+
+    private final ConcurrentHashMap<String, Semaphore> sourceSlots = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Semaphore> targetSlots = new ConcurrentHashMap<>();
+
+    private final AtomicLong inFlight = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    @PostConstruct
+    public void start() {
+        // One level per possible live replica count below the replication factor
+        queue = new ReplicationQueue<>(Math.max(1, config.getReplicationFactor()), queueCapacity);
+        opsBudget = new TokenBucket(opsPerSecond);
+        retryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "replication-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        running = true;
+        for (int i = 0; i < workerCount; i++) {
+            Thread worker = new Thread(this::runWorker, "replication-worker-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+        logger.info("ReplicationExecutor started: workers={}, queueCapacity={}, maxPerSource={}, maxPerTarget={}, opsPerSecond={}",
+                workerCount, queueCapacity, maxPerSource, maxPerTarget, opsPerSecond);
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        retryScheduler.shutdownNow();
+        workers.forEach(Thread::interrupt);
+    }
+
+    /**
+     * Queues a block for re-replication, waiting while the queue is full.
+     *
+     * @param existingNodeUrls the nodes currently holding the block; copies are sourced from them
+     */
+    public void submit(String blockHash, Set<String> existingNodeUrls) throws InterruptedException {
+        ReplicationTask task = new ReplicationTask(blockHash, existingNodeUrls);
+        queue.put(task, liveReplicas(task));
+    }
+
+    /**
+     * Queues a block for re-replication without waiting.
+     *
+     * @return false when the queue is full
+     */
+    public boolean trySubmit(String blockHash, Set<String> existingNodeUrls) {
+        ReplicationTask task = new ReplicationTask(blockHash, existingNodeUrls);
+        return queue.offer(task, liveReplicas(task));
+    }
+
+    // Counted again each time a task is queued, as more holders may have died in the meantime
+    private int liveReplicas(ReplicationTask task) {
+        int live = 0;
+        for (String url : task.existingNodeUrls) {
+            if (nodeManager.getNodeByContainerUrl(url) != null) live++;
+        }
+        return live;
+    }
+
+    private void runWorker() {
+        while (running) {
+            try {
+                ReplicationTask task = queue.take();
+                inFlight.incrementAndGet();
+                try {
+                    process(task);
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                logger.error("Unexpected error in replication worker", e);
+            }
+        }
+    }
+
+    private void process(ReplicationTask task) throws InterruptedException {
+        List<String> sources = new ArrayList<>();
+        for (String url : task.existingNodeUrls) {
+            if (nodeManager.getNodeByContainerUrl(url) != null) sources.add(url);
+        }
+        if (sources.isEmpty()) {
+            logger.error("No living node holds block {}. It cannot be re-replicated.", task.blockHash);
+            failed.incrementAndGet();
+            return;
+        }
+        List<DfsNode> targets = findTargets(task);
+        if (targets.isEmpty()) {
+            logger.warn("No living node is available to receive block {}.", task.blockHash);
+            retryOrFail(task);
+            return;
+        }
+
+        String source = acquire(sourceSlots, sources, maxPerSource);
+        if (source == null) {
+            reschedule(task, BUSY_RETRY_MS);
+            return;
+        }
+        try {
+            DfsNode target = null;
+            for (DfsNode candidate : targets) {
+                if (slot(targetSlots, candidate.getContainerUrl(), maxPerTarget).tryAcquire()) {
+                    target = candidate;
+                    break;
+                }
+            }
+            if (target == null) {
+                reschedule(task, BUSY_RETRY_MS);
+                return;
+            }
+            try {
+                // Only copies that are about to happen spend the budget, not tasks put back for busy nodes
+                opsBudget.acquire();
+                if (replicate(source, target, task.blockHash)) {
+                    completed.incrementAndGet();
+                } else {
+                    task.triedTargets.add(target.getContainerUrl());
+                    retryOrFail(task);
+                }
+            } finally {
+                slot(targetSlots, target.getContainerUrl(), maxPerTarget).release();
+            }
+        } finally {
+            slot(sourceSlots, source, maxPerSource).release();
+        }
+    }
+
+    // Living nodes that don't hold the block, least loaded first; targets that already failed go last
+    private List<DfsNode> findTargets(ReplicationTask task) {
+        List<DfsNode> targets = new ArrayList<>();
+        for (DfsNode node : nodeManager.getRegisteredNodes()) {
+            if (!task.existingNodeUrls.contains(node.getContainerUrl())) targets.add(node);
+        }
+        targets.sort(Comparator.comparing((DfsNode node) -> task.triedTargets.contains(node.getContainerUrl()))
+                .thenComparingLong(DfsNode::getBlockCount));
+        return targets;
+    }
+
+    private String acquire(ConcurrentHashMap<String, Semaphore> slots, List<String> urls, int permits) {
+        Collections.shuffle(urls);
+        for (String url : urls) {
+            if (slot(slots, url, permits).tryAcquire()) return url;
+        }
+        return null;
+    }
+
+    private static Semaphore slot(ConcurrentHashMap<String, Semaphore> slots, String url, int permits) {
+        return slots.computeIfAbsent(url, k -> new Semaphore(permits));
+    }
+
+    private boolean replicate(String sourceUrl, DfsNode target, String blockHash) {
+        String url = sourceUrl + "/dfs/block/replicate-to-another-node";
+        logger.debug("Replicating block {} from {} to {}", blockHash, sourceUrl, target.getContainerUrl());
+        try {
+            RequestReplicateBlock request = new RequestReplicateBlock();
+            request.setBlockHash(blockHash);
+            request.setTargetNode(target);
+
+            HttpHeaders headers = new HttpHeaders();
+            headers.setContentType(MediaType.APPLICATION_JSON);
+            HttpEntity<RequestReplicateBlock> entity = new HttpEntity<>(request, headers);
+
+            ResponseEntity<String> response = restTemplate.exchange(url, HttpMethod.POST, entity, String.class);
+
+            logger.info("Replicating block {} to node {}. Response.status={}, Response: {}", blockHash, target.getContainerUrl(), response.getStatusCode(), response.getBody());
+            return response.getStatusCode().is2xxSuccessful();
+        } catch (Exception e) {
+            logger.error("Error replicating block {} from {} to {}: {}", blockHash, sourceUrl, target.getContainerUrl(), e.getMessage());
+            return false;
+        }
+    }
+
+    private void retryOrFail(ReplicationTask task) {
+        task.attempts++;
+        if (task.attempts >= maxAttempts) {
+            logger.error("Giving up re-replication of block {} after {} attempts.", task.blockHash, task.attempts);
+            failed.incrementAndGet();
+            return;
+        }
+        retried.incrementAndGet();
+        reschedule(task, retryBackoffMs << (task.attempts - 1));
+    }
+
+    /**
+     * Puts a task back in the queue after a delay. The single scheduler thread never waits for room:
+     * when the queue is full, the task tries again later.
+     */
+    private void reschedule(ReplicationTask task, long delayMs) {
+        if (!running) return;
+        retryScheduler.schedule(() -> {
+            if (!queue.offer(task, liveReplicas(task))) {
+                reschedule(task, BUSY_RETRY_MS);
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    public ReplicationStats getStats() {
+        return new ReplicationStats(queue.size(), inFlight.get(), completed.get(), retried.get(), failed.get());
+    }
+
+    /**
+     * @return the number of queued blocks by live replica count, most urgent first
+     */
+    public Map<Integer, Integer> getQueueDepthByLiveReplicas() {
+        return queue.depthByLevel();
+    }
+
+    private static class ReplicationTask {
+        final String blockHash;
+        final Set<String> existingNodeUrls;
+        final Set<String> triedTargets = new HashSet<>();
+        int attempts;
+
+        ReplicationTask(String blockHash, Set<String> existingNodeUrls) {
+            this.blockHash = blockHash;
+            this.existingNodeUrls = new HashSet<>(existingNodeUrls);
+        }
+    }
+
+    /**
+     * Global operation budget. Allows bursts of up to one second's worth of operations;
+     * a rate of zero or less means unlimited.
+     */
+    static class TokenBucket {
+        private final double tokensPerMs;
+        private final double capacity;
+        private double tokens;
+        private long lastRefill;
+
+        TokenBucket(double perSecond) {
+            this.tokensPerMs = perSecond / 1000.0;
+            this.capacity = Math.max(1.0, perSecond);
+            this.tokens = capacity;
+            this.lastRefill = System.currentTimeMillis();
+        }
+
+        void acquire() throws InterruptedException {
+            if (tokensPerMs <= 0) return;
+            while (true) {
+                long waitMs;
+                synchronized (this) {
+                    long now = System.currentTimeMillis();
+                    tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerMs);
+                    lastRefill = now;
+                    if (tokens >= 1.0) {
+                        tokens -= 1.0;
+                        return;
+                    }
+                    waitMs = (long) Math.ceil((1.0 - tokens) / tokensPerMs);
+                }
+                Thread.sleep(Math.max(1, waitMs));
+            }
+        }
+    }
+
+    public static class ReplicationStats {
+        private final int queued;
+        private final long inFlight;
+        private final long completed;
+        private final long retried;
+        private final long failed;
+
+        public ReplicationStats(int queued, long inFlight, long completed, long retried, long failed) {
+            this.queued = queued;
+            this.inFlight = inFlight;
+            this.completed = completed;
+            this.retried = retried;
+            this.failed = failed;
+        }
+
+        public int getQueued() 		{ return queued; }
+        public long getInFlight() 	{ return inFlight; }
+        public long getCompleted() 	{ return completed; }
+        public long getRetried() 	{ return retried; }
+        public long getFailed() 	{ return failed; }
+    }
+}
@@ -0,0 +1,117 @@
+package com.infolink.dfs.metanode;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded blocking queue with a fixed number of priority levels, level 0 being the most urgent.
+ * Items of the same level are taken in FIFO order. Used by ReplicationExecutor with the number of
+ * live replicas of a block as its level, so blocks with the fewest surviving copies are repaired first.
+ */
+class ReplicationQueue<T> {
+    private final List<ArrayDeque<T>> levels;
+    private final int capacity;
+    private int size;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    ReplicationQueue(int levelCount, int capacity) {
+        if (levelCount < 1 || capacity < 1) {
+            throw new IllegalArgumentException("levelCount and capacity must be positive.");
+        }
+        this.levels = new ArrayList<>(levelCount);
+        for (int i = 0; i < levelCount; i++) {
+            levels.add(new ArrayDeque<>());
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Adds an item, waiting while the queue is full. Levels outside the range are clamped.
+     */
+    void put(T item, int level) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (size == capacity) {
+                notFull.await();
+            }
+            enqueue(item, level);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return false when the queue is full
+     */
+    boolean offer(T item, int level) {
+        lock.lock();
+        try {
+            if (size == capacity) return false;
+            enqueue(item, level);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the oldest item of the most urgent non-empty level, waiting while the queue is empty.
+     */
+    T take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (size == 0) {
+                notEmpty.await();
+            }
+            for (ArrayDeque<T> level : levels) {
+                if (!level.isEmpty()) {
+                    size--;
+                    notFull.signal();
+                    return level.poll();
+                }
+            }
+            throw new IllegalStateException("Queue size and levels are out of sync.");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of queued items per level, in level order
+     */
+    Map<Integer, Integer> depthByLevel() {
+        lock.lock();
+        try {
+            Map<Integer, Integer> depths = new LinkedHashMap<>();
+            for (int i = 0; i < levels.size(); i++) {
+                depths.put(i, levels.get(i).size());
+            }
+            return depths;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void enqueue(T item, int level) {
+        levels.get(Math.max(0, Math.min(level, levels.size() - 1))).add(item);
+        size++;
+        notEmpty.signal();
+    }
+}
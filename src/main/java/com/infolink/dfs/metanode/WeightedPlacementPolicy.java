@@ -0,0 +1,147 @@
+package com.infolink.dfs.metanode;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+import com.infolink.dfs.shared.DfsNode;
+
+/**
+ * Power-of-two-choices placement: for each target, two random eligible nodes are sampled and the
+ * less loaded one is taken. Load is the fraction of capacity in use when both nodes report a capacity,
+ * otherwise the block count, and in both cases includes the assignments handed out since the node
+ * last stored a block. Choosing costs a few random probes instead of sorting every node, and
+ * concurrent writers spread over the lightly loaded nodes instead of all picking the same one.
+ * <p>
+ * Registrations are not tied to the assignment they fulfil (aborted uploads never register, block
+ * reports register blocks nobody assigned), so the in-flight count is only an estimate: assignments
+ * expire after dfs.placement.in-flight-timeout-ms, and are forgotten once a heartbeat reports a
+ * new block count, which already includes the blocks that landed.
+ */
+public class WeightedPlacementPolicy implements PlacementPolicy {
+    // Random probes per target before falling back to a scan of all nodes
+    private static final int MAX_PROBES = 8;
+
+    static final long DEFAULT_IN_FLIGHT_TIMEOUT_MS = 60_000;
+
+    // Expiry times of the assignments handed out per node, oldest first
+    private final ConcurrentHashMap<String, ArrayDeque<Long>> inFlight = new ConcurrentHashMap<>();
+    private final long inFlightTimeoutMs;
+    private final LongSupplier clock;
+
+    public WeightedPlacementPolicy() {
+        this(DEFAULT_IN_FLIGHT_TIMEOUT_MS);
+    }
+
+    public WeightedPlacementPolicy(long inFlightTimeoutMs) {
+        this(inFlightTimeoutMs, System::currentTimeMillis);
+    }
+
+    WeightedPlacementPolicy(long inFlightTimeoutMs, LongSupplier clock) {
+        if (inFlightTimeoutMs <= 0) {
+            throw new IllegalArgumentException("inFlightTimeoutMs must be positive: " + inFlightTimeoutMs);
+        }
+        this.inFlightTimeoutMs = inFlightTimeoutMs;
+        this.clock = clock;
+    }
+
+    @Override
+    public List<DfsNode> chooseTargets(String[] nodeUrls, Function<String, DfsNode> lookup, Set<String> excludedUrls, int count, String writerUrl) {
+        List<DfsNode> chosen = new ArrayList<>(count);
+        while (chosen.size() < count) {
+            DfsNode first = sample(nodeUrls, lookup, excludedUrls, chosen, null);
+            if (first == null) break;
+            DfsNode second = sample(nodeUrls, lookup, excludedUrls, chosen, first);
+            DfsNode pick = (second != null && compareLoad(second, first) < 0) ? second : first;
+            chosen.add(pick);
+            ArrayDeque<Long> assignments = inFlight.computeIfAbsent(pick.getContainerUrl(), k -> new ArrayDeque<>());
+            synchronized (assignments) {
+                assignments.addLast(clock.getAsLong() + inFlightTimeoutMs);
+            }
+        }
+        return chosen;
+    }
+
+    @Override
+    public void onBlockStored(String nodeUrl) {
+        ArrayDeque<Long> assignments = inFlight.get(nodeUrl);
+        if (assignments != null) {
+            synchronized (assignments) {
+                assignments.pollFirst();
+            }
+        }
+    }
+
+    @Override
+    public void onNodeReported(DfsNode previous, DfsNode node) {
+        if (previous.getBlockCount() != node.getBlockCount()) {
+            onNodeRemoved(node.getContainerUrl());
+        }
+    }
+
+    @Override
+    public void onNodeRemoved(String nodeUrl) {
+        inFlight.remove(nodeUrl);
+    }
+
+    int getInFlight(String nodeUrl) {
+        ArrayDeque<Long> assignments = inFlight.get(nodeUrl);
+        if (assignments == null) return 0;
+        long now = clock.getAsLong();
+        synchronized (assignments) {
+            while (!assignments.isEmpty() && assignments.peekFirst() <= now) {
+                assignments.pollFirst();
+            }
+            return assignments.size();
+        }
+    }
+
+    private DfsNode sample(String[] nodeUrls, Function<String, DfsNode> lookup, Set<String> excludedUrls,
+                           List<DfsNode> chosen, DfsNode other) {
+        if (nodeUrls.length == 0) return null;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            DfsNode node = eligible(nodeUrls[random.nextInt(nodeUrls.length)], lookup, excludedUrls, chosen, other);
+            if (node != null) return node;
+        }
+        // Most nodes are excluded; scan from a random offset instead
+        int start = random.nextInt(nodeUrls.length);
+        for (int i = 0; i < nodeUrls.length; i++) {
+            DfsNode node = eligible(nodeUrls[(start + i) % nodeUrls.length], lookup, excludedUrls, chosen, other);
+            if (node != null) return node;
+        }
+        return null;
+    }
+
+    private DfsNode eligible(String nodeUrl, Function<String, DfsNode> lookup, Set<String> excludedUrls,
+                             List<DfsNode> chosen, DfsNode other) {
+        if (excludedUrls.contains(nodeUrl)) return null;
+        if (other != null && other.getContainerUrl().equals(nodeUrl)) return null;
+        for (DfsNode node : chosen) {
+            if (node.getContainerUrl().equals(nodeUrl)) return null;
+        }
+        return lookup.apply(nodeUrl);
+    }
+
+    int compareLoad(DfsNode a, DfsNode b) {
+        int inFlightA = getInFlight(a.getContainerUrl());
+        int inFlightB = getInFlight(b.getContainerUrl());
+        if (a.getCapacity() > 0 && b.getCapacity() > 0) {
+            int byFraction = Double.compare(usedFraction(a, inFlightA), usedFraction(b, inFlightB));
+            // Empty nodes have no average block size yet, so in-flight assignments break ties
+            return byFraction != 0 ? byFraction : Integer.compare(inFlightA, inFlightB);
+        }
+        return Long.compare(a.getBlockCount() + inFlightA, b.getBlockCount() + inFlightB);
+    }
+
+    // Bytes in use plus the in-flight blocks at the node's average block size, over its capacity
+    private static double usedFraction(DfsNode node, int inFlight) {
+        double averageBlockSize = node.getBlockCount() > 0 ? (double) node.getBlockTotalSize() / node.getBlockCount() : 0;
+        return (node.getBlockTotalSize() + inFlight * averageBlockSize) / node.getCapacity();
+    }
+}
@@ -0,0 +1,240 @@
+package com.infolink.dfs.metanode;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only log of EmbeddedMetadataStore records, split in numbered segment files
+ * ("wal-0000000000000001.log", ...). Every record is framed as its length, the CRC32 of its bytes and
+ * the bytes themselves, so that a record torn by a crash is detected and ends the replay.
+ *
+ * <p>Records are written by a single thread with group commit: everything queued while the previous
+ * write was being synced goes out in one write and one fsync, and the futures of all these records
+ * complete together. Under load the cost of an fsync is therefore shared by many writers.
+ */
+final class WriteAheadLog implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(WriteAheadLog.class);
+
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    /** Length and CRC32 in front of every record */
+    private static final int FRAME_HEADER_BYTES = 8;
+    private static final int MAX_RECORD_BYTES = 64 << 20;
+    private static final int MAX_GROUP = 4096;
+
+    private static final class Entry {
+        final byte[] record;
+        final long nextSegment;
+        final CompletableFuture<Void> written = new CompletableFuture<>();
+
+        Entry(byte[] record, long nextSegment) {
+            this.record = record;
+            this.nextSegment = nextSegment;
+        }
+    }
+
+    private static final Entry STOP = new Entry(null, 0);
+
+    private final Path directory;
+    private final boolean fsync;
+    private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private volatile long segment;
+    private volatile IOException failure;
+    private FileChannel channel;
+
+    /**
+     * Opens a new segment and starts the writer thread.
+     */
+    WriteAheadLog(Path directory, long segment, boolean fsync) throws IOException {
+        this.directory = directory;
+        this.fsync = fsync;
+        this.segment = segment;
+        this.channel = openSegment(segment);
+        this.writer = new Thread(this::writeLoop, "metadata-wal");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    long currentSegment() {
+        return segment;
+    }
+
+    /**
+     * @return a future completed once the record is on disk (synced when fsync is on)
+     */
+    CompletableFuture<Void> append(byte[] record) {
+        return enqueue(new Entry(record, 0));
+    }
+
+    /**
+     * Closes the current segment after the records queued so far and continues in a new one.
+     */
+    CompletableFuture<Void> rotate(long nextSegment) {
+        segment = nextSegment;
+        return enqueue(new Entry(null, nextSegment));
+    }
+
+    private CompletableFuture<Void> enqueue(Entry entry) {
+        if (failure != null) {
+            return CompletableFuture.failedFuture(failure);
+        }
+        queue.add(entry);
+        return entry.written;
+    }
+
+    private void writeLoop() {
+        List<Entry> group = new ArrayList<>();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(1 << 16);
+        DataOutputStream out = new DataOutputStream(buffer);
+        boolean stopped = false;
+        while (!stopped) {
+            try {
+                group.add(queue.take());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            queue.drainTo(group, MAX_GROUP);
+
+            try {
+                for (Entry entry : group) {
+                    if (entry == STOP) {
+                        stopped = true;
+                    } else if (entry.record != null) {
+                        writeFrame(out, entry.record);
+                    } else {
+                        flush(buffer);
+                        channel.close();
+                        channel = openSegment(entry.nextSegment);
+                    }
+                }
+                flush(buffer);
+                for (Entry entry : group) {
+                    entry.written.complete(null);
+                }
+            } catch (IOException e) {
+                logger.error("Could not write the metadata log, further writes are rejected", e);
+                failure = e;
+                for (Entry entry : group) {
+                    entry.written.completeExceptionally(e);
+                }
+            }
+            group.clear();
+            buffer.reset();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.warn("Could not close the metadata log", e);
+        }
+    }
+
+    private void flush(ByteArrayOutputStream buffer) throws IOException {
+        if (failure != null) throw failure;
+        if (buffer.size() == 0) return;
+        ByteBuffer bytes = ByteBuffer.wrap(buffer.toByteArray());
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        if (fsync) {
+            channel.force(false);
+        }
+        buffer.reset();
+    }
+
+    private FileChannel openSegment(long number) throws IOException {
+        return FileChannel.open(segmentPath(directory, number),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Writes the queued records and stops the writer thread.
+     */
+    @Override
+    public void close() {
+        queue.add(STOP);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    static Path segmentPath(Path directory, long number) {
+        return directory.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * @return the numbers of the segments in the directory, in ascending order
+     */
+    static List<Long> segments(Path directory) throws IOException {
+        List<Long> numbers = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+                    .forEach(name -> numbers.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()))));
+        }
+        numbers.sort(null);
+        return numbers;
+    }
+
+    static void writeFrame(DataOutputStream out, byte[] record) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        out.writeInt(record.length);
+        out.writeInt((int) crc.getValue());
+        out.write(record);
+    }
+
+    /**
+     * Passes every intact record of a file to the consumer, in order.
+     *
+     * @return the length of the intact records at the start of the file; shorter than the file when it
+     *         ends with a torn or corrupt record, which is skipped with everything after it
+     */
+    static long readFrames(Path file, Consumer<byte[]> consumer) throws IOException {
+        long intact = 0;
+        try (InputStream stream = Files.newInputStream(file);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(stream, 1 << 16))) {
+            while (true) {
+                try {
+                    int length = in.readInt();
+                    int checksum = in.readInt();
+                    if (length < 0 || length > MAX_RECORD_BYTES) return intact;
+                    byte[] record = new byte[length];
+                    in.readFully(record);
+                    CRC32 crc = new CRC32();
+                    crc.update(record);
+                    if ((int) crc.getValue() != checksum) return intact;
+                    consumer.accept(record);
+                    intact += FRAME_HEADER_BYTES + length;
+                } catch (EOFException e) {
+                    return intact;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.infolink.dfs.shared;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+
+/**
+ * Order-independent digest of a node's block inventory, used by incremental block reports.
+ * The digest is the XOR of a 64-bit FNV-1a hash of every block hash in the inventory, so the
+ * data node and the metanode can both update it in O(1) per added or removed block.
+ */
+public class BlockReportDigest {
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    // 64-bit FNV-1a of the UTF-8 bytes of a block hash
+    public static long hashOf(String blockHash) {
+        long h = FNV_OFFSET_BASIS;
+        for (byte b : blockHash.getBytes(StandardCharsets.UTF_8)) {
+            h ^= (b & 0xff);
+            h *= FNV_PRIME;
+        }
+        return h;
+    }
+
+    public static long of(Collection<String> blockHashes) {
+        return toggleAll(0L, blockHashes);
+    }
+
+    // Adding and removing a block are the same operation on an XOR digest
+    public static long toggle(long digest, String blockHash) {
+        return digest ^ hashOf(blockHash);
+    }
+
+    public static long toggleAll(long digest, Collection<String> blockHashes) {
+        if (blockHashes != null) {
+            for (String blockHash : blockHashes) {
+                digest ^= hashOf(blockHash);
+            }
+        }
+        return digest;
+    }
+}
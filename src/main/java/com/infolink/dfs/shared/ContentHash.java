@@ -0,0 +1,165 @@
+package com.infolink.dfs.shared;
+
+import java.util.Arrays;
+
+/**
+ * A SHA-256 content hash held as four longs (32 bytes) instead of a 64-character hex string.
+ * Equality, hashing and ordering work on the longs without allocating, and hex conversion in both
+ * directions goes through lookup tables. The hex form is the lowercase one produced by HashUtil,
+ * which is also what block and file keys in Redis use.
+ */
+public final class ContentHash implements Comparable<ContentHash> {
+    public static final int BYTES = 32;
+    public static final int HEX_LENGTH = 2 * BYTES;
+
+    // HEX_PAIRS[2 * b] and HEX_PAIRS[2 * b + 1] are the two hex digits of byte b
+    private static final char[] HEX_PAIRS = new char[512];
+    private static final byte[] HEX_VALUES = new byte[128];
+    static {
+        char[] digits = "0123456789abcdef".toCharArray();
+        for (int b = 0; b < 256; b++) {
+            HEX_PAIRS[2 * b] = digits[b >>> 4];
+            HEX_PAIRS[2 * b + 1] = digits[b & 0x0F];
+        }
+        Arrays.fill(HEX_VALUES, (byte) -1);
+        for (int i = 0; i < digits.length; i++) {
+            HEX_VALUES[digits[i]] = (byte) i;
+        }
+    }
+
+    private final long h0;
+    private final long h1;
+    private final long h2;
+    private final long h3;
+
+    private ContentHash(long h0, long h1, long h2, long h3) {
+        this.h0 = h0;
+        this.h1 = h1;
+        this.h2 = h2;
+        this.h3 = h3;
+    }
+
+    public static ContentHash of(byte[] digest) {
+        if (digest == null || digest.length != BYTES) {
+            throw new IllegalArgumentException("A content hash is " + BYTES + " bytes.");
+        }
+        return of(digest, 0);
+    }
+
+    /**
+     * Reads 32 bytes starting at offset.
+     */
+    public static ContentHash of(byte[] bytes, int offset) {
+        if (offset < 0 || offset + BYTES > bytes.length) {
+            throw new IllegalArgumentException("Not enough bytes for a content hash at offset " + offset + ".");
+        }
+        return new ContentHash(readLong(bytes, offset), readLong(bytes, offset + 8),
+                readLong(bytes, offset + 16), readLong(bytes, offset + 24));
+    }
+
+    /**
+     * @throws IllegalArgumentException when the value is not 64 lowercase hex digits
+     */
+    public static ContentHash fromHex(CharSequence hex) {
+        if (!isHex(hex)) {
+            throw new IllegalArgumentException("Not a content hash: " + hex);
+        }
+        return new ContentHash(parseLong(hex, 0), parseLong(hex, 16), parseLong(hex, 32), parseLong(hex, 48));
+    }
+
+    /**
+     * @return true when the value is 64 lowercase hex digits, the only form that round-trips through ContentHash
+     */
+    public static boolean isHex(CharSequence value) {
+        if (value == null || value.length() != HEX_LENGTH) return false;
+        for (int i = 0; i < HEX_LENGTH; i++) {
+            char c = value.charAt(i);
+            if (c >= 128 || HEX_VALUES[c] < 0) return false;
+        }
+        return true;
+    }
+
+    public String toHex() {
+        char[] hex = new char[HEX_LENGTH];
+        writeHex(h0, hex, 0);
+        writeHex(h1, hex, 16);
+        writeHex(h2, hex, 32);
+        writeHex(h3, hex, 48);
+        return new String(hex);
+    }
+
+    public byte[] toBytes() {
+        byte[] bytes = new byte[BYTES];
+        writeTo(bytes, 0);
+        return bytes;
+    }
+
+    public void writeTo(byte[] bytes, int offset) {
+        writeLong(h0, bytes, offset);
+        writeLong(h1, bytes, offset + 8);
+        writeLong(h2, bytes, offset + 16);
+        writeLong(h3, bytes, offset + 24);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ContentHash)) return false;
+        ContentHash other = (ContentHash) o;
+        return h0 == other.h0 && h1 == other.h1 && h2 == other.h2 && h3 == other.h3;
+    }
+
+    @Override
+    public int hashCode() {
+        // The bits of a SHA-256 digest are already uniformly distributed
+        return (int) (h0 ^ (h0 >>> 32));
+    }
+
+    /**
+     * Orders like the hex form.
+     */
+    @Override
+    public int compareTo(ContentHash other) {
+        int c = Long.compareUnsigned(h0, other.h0);
+        if (c == 0) c = Long.compareUnsigned(h1, other.h1);
+        if (c == 0) c = Long.compareUnsigned(h2, other.h2);
+        if (c == 0) c = Long.compareUnsigned(h3, other.h3);
+        return c;
+    }
+
+    @Override
+    public String toString() {
+        return toHex();
+    }
+
+    private static long readLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xFFL);
+        }
+        return value;
+    }
+
+    private static void writeLong(long value, byte[] bytes, int offset) {
+        for (int i = 7; i >= 0; i--) {
+            bytes[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    private static long parseLong(CharSequence hex, int offset) {
+        long value = 0;
+        for (int i = 0; i < 16; i++) {
+            value = (value << 4) | HEX_VALUES[hex.charAt(offset + i)];
+        }
+        return value;
+    }
+
+    private static void writeHex(long value, char[] hex, int offset) {
+        for (int i = 0; i < 8; i++) {
+            int b = (int) (value >>> (56 - 8 * i)) & 0xFF;
+            hex[offset + 2 * i] = HEX_PAIRS[2 * b];
+            hex[offset + 2 * i + 1] = HEX_PAIRS[2 * b + 1];
+        }
+    }
+}
@@ -8,6 +8,8 @@ public class DfsNode {
     private Date lastTimeReport; // Last time the health status was reported
     private long blockCount;
     private long blockTotalSize;
+    private long capacity; // Total bytes the node may use for blocks; 0 when the node does not report it
+    private String rack; // Failure domain (rack, switch or zone) of the node; null when not reported
 
     public DfsNode() {
         this.containerUrl = "";
@@ -60,6 +62,8 @@ public class DfsNode {
                 ", localUrl='" + localUrl + '\'' +
                 ", blockCount=" + blockCount + 
                 ", blockTotalSize=" + blockTotalSize +
+                ", capacity=" + capacity +
+                ", rack='" + rack + '\'' +
                 ", lastTimeReport=" + lastTimeReport +
                 '}';
     }
@@ -88,5 +92,21 @@ public class DfsNode {
 		this.blockTotalSize = blockTotalSize;
 	}
 
+	public long getCapacity() {
+		return capacity;
+	}
+
+	public void setCapacity(long capacity) {
+		this.capacity = capacity;
+	}
+
+	public String getRack() {
+		return rack;
+	}
+
+	public void setRack(String rack) {
+		this.rack = rack;
+	}
+
 
 }
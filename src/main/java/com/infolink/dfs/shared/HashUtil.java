@@ -7,36 +7,21 @@ public class HashUtil {
 
     // Calculate the SHA-256 hash of the input byte array
     public static String calculateHash(byte[] input) throws NoSuchAlgorithmException {
-        MessageDigest digest = MessageDigest.getInstance("SHA-256");
-        byte[] hashBytes = digest.digest(input);
-        
-        // Convert byte array to hex string
-        StringBuilder hexString = new StringBuilder();
-        for (byte b : hashBytes) {
-            String hex = Integer.toHexString(0xff & b);
-            if (hex.length() == 1) {
-                hexString.append('0');
-            }
-            hexString.append(hex);
-        }
-        return hexString.toString();
+        return calculateContentHash(input).toHex();
     }
     
     public static String calculateHash(byte[] input, int size) throws NoSuchAlgorithmException {
+        return calculateContentHash(input, size).toHex();
+    }
+
+    public static ContentHash calculateContentHash(byte[] input) throws NoSuchAlgorithmException {
+        return calculateContentHash(input, input.length);
+    }
+
+    public static ContentHash calculateContentHash(byte[] input, int size) throws NoSuchAlgorithmException {
         MessageDigest digest = MessageDigest.getInstance("SHA-256");
         digest.update(input, 0, size); // Use only the relevant part of the input array.
-        byte[] hashBytes = digest.digest();
-
-        // Convert byte array to hex string.
-        StringBuilder hexString = new StringBuilder();
-        for (byte b : hashBytes) {
-            String hex = Integer.toHexString(0xff & b);
-            if (hex.length() == 1) {
-                hexString.append('0');
-            }
-            hexString.append(hex);
-        }
-        return hexString.toString();
+        return ContentHash.of(digest.digest());
     }
 
 }
@@ -0,0 +1,23 @@
+-- Creates the root and any missing directories of a path in a single round trip.
+--
+-- KEYS[1]  root directory key    ARGV[1]  root directory value
+-- then one (dir key, dir hash key, parent ":index" zset) triple per path segment,
+-- with the matching (directory value, index member "d:<name>") pair at ARGV[2], ARGV[3], ...
+--
+-- Returns 1 when the last directory of the path was created, 0 when it already existed.
+
+redis.call('SET', KEYS[1], ARGV[1], 'NX')
+
+local created = 0
+local segments = (#KEYS - 1) / 3
+for i = 0, segments - 1 do
+    local k = 2 + i * 3
+    local a = 2 + i * 2
+    created = 0
+    if redis.call('SET', KEYS[k], ARGV[a], 'NX') then
+        redis.call('SET', KEYS[k + 1], ARGV[a])
+        redis.call('ZADD', KEYS[k + 2], 0, ARGV[a + 1])
+        created = 1
+    end
+end
+return created
@@ -0,0 +1,29 @@
+-- Moves the node URLs of a legacy BlockNode JSON value into the location set of the block,
+-- the reverse index and block digest of each node, and deletes the legacy value.
+--
+-- KEYS[1]  block location set ("BlockLocation:<hash>")
+-- KEYS[2]  legacy BlockNode JSON key ("BlockNode:<hash>")
+-- then one (reverse index "NodeBlocks:<url>", block digest "NodeDigest:<url>") pair per node URL,
+-- with the matching node URL at ARGV[5], ARGV[6], ...
+-- ARGV[1]  legacy value the node URLs were read from
+-- ARGV[2]  block hash
+-- ARGV[3]  high 32 bits of the BlockReportDigest hash of the block, as a signed integer
+-- ARGV[4]  low 32 bits of the same hash
+--
+-- Returns 1 when the value was folded, 0 when it had changed or was deleted.
+
+if redis.call('GET', KEYS[2]) ~= ARGV[1] then
+    return 0
+end
+
+for i = 5, #ARGV do
+    local k = 3 + (i - 5) * 2
+    redis.call('SADD', KEYS[1], ARGV[i])
+    if redis.call('SADD', KEYS[k], ARGV[2]) == 1 then
+        local digest = redis.call('HMGET', KEYS[k + 1], 'hi', 'lo')
+        redis.call('HSET', KEYS[k + 1], 'hi', bit.bxor(tonumber(digest[1]) or 0, tonumber(ARGV[3])),
+            'lo', bit.bxor(tonumber(digest[2]) or 0, tonumber(ARGV[4])))
+    end
+end
+redis.call('DEL', KEYS[2])
+return 1
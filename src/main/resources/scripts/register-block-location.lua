@@ -0,0 +1,21 @@
+-- Adds a node URL to the location set of a block in one atomic step,
+-- and the block to the node's reverse index and block digest.
+--
+-- KEYS[1]  block location set ("BlockLocation:<hash>")
+-- KEYS[2]  reverse index of the node ("NodeBlocks:<nodeUrl>")
+-- KEYS[3]  block digest of the node ("NodeDigest:<nodeUrl>")
+-- ARGV[1]  node URL
+-- ARGV[2]  block hash
+-- ARGV[3]  high 32 bits of the BlockReportDigest hash of the block, as a signed integer
+-- ARGV[4]  low 32 bits of the same hash
+--
+-- The digest is a hash with fields "hi" and "lo", toggled whenever the block enters or leaves
+-- the reverse index.
+-- Returns 1 when the URL was added, 0 when it was already registered.
+
+if redis.call('SADD', KEYS[2], ARGV[2]) == 1 then
+    local digest = redis.call('HMGET', KEYS[3], 'hi', 'lo')
+    redis.call('HSET', KEYS[3], 'hi', bit.bxor(tonumber(digest[1]) or 0, tonumber(ARGV[3])),
+        'lo', bit.bxor(tonumber(digest[2]) or 0, tonumber(ARGV[4])))
+end
+return redis.call('SADD', KEYS[1], ARGV[1])
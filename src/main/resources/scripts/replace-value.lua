@@ -0,0 +1,12 @@
+-- Replaces a string value only if it still holds the expected bytes, so a value updated
+-- concurrently is never overwritten with an older one.
+--
+-- KEYS[1]  key   ARGV[1]  expected value   ARGV[2]  new value
+--
+-- Returns 1 when the value was replaced, 0 when it had changed.
+
+if redis.call('GET', KEYS[1]) == ARGV[1] then
+    redis.call('SET', KEYS[1], ARGV[2], 'KEEPTTL')
+    return 1
+end
+return 0
@@ -0,0 +1,15 @@
+-- Saves a file and its parent directory index member, when the namespace is sharded
+-- and save-file.lua cannot reach the keys of the ancestor directories.
+--
+-- KEYS[1]  file key              ARGV[1]  file value
+-- KEYS[2]  parent ":index" zset  ARGV[2]  file index member ("f:<name>")
+--
+-- Returns 0 when the file already exists, 1 when it was saved.
+
+if redis.call('EXISTS', KEYS[1]) == 1 then
+    return 0
+end
+
+redis.call('SET', KEYS[1], ARGV[1])
+redis.call('ZADD', KEYS[2], 0, ARGV[2])
+return 1
@@ -0,0 +1,31 @@
+-- Saves a file and any missing ancestor directories in a single round trip.
+--
+-- KEYS[1]  file key              ARGV[1]  file value
+-- KEYS[2]  file hash key         ARGV[2]  file index member ("f:<name>")
+-- KEYS[3]  parent ":index" zset  ARGV[3]  root directory value
+-- KEYS[4]  root directory key
+-- then one (dir key, dir hash key, parent ":index" zset) triple per path segment,
+-- with the matching (directory value, index member "d:<name>") pair at ARGV[4], ARGV[5], ...
+--
+-- Returns 0 when the file already exists, 1 when it was saved.
+
+if redis.call('EXISTS', KEYS[1]) == 1 then
+    return 0
+end
+
+redis.call('SET', KEYS[4], ARGV[3], 'NX')
+
+local segments = (#KEYS - 4) / 3
+for i = 0, segments - 1 do
+    local k = 5 + i * 3
+    local a = 4 + i * 2
+    if redis.call('SET', KEYS[k], ARGV[a], 'NX') then
+        redis.call('SET', KEYS[k + 1], ARGV[a])
+        redis.call('ZADD', KEYS[k + 2], 0, ARGV[a + 1])
+    end
+end
+
+redis.call('SET', KEYS[1], ARGV[1])
+redis.call('SET', KEYS[2], ARGV[1])
+redis.call('ZADD', KEYS[3], 0, ARGV[2])
+return 1
@@ -0,0 +1,24 @@
+-- Removes a node URL from the location set of a block in one atomic step,
+-- and the block from the node's reverse index and block digest.
+--
+-- KEYS[1]  block location set ("BlockLocation:<hash>")
+-- KEYS[2]  reverse index of the node ("NodeBlocks:<nodeUrl>")
+-- KEYS[3]  block digest of the node ("NodeDigest:<nodeUrl>")
+-- ARGV[1]  node URL
+-- ARGV[2]  block hash
+-- ARGV[3]  high 32 bits of the BlockReportDigest hash of the block, as a signed integer
+-- ARGV[4]  low 32 bits of the same hash
+--
+-- The digest is toggled like in register-block-location.lua.
+-- Returns -1 when the URL was not registered for the block,
+-- 0 when it was removed and no location remains, otherwise the number of remaining locations.
+
+if redis.call('SREM', KEYS[2], ARGV[2]) == 1 then
+    local digest = redis.call('HMGET', KEYS[3], 'hi', 'lo')
+    redis.call('HSET', KEYS[3], 'hi', bit.bxor(tonumber(digest[1]) or 0, tonumber(ARGV[3])),
+        'lo', bit.bxor(tonumber(digest[2]) or 0, tonumber(ARGV[4])))
+end
+if redis.call('SREM', KEYS[1], ARGV[1]) == 0 then
+    return -1
+end
+return redis.call('SCARD', KEYS[1])
@@ -0,0 +1,36 @@
+-- Removes every location of a block, and the block from the reverse index and block digest
+-- of each node that held it.
+--
+-- KEYS[1]  block location set ("BlockLocation:<hash>")
+-- KEYS[2]  legacy BlockNode JSON key ("BlockNode:<hash>")
+-- then one (reverse index "NodeBlocks:<url>", block digest "NodeDigest:<url>") pair per holder,
+-- with the matching node URL at ARGV[4], ARGV[5], ...
+-- ARGV[1]  block hash
+-- ARGV[2]  high 32 bits of the BlockReportDigest hash of the block, as a signed integer
+-- ARGV[3]  low 32 bits of the same hash
+--
+-- The holders are read by the caller, so the script checks that no node was added to the
+-- location set since then.
+-- Returns -1 when the location set holds a node that is not in the holders, and nothing is
+-- changed; otherwise the number of location keys deleted.
+
+local holders = {}
+for i = 4, #ARGV do
+    holders[ARGV[i]] = true
+end
+for _, url in ipairs(redis.call('SMEMBERS', KEYS[1])) do
+    if not holders[url] then
+        return -1
+    end
+end
+
+for i = 4, #ARGV do
+    local k = 3 + (i - 4) * 2
+    if redis.call('SREM', KEYS[k], ARGV[1]) == 1 then
+        local digest = redis.call('HMGET', KEYS[k + 1], 'hi', 'lo')
+        redis.call('HSET', KEYS[k + 1], 'hi', bit.bxor(tonumber(digest[1]) or 0, tonumber(ARGV[2])),
+            'lo', bit.bxor(tonumber(digest[2]) or 0, tonumber(ARGV[3])))
+    end
+end
+
+return redis.call('DEL', KEYS[1], KEYS[2])
@@ -10,13 +10,18 @@ import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.*;
 import org.springframework.test.context.ActiveProfiles;
 
+import com.infolink.dfs.metanode.BlockMetaController.ResponseIncrementalBlockReport.ReportStatus;
+import com.infolink.dfs.shared.BlockReportDigest;
 import com.infolink.dfs.shared.DfsFile;
 import com.infolink.dfs.shared.DfsNode;
 
+import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
 @ActiveProfiles("test") // Use a separate profile for testing if needed
@@ -56,10 +61,149 @@ public class BlockMetaControllerIntegrationTest {
         assertEquals(true, response.getBody().startsWith("Block location registered:"));
     }
 
+    @Test
+    public void testRegisterBlockLocations() {
+        blockMetaService.clearAllBlockNodes();
+        blockMetaService.registerBlockLocation("hashA", "http://node1.example.com");
+
+        BlockMetaController.RequestBlockNode location = new BlockMetaController.RequestBlockNode();
+        location.setHash("hashB");
+        location.setNodeUrl("http://node2.example.com");
+
+        // Inventory of node1 plus one explicit location
+        BlockMetaController.RequestBlockReport request = new BlockMetaController.RequestBlockReport();
+        request.setLocations(List.of(location));
+        request.setNodeUrl("http://node1.example.com");
+        request.setHashes(List.of("hashA", "hashB", "hashC"));
+
+        ResponseEntity<BlockMetaController.ResponseBlockReport> response = restTemplate.postForEntity(
+                baseUrl + "/metadata/block/register-block-locations", request, BlockMetaController.ResponseBlockReport.class);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(List.of(BlockMetaController.ResponseBlockReport.ItemStatus.REGISTERED,
+                BlockMetaController.ResponseBlockReport.ItemStatus.ALREADY_REGISTERED,
+                BlockMetaController.ResponseBlockReport.ItemStatus.REGISTERED,
+                BlockMetaController.ResponseBlockReport.ItemStatus.REGISTERED), response.getBody().getStatuses());
+        assertEquals(3, response.getBody().getRegistered());
+        assertEquals(1, response.getBody().getAlreadyRegistered());
+        assertEquals(Set.of("http://node1.example.com", "http://node2.example.com"), blockMetaService.blockExists("hashB"));
+        assertEquals(Set.of("http://node1.example.com"), blockMetaService.blockExists("hashC"));
+    }
+
+    @Test
+    public void testIncrementalBlockReports() {
+        blockMetaService.clearAllBlockNodes();
+        String nodeUrl = "http://node1.example.com";
+
+        // A delta without an acknowledged full report is refused
+        BlockMetaController.RequestDeltaBlockReport delta = new BlockMetaController.RequestDeltaBlockReport();
+        delta.setNodeUrl(nodeUrl);
+        delta.setBaseSeq(0);
+        delta.setSeq(1);
+        delta.setAdded(List.of("hashA"));
+        delta.setDigest(BlockReportDigest.of(List.of("hashA")));
+        assertEquals(ReportStatus.FULL_REPORT_REQUIRED, postDelta(delta).getStatus());
+
+        BlockMetaController.RequestFullBlockReport full = new BlockMetaController.RequestFullBlockReport();
+        full.setNodeUrl(nodeUrl);
+        full.setSeq(1);
+        full.setHashes(List.of("hashA", "hashB"));
+        ResponseEntity<BlockMetaController.ResponseIncrementalBlockReport> fullResponse = restTemplate.postForEntity(
+                baseUrl + "/metadata/block/report-full", full, BlockMetaController.ResponseIncrementalBlockReport.class);
+        assertEquals(ReportStatus.APPLIED, fullResponse.getBody().getStatus());
+        assertEquals(2, fullResponse.getBody().getAdded());
+
+        // Only the delta is applied
+        delta.setBaseSeq(1);
+        delta.setSeq(2);
+        delta.setAdded(List.of("hashC"));
+        delta.setRemoved(List.of("hashA"));
+        delta.setDigest(BlockReportDigest.of(List.of("hashB", "hashC")));
+        BlockMetaController.ResponseIncrementalBlockReport deltaResponse = postDelta(delta);
+        assertEquals(ReportStatus.APPLIED, deltaResponse.getStatus());
+        assertEquals(1, deltaResponse.getAdded());
+        assertEquals(1, deltaResponse.getRemoved());
+        assertNull(blockMetaService.blockExists("hashA"));
+        assertEquals(Set.of(nodeUrl), blockMetaService.blockExists("hashC"));
+
+        // Wrong base sequence or digest falls back to a full report
+        delta.setBaseSeq(1);
+        delta.setSeq(3);
+        delta.setAdded(List.of("hashD"));
+        delta.setRemoved(List.of());
+        delta.setDigest(BlockReportDigest.of(List.of("hashB", "hashC", "hashD")));
+        assertEquals(ReportStatus.FULL_REPORT_REQUIRED, postDelta(delta).getStatus());
+        delta.setBaseSeq(2);
+        delta.setDigest(12345L);
+        assertEquals(ReportStatus.FULL_REPORT_REQUIRED, postDelta(delta).getStatus());
+        assertNull(blockMetaService.blockExists("hashD"));
+
+        // A block an upload registered before the delta lists it, or one already unregistered, is not a divergence
+        blockMetaService.registerBlockLocation("hashD", nodeUrl);
+        blockMetaService.unregisterBlockFromNode("hashB", nodeUrl);
+        delta.setBaseSeq(2);
+        delta.setSeq(3);
+        delta.setAdded(List.of("hashD", "hashE"));
+        delta.setRemoved(List.of("hashB"));
+        delta.setDigest(BlockReportDigest.of(List.of("hashC", "hashD", "hashE")));
+        assertEquals(ReportStatus.APPLIED, postDelta(delta).getStatus());
+        assertEquals(Set.of(nodeUrl), blockMetaService.blockExists("hashE"));
+        assertNull(blockMetaService.blockExists("hashB"));
+
+        // A later full report removes blocks the node no longer holds
+        full.setSeq(4);
+        full.setHashes(List.of("hashC"));
+        fullResponse = restTemplate.postForEntity(
+                baseUrl + "/metadata/block/report-full", full, BlockMetaController.ResponseIncrementalBlockReport.class);
+        assertEquals(0, fullResponse.getBody().getAdded());
+        assertEquals(2, fullResponse.getBody().getRemoved());
+        assertNull(blockMetaService.blockExists("hashD"));
+    }
+
+    @Test
+    public void testBlockReportsWithBlankHash() {
+        blockMetaService.clearAllBlockNodes();
+        String nodeUrl = "http://node1.example.com";
+
+        BlockMetaController.RequestDeltaBlockReport delta = new BlockMetaController.RequestDeltaBlockReport();
+        delta.setNodeUrl(nodeUrl);
+        delta.setBaseSeq(0);
+        delta.setSeq(1);
+        delta.setAdded(Arrays.asList("hashA", null));
+        ResponseEntity<BlockMetaController.ResponseIncrementalBlockReport> response = restTemplate.postForEntity(
+                baseUrl + "/metadata/block/report-delta", delta, BlockMetaController.ResponseIncrementalBlockReport.class);
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        delta.setAdded(List.of("hashA"));
+        delta.setRemoved(List.of(" "));
+        response = restTemplate.postForEntity(
+                baseUrl + "/metadata/block/report-delta", delta, BlockMetaController.ResponseIncrementalBlockReport.class);
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+
+        BlockMetaController.RequestFullBlockReport full = new BlockMetaController.RequestFullBlockReport();
+        full.setNodeUrl(nodeUrl);
+        full.setSeq(1);
+        full.setHashes(Arrays.asList("hashA", ""));
+        response = restTemplate.postForEntity(
+                baseUrl + "/metadata/block/report-full", full, BlockMetaController.ResponseIncrementalBlockReport.class);
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        full.setHashes(Arrays.asList("hashA", null));
+        response = restTemplate.postForEntity(
+                baseUrl + "/metadata/block/report-full", full, BlockMetaController.ResponseIncrementalBlockReport.class);
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        assertNull(blockMetaService.blockExists("hashA"));
+    }
+
+    private BlockMetaController.ResponseIncrementalBlockReport postDelta(BlockMetaController.RequestDeltaBlockReport delta) {
+        return restTemplate.postForEntity(baseUrl + "/metadata/block/report-delta", delta,
+                BlockMetaController.ResponseIncrementalBlockReport.class).getBody();
+    }
+
     @Test
     public void testNodesForBlock() {
         String hash = "testHash";
         String requestingNodeUrl = "http://requestingNode.example.com";
+        // Membership is persisted, so nodes of earlier tests or runs may already be known
+        nodeManager.clearRegisteredNodes();
 
         // Register 5 nodes using the provided endpoint
         registerNode("http://node1.example.com");
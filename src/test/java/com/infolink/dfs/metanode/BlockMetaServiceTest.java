@@ -6,10 +6,17 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.test.context.ActiveProfiles;
 
 import com.infolink.dfs.metanode.mdb.BlockNode;
+import com.infolink.dfs.shared.BlockReportDigest;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 @SpringBootTest
@@ -19,6 +26,18 @@ public class BlockMetaServiceTest {
     @Autowired
     private BlockMetaService blockMetaService;
 
+    @Autowired
+    private RedisTemplate<String, BlockNode> blockNodeTemplate;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private NodeBlockIndexMigrator nodeBlockIndexMigrator;
+
+    @Autowired
+    private BlockStore blockStore;
+
     private final String TEST_HASH_1 = "hash1";
     private final String TEST_HASH_2 = "hash2";
     private final String TEST_NODE_URL_1 = "http://node1.com";
@@ -105,6 +124,52 @@ public class BlockMetaServiceTest {
         assertThat(blockMetaService.getBlockNodeByHash(TEST_HASH_1)).isNull();
     }
 
+    @Test
+    public void testLegacyBlockNodeIsReadAndFoldedIntoLocationSet() {
+        BlockNode legacy = new BlockNode();
+        legacy.setHash(TEST_HASH_1);
+        legacy.getNodeUrls().add(TEST_NODE_URL_1);
+        blockNodeTemplate.opsForValue().set(BlockMetaService.BLOCK_NODE_PREFIX + TEST_HASH_1, legacy);
+
+        // Legacy values are still readable, and the migration moves them into the native set and reverse index
+        assertThat(blockMetaService.getBlockNodeByHash(TEST_HASH_1).getNodeUrls()).containsExactly(TEST_NODE_URL_1);
+        assertThat(nodeBlockIndexMigrator.migrate()).isEqualTo(1);
+        assertThat(blocksOnNode(TEST_NODE_URL_1)).containsExactly(TEST_HASH_1);
+        assertThat(blockNodeTemplate.hasKey(BlockMetaService.BLOCK_NODE_PREFIX + TEST_HASH_1)).isFalse();
+        assertThat(stringRedisTemplate.opsForSet().members(BlockMetaService.BLOCK_LOCATION_PREFIX + TEST_HASH_1))
+                .containsExactly(TEST_NODE_URL_1);
+        assertThat(blockStore.getBlockDigest(TEST_NODE_URL_1)).isEqualTo(BlockReportDigest.of(List.of(TEST_HASH_1)));
+
+        // Running it again leaves the digest alone
+        assertThat(nodeBlockIndexMigrator.migrate()).isEqualTo(1);
+        assertThat(blockStore.getBlockDigest(TEST_NODE_URL_1)).isEqualTo(BlockReportDigest.of(List.of(TEST_HASH_1)));
+
+        // Removing a block that still has a legacy value clears the reverse index of its legacy holders too
+        blockNodeTemplate.opsForValue().set(BlockMetaService.BLOCK_NODE_PREFIX + TEST_HASH_1, legacy);
+        blockMetaService.registerBlockLocation(TEST_HASH_1, TEST_NODE_URL_2);
+        blockMetaService.unregisterBlock(TEST_HASH_1);
+        assertThat(blockNodeTemplate.hasKey(BlockMetaService.BLOCK_NODE_PREFIX + TEST_HASH_1)).isFalse();
+        assertThat(blocksOnNode(TEST_NODE_URL_1)).isEmpty();
+        assertThat(blocksOnNode(TEST_NODE_URL_2)).isEmpty();
+        assertThat(blockStore.getBlockDigest(TEST_NODE_URL_1)).isZero();
+        assertThat(blockStore.getBlockDigest(TEST_NODE_URL_2)).isZero();
+    }
+
+    @Test
+    public void testConcurrentRegistrationsAreNotLost() throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            String nodeUrl = "http://node" + i + ".com";
+            threads.add(new Thread(() -> blockMetaService.registerBlockLocation(TEST_HASH_1, nodeUrl)));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(blockMetaService.getBlockNodeByHash(TEST_HASH_1).getNodeUrls()).hasSize(20);
+    }
+
     @Test
     public void testClearAllBlockNodes() {
         blockMetaService.registerBlockLocation(TEST_HASH_1, TEST_NODE_URL_1);
@@ -117,4 +182,28 @@ public class BlockMetaServiceTest {
         assertThat(blockMetaService.getBlockNodeByHash(TEST_HASH_1)).isNull();
         assertThat(blockMetaService.getBlockNodeByHash(TEST_HASH_2)).isNull();
     }
+
+    @Test
+    public void testNodeReverseIndexFollowsRegistrations() {
+        blockMetaService.registerBlockLocation(TEST_HASH_1, TEST_NODE_URL_1);
+        blockMetaService.registerBlockLocation(TEST_HASH_2, TEST_NODE_URL_1);
+        blockMetaService.registerBlockLocation(TEST_HASH_1, TEST_NODE_URL_2);
+        assertThat(blocksOnNode(TEST_NODE_URL_1)).containsExactlyInAnyOrder(TEST_HASH_1, TEST_HASH_2);
+        assertThat(blocksOnNode(TEST_NODE_URL_2)).containsExactly(TEST_HASH_1);
+
+        blockMetaService.unregisterBlockFromNode(TEST_HASH_2, TEST_NODE_URL_1);
+        assertThat(blocksOnNode(TEST_NODE_URL_1)).containsExactly(TEST_HASH_1);
+
+        blockMetaService.unregisterBlock(TEST_HASH_1);
+        assertThat(blocksOnNode(TEST_NODE_URL_1)).isEmpty();
+        assertThat(blocksOnNode(TEST_NODE_URL_2)).isEmpty();
+    }
+
+    private Set<String> blocksOnNode(String nodeUrl) {
+        Set<String> hashes = new HashSet<>();
+        try (CloseableIterator<String> cursor = blockMetaService.scanBlocksOnNode(nodeUrl, 100)) {
+            cursor.forEachRemaining(hashes::add);
+        }
+        return hashes;
+    }
 }
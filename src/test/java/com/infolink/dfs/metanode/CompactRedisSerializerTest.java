@@ -0,0 +1,93 @@
+package com.infolink.dfs.metanode;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.serializer.Jackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import com.infolink.dfs.shared.DfsFile;
+import com.infolink.dfs.shared.HashUtil;
+
+public class CompactRedisSerializerTest {
+
+    private final CompactRedisSerializer<DfsFile> fileSerializer = CompactRedisSerializer.forDfsFile(true);
+
+    @Test
+    public void testDfsFileRoundTrip() throws Exception {
+        List<String> blockHashes = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            blockHashes.add(HashUtil.calculateHash(("block" + i).getBytes()));
+        }
+        blockHashes.add("not-a-sha256");
+        DfsFile file = new DfsFile(HashUtil.calculateHash("file".getBytes()), "owner", "naïve.txt", "/docs/naïve.txt",
+                -1L, false, "parentHash", blockHashes);
+        file.setCreateTime(new Date(1_700_000_000_000L));
+
+        byte[] bytes = fileSerializer.serialize(file);
+        assertTrue(CompactRedisSerializer.isCompact(bytes));
+        DfsFile decoded = fileSerializer.deserialize(bytes);
+
+        assertEquals(file.getHash(), decoded.getHash());
+        assertEquals(file.getOwner(), decoded.getOwner());
+        assertEquals(file.getName(), decoded.getName());
+        assertEquals(file.getPath(), decoded.getPath());
+        assertEquals(file.getParentHash(), decoded.getParentHash());
+        assertEquals(file.getSize(), decoded.getSize());
+        assertEquals(file.getCreateTime(), decoded.getCreateTime());
+        assertEquals(file.getLastModifiedTime(), decoded.getLastModifiedTime());
+        assertEquals(blockHashes, decoded.getBlockHashes());
+        assertFalse(decoded.isDirectory());
+
+        DfsFile directory = new DfsFile(null, null, "dir", "/dir", 0L, true, null, null);
+        directory.setCreateTime(null);
+        DfsFile decodedDirectory = fileSerializer.deserialize(fileSerializer.serialize(directory));
+        assertTrue(decodedDirectory.isDirectory());
+        assertNull(decodedDirectory.getHash());
+        assertNull(decodedDirectory.getCreateTime());
+        assertNull(decodedDirectory.getBlockHashes());
+    }
+
+    @Test
+    public void testCompactIsSmallerThanJson() throws Exception {
+        List<String> blockHashes = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            blockHashes.add(HashUtil.calculateHash(("block" + i).getBytes()));
+        }
+        DfsFile file = new DfsFile(HashUtil.calculateHash("file".getBytes()), "owner", "file.bin", "/file.bin",
+                400L << 20, false, HashUtil.calculateHash("/".getBytes()), blockHashes);
+
+        int json = new Jackson2JsonRedisSerializer<>(DfsFile.class).serialize(file).length;
+        int compact = fileSerializer.serialize(file).length;
+        assertTrue(compact * 2 < json, "compact " + compact + " bytes, json " + json + " bytes");
+    }
+
+    @Test
+    public void testJsonValuesAreStillRead() {
+        DfsFile file = new DfsFile("hash", "owner", "file.txt", "/file.txt", 10L, false, null, List.of("block1"));
+        byte[] json = new Jackson2JsonRedisSerializer<>(DfsFile.class).serialize(file);
+
+        DfsFile decoded = fileSerializer.deserialize(json);
+        assertEquals("file.txt", decoded.getName());
+        assertEquals(List.of("block1"), decoded.getBlockHashes());
+
+        // A serializer configured for JSON still reads compact values
+        CompactRedisSerializer<DfsFile> jsonSerializer = CompactRedisSerializer.forDfsFile(false);
+        assertFalse(CompactRedisSerializer.isCompact(jsonSerializer.serialize(file)));
+        assertEquals("file.txt", jsonSerializer.deserialize(fileSerializer.serialize(file)).getName());
+    }
+
+    @Test
+    public void testUnknownVersionIsRejected() {
+        byte[] bytes = fileSerializer.serialize(new DfsFile());
+        bytes[1] = (byte) (CompactRedisSerializer.VERSION + 1);
+        assertThrows(SerializationException.class, () -> fileSerializer.deserialize(bytes));
+
+        byte[] truncated = new byte[] { CompactRedisSerializer.MAGIC, CompactRedisSerializer.VERSION, 0, 1 };
+        assertThrows(SerializationException.class, () -> fileSerializer.deserialize(truncated));
+    }
+}
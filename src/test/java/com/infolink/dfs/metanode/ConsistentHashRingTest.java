@@ -0,0 +1,60 @@
+package com.infolink.dfs.metanode;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+public class ConsistentHashRingTest {
+
+    private static final int KEYS = 20000;
+
+    @Test
+    public void testKeysAreSpreadEvenly() {
+        List<String> shards = List.of("redis1:6379", "redis2:6379", "redis3:6379", "redis4:6379");
+        ConsistentHashRing<String> ring = new ConsistentHashRing<>(shards, shards, 160);
+
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            counts.merge(ring.route("/home/user/dir" + i), 1, Integer::sum);
+        }
+        assertEquals(shards.size(), counts.size());
+        for (int count : counts.values()) {
+            // Within 25% of a fair share
+            assertTrue(Math.abs(count - KEYS / shards.size()) < KEYS / shards.size() / 4, "uneven split " + counts);
+        }
+    }
+
+    @Test
+    public void testAddingAShardOnlyMovesKeysToIt() {
+        List<String> shards = List.of("redis1:6379", "redis2:6379", "redis3:6379");
+        List<String> grown = List.of("redis1:6379", "redis2:6379", "redis3:6379", "redis4:6379");
+        ConsistentHashRing<String> before = new ConsistentHashRing<>(shards, shards, 160);
+        ConsistentHashRing<String> after = new ConsistentHashRing<>(grown, grown, 160);
+
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            String key = "block" + i;
+            String from = before.route(key);
+            String to = after.route(key);
+            if (!from.equals(to)) {
+                assertEquals("redis4:6379", to);
+                moved++;
+            }
+            // Routing is deterministic
+            assertEquals(from, before.route(key));
+        }
+        // About a quarter of the keys move
+        assertTrue(moved > KEYS / 6 && moved < KEYS / 3, moved + " keys moved");
+    }
+
+    @Test
+    public void testInvalidRing() {
+        assertThrows(IllegalArgumentException.class, () -> new ConsistentHashRing<>(List.of(), List.of(), 160));
+        assertThrows(IllegalArgumentException.class, () -> new ConsistentHashRing<>(List.of("a"), List.of("a"), 0));
+        assertThrows(IllegalArgumentException.class, () -> new ConsistentHashRing<>(List.of("a", "b"), List.of("a"), 16));
+    }
+}
@@ -0,0 +1,128 @@
+package com.infolink.dfs.metanode;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+import java.util.Date;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.infolink.dfs.shared.DfsNode;
+
+// A long interval keeps the scheduled flush out of the way of the explicit ones
+@SpringBootTest(properties = "dfs.dashboard.publish-interval-ms=3600000")
+@ActiveProfiles("test")
+public class DashboardPublisherTest {
+
+    @Autowired
+    private DashboardPublisher dashboardPublisher;
+    @Autowired
+    private NodeManager nodeManager;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @MockBean
+    private SimpMessagingTemplate messagingTemplate;
+
+    @BeforeEach
+    public void setUp() {
+        nodeManager.clearRegisteredNodes();
+        dashboardPublisher.flush();
+        reset(messagingTemplate);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        dashboardPublisher.onDisconnect(new SessionDisconnectEvent(this, emptyMessage(), "session1", CloseStatus.NORMAL));
+    }
+
+    @Test
+    public void testNothingIsSentWithoutSubscribers() {
+        nodeManager.registerNode(createDfsNode("http://node1.com", 1));
+        dashboardPublisher.flush();
+
+        verify(messagingTemplate, never()).convertAndSend(anyString(), anyString());
+    }
+
+    @Test
+    public void testHeartbeatsAreCoalescedIntoOneDelta() throws Exception {
+        nodeManager.registerNode(createDfsNode("http://node1.com", 1));
+        subscribe("session1", "sub1", DashboardPublisher.NODE_TOPIC);
+
+        // A new subscriber first gets full snapshots
+        dashboardPublisher.flush();
+        DashboardPublisher.NodeDelta snapshot = lastDelta(DashboardPublisher.NODE_TOPIC);
+        assertTrue(snapshot.isFull());
+        assertEquals(1, snapshot.getChanged().size());
+        reset(messagingTemplate);
+
+        for (int blockCount = 2; blockCount <= 5; blockCount++) {
+            nodeManager.registerNode(createDfsNode("http://node1.com", blockCount));
+        }
+        nodeManager.registerNode(createDfsNode("http://node2.com", 0));
+        dashboardPublisher.flush();
+
+        DashboardPublisher.NodeDelta delta = lastDelta(DashboardPublisher.NODE_TOPIC);
+        assertFalse(delta.isFull());
+        assertEquals(2, delta.getChanged().size());
+        assertTrue(delta.getChanged().stream().anyMatch(node -> node.getBlockCount() == 5));
+        verify(messagingTemplate, never()).convertAndSend(eq(DashboardPublisher.DEAD_NODE_TOPIC), anyString());
+
+        // Nothing changed since the last flush
+        reset(messagingTemplate);
+        nodeManager.registerNode(createDfsNode("http://node2.com", 0));
+        dashboardPublisher.flush();
+        verify(messagingTemplate, never()).convertAndSend(anyString(), anyString());
+    }
+
+    @Test
+    public void testDisconnectStopsPublishing() {
+        subscribe("session1", "sub1", DashboardPublisher.NODE_TOPIC);
+        assertTrue(dashboardPublisher.hasSubscribers());
+
+        dashboardPublisher.onDisconnect(new SessionDisconnectEvent(this, emptyMessage(), "session1", CloseStatus.NORMAL));
+        assertFalse(dashboardPublisher.hasSubscribers());
+    }
+
+    private DashboardPublisher.NodeDelta lastDelta(String topic) throws Exception {
+        ArgumentCaptor<String> json = ArgumentCaptor.forClass(String.class);
+        verify(messagingTemplate).convertAndSend(eq(topic), json.capture());
+        return objectMapper.readValue(json.getValue(), DashboardPublisher.NodeDelta.class);
+    }
+
+    private void subscribe(String sessionId, String subscriptionId, String destination) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.SUBSCRIBE);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId(subscriptionId);
+        accessor.setDestination(destination);
+        dashboardPublisher.onSubscribe(new SessionSubscribeEvent(this, MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders())));
+    }
+
+    private Message<byte[]> emptyMessage() {
+        return MessageBuilder.createMessage(new byte[0], StompHeaderAccessor.create(StompCommand.DISCONNECT).getMessageHeaders());
+    }
+
+    private DfsNode createDfsNode(String containerUrl, long blockCount) {
+        DfsNode node = new DfsNode(containerUrl, containerUrl);
+        node.setLastTimeReport(new Date());
+        node.setBlockCount(blockCount);
+        return node;
+    }
+}
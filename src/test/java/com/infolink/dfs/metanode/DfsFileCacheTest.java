@@ -0,0 +1,111 @@
+package com.infolink.dfs.metanode;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.infolink.dfs.shared.DfsFile;
+
+public class DfsFileCacheTest {
+
+    private DfsFile createFile(String name) {
+        return new DfsFile("hash-" + name, "testOwner", name, "/dir/" + name, 0L, false, null, List.of());
+    }
+
+    @Test
+    public void testHitAndMissCounters() {
+        DfsFileCache cache = new DfsFileCache(10, Long.MAX_VALUE, 60000);
+        DfsFile file = createFile("a.txt");
+
+        assertNull(cache.get("file:/dir/a.txt"));
+        cache.put("file:/dir/a.txt", file);
+        assertSame(file, cache.get("file:/dir/a.txt"));
+        assertSame(file, cache.get("file:/dir/a.txt"));
+
+        DfsFileCache.CacheStats stats = cache.getStats();
+        assertEquals(1, stats.getEntries());
+        assertEquals(2, stats.getHits());
+        assertEquals(1, stats.getMisses());
+        assertEquals(0, stats.getEvictions());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntryIsEvicted() {
+        DfsFileCache cache = new DfsFileCache(2, Long.MAX_VALUE, 60000);
+        cache.put("a", createFile("a"));
+        cache.put("b", createFile("b"));
+
+        // Touch "a" so that "b" becomes the eldest entry
+        assertNotNull(cache.get("a"));
+        cache.put("c", createFile("c"));
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertEquals(1, cache.getStats().getEvictions());
+    }
+
+    @Test
+    public void testByteBudgetIsEnforced() {
+        DfsFile file = createFile("a");
+        long entrySize = DfsFileCache.estimateSize("k1", file);
+        DfsFileCache cache = new DfsFileCache(100, entrySize * 2, 60000);
+
+        cache.put("k1", createFile("a"));
+        cache.put("k2", createFile("b"));
+        cache.put("k3", createFile("c"));
+
+        assertTrue(cache.getStats().getBytes() <= entrySize * 2);
+        assertEquals(2, cache.getStats().getEntries());
+        assertNull(cache.get("k1"));
+    }
+
+    @Test
+    public void testEntriesExpireAfterTtl() throws InterruptedException {
+        DfsFileCache cache = new DfsFileCache(10, Long.MAX_VALUE, 50);
+        cache.put("a", createFile("a"));
+        assertNotNull(cache.get("a"));
+
+        Thread.sleep(100);
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.getStats().getEntries());
+    }
+
+    @Test
+    public void testInvalidateAndClear() {
+        DfsFileCache cache = new DfsFileCache(10, Long.MAX_VALUE, 60000);
+        cache.put("a", createFile("a"));
+        cache.put("b", createFile("b"));
+
+        cache.invalidate("a");
+        assertNull(cache.get("a"));
+        assertNotNull(cache.get("b"));
+
+        cache.clear();
+        assertNull(cache.get("b"));
+        assertEquals(0, cache.getStats().getBytes());
+    }
+
+    @Test
+    public void testValueReadBeforeAnInvalidationIsNotCached() {
+        DfsFileCache cache = new DfsFileCache(10, Long.MAX_VALUE, 60000);
+        long readStamp = cache.readStamp();
+        // A write invalidates the key while the read is in flight
+        cache.invalidate("file:/dir/a.txt");
+        cache.put("file:/dir/a.txt", createFile("a.txt"), readStamp);
+        assertNull(cache.get("file:/dir/a.txt"));
+
+        // Other keys and later reads are cached
+        cache.put("file:/dir/b.txt", createFile("b.txt"), readStamp);
+        assertNotNull(cache.get("file:/dir/b.txt"));
+        cache.put("file:/dir/a.txt", createFile("a.txt"), cache.readStamp());
+        assertNotNull(cache.get("file:/dir/a.txt"));
+
+        readStamp = cache.readStamp();
+        cache.clear();
+        cache.put("file:/dir/b.txt", createFile("b.txt"), readStamp);
+        assertNull(cache.get("file:/dir/b.txt"));
+    }
+}
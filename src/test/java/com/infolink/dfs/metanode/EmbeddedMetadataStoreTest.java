@@ -0,0 +1,411 @@
+package com.infolink.dfs.metanode;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.data.util.CloseableIterator;
+
+import com.infolink.dfs.shared.DfsFile;
+
+public class EmbeddedMetadataStoreTest {
+
+    @TempDir
+    Path dir;
+
+    private EmbeddedMetadataStore store;
+    private final String owner = "testOwner";
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        store = open();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        store.close();
+    }
+
+    private EmbeddedMetadataStore open() throws IOException {
+        EmbeddedMetadataStore opened = new EmbeddedMetadataStore(dir.toString(), false);
+        opened.open();
+        return opened;
+    }
+
+    /**
+     * Opens a second store on the same directory without closing the first one, as after a crash:
+     * no checkpoint is written and the state comes back from the log alone.
+     */
+    private EmbeddedMetadataStore reopenAfterCrash() throws IOException {
+        store = open();
+        return store;
+    }
+
+    private void saveFile(String directory, String name, String hash) {
+        DfsFile file = new DfsFile(hash, owner, name, null, 10L, false, null, List.of());
+        assertTrue(store.saveFile(directory, file, root(), chain(directory)));
+    }
+
+    private DfsFile root() {
+        return new DfsFile("dir:/", owner, "/", "/", 0L, true, null, List.of());
+    }
+
+    private List<DfsFile> chain(String path) {
+        List<DfsFile> chain = new ArrayList<>();
+        String current = "";
+        String parent = "dir:/";
+        for (String segment : path.split("/")) {
+            if (segment.isEmpty()) continue;
+            current = current + "/" + segment;
+            chain.add(new DfsFile("dir:" + current, owner, segment, current, 0L, true, parent, List.of()));
+            parent = "dir:" + current;
+        }
+        return chain;
+    }
+
+    private static List<String> names(List<DfsFile> entries) {
+        return entries.stream().map(DfsFile::getName).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testNamespace() {
+        saveFile("/data/logs", "b.txt", "hash-b");
+        saveFile("/data/logs", "a.txt", "hash-a");
+        saveFile("/data", "c.txt", "hash-c");
+
+        // Same name in the same directory is refused
+        DfsFile duplicate = new DfsFile("hash-x", owner, "a.txt", null, 10L, false, null, List.of());
+        assertFalse(store.saveFile("/data/logs", duplicate, root(), chain("/data/logs")));
+
+        assertEquals(List.of("logs", "c.txt"), names(store.listDirectory("/data", null, 10).getEntries()));
+        DirectoryPage first = store.listDirectory("/data/logs", null, 1);
+        assertEquals(List.of("a.txt"), names(first.getEntries()));
+        assertNotNull(first.getNextCursor());
+        DirectoryPage second = store.listDirectory("/data/logs", first.getNextCursor(), 1);
+        assertEquals(List.of("b.txt"), names(second.getEntries()));
+        assertNull(second.getNextCursor());
+        assertTrue(store.listDirectory("/missing", null, 10).getEntries().isEmpty());
+
+        assertEquals("a.txt", store.getFile("/data/logs/a.txt").getName());
+        assertEquals("logs", store.getDirectory("/data/logs").getName());
+        assertNull(store.getFile("/data/logs"));
+        assertEquals("b.txt", store.getByHash("hash-b").getName());
+
+        assertEquals("a.txt", store.deleteFile("/data/logs/a.txt").getName());
+        assertNull(store.deleteFile("/data/logs/a.txt"));
+        assertNull(store.getByHash("hash-a"));
+        assertEquals("b.txt", store.deleteByHash("hash-b").getName());
+        assertNull(store.getFile("/data/logs/b.txt"));
+
+        assertEquals("dir:/data/more", store.createDirectories(root(), chain("/data/more")).getHash());
+        assertEquals(List.of("logs", "more", "c.txt"), names(store.listDirectory("/data", null, 10).getEntries()));
+
+        store.clearNamespace();
+        assertNull(store.getDirectory("/data"));
+    }
+
+    @Test
+    public void testBlockMap() {
+        assertEquals(1, store.addLocation("block1", "http://node1.com"));
+        assertEquals(0, store.addLocation("block1", "http://node1.com"));
+        assertEquals(List.of(1L, 1L, 1L), store.addLocations(List.of("block1", "block2", "block3"),
+                List.of("http://node2.com", "http://node1.com", "http://node1.com")));
+
+        assertEquals(Set.of("http://node1.com", "http://node2.com"), store.getLocations("block1"));
+        assertNull(store.getLocations("unknown"));
+        List<Set<String>> locations = store.getLocations(List.of("block2", "unknown"));
+        assertEquals(Set.of("http://node1.com"), locations.get(0));
+        assertNull(locations.get(1));
+
+        assertEquals(1, store.removeLocation("block1", "http://node2.com"));
+        assertEquals(-1, store.removeLocation("block1", "http://node2.com"));
+        assertEquals(Set.of("block1", "block3"), store.filterBlocksOnNode("http://node1.com", List.of("block1", "block3", "block9")));
+
+        Set<String> onNode = new HashSet<>();
+        try (CloseableIterator<String> blocks = store.scanBlocksOnNode("http://node1.com", 2)) {
+            blocks.forEachRemaining(onNode::add);
+        }
+        assertEquals(Set.of("block1", "block2", "block3"), onNode);
+
+        List<String> added = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        store.diffBlocksOnNode("http://node1.com", List.of("block2", "block4"), added, removed);
+        assertEquals(List.of("block4"), added);
+        assertEquals(Set.of("block1", "block3"), new HashSet<>(removed));
+
+        assertTrue(store.removeBlock("block2"));
+        assertFalse(store.removeBlock("block2"));
+        assertNull(store.getLocations("block2"));
+
+        store.saveReportState("http://node1.com", new BlockStore.ReportState(7, 42));
+        assertEquals(7, store.getReportState("http://node1.com").getSeq());
+        assertEquals(42, store.getReportState("http://node1.com").getDigest());
+        store.clearBlocks();
+        assertNull(store.getReportState("http://node1.com"));
+        assertNull(store.getLocations("block1"));
+    }
+
+    @Test
+    public void testRecoveryFromLog() throws IOException {
+        saveFile("/data", "a.txt", "hash-a");
+        saveFile("/data", "b.txt", "hash-b");
+        store.deleteFile("/data/b.txt");
+        store.addLocation("block1", "http://node1.com");
+        store.putHashField("Membership:nodes", "http://node1.com", "1");
+
+        EmbeddedMetadataStore recovered = reopenAfterCrash();
+        assertEquals(List.of("a.txt"), names(recovered.listDirectory("/data", null, 10).getEntries()));
+        assertEquals("a.txt", recovered.getByHash("hash-a").getName());
+        assertEquals(Set.of("http://node1.com"), recovered.getLocations("block1"));
+        assertEquals("1", recovered.getHash("Membership:nodes").get("http://node1.com"));
+    }
+
+    @Test
+    public void testRecoveryFromCheckpointAndLog() throws IOException {
+        saveFile("/data", "a.txt", "hash-a");
+        store.addLocation("block1", "http://node1.com");
+        store.checkpoint();
+        saveFile("/data/sub", "b.txt", "hash-b");
+        store.removeLocation("block1", "http://node1.com");
+        store.addLocation("block2", "http://node1.com");
+
+        // Only the segment written after the checkpoint is left
+        assertEquals(1, WriteAheadLog.segments(dir).size());
+
+        EmbeddedMetadataStore recovered = reopenAfterCrash();
+        assertEquals(List.of("sub", "a.txt"), names(recovered.listDirectory("/data", null, 10).getEntries()));
+        assertEquals("b.txt", recovered.getFile("/data/sub/b.txt").getName());
+        assertNull(recovered.getLocations("block1"));
+        assertEquals(Set.of("http://node1.com"), recovered.getLocations("block2"));
+
+        // A clean shutdown checkpoints everything
+        recovered.close();
+        store = open();
+        assertEquals("a.txt", store.getByHash("hash-a").getName());
+        assertEquals("b.txt", store.getByHash("hash-b").getName());
+    }
+
+    @Test
+    public void testTornTailIsDropped() throws IOException {
+        saveFile("/data", "a.txt", "hash-a");
+        List<Long> segments = WriteAheadLog.segments(dir);
+        Path last = WriteAheadLog.segmentPath(dir, segments.get(segments.size() - 1));
+        // Header of a 100 byte record of which only a few bytes made it to disk
+        Files.write(last, new byte[] { 0, 0, 0, 100, 1, 2, 3, 4, 5, 6 }, StandardOpenOption.APPEND);
+
+        EmbeddedMetadataStore recovered = reopenAfterCrash();
+        assertEquals("a.txt", recovered.getFile("/data/a.txt").getName());
+        saveFile("/data", "b.txt", "hash-b");
+
+        // The truncated segment no longer stops the replay of the one written after it
+        EmbeddedMetadataStore again = reopenAfterCrash();
+        assertEquals(List.of("a.txt", "b.txt"), names(again.listDirectory("/data", null, 10).getEntries()));
+    }
+
+    /**
+     * Closes the store, which writes a snapshot, and opens it again on the snapshot alone.
+     */
+    private void reopenOnSnapshot() throws IOException {
+        store.close();
+        store = open();
+        assertTrue(WriteAheadLog.segments(dir).stream()
+                .allMatch(segment -> WriteAheadLog.segmentPath(dir, segment).toFile().length() == 0));
+    }
+
+    private Set<String> blocksOn(String nodeUrl) {
+        Set<String> blocks = new HashSet<>();
+        try (CloseableIterator<String> iterator = store.scanBlocksOnNode(nodeUrl, 10)) {
+            iterator.forEachRemaining(blocks::add);
+        }
+        return blocks;
+    }
+
+    @Test
+    public void testReadsFromSnapshot() throws IOException {
+        for (int i = 0; i < 5; i++) {
+            saveFile("/data/logs", "file" + i + ".txt", "hash-" + i);
+        }
+        saveFile("/data", "c.txt", "hash-c");
+        store.addLocation("block1", "http://node1.com");
+        store.addLocation("block1", "http://node2.com");
+        store.addLocation("block2", "http://node2.com");
+        store.putHashField("Membership:nodes", "http://node1.com", "1");
+        reopenOnSnapshot();
+
+        assertEquals(List.of("logs", "c.txt"), names(store.listDirectory("/data", null, 10).getEntries()));
+        DirectoryPage first = store.listDirectory("/data/logs/", null, 2);
+        assertEquals(List.of("file0.txt", "file1.txt"), names(first.getEntries()));
+        DirectoryPage second = store.listDirectory("/data/logs", first.getNextCursor(), 2);
+        assertEquals(List.of("file2.txt", "file3.txt"), names(second.getEntries()));
+        assertNull(store.listDirectory("/data/logs", first.getNextCursor(), 3).getNextCursor());
+        DirectoryPage last = store.listDirectory("/data/logs", second.getNextCursor(), 2);
+        assertEquals(List.of("file4.txt"), names(last.getEntries()));
+        assertNull(last.getNextCursor());
+        assertTrue(store.listDirectory("/data/missing", null, 10).getEntries().isEmpty());
+
+        assertEquals("file3.txt", store.getFile("/data/logs/file3.txt").getName());
+        assertNull(store.getFile("/data/logs/file9.txt"));
+        assertNull(store.getFile("/data/logs"));
+        assertEquals("logs", store.getDirectory("/data/logs").getName());
+        assertEquals("/", store.getDirectory("/").getName());
+        assertEquals("file2.txt", store.getByHash("hash-2").getName());
+        assertEquals("logs", store.getByHash("dir:/data/logs").getName());
+        assertNull(store.getByHash("hash-9"));
+
+        assertEquals(Set.of("http://node1.com", "http://node2.com"), store.getLocations("block1"));
+        assertNull(store.getLocations("block9"));
+        assertEquals(Set.of("block1", "block2"), blocksOn("http://node2.com"));
+        assertEquals(Set.of("block2"), store.filterBlocksOnNode("http://node2.com", List.of("block2", "block9")));
+        assertEquals("1", store.getHash("Membership:nodes").get("http://node1.com"));
+    }
+
+    @Test
+    public void testWritesOnTopOfSnapshot() throws IOException {
+        saveFile("/data/logs", "a.txt", "hash-a");
+        saveFile("/data/logs", "b.txt", "hash-b");
+        saveFile("/data", "c.txt", "hash-c");
+        store.addLocation("block1", "http://node1.com");
+        store.addLocation("block2", "http://node1.com");
+        store.addLocation("block3", "http://node2.com");
+        reopenOnSnapshot();
+
+        assertEquals("a.txt", store.deleteFile("/data/logs/a.txt").getName());
+        assertNull(store.getByHash("hash-a"));
+        assertEquals("c.txt", store.deleteByHash("hash-c").getName());
+        assertNull(store.getFile("/data/c.txt"));
+        // A directory loses its hash entry only
+        assertEquals("logs", store.deleteByHash("dir:/data/logs").getName());
+        assertNull(store.getByHash("dir:/data/logs"));
+        assertNotNull(store.getDirectory("/data/logs"));
+        saveFile("/data/logs", "d.txt", "hash-d");
+        assertFalse(store.saveFile("/data/logs", new DfsFile("hash-x", owner, "b.txt", null, 10L, false, null, List.of()), root(), chain("/data/logs")));
+
+        assertEquals(1, store.addLocation("block1", "http://node2.com"));
+        assertEquals(0, store.addLocation("block1", "http://node1.com"));
+        assertEquals(0, store.removeLocation("block3", "http://node2.com"));
+        assertNull(store.getLocations("block3"));
+        assertTrue(store.removeBlock("block2"));
+        assertFalse(store.removeBlock("block2"));
+        assertEquals(1, store.addLocation("block3", "http://node1.com"));
+
+        Runnable check = () -> {
+            assertEquals(List.of("b.txt", "d.txt"), names(store.listDirectory("/data/logs", null, 10).getEntries()));
+            assertEquals(List.of("logs"), names(store.listDirectory("/data", null, 10).getEntries()));
+            assertNull(store.getByHash("hash-a"));
+            assertEquals("b.txt", store.getByHash("hash-b").getName());
+            assertNull(store.getByHash("hash-c"));
+            assertEquals("d.txt", store.getByHash("hash-d").getName());
+            assertNull(store.getByHash("dir:/data/logs"));
+            assertEquals(Set.of("http://node1.com", "http://node2.com"), store.getLocations("block1"));
+            assertNull(store.getLocations("block2"));
+            assertEquals(Set.of("http://node1.com"), store.getLocations("block3"));
+            assertEquals(Set.of("block1", "block3"), blocksOn("http://node1.com"));
+            assertEquals(Set.of("block1"), blocksOn("http://node2.com"));
+            assertEquals(Set.of("block1"), store.filterBlocksOnNode("http://node1.com", List.of("block1", "block2")));
+        };
+        check.run();
+        // The log replayed on top of the snapshot
+        reopenAfterCrash();
+        check.run();
+        // Merged into the next snapshot, which is only written after a change
+        store.putHashField("Membership:nodes", "http://node1.com", "1");
+        reopenOnSnapshot();
+        check.run();
+    }
+
+    @Test
+    public void testSnapshotHoldsTheStateAtRotation() throws IOException {
+        saveFile("/data", "a.txt", "hash-a");
+        store.addLocation("block1", "http://node1.com");
+        store.checkpoint(() -> {
+            saveFile("/data", "b.txt", "hash-b");
+            assertTrue(store.removeBlock("block1"));
+        });
+
+        // The snapshot alone has the writes made before the log moved on
+        Path copy = dir.resolve("snapshot-only");
+        Files.createDirectories(copy);
+        Files.copy(dir.resolve("snapshot.dat"), copy.resolve("snapshot.dat"));
+        EmbeddedMetadataStore snapshotOnly = new EmbeddedMetadataStore(copy.toString(), false);
+        snapshotOnly.open();
+        assertEquals("a.txt", snapshotOnly.getFile("/data/a.txt").getName());
+        assertNull(snapshotOnly.getFile("/data/b.txt"));
+        assertEquals(Set.of("http://node1.com"), snapshotOnly.getLocations("block1"));
+        snapshotOnly.close();
+
+        // The log after it has the others
+        reopenAfterCrash();
+        assertEquals(List.of("a.txt", "b.txt"), names(store.listDirectory("/data", null, 10).getEntries()));
+        assertNull(store.getLocations("block1"));
+    }
+
+    @Test
+    public void testWritesDuringCheckpointAreRebased() throws IOException {
+        saveFile("/data/logs", "a.txt", "hash-a");
+        saveFile("/data", "b.txt", "hash-b");
+        store.addLocation("block1", "http://node1.com");
+        store.addLocation("block2", "http://node1.com");
+        store.checkpoint();
+        long previous = store.snapshotSequence();
+
+        saveFile("/data/logs", "c.txt", "hash-c");
+        store.checkpoint(() -> {
+            saveFile("/data/logs", "d.txt", "hash-d");
+            assertEquals("a.txt", store.deleteFile("/data/logs/a.txt").getName());
+            assertEquals("b.txt", store.deleteByHash("hash-b").getName());
+            assertEquals(1, store.addLocation("block1", "http://node2.com"));
+            assertTrue(store.removeBlock("block2"));
+            assertEquals(1, store.addLocation("block3", "http://node2.com"));
+        });
+        // The new snapshot is in use even though writes came in while it was written
+        assertTrue(store.snapshotSequence() > previous);
+
+        Runnable check = () -> {
+            assertEquals(List.of("c.txt", "d.txt"), names(store.listDirectory("/data/logs", null, 10).getEntries()));
+            assertEquals(List.of("logs"), names(store.listDirectory("/data", null, 10).getEntries()));
+            assertNull(store.getByHash("hash-a"));
+            assertNull(store.getByHash("hash-b"));
+            assertEquals("d.txt", store.getByHash("hash-d").getName());
+            assertEquals(Set.of("http://node1.com", "http://node2.com"), store.getLocations("block1"));
+            assertNull(store.getLocations("block2"));
+            assertEquals(Set.of("block1", "block3"), blocksOn("http://node2.com"));
+            assertEquals(Set.of("block1"), blocksOn("http://node1.com"));
+        };
+        check.run();
+        reopenAfterCrash();
+        check.run();
+    }
+
+    @Test
+    public void testClearOnTopOfSnapshot() throws IOException {
+        saveFile("/data", "a.txt", "hash-a");
+        store.addLocation("block1", "http://node1.com");
+        reopenOnSnapshot();
+
+        store.clearNamespace();
+        store.clearBlocks();
+        assertNull(store.getDirectory("/data"));
+        assertNull(store.getByHash("hash-a"));
+        assertNull(store.getLocations("block1"));
+        assertTrue(blocksOn("http://node1.com").isEmpty());
+
+        saveFile("/other", "b.txt", "hash-b");
+        reopenOnSnapshot();
+        assertNull(store.getDirectory("/data"));
+        assertNull(store.getByHash("hash-a"));
+        assertEquals("b.txt", store.getByHash("hash-b").getName());
+        assertNull(store.getLocations("block1"));
+    }
+}
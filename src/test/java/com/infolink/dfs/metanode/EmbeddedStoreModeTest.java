@@ -0,0 +1,80 @@
+package com.infolink.dfs.metanode;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import com.infolink.dfs.metanode.BlockMetaController.ResponseIncrementalBlockReport.ReportStatus;
+import com.infolink.dfs.shared.BlockReportDigest;
+import com.infolink.dfs.shared.DfsFile;
+import com.infolink.dfs.shared.HashUtil;
+
+@SpringBootTest(properties = { "dfs.metadata.store=embedded", "dfs.metadata.embedded.dir=target/embedded-metadata-test",
+        "dfs.metadata.embedded.fsync=false" })
+@ActiveProfiles("test")
+public class EmbeddedStoreModeTest {
+
+    @Autowired
+    private FileTreeManager fileTreeManager;
+    @Autowired
+    private BlockMetaService blockMetaService;
+    @Autowired
+    private BlockReportService blockReportService;
+    @Autowired
+    private NamespaceStore namespaceStore;
+    @Autowired
+    private BlockStore blockStore;
+
+    private final String owner = "testOwner";
+
+    @BeforeEach
+    public void setUp() {
+        fileTreeManager.clearAllData();
+        blockMetaService.clearAllBlockNodes();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        fileTreeManager.clearAllData();
+        blockMetaService.clearAllBlockNodes();
+    }
+
+    @Test
+    public void testServicesRunOnTheEmbeddedStore() throws Exception {
+        assertTrue(namespaceStore instanceof EmbeddedMetadataStore);
+        assertSame(namespaceStore, blockStore);
+
+        String hash = HashUtil.calculateHash("embedded".getBytes());
+        fileTreeManager.saveFile(new DfsFile(hash, owner, "file.txt", null, 10L, false, null, List.of("block1", "block2")), "/data/dir");
+        assertThrows(IllegalArgumentException.class, () -> fileTreeManager.saveFile(
+                new DfsFile(hash, owner, "file.txt", null, 10L, false, null, List.of()), "/data/dir"));
+        assertEquals("file.txt", fileTreeManager.getFileByPath("/data/dir/file.txt").getName());
+        assertEquals("file.txt", fileTreeManager.getFileByHash(hash).getName());
+        assertEquals(1, fileTreeManager.listFilesInDirectory("/data").size());
+
+        String nodeUrl = "http://node1.com";
+        blockMetaService.registerBlockLocations(List.of("block1", "block2"), List.of(nodeUrl, nodeUrl));
+        assertEquals(Set.of(nodeUrl), blockMetaService.getBlockNodeByHash("block1").getNodeUrls());
+
+        assertEquals(ReportStatus.APPLIED, blockReportService.applyFullReport(nodeUrl, 1, List.of("block2", "block3")).getStatus());
+        assertNull(blockMetaService.getBlockNodeByHash("block1"));
+        assertEquals(Set.of(nodeUrl), blockMetaService.getBlockNodeByHash("block3").getNodeUrls());
+
+        // A delta listing a block that an upload already registered is applied
+        blockMetaService.registerBlockLocation("block4", nodeUrl);
+        assertEquals(ReportStatus.APPLIED, blockReportService.applyDelta(nodeUrl, 1, 2, List.of("block4"), List.of(),
+                BlockReportDigest.of(List.of("block2", "block3", "block4"))).getStatus());
+        assertEquals(BlockReportDigest.of(List.of("block2", "block3", "block4")), blockStore.getBlockDigest(nodeUrl));
+
+        fileTreeManager.deleteByPath("/data/dir/file.txt");
+        assertNull(fileTreeManager.getFileByHash(hash));
+    }
+}
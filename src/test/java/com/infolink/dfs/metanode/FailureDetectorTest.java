@@ -0,0 +1,79 @@
+package com.infolink.dfs.metanode;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+public class FailureDetectorTest {
+
+    private final AtomicLong now = new AtomicLong(1_000_000);
+
+    @Test
+    public void testSilentNodeBecomesSuspectThenDead() {
+        FailureDetector detector = FailureDetector.phiAccrual(8, 10000, 5000, 500, 10000, now::get);
+        for (int i = 0; i < 10; i++) {
+            detector.heartbeat("node1");
+            detector.heartbeat("node2");
+            now.addAndGet(10000);
+        }
+
+        // One interval late is well within the acceptable pause
+        now.addAndGet(2000);
+        assertTrue(detector.expire().isEmpty());
+        assertTrue(detector.phi("node1") < 8);
+
+        // node2 keeps reporting, node1 goes silent
+        detector.heartbeat("node2");
+        now.addAndGet(10000);
+        assertEquals(Map.of("node1", FailureDetector.State.SUSPECT), detector.expire());
+        assertEquals(FailureDetector.State.SUSPECT, detector.stateOf("node1"));
+        assertTrue(detector.phi("node1") >= 8);
+
+        detector.heartbeat("node2");
+        now.addAndGet(10000);
+        assertEquals(Map.of("node1", FailureDetector.State.DEAD), detector.expire());
+        assertNull(detector.stateOf("node1"));
+        assertEquals(FailureDetector.State.ALIVE, detector.stateOf("node2"));
+    }
+
+    @Test
+    public void testHeartbeatClearsSuspicion() {
+        FailureDetector detector = FailureDetector.fixedTimeout(20000, 10000, now::get);
+        assertNull(detector.heartbeat("node1"));
+
+        now.addAndGet(20000);
+        assertEquals(Map.of("node1", FailureDetector.State.SUSPECT), detector.expire());
+
+        now.addAndGet(5000);
+        assertEquals(FailureDetector.State.SUSPECT, detector.heartbeat("node1"));
+
+        // The deadlines from before the heartbeat are skipped
+        now.addAndGet(15000);
+        assertTrue(detector.expire().isEmpty());
+        assertEquals(FailureDetector.State.ALIVE, detector.stateOf("node1"));
+    }
+
+    @Test
+    public void testIrregularNodeIsGivenMoreTime() {
+        FailureDetector regular = FailureDetector.phiAccrual(8, 10000, 0, 100, 10000, now::get);
+        AtomicLong irregularNow = new AtomicLong(now.get());
+        FailureDetector irregular = FailureDetector.phiAccrual(8, 10000, 0, 100, 10000, irregularNow::get);
+        for (int i = 0; i < 20; i++) {
+            regular.heartbeat("node1");
+            now.addAndGet(10000);
+            irregular.heartbeat("node1");
+            irregularNow.addAndGet(i % 2 == 0 ? 4000 : 16000);
+        }
+        regular.heartbeat("node1");
+        irregular.heartbeat("node1");
+
+        // Same average interval, but only the regular node is overdue after 18 s
+        now.addAndGet(18000);
+        irregularNow.addAndGet(18000);
+        assertTrue(regular.phi("node1") >= 8);
+        assertTrue(irregular.phi("node1") < 8);
+    }
+}
@@ -207,6 +207,30 @@ public class FileTreeControllerTest {
         // Verify the response status and that the list contains the files we saved
     }
 
+    @Test
+    public void testListFilesPage() {
+        String directory = "/test-directory";
+        for (int i = 1; i <= 5; i++) {
+            DfsFile file = new DfsFile("hash" + i, "testOwner", "example" + i + ".txt", directory + "/example" + i + ".txt", 512, false, null, List.of());
+            saveTestFile(file, directory);
+        }
+
+        FileTreeController.RequestListPage request = new FileTreeController.RequestListPage();
+        request.setDirectory(directory);
+        request.setLimit(3);
+
+        ResponseEntity<DirectoryPage> response = restTemplate.postForEntity(baseUrl + "/metadata/file/list-page", request, DirectoryPage.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getBody().getEntries()).extracting(DfsFile::getName).containsExactly("example1.txt", "example2.txt", "example3.txt");
+        assertThat(response.getBody().getNextCursor()).isNotNull();
+
+        // Continue from the returned cursor
+        request.setCursor(response.getBody().getNextCursor());
+        response = restTemplate.postForEntity(baseUrl + "/metadata/file/list-page", request, DirectoryPage.class);
+        assertThat(response.getBody().getEntries()).extracting(DfsFile::getName).containsExactly("example4.txt", "example5.txt");
+        assertThat(response.getBody().getNextCursor()).isNull();
+    }
+
     @Test
     public void testClearAllData() {
         // First, add a file to ensure there's data to clear
@@ -9,9 +9,13 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.Jackson2JsonRedisSerializer;
 import org.springframework.test.context.ActiveProfiles;
 
+import java.nio.charset.StandardCharsets;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -44,6 +48,15 @@ public class FileTreeManagerTest {
     @Autowired
     private BlockMetaService blockMetaService;
     
+    @Autowired
+    private DirectoryIndexMigrator directoryIndexMigrator;
+    
+    @Autowired
+    private CompactValueMigrator compactValueMigrator;
+    
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    
     
     @BeforeEach
     void setUp() {
@@ -76,6 +89,31 @@ public class FileTreeManagerTest {
         assertEquals(testFileName, retrievedFile.getName());
     }
 
+    @Test
+    void testSaveFileCreatesMissingAncestors() throws NoSuchAlgorithmException {
+        String nestedDirectory = testDirectory + "/subDir1/subDir2";
+        DfsFile testFile = new DfsFile("testHash", testOwner, testFileName, nestedDirectory + "/" + testFileName, 0L, false, null, List.of());
+        fileTreeManager.saveFile(testFile, nestedDirectory);
+
+        // Every ancestor directory is created by the same save
+        assertNotNull(redisTemplate.opsForValue().get(FileTreeManager.DIR_PREFIX + "/"));
+        assertNotNull(redisTemplate.opsForValue().get(FileTreeManager.DIR_PREFIX + testDirectory));
+        assertNotNull(redisTemplate.opsForValue().get(FileTreeManager.DIR_PREFIX + nestedDirectory));
+        assertNotNull(fileTreeManager.getFileByHash("testHash"));
+        assertEquals(1, fileTreeManager.listFilesInDirectory(nestedDirectory).size());
+        assertEquals(1, fileTreeManager.listFilesInDirectory(testDirectory + "/subDir1").size());
+    }
+
+    @Test
+    void testSaveFileRejectsDuplicateName() throws NoSuchAlgorithmException {
+        DfsFile testFile = new DfsFile("testHash", testOwner, testFileName, testDirectory + "/" + testFileName, 0L, false, null, List.of());
+        fileTreeManager.saveFile(testFile, testDirectory);
+
+        DfsFile duplicate = new DfsFile("otherHash", testOwner, testFileName, testDirectory + "/" + testFileName, 0L, false, null, List.of());
+        assertThrows(IllegalArgumentException.class, () -> fileTreeManager.saveFile(duplicate, testDirectory));
+        assertNull(fileTreeManager.getFileByHash("otherHash"));
+    }
+
     @Test
     void testListFilesInDirectory() throws NoSuchAlgorithmException {
         DfsFile file1 = new DfsFile("hash1", testOwner, "file1.txt", testDirectory + "/file1.txt", 0L, false, null, List.of());
@@ -89,6 +127,70 @@ public class FileTreeManagerTest {
         assertEquals(2, files.size());
     }
 
+    @Test
+    void testListDirectoryPage() throws NoSuchAlgorithmException {
+        for (String name : List.of("c.txt", "a.txt", "e.txt", "b.txt", "d.txt")) {
+            DfsFile file = new DfsFile("hash-" + name, testOwner, name, testDirectory + "/" + name, 0L, false, null, List.of());
+            fileTreeManager.saveFile(file, testDirectory);
+        }
+        fileTreeManager.createDirectoriesRecursively(testDirectory + "/zDir", testOwner);
+        fileTreeManager.createDirectoriesRecursively(testDirectory + "/yDir", testOwner);
+
+        // Walk the directory three entries at a time
+        List<String> names = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            DirectoryPage page = fileTreeManager.listDirectoryPage(testDirectory, cursor, 3);
+            assertTrue(page.getEntries().size() <= 3);
+            page.getEntries().forEach(entry -> names.add(entry.getName()));
+            cursor = page.getNextCursor();
+            pages++;
+        } while (cursor != null);
+
+        // Directories first, then files, each sorted by name
+        assertEquals(List.of("yDir", "zDir", "a.txt", "b.txt", "c.txt", "d.txt", "e.txt"), names);
+        assertEquals(3, pages);
+        // A last page that is exactly full has no next page either
+        assertNull(fileTreeManager.listDirectoryPage(testDirectory, null, 7).getNextCursor());
+        assertNotNull(fileTreeManager.listDirectoryPage(testDirectory, null, 6).getNextCursor());
+        assertEquals(names, fileTreeManager.listFilesInDirectory(testDirectory).stream().map(DfsFile::getName).toList());
+    }
+
+    @Test
+    void testMigrateLegacyDirectorySets() throws NoSuchAlgorithmException {
+        fileTreeManager.createDirectoriesRecursively(testDirectory, testOwner);
+
+        // Directory contents written in the old format: sets of whole DfsFile objects
+        DfsFile legacyFile = new DfsFile("legacyHash", testOwner, "legacy.txt", testDirectory + "/legacy.txt", 0L, false, null, List.of());
+        DfsFile legacyDir = new DfsFile("legacyDirHash", testOwner, "legacyDir", testDirectory + "/legacyDir", 0L, true, null, List.of());
+        redisTemplate.opsForValue().set(FileTreeManager.FILE_PREFIX + testDirectory + "/legacy.txt", legacyFile);
+        redisTemplate.opsForValue().set(FileTreeManager.DIR_PREFIX + testDirectory + "/legacyDir", legacyDir);
+        redisTemplate.opsForSet().add(FileTreeManager.DIR_PREFIX + testDirectory + ":files", legacyFile);
+        redisTemplate.opsForSet().add(FileTreeManager.DIR_PREFIX + testDirectory + ":dir", legacyDir);
+
+        assertEquals(2, directoryIndexMigrator.migrate());
+
+        assertEquals(List.of("legacyDir", "legacy.txt"),
+                fileTreeManager.listFilesInDirectory(testDirectory).stream().map(DfsFile::getName).toList());
+        assertFalse(redisTemplate.hasKey(FileTreeManager.DIR_PREFIX + testDirectory + ":files"));
+        assertFalse(redisTemplate.hasKey(FileTreeManager.DIR_PREFIX + testDirectory + ":dir"));
+    }
+
+    @Test
+    void testDeleteRemovesDirectoryEntry() throws NoSuchAlgorithmException {
+        DfsFile file1 = new DfsFile("hash1", testOwner, "file1.txt", testDirectory + "/file1.txt", 0L, false, null, List.of());
+        DfsFile file2 = new DfsFile("hash2", testOwner, "file2.txt", testDirectory + "/file2.txt", 0L, false, null, List.of());
+        fileTreeManager.saveFile(file1, testDirectory);
+        fileTreeManager.saveFile(file2, testDirectory);
+
+        fileTreeManager.deleteByPath(testDirectory + "/file1.txt");
+
+        List<DfsFile> files = fileTreeManager.listFilesInDirectory(testDirectory);
+        assertEquals(1, files.size());
+        assertEquals("file2.txt", files.get(0).getName());
+    }
+
     @Test
     void testCreateDirectoriesRecursively() throws NoSuchAlgorithmException {
         String nestedDirectory = testDirectory + "/subDir1/subDir2";
@@ -178,5 +280,48 @@ public class FileTreeManagerTest {
         }
     }
 
+    @Test
+    void testGetBlockNodesListByRange() throws Exception {
+        blockHashes = Arrays.asList("rangeBlock1", "rangeBlock2", "rangeBlock3", "rangeBlock4");
+        testDfsFile = new DfsFile(fileHash, "testOwner", "testFile.txt", "/testDir/testFile.txt", 0L, false, null, blockHashes);
+        redisTemplate.opsForValue().set(FileTreeManager.HASH_PREFIX + fileHash, testDfsFile);
+        for (String blockHash : blockHashes) {
+            blockMetaService.registerBlockLocation(blockHash, "http://node1.com");
+        }
+
+        long blockSize = 4194304L;
+        // The last byte of block 1 through the first byte of block 3
+        List<BlockNode> blockNodes = fileTreeManager.getBlockNodesListByHash(fileHash, blockSize - 1, blockSize + 2);
+        assertEquals(3, blockNodes.size());
+        assertEquals("rangeBlock1", blockNodes.get(0).getHash());
+        assertEquals("rangeBlock3", blockNodes.get(2).getHash());
+
+        // A range running past the end is cut at the last block
+        blockNodes = fileTreeManager.getBlockNodesListByHash(fileHash, 3 * blockSize, 10 * blockSize);
+        assertEquals(1, blockNodes.size());
+        assertEquals("rangeBlock4", blockNodes.get(0).getHash());
+
+        assertTrue(fileTreeManager.getBlockNodesListByHash(fileHash, 4 * blockSize, 1).isEmpty());
+    }
+
+    @Test
+    void testValueFormatMigration() throws NoSuchAlgorithmException {
+        DfsFile testFile = new DfsFile("testHash", testOwner, testFileName, testDirectory + "/" + testFileName, 0L, false, null, List.of("block1"));
+        fileTreeManager.saveFile(testFile, testDirectory);
 
+        // Rewrite the file as JSON, the way versions before the compact format stored it
+        String fileKey = FileTreeManager.FILE_PREFIX + testDirectory + "/" + testFileName;
+        byte[] json = new Jackson2JsonRedisSerializer<>(DfsFile.class).serialize(redisTemplate.opsForValue().get(fileKey));
+        stringRedisTemplate.opsForValue().set(fileKey, new String(json, StandardCharsets.UTF_8));
+        assertEquals(testFileName, redisTemplate.opsForValue().get(fileKey).getName());
+
+        assertTrue(compactValueMigrator.migrate() >= 1);
+        byte[] stored = stringRedisTemplate.execute((RedisCallback<byte[]>) connection ->
+                connection.stringCommands().get(fileKey.getBytes(StandardCharsets.UTF_8)));
+        assertTrue(CompactRedisSerializer.isCompact(stored));
+        assertEquals(List.of("block1"), redisTemplate.opsForValue().get(fileKey).getBlockHashes());
+
+        // Nothing is left to convert
+        assertEquals(0, compactValueMigrator.migrate());
+    }
 }
@@ -9,6 +9,7 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
 
 import java.security.NoSuchAlgorithmException;
 import java.util.List;
@@ -23,6 +24,9 @@ public class FileTreeManagerTest2 {
     @Autowired
     private RedisTemplate<String, DfsFile> redisFileRepo;
 
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
     private final String owner = "testOwner";
 
     @BeforeEach
@@ -70,10 +74,10 @@ public class FileTreeManagerTest2 {
         DfsFile parentDir = redisFileRepo.opsForValue().get(dirKey);
         
         assertNotNull(parentDir, "Expected directory not found in Redis: " + parentPath);
-        Set<DfsFile> subdirectories = redisFileRepo.opsForSet().members(dirKey + ":dir");
+        Set<String> subdirectories = stringRedisTemplate.opsForZSet().range(dirKey + FileTreeManager.INDEX_SUFFIX, 0, -1);
 
         for (String expectedSubdir : expectedSubdirs) {
-            boolean found = subdirectories.stream().anyMatch(dfsFile -> dfsFile.getName().equals(expectedSubdir));
+            boolean found = subdirectories.contains(FileTreeManager.INDEX_DIR_MEMBER + expectedSubdir);
             assertTrue(found, "Expected subdirectory not found: " + expectedSubdir + " under " + parentPath);
         }
     }
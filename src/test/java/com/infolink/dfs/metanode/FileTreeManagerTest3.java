@@ -9,6 +9,7 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
 
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
@@ -25,6 +26,9 @@ public class FileTreeManagerTest3 {
     @Autowired
     private RedisTemplate<String, DfsFile> redisFileRepo;
 
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
     private final String owner = "testOwner";
 
     @BeforeEach
@@ -89,29 +93,27 @@ public class FileTreeManagerTest3 {
         assertEquals(expectedNames, actualNames, "Directory contents do not match expected order and names");
     }
 
-    // Helper method to validate file presence in Redis for a specific directory
+    // Helper method to validate file presence in the directory index
     private void validateFilesInDirectory(String directoryPath, String... expectedFileNames) {
-        String dirKey = FileTreeManager.DIR_PREFIX + directoryPath + ":files";
-        Set<DfsFile> files = redisFileRepo.opsForSet().members(dirKey);
+        String indexKey = FileTreeManager.DIR_PREFIX + directoryPath + FileTreeManager.INDEX_SUFFIX;
+        Set<String> members = stringRedisTemplate.opsForZSet().range(indexKey, 0, -1);
         
-        assertNotNull(files, "Expected files set not found in Redis for directory: " + directoryPath);
+        assertNotNull(members, "Expected directory index not found in Redis for directory: " + directoryPath);
         
-        List<String> fileNames = files.stream().map(DfsFile::getName).collect(Collectors.toList());
         for (String expectedFileName : expectedFileNames) {
-            assertTrue(fileNames.contains(expectedFileName), "Expected file not found: " + expectedFileName);
+            assertTrue(members.contains(FileTreeManager.INDEX_FILE_MEMBER + expectedFileName), "Expected file not found: " + expectedFileName);
         }
     }
 
-    // Helper method to validate subdirectory presence in Redis for a specific directory
+    // Helper method to validate subdirectory presence in the directory index
     private void validateSubdirectoriesInDirectory(String directoryPath, String... expectedSubdirs) {
-        String dirKey = FileTreeManager.DIR_PREFIX + directoryPath;
-        Set<DfsFile> subdirectories = redisFileRepo.opsForSet().members(dirKey + ":dir");
+        String indexKey = FileTreeManager.DIR_PREFIX + directoryPath + FileTreeManager.INDEX_SUFFIX;
+        Set<String> members = stringRedisTemplate.opsForZSet().range(indexKey, 0, -1);
 
-        assertNotNull(subdirectories, "Expected subdirectories set not found in Redis for directory: " + directoryPath);
+        assertNotNull(members, "Expected directory index not found in Redis for directory: " + directoryPath);
         
-        List<String> subdirNames = subdirectories.stream().map(DfsFile::getName).collect(Collectors.toList());
         for (String expectedSubdir : expectedSubdirs) {
-            assertTrue(subdirNames.contains(expectedSubdir), "Expected subdirectory not found: " + expectedSubdir);
+            assertTrue(members.contains(FileTreeManager.INDEX_DIR_MEMBER + expectedSubdir), "Expected subdirectory not found: " + expectedSubdir);
         }
     }
     
@@ -0,0 +1,99 @@
+package com.infolink.dfs.metanode;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class MetadataSnapshotTest {
+
+    @TempDir
+    Path dir;
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(byte[] value) {
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testSectionsAndLookups() throws IOException {
+        Path file = dir.resolve("snapshot.dat");
+        try (MetadataSnapshot.Writer writer = new MetadataSnapshot.Writer(file, 7)) {
+            writer.beginSection(MetadataSnapshot.SECTION_ENTRIES);
+            writer.add(bytes("/a\0f:1"), bytes("one"));
+            writer.add(bytes("/a\0f:2"), bytes("two"));
+            writer.add(bytes("/b\0f:3"), new byte[0]);
+            writer.endSection();
+            writer.beginSection(MetadataSnapshot.SECTION_NODES);
+            writer.add(bytes("http://node1.com"), new byte[0]);
+            writer.endSection();
+            writer.finish();
+        }
+
+        MetadataSnapshot snapshot = MetadataSnapshot.open(file);
+        assertEquals(7, snapshot.sequence());
+        MetadataSnapshot.Section entries = snapshot.section(MetadataSnapshot.SECTION_ENTRIES);
+        assertEquals(3, entries.count());
+        assertEquals("two", string(entries.get(bytes("/a\0f:2"))));
+        assertEquals(0, entries.get(bytes("/b\0f:3")).length);
+        assertNull(entries.get(bytes("/a\0f:9")));
+        assertEquals(-1, entries.find(bytes("/a")));
+        assertEquals(0, entries.ceiling(bytes("/a")));
+        assertEquals(2, entries.ceiling(bytes("/a\0f:3")));
+        assertEquals(3, entries.ceiling(bytes("/c")));
+        assertEquals("/a\0f:1", string(entries.key(0)));
+        assertEquals("one", string(entries.value(0)));
+
+        assertEquals("http://node1.com", string(snapshot.section(MetadataSnapshot.SECTION_NODES).key(0)));
+        // Sections that were not written are empty
+        assertEquals(0, snapshot.section(MetadataSnapshot.SECTION_BLOCKS).count());
+        assertNull(snapshot.section(MetadataSnapshot.SECTION_BLOCKS).get(bytes("x")));
+    }
+
+    @Test
+    public void testRecordsAcrossMappings() throws IOException {
+        Path file = dir.resolve("snapshot.dat");
+        int count = 500;
+        try (MetadataSnapshot.Writer writer = new MetadataSnapshot.Writer(file, 1)) {
+            writer.beginSection(MetadataSnapshot.SECTION_BLOCKS);
+            for (int i = 0; i < count; i++) {
+                writer.add(bytes(String.format("block%05d", i)), bytes("value of block " + i));
+            }
+            writer.endSection();
+            writer.finish();
+        }
+
+        // Mappings of 100 bytes, so that most records and index entries straddle two of them
+        MetadataSnapshot snapshot = MetadataSnapshot.open(file, 100);
+        MetadataSnapshot.Section blocks = snapshot.section(MetadataSnapshot.SECTION_BLOCKS);
+        assertEquals(count, blocks.count());
+        for (int i = 0; i < count; i++) {
+            assertEquals("value of block " + i, string(blocks.get(bytes(String.format("block%05d", i)))));
+        }
+    }
+
+    @Test
+    public void testKeysMustIncrease() throws IOException {
+        try (MetadataSnapshot.Writer writer = new MetadataSnapshot.Writer(dir.resolve("snapshot.dat"), 1)) {
+            writer.beginSection(MetadataSnapshot.SECTION_FIELDS);
+            writer.add(bytes("b"), new byte[0]);
+            assertThrows(IllegalArgumentException.class, () -> writer.add(bytes("a"), new byte[0]));
+            assertThrows(IllegalArgumentException.class, () -> writer.add(bytes("b"), new byte[0]));
+        }
+    }
+
+    @Test
+    public void testNotASnapshot() throws IOException {
+        Path file = dir.resolve("checkpoint.dat");
+        Files.write(file, new byte[200]);
+        assertThrows(IOException.class, () -> MetadataSnapshot.open(file));
+    }
+}
@@ -0,0 +1,130 @@
+package com.infolink.dfs.metanode;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import com.infolink.dfs.shared.DfsFile;
+import com.infolink.dfs.shared.HashUtil;
+
+@SpringBootTest
+@ActiveProfiles("test")
+public class MutationBatcherTest {
+
+    @Autowired
+    private FileTreeManager fileTreeManager;
+    @Autowired
+    private BlockMetaService blockMetaService;
+    @Autowired
+    private MutationBatcher batcher;
+    @Autowired
+    private RedisShards shards;
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    private final String owner = "testOwner";
+
+    @BeforeEach
+    public void setUp() {
+        fileTreeManager.clearAllData();
+        blockMetaService.clearAllBlockNodes();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        fileTreeManager.clearAllData();
+        blockMetaService.clearAllBlockNodes();
+    }
+
+    @Test
+    public void testConcurrentWritesShareBatches() throws Exception {
+        int threads = 16;
+        int filesPerThread = 20;
+        MutationBatcher.BatchStats before = batcher.getStats();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> uploads = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                uploads.add(executor.submit(() -> {
+                    for (int i = 0; i < filesPerThread; i++) {
+                        String hash = HashUtil.calculateHash(("batched" + thread + "-" + i).getBytes());
+                        fileTreeManager.createDirectoriesRecursively("/upload/t" + thread, owner);
+                        fileTreeManager.saveFile(new DfsFile(hash, owner, "file" + i + ".txt", null, 10L, false, null, List.of()), "/upload/t" + thread);
+                        blockMetaService.registerBlockLocation("block" + thread + "-" + i, "http://node1.com");
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> upload : uploads) {
+                upload.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(threads, fileTreeManager.listFilesInDirectory("/upload").size());
+        for (int t = 0; t < threads; t++) {
+            assertEquals(filesPerThread, fileTreeManager.listFilesInDirectory("/upload/t" + t).size());
+            assertEquals(Set.of("http://node1.com"), blockMetaService.getBlockNodeByHash("block" + t + "-0").getNodeUrls());
+        }
+
+        MutationBatcher.BatchStats after = batcher.getStats();
+        long mutations = after.getMutations() - before.getMutations();
+        long batches = after.getBatches() - before.getBatches();
+        assertTrue(mutations >= threads * filesPerThread * 2, "writes did not go through the batcher");
+        assertTrue(batches < mutations, "no writes were batched");
+    }
+
+    @Test
+    public void testFailedWriteOnlyFailsItsCaller() {
+        RedisShards.Shard shard = shards.all().get(0);
+        stringRedisTemplate.opsForValue().set("batch-test:text", "not a number");
+        byte[] textKey = "batch-test:text".getBytes(StandardCharsets.UTF_8);
+        byte[] counterKey = "batch-test:counter".getBytes(StandardCharsets.UTF_8);
+        try {
+            CompletableFuture<Object> good = batcher.submit(shard, null, commands -> commands.incr(counterKey));
+            CompletableFuture<Object> bad = batcher.submit(shard, null, commands -> commands.incr(textKey));
+            CompletableFuture<Object> alsoGood = batcher.submit(shard, null, commands -> commands.incr(counterKey));
+
+            assertThrows(RuntimeException.class, () -> MutationBatcher.await(bad));
+            // The other writes of the pipeline were applied once each, in order
+            assertEquals(1L, MutationBatcher.await(good));
+            assertEquals(2L, MutationBatcher.await(alsoGood));
+        } finally {
+            stringRedisTemplate.delete(List.of("batch-test:text", "batch-test:counter"));
+        }
+    }
+
+    @Test
+    public void testScriptsAreReloadedAfterAFlush() throws Exception {
+        blockMetaService.registerBlockLocation("block1", "http://node1.com");
+        // What a Redis restart does to the script cache
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+            connection.scriptingCommands().scriptFlush();
+            return null;
+        });
+
+        blockMetaService.registerBlockLocation("block2", "http://node1.com");
+        fileTreeManager.saveFile(new DfsFile(HashUtil.calculateHash("reloaded".getBytes()), owner, "file.txt", null, 10L, false, null, List.of()), "/reloaded");
+        assertEquals(Set.of("http://node1.com"), blockMetaService.getBlockNodeByHash("block2").getNodeUrls());
+        assertEquals("file.txt", fileTreeManager.getFileByPath("/reloaded/file.txt").getName());
+    }
+}
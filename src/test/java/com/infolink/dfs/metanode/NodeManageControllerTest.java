@@ -12,6 +12,7 @@ import org.springframework.http.*;
 
 import java.security.NoSuchAlgorithmException;
 import java.util.List;
+import java.util.Set;
 import static org.junit.jupiter.api.Assertions.*;
 
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
@@ -26,6 +27,8 @@ public class NodeManageControllerTest {
     private TestRestTemplate restTemplate;
     @Autowired
     private FileTreeManager fileTreeManager;
+    @Autowired
+    private BlockMetaService blockMetaService;
     
     @BeforeEach
     public void setUp() {
@@ -148,6 +151,51 @@ public class NodeManageControllerTest {
 
     }
         
+    @Test
+    public void testDownloadPlanUsesBlockLocations() throws NoSuchAlgorithmException {
+    	fileTreeManager.clearAllData();
+    	blockMetaService.clearAllBlockNodes();
+
+        DfsNode node1 = new DfsNode("http://localhost:8081", "node1");
+        node1.setRack("rack1");
+        DfsNode node2 = new DfsNode("http://localhost:8082", "node2");
+        node2.setRack("rack2");
+        DfsNode node3 = new DfsNode("http://localhost:8083", "node3");
+        node3.setRack("rack3");
+        DfsNode node4 = new DfsNode("http://localhost:8084", "node4");
+        registerNode(node1);
+        registerNode(node2);
+        registerNode(node3);
+        registerNode(node4);
+
+        DfsFile dfsFile = new DfsFile("planhash", "user", "planFile", "/home/planFile", 0L, false, null, List.of("b1", "b2"));
+        fileTreeManager.saveFile(dfsFile, "/home");
+        blockMetaService.registerBlockLocation("b1", node1.getContainerUrl());
+        blockMetaService.registerBlockLocation("b1", node2.getContainerUrl());
+        blockMetaService.registerBlockLocation("b2", node2.getContainerUrl());
+        blockMetaService.registerBlockLocation("b2", node3.getContainerUrl());
+
+        NodeManageController.RequestDownloadPlan request = new NodeManageController.RequestDownloadPlan();
+        request.setHash("planhash");
+        request.setClientRack("rack3");
+        ResponseEntity<NodeManageController.ResponseDownloadPlan> response = restTemplate.postForEntity(
+        		baseUrl + "/download-plan", request, NodeManageController.ResponseDownloadPlan.class);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertTrue(response.getBody().isComplete());
+        assertEquals(2, response.getBody().getBlocks().size());
+        assertEquals(Set.of("node1", "node2"), Set.copyOf(response.getBody().getBlocks().get(0).getNodeUrls()));
+        // The replica on the client's rack comes first
+        assertEquals(List.of("node3", "node2"), response.getBody().getBlocks().get(1).getNodeUrls());
+
+        // The whole-file URL points at the only node holding every block, never at node4
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        ResponseEntity<String> urlResponse = restTemplate.postForEntity(
+        		baseUrl + "/download-url", new HttpEntity<>("planhash", headers), String.class);
+        assertEquals("node2/dfs/file/downloadByHash?hash=planhash", urlResponse.getBody());
+    }
+
     @Test
     public void testPingSvr() {
         ResponseEntity<String> response = restTemplate.getForEntity(baseUrl + "/pingsvr", String.class);
@@ -9,15 +9,21 @@ import org.springframework.boot.test.context.SpringBootTest;
 import com.infolink.dfs.metanode.BlockMetaController.ResponseNodesForBlock;
 import com.infolink.dfs.shared.DfsNode;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
 public class NodeManagerTest {
 	@Autowired
     private NodeManager nodeManager;
+	@Autowired
+    private NodeMembershipStore membershipStore;
 
     @BeforeEach
     public void setUp() {
@@ -83,6 +89,88 @@ public class NodeManagerTest {
         assertEquals(ResponseNodesForBlock.Status.ALREADY_ENOUGH_COPIES, response.getStatus());
     }
 
+    @Test
+    public void testSelectNodeRoundRobinIsEvenUnderConcurrency() throws InterruptedException {
+        nodeManager.registerNode(createDfsNode("http://node1.com", "http://local1.com"));
+        nodeManager.registerNode(createDfsNode("http://node2.com", "http://local2.com"));
+        nodeManager.registerNode(createDfsNode("http://node3.com", "http://local3.com"));
+
+        Map<String, AtomicInteger> counts = new ConcurrentHashMap<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 3000; i++) {
+                    DfsNode node = nodeManager.selectNodeRoundRobin();
+                    counts.computeIfAbsent(node.getContainerUrl(), k -> new AtomicInteger()).incrementAndGet();
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(3, counts.size());
+        counts.values().forEach(count -> assertEquals(8000, count.get()));
+
+        // Selection keeps working after membership shrinks
+        nodeManager.clearRegisteredNodes();
+        assertNull(nodeManager.selectNodeRoundRobin());
+        nodeManager.registerNode(createDfsNode("http://node4.com", "http://local4.com"));
+        assertEquals("http://node4.com", nodeManager.selectNodeRoundRobin().getContainerUrl());
+    }
+
+    @Test
+    public void testMembershipSurvivesRestartInSafeMode() throws Exception {
+        nodeManager.registerNode(createDfsNode("http://node1.com", "http://local1.com"));
+        nodeManager.registerNode(createDfsNode("http://node2.com", "http://local2.com"));
+        membershipStore.saveDead(createDfsNode("http://node3.com", "http://local3.com"));
+        List<DfsNode> persisted = membershipStore.loadRegistered();
+        List<DfsNode> persistedDead = membershipStore.loadDead();
+
+        // Simulate a restart: the in-memory registry is gone, the persisted membership is not
+        nodeManager.clearRegisteredNodes();
+        for (DfsNode node : persisted) membershipStore.saveRegistered(node);
+        for (DfsNode node : persistedDead) membershipStore.saveDead(node);
+        nodeManager.init();
+
+        assertEquals(2, nodeManager.getRegisteredNodes().size());
+        assertEquals(1, nodeManager.getDeadNodes().size());
+        assertNotNull(nodeManager.selectNodeRoundRobin());
+        assertTrue(nodeManager.isInSafeMode());
+
+        nodeManager.checkNodeHealth();
+        assertEquals(2, nodeManager.getRegisteredNodes().size());
+
+        // Safe mode ends as soon as every recovered node has reported again
+        nodeManager.registerNode(createDfsNode("http://node1.com", "http://local1.com"));
+        assertTrue(nodeManager.isInSafeMode());
+        nodeManager.registerNode(createDfsNode("http://node2.com", "http://local2.com"));
+        assertFalse(nodeManager.isInSafeMode());
+    }
+
+    @Test
+    public void testHeartbeatsDoNotRewriteMembership() throws Exception {
+        DfsNode node = createDfsNode("http://node1.com", "http://local1.com");
+        node.setLastTimeReport(new Date(1000));
+        nodeManager.registerNode(node);
+
+        // A plain heartbeat only changes the in-memory registry
+        DfsNode heartbeat = createDfsNode("http://node1.com", "http://local1.com");
+        heartbeat.setBlockCount(5);
+        nodeManager.registerNode(heartbeat);
+        assertEquals(new Date(1000), membershipStore.loadRegistered().get(0).getLastTimeReport());
+        assertEquals(0, membershipStore.loadRegistered().get(0).getBlockCount());
+
+        // A capacity change is persisted
+        DfsNode resized = createDfsNode("http://node1.com", "http://local1.com");
+        resized.setBlockCount(5);
+        resized.setCapacity(1L << 30);
+        nodeManager.registerNode(resized);
+        assertEquals(1L << 30, membershipStore.loadRegistered().get(0).getCapacity());
+        assertEquals(5, membershipStore.loadRegistered().get(0).getBlockCount());
+    }
+
     //@Test
     public void testCheckNodeHealth() throws InterruptedException {
         DfsNode node = createDfsNode("http://node1.com", "http://local1.com");
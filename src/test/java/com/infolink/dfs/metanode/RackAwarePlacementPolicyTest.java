@@ -0,0 +1,117 @@
+package com.infolink.dfs.metanode;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import com.infolink.dfs.shared.DfsNode;
+
+/**
+ * Simulates block writes over synthetic topologies and checks how the copies are distributed.
+ */
+public class RackAwarePlacementPolicyTest {
+    private static final int REPLICATION_FACTOR = 3;
+
+    private final Map<String, DfsNode> nodes = new HashMap<>();
+
+    private String[] buildTopology(int racks, int nodesPerRack) {
+        for (int r = 0; r < racks; r++) {
+            for (int n = 0; n < nodesPerRack; n++) {
+                DfsNode node = new DfsNode("http://rack" + r + "-node" + n);
+                node.setRack("rack" + r);
+                nodes.put(node.getContainerUrl(), node);
+            }
+        }
+        return nodes.keySet().toArray(new String[0]);
+    }
+
+    /**
+     * Writes blocks from random writers; every chosen node stores its copy before the next write.
+     *
+     * @return the nodes holding each block
+     */
+    private List<List<DfsNode>> simulateWrites(PlacementPolicy policy, String[] urls, int blocks, List<String> writers) {
+        Random random = new Random(42);
+        List<List<DfsNode>> placements = new ArrayList<>();
+        for (int b = 0; b < blocks; b++) {
+            String writer = urls[random.nextInt(urls.length)];
+            writers.add(writer);
+            List<DfsNode> targets = policy.chooseTargets(urls, nodes::get, Set.of(), REPLICATION_FACTOR, writer);
+            targets.forEach(node -> policy.onBlockStored(node.getContainerUrl()));
+            placements.add(targets);
+        }
+        return placements;
+    }
+
+    private Set<String> racksOf(List<DfsNode> targets) {
+        Set<String> racks = new HashSet<>();
+        targets.forEach(node -> racks.add(node.getRack()));
+        return racks;
+    }
+
+    @Test
+    public void testCopiesSpreadOverRacksAndStartOnWriterRack() {
+        String[] urls = buildTopology(4, 5);
+        List<String> writers = new ArrayList<>();
+        List<List<DfsNode>> placements = simulateWrites(new RackAwarePlacementPolicy(), urls, 10000, writers);
+
+        Map<String, Integer> copiesPerNode = new HashMap<>();
+        for (int b = 0; b < placements.size(); b++) {
+            List<DfsNode> targets = placements.get(b);
+            assertEquals(REPLICATION_FACTOR, targets.size());
+            assertEquals(REPLICATION_FACTOR, racksOf(targets).size(), "Copies share a rack: " + targets);
+            assertEquals(nodes.get(writers.get(b)).getRack(), targets.get(0).getRack());
+            targets.forEach(node -> copiesPerNode.merge(node.getContainerUrl(), 1, Integer::sum));
+        }
+
+        // 30000 copies over 20 nodes: every node should be within 25% of the mean
+        assertEquals(20, copiesPerNode.size());
+        double mean = 10000.0 * REPLICATION_FACTOR / 20;
+        copiesPerNode.values().forEach(copies -> assertEquals(mean, copies, mean * 0.25, "Unbalanced: " + copiesPerNode));
+    }
+
+    @Test
+    public void testFewerRacksThanCopies() {
+        String[] urls = buildTopology(2, 3);
+        List<List<DfsNode>> placements = simulateWrites(new RackAwarePlacementPolicy(), urls, 1000, new ArrayList<>());
+
+        for (List<DfsNode> targets : placements) {
+            assertEquals(REPLICATION_FACTOR, targets.size());
+            assertEquals(2, racksOf(targets).size());
+            assertEquals(REPLICATION_FACTOR, new HashSet<>(targets).size());
+        }
+    }
+
+    @Test
+    public void testExistingCopiesCountTowardsTheirRack() {
+        String[] urls = buildTopology(3, 2);
+        // rack0 and rack1 already hold a copy; the missing one must go to rack2
+        Set<String> holders = Set.of("http://rack0-node0", "http://rack1-node0");
+
+        for (int i = 0; i < 100; i++) {
+            List<DfsNode> targets = new RackAwarePlacementPolicy().chooseTargets(urls, nodes::get, holders, 1, "http://rack0-node1");
+            assertEquals("rack2", targets.get(0).getRack());
+        }
+    }
+
+    @Test
+    public void testNodesWithoutRackUseDefaultRack() {
+        DfsNode a = new DfsNode("http://a");
+        DfsNode b = new DfsNode("http://b");
+        nodes.put(a.getContainerUrl(), a);
+        nodes.put(b.getContainerUrl(), b);
+        String[] urls = nodes.keySet().toArray(new String[0]);
+
+        List<DfsNode> targets = new RackAwarePlacementPolicy().chooseTargets(urls, nodes::get, Set.of(), 3, null);
+        assertEquals(2, targets.size());
+        assertEquals(RackAwarePlacementPolicy.DEFAULT_RACK, RackAwarePlacementPolicy.rackOf(targets.get(0)));
+    }
+}
@@ -0,0 +1,130 @@
+package com.infolink.dfs.metanode;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.infolink.dfs.shared.DfsFile;
+import com.infolink.dfs.shared.HashUtil;
+
+// The local Redis is listed as its own replica: reads take the replica connection and,
+// finding no replica, fall back to the primary
+@SpringBootTest(properties = { "dfs.redis.replicas=localhost:6379", "dfs.redis.read-from=replica-preferred" })
+@ActiveProfiles("test")
+public class ReplicaReadTest {
+
+    @Autowired
+    private FileTreeManager fileTreeManager;
+    @Autowired
+    private BlockMetaService blockMetaService;
+    @Autowired
+    private RedisShards shards;
+    @Autowired
+    private ReadConsistencyFilter readConsistencyFilter;
+    @Autowired
+    private FileTreeController fileTreeController;
+    @Autowired
+    private DfsFileCache fileCache;
+
+    @BeforeEach
+    public void setUp() {
+        fileTreeManager.clearAllData();
+        blockMetaService.clearAllBlockNodes();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        ReadConsistency.clear();
+        fileTreeManager.clearAllData();
+        blockMetaService.clearAllBlockNodes();
+    }
+
+    @Test
+    public void testReadsUseReplicasUnlessReadYourWrites() {
+        RedisShards.Shard shard = shards.all().get(0);
+        assertTrue(shard.readsFromReplicas());
+        assertNotSame(shard.getFileTemplate(), shard.getReadFileTemplate());
+        assertNotSame(shard.getStringTemplate(), shard.getReadStringTemplate());
+
+        ReadConsistency.setReadYourWrites(true);
+        assertFalse(shard.readsFromReplicas());
+        assertSame(shard.getFileTemplate(), shard.getReadFileTemplate());
+        assertSame(shard.getBlockNodeTemplate(), shard.getReadBlockNodeTemplate());
+    }
+
+    @Test
+    public void testReplicaReadsAreNotCached() throws Exception {
+        String hash = HashUtil.calculateHash("replica".getBytes());
+        fileTreeManager.saveFile(new DfsFile(hash, "owner", "file.txt", null, 10L, false, null, List.of()), "/docs");
+        blockMetaService.registerBlockLocation("block1", "http://node1.com");
+
+        int cached = fileTreeManager.getCacheStats().getEntries();
+        assertEquals("file.txt", fileTreeManager.getFileByHash(hash).getName());
+        assertEquals(1, fileTreeManager.listFilesInDirectory("/docs").size());
+        assertNotNull(blockMetaService.getBlockNodeByHash("block1"));
+        assertEquals(cached, fileTreeManager.getCacheStats().getEntries());
+
+        ReadConsistency.setReadYourWrites(true);
+        assertNotNull(fileTreeManager.getFileByHash(hash));
+        assertEquals(cached + 1, fileTreeManager.getCacheStats().getEntries());
+    }
+
+    @Test
+    public void testFilterAppliesHeaderToTheRequestOnly() throws Exception {
+        AtomicBoolean seen = new AtomicBoolean();
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/metadata/file");
+        request.addHeader(ReadConsistency.READ_YOUR_WRITES_HEADER, "true");
+
+        readConsistencyFilter.doFilter(request, new MockHttpServletResponse(),
+                (req, res) -> seen.set(ReadConsistency.isReadYourWrites()));
+        assertTrue(seen.get());
+        assertFalse(ReadConsistency.isReadYourWrites());
+
+        readConsistencyFilter.doFilter(new MockHttpServletRequest("GET", "/metadata/file"), new MockHttpServletResponse(),
+                (req, res) -> seen.set(ReadConsistency.isReadYourWrites()));
+        assertFalse(seen.get());
+    }
+
+    @Test
+    public void testStreamedPageKeepsReadYourWrites() throws Exception {
+        String hash = HashUtil.calculateHash("streamed".getBytes());
+        fileTreeManager.saveFile(new DfsFile(hash, "owner", "file.txt", null, 10L, false, null, List.of()), "/docs");
+        fileCache.clear();
+
+        FileTreeController.RequestListPage request = new FileTreeController.RequestListPage();
+        request.setDirectory("/docs");
+        request.setLimit(10);
+        ReadConsistency.setReadYourWrites(true);
+        StreamingResponseBody body = fileTreeController.listFilesPage(request).getBody();
+        ReadConsistency.clear();
+
+        // Written on another thread, as by the async executor; entries read from the primary are cached
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Thread writer = new Thread(() -> {
+            try {
+                body.writeTo(out);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        writer.start();
+        writer.join();
+        assertTrue(out.toString(StandardCharsets.UTF_8).contains("file.txt"));
+        assertEquals(1, fileCache.getStats().getEntries());
+    }
+}
@@ -0,0 +1,88 @@
+package com.infolink.dfs.metanode;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.jsonPath;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.method;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withServerError;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+import java.util.Date;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpMethod;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+
+import com.infolink.dfs.shared.DfsNode;
+
+@SpringBootTest(properties = { "dfs.replication.retry-backoff-ms=10", "dfs.replication.max-attempts=2" })
+@ActiveProfiles("test")
+public class ReplicationExecutorTest {
+
+    @Autowired
+    private ReplicationExecutor replicationExecutor;
+    @Autowired
+    private NodeManager nodeManager;
+    @Autowired
+    private RestTemplate restTemplate;
+
+    private MockRestServiceServer server;
+
+    @BeforeEach
+    public void setUp() {
+        nodeManager.clearRegisteredNodes();
+        nodeManager.registerNode(createDfsNode("http://source.com"));
+        nodeManager.registerNode(createDfsNode("http://target.com"));
+        server = MockRestServiceServer.bindTo(restTemplate).build();
+    }
+
+    @Test
+    public void testFailedCopyIsRetriedThenCompletes() throws InterruptedException {
+        server.expect(requestTo("http://source.com/dfs/block/replicate-to-another-node"))
+                .andExpect(method(HttpMethod.POST))
+                .andExpect(jsonPath("$.blockHash").value("hash1"))
+                .andExpect(jsonPath("$.targetNode.containerUrl").value("http://target.com"))
+                .andRespond(withServerError());
+        server.expect(requestTo("http://source.com/dfs/block/replicate-to-another-node"))
+                .andRespond(withSuccess());
+
+        ReplicationExecutor.ReplicationStats before = replicationExecutor.getStats();
+        replicationExecutor.submit("hash1", Set.of("http://source.com"));
+
+        waitFor(() -> replicationExecutor.getStats().getCompleted() == before.getCompleted() + 1);
+        assertEquals(before.getRetried() + 1, replicationExecutor.getStats().getRetried());
+        server.verify();
+    }
+
+    @Test
+    public void testBlockWithoutLivingSourceFails() throws InterruptedException {
+        ReplicationExecutor.ReplicationStats before = replicationExecutor.getStats();
+        replicationExecutor.submit("hash2", Set.of("http://dead.com"));
+
+        waitFor(() -> replicationExecutor.getStats().getFailed() == before.getFailed() + 1);
+        server.verify();
+    }
+
+    private void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for replication");
+            Thread.sleep(10);
+        }
+    }
+
+    private DfsNode createDfsNode(String containerUrl) {
+        DfsNode node = new DfsNode();
+        node.setContainerUrl(containerUrl);
+        node.setLocalUrl(containerUrl);
+        node.setLastTimeReport(new Date());
+        return node;
+    }
+}
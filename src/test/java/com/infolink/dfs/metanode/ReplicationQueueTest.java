@@ -0,0 +1,45 @@
+package com.infolink.dfs.metanode;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+public class ReplicationQueueTest {
+
+    @Test
+    public void testMostUrgentLevelIsTakenFirst() throws InterruptedException {
+        ReplicationQueue<String> queue = new ReplicationQueue<>(3, 10);
+        queue.put("two-copies-a", 2);
+        queue.put("one-copy", 1);
+        queue.put("two-copies-b", 2);
+        queue.put("no-copy", 0);
+
+        assertEquals(Map.of(0, 1, 1, 1, 2, 2), queue.depthByLevel());
+        assertEquals("no-copy", queue.take());
+        assertEquals("one-copy", queue.take());
+        assertEquals("two-copies-a", queue.take());
+        assertEquals("two-copies-b", queue.take());
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void testLevelsOutOfRangeAreClamped() throws InterruptedException {
+        ReplicationQueue<String> queue = new ReplicationQueue<>(2, 10);
+        queue.put("over-replicated", 5);
+        queue.put("negative", -1);
+
+        assertEquals("negative", queue.take());
+        assertEquals("over-replicated", queue.take());
+    }
+
+    @Test
+    public void testOfferFailsWhenFull() {
+        ReplicationQueue<String> queue = new ReplicationQueue<>(2, 2);
+        assertTrue(queue.offer("a", 1));
+        assertTrue(queue.offer("b", 1));
+        assertFalse(queue.offer("c", 0));
+        assertEquals(2, queue.size());
+    }
+}
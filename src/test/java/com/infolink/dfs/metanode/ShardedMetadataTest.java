@@ -0,0 +1,126 @@
+package com.infolink.dfs.metanode;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.test.context.ActiveProfiles;
+
+import com.infolink.dfs.metanode.BlockMetaController.ResponseIncrementalBlockReport.ReportStatus;
+import com.infolink.dfs.metanode.mdb.BlockNode;
+import com.infolink.dfs.shared.BlockReportDigest;
+import com.infolink.dfs.shared.DfsFile;
+import com.infolink.dfs.shared.HashUtil;
+
+// Three logical databases of the local Redis stand in for three Redis instances
+@SpringBootTest(properties = "dfs.redis.shard.endpoints=localhost:6379/1,localhost:6379/2,localhost:6379/3")
+@ActiveProfiles("test")
+public class ShardedMetadataTest {
+
+    @Autowired
+    private FileTreeManager fileTreeManager;
+    @Autowired
+    private BlockMetaService blockMetaService;
+    @Autowired
+    private BlockReportService blockReportService;
+    @Autowired
+    private BlockStore blockStore;
+    @Autowired
+    private RedisShards shards;
+
+    private final String owner = "testOwner";
+
+    @BeforeEach
+    public void setUp() {
+        fileTreeManager.clearAllData();
+        blockMetaService.clearAllBlockNodes();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        fileTreeManager.clearAllData();
+        blockMetaService.clearAllBlockNodes();
+    }
+
+    @Test
+    public void testNamespaceIsSpreadOverShards() throws Exception {
+        assertEquals(3, shards.all().size());
+        for (int d = 0; d < 10; d++) {
+            for (int f = 0; f < 3; f++) {
+                String hash = HashUtil.calculateHash(("file" + d + "-" + f).getBytes());
+                fileTreeManager.saveFile(new DfsFile(hash, owner, "file" + f + ".txt", null, 10L, false, null, List.of()), "/data/dir" + d);
+            }
+        }
+
+        int usedShards = 0;
+        for (RedisShards.Shard shard : shards.all()) {
+            Set<String> keys = shard.getStringTemplate().keys("*");
+            if (keys != null && !keys.isEmpty()) usedShards++;
+        }
+        assertTrue(usedShards > 1, "all keys on one shard");
+
+        for (int d = 0; d < 10; d++) {
+            List<DfsFile> entries = fileTreeManager.listFilesInDirectory("/data/dir" + d);
+            assertEquals(3, entries.size());
+            DfsFile file = fileTreeManager.getFileByPath("/data/dir" + d + "/file1.txt");
+            assertNotNull(file);
+            assertEquals(file.getName(), fileTreeManager.getFileByHash(file.getHash()).getName());
+        }
+        assertEquals(10, fileTreeManager.listFilesInDirectory("/data").size());
+
+        String existing = HashUtil.calculateHash("file0-0".getBytes());
+        assertThrows(IllegalArgumentException.class, () -> fileTreeManager.saveFile(
+                new DfsFile(existing, owner, "file0.txt", null, 10L, false, null, List.of()), "/data/dir0"));
+
+        fileTreeManager.deleteByPath("/data/dir0/file0.txt");
+        assertNull(fileTreeManager.getFileByHash(existing));
+        assertEquals(2, fileTreeManager.listFilesInDirectory("/data/dir0").size());
+    }
+
+    @Test
+    public void testBlockMapIsSpreadOverShards() {
+        String nodeUrl = "http://node1.com";
+        List<String> hashes = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            hashes.add("block" + i);
+        }
+        blockMetaService.registerBlockLocations(hashes, Collections.nCopies(hashes.size(), nodeUrl));
+        blockMetaService.registerBlockLocation("block0", "http://node2.com");
+
+        List<BlockNode> blockNodes = blockMetaService.getBlockNodesByHashes(hashes);
+        for (int i = 0; i < hashes.size(); i++) {
+            assertEquals(hashes.get(i), blockNodes.get(i).getHash());
+        }
+        assertEquals(Set.of(nodeUrl, "http://node2.com"), blockMetaService.getBlockNodeByHash("block0").getNodeUrls());
+
+        Set<String> onNode = new HashSet<>();
+        try (CloseableIterator<String> blocks = blockMetaService.scanBlocksOnNode(nodeUrl, 10)) {
+            blocks.forEachRemaining(onNode::add);
+        }
+        assertEquals(new HashSet<>(hashes), onNode);
+        // Every shard keeps the digest of its part of the node's blocks
+        assertEquals(BlockReportDigest.of(hashes), blockStore.getBlockDigest(nodeUrl));
+        assertEquals(BlockReportDigest.of(List.of("block0")), blockStore.getBlockDigest("http://node2.com"));
+
+        // A full report that drops the first ten blocks is reconciled on every shard
+        assertEquals(ReportStatus.APPLIED, blockReportService.applyFullReport(nodeUrl, 1, hashes.subList(10, 30)).getStatus());
+        onNode.clear();
+        try (CloseableIterator<String> blocks = blockMetaService.scanBlocksOnNode(nodeUrl, 10)) {
+            blocks.forEachRemaining(onNode::add);
+        }
+        assertEquals(new HashSet<>(hashes.subList(10, 30)), onNode);
+        assertEquals(BlockReportDigest.of(hashes.subList(10, 30)), blockStore.getBlockDigest(nodeUrl));
+        assertEquals(Set.of("http://node2.com"), blockMetaService.getBlockNodeByHash("block0").getNodeUrls());
+        assertNull(blockMetaService.getBlockNodeByHash("block1"));
+    }
+}
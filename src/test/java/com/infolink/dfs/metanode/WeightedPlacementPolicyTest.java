@@ -0,0 +1,115 @@
+package com.infolink.dfs.metanode;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import com.infolink.dfs.shared.DfsNode;
+
+public class WeightedPlacementPolicyTest {
+
+    private final Map<String, DfsNode> nodes = new HashMap<>();
+
+    private String[] register(DfsNode... dfsNodes) {
+        for (DfsNode node : dfsNodes) {
+            nodes.put(node.getContainerUrl(), node);
+        }
+        return nodes.keySet().toArray(new String[0]);
+    }
+
+    private DfsNode createDfsNode(String containerUrl, long blockCount, long blockTotalSize, long capacity) {
+        DfsNode node = new DfsNode(containerUrl);
+        node.setBlockCount(blockCount);
+        node.setBlockTotalSize(blockTotalSize);
+        node.setCapacity(capacity);
+        return node;
+    }
+
+    @Test
+    public void testChoosesDistinctNodesOutsideExcluded() {
+        WeightedPlacementPolicy policy = new WeightedPlacementPolicy();
+        String[] urls = register(createDfsNode("http://a", 0, 0, 0), createDfsNode("http://b", 0, 0, 0),
+                createDfsNode("http://c", 0, 0, 0), createDfsNode("http://d", 0, 0, 0));
+
+        List<DfsNode> chosen = policy.chooseTargets(urls, nodes::get, Set.of("http://a"), 3, null);
+
+        assertEquals(3, chosen.size());
+        Set<String> chosenUrls = new HashSet<>();
+        chosen.forEach(node -> chosenUrls.add(node.getContainerUrl()));
+        assertEquals(Set.of("http://b", "http://c", "http://d"), chosenUrls);
+
+        // Fewer candidates than requested
+        assertEquals(1, policy.chooseTargets(urls, nodes::get, Set.of("http://a", "http://b", "http://c"), 3, null).size());
+    }
+
+    @Test
+    public void testPrefersFreeCapacityOverBlockCount() {
+        WeightedPlacementPolicy policy = new WeightedPlacementPolicy();
+        // "full" holds fewer but much larger blocks and is nearly out of space
+        DfsNode full = createDfsNode("http://full", 10, 950, 1000);
+        DfsNode roomy = createDfsNode("http://roomy", 100, 100, 1000);
+
+        assertTrue(policy.compareLoad(roomy, full) < 0);
+
+        // Nodes without a reported capacity are compared by block count
+        assertTrue(policy.compareLoad(createDfsNode("http://x", 5, 0, 0), createDfsNode("http://y", 7, 0, 0)) < 0);
+    }
+
+    @Test
+    public void testInFlightAssignmentsSpreadConcurrentWriters() {
+        WeightedPlacementPolicy policy = new WeightedPlacementPolicy();
+        String[] urls = register(createDfsNode("http://a", 0, 0, 0), createDfsNode("http://b", 0, 0, 0),
+                createDfsNode("http://c", 0, 0, 0), createDfsNode("http://d", 0, 0, 0));
+
+        // No heartbeat arrives in between; the in-flight counters alone must spread the load
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 400; i++) {
+            DfsNode node = policy.chooseTargets(urls, nodes::get, Set.of(), 1, null).get(0);
+            counts.merge(node.getContainerUrl(), 1, Integer::sum);
+        }
+        assertEquals(4, counts.size());
+        counts.values().forEach(count -> assertTrue(count > 50, "Unbalanced placement: " + counts));
+
+        // Stored blocks no longer count as in flight
+        int before = policy.getInFlight("http://a");
+        policy.onBlockStored("http://a");
+        assertEquals(before - 1, policy.getInFlight("http://a"));
+        policy.onNodeRemoved("http://a");
+        assertEquals(0, policy.getInFlight("http://a"));
+    }
+
+    @Test
+    public void testInFlightAssignmentsExpireAndResetOnHeartbeat() {
+        AtomicLong now = new AtomicLong(1000);
+        WeightedPlacementPolicy policy = new WeightedPlacementPolicy(5000, now::get);
+        String[] urls = register(createDfsNode("http://a", 0, 0, 0));
+
+        // Uploads that were aborted never register their block
+        policy.chooseTargets(urls, nodes::get, Set.of(), 1, null);
+        now.addAndGet(3000);
+        policy.chooseTargets(urls, nodes::get, Set.of(), 1, null);
+        assertEquals(2, policy.getInFlight("http://a"));
+        now.addAndGet(2000);
+        assertEquals(1, policy.getInFlight("http://a"));
+        now.addAndGet(3000);
+        assertEquals(0, policy.getInFlight("http://a"));
+
+        // Registrations nobody assigned do not drive the count below zero
+        policy.onBlockStored("http://a");
+        policy.chooseTargets(urls, nodes::get, Set.of(), 1, null);
+        assertEquals(1, policy.getInFlight("http://a"));
+
+        // A heartbeat without new blocks keeps the assignments, one with a new block count drops them
+        policy.onNodeReported(createDfsNode("http://a", 0, 0, 0), createDfsNode("http://a", 0, 0, 0));
+        assertEquals(1, policy.getInFlight("http://a"));
+        policy.onNodeReported(createDfsNode("http://a", 0, 0, 0), createDfsNode("http://a", 1, 100, 0));
+        assertEquals(0, policy.getInFlight("http://a"));
+    }
+}
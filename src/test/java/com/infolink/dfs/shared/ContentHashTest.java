@@ -0,0 +1,45 @@
+package com.infolink.dfs.shared;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+public class ContentHashTest {
+
+    @Test
+    public void testHexRoundTrip() throws Exception {
+        String hex = HashUtil.calculateHash("block".getBytes());
+        assertEquals(ContentHash.HEX_LENGTH, hex.length());
+        assertTrue(ContentHash.isHex(hex));
+
+        ContentHash hash = ContentHash.fromHex(hex);
+        assertEquals(hex, hash.toHex());
+        assertEquals(hash, HashUtil.calculateContentHash("block".getBytes()));
+        assertEquals(hash, ContentHash.of(hash.toBytes()));
+        assertEquals(hash.hashCode(), ContentHash.of(hash.toBytes()).hashCode());
+
+        byte[] buffer = new byte[40];
+        hash.writeTo(buffer, 8);
+        assertEquals(hash, ContentHash.of(buffer, 8));
+    }
+
+    @Test
+    public void testOrderingFollowsHex() {
+        ContentHash low = ContentHash.fromHex("00".repeat(31) + "ff");
+        ContentHash high = ContentHash.fromHex("80" + "00".repeat(31));
+        assertTrue(low.compareTo(high) < 0);
+        assertTrue(high.compareTo(low) > 0);
+        assertEquals(0, low.compareTo(ContentHash.fromHex(low.toHex())));
+        assertNotEquals(low, high);
+    }
+
+    @Test
+    public void testInvalidInput() {
+        assertFalse(ContentHash.isHex("blockHash1"));
+        assertFalse(ContentHash.isHex(null));
+        assertFalse(ContentHash.isHex("AB".repeat(32)));
+        assertThrows(IllegalArgumentException.class, () -> ContentHash.fromHex("zz".repeat(32)));
+        assertThrows(IllegalArgumentException.class, () -> ContentHash.of(new byte[31]));
+        assertThrows(IllegalArgumentException.class, () -> ContentHash.of(new byte[40], 9));
+    }
+}